@@ -0,0 +1,12 @@
+package com.github.wvengen.maven.proguard;
+
+public class AdaptiveOptimization {
+	/** optimization passes of a calibration run */
+	protected int maxPasses = 5;
+
+	/** a pass is worth it while its optimizations are at least this percentage of the first pass's */
+	protected double minGainPercent = 5;
+
+	/** calibrate again after this many builds with the learned pass count, 0 for never */
+	protected int recalibrateEvery = 20;
+}
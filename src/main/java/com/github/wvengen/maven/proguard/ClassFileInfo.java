@@ -0,0 +1,335 @@
+package com.github.wvengen.maven.proguard;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Minimal class file reader. Reads the constant pool, the class header (names, super class and interfaces) and the
+ * field and method declarations, and optionally collects every class the class file refers to. Names are kept in internal form, e.g.
+ * <code>java/lang/Object</code>.
+ */
+public class ClassFileInfo {
+
+	private static final int MAGIC = 0xCAFEBABE;
+
+	static final int ACC_PRIVATE = 0x0002;
+
+	private static final int CONSTANT_UTF8 = 1;
+	private static final int CONSTANT_INTEGER = 3;
+	private static final int CONSTANT_FLOAT = 4;
+	private static final int CONSTANT_LONG = 5;
+	private static final int CONSTANT_DOUBLE = 6;
+	private static final int CONSTANT_CLASS = 7;
+	private static final int CONSTANT_STRING = 8;
+	private static final int CONSTANT_FIELDREF = 9;
+	private static final int CONSTANT_METHODREF = 10;
+	private static final int CONSTANT_INTERFACE_METHODREF = 11;
+	private static final int CONSTANT_NAME_AND_TYPE = 12;
+	private static final int CONSTANT_METHOD_HANDLE = 15;
+	private static final int CONSTANT_METHOD_TYPE = 16;
+	private static final int CONSTANT_DYNAMIC = 17;
+	private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+	private static final int CONSTANT_MODULE = 19;
+	private static final int CONSTANT_PACKAGE = 20;
+
+	private int access;
+
+	private String name;
+
+	private String superName;
+
+	private List<String> interfaces = new ArrayList<String>();
+
+	private List<Member> fields = new ArrayList<Member>();
+
+	private List<Member> methods = new ArrayList<Member>();
+
+	private Set<String> referencedClasses;
+
+	private Set<String> mentionedClasses;
+
+	/**
+	 * A field or method.
+	 */
+	public static class Member {
+
+		private int access;
+
+		private String name;
+
+		private String descriptor;
+
+		Member(int access, String name, String descriptor) {
+			this.access = access;
+			this.name = name;
+			this.descriptor = descriptor;
+		}
+
+		public int getAccess() {
+			return access;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public String getDescriptor() {
+			return descriptor;
+		}
+	}
+
+	private ClassFileInfo() {
+	}
+
+	/**
+	 * Reads a class file.
+	 *
+	 * @param in
+	 *            the class file, it is not closed
+	 * @param collectReferences
+	 *            whether to collect the classes referenced from the constant pool and from member descriptors
+	 */
+	public static ClassFileInfo read(InputStream in, boolean collectReferences) throws IOException {
+		DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+		if (data.readInt() != MAGIC) {
+			throw new IOException("Not a class file");
+		}
+		// minor and major version
+		data.readUnsignedShort();
+		data.readUnsignedShort();
+
+		int count = data.readUnsignedShort();
+		String[] utf8 = new String[count];
+		int[] classIndex = new int[count];
+		List<Integer> descriptorIndexes = new ArrayList<Integer>();
+		for (int i = 1; i < count; i++) {
+			int tag = data.readUnsignedByte();
+			switch (tag) {
+			case CONSTANT_UTF8:
+				utf8[i] = data.readUTF();
+				break;
+			case CONSTANT_CLASS:
+				classIndex[i] = data.readUnsignedShort();
+				break;
+			case CONSTANT_NAME_AND_TYPE:
+				data.readUnsignedShort();
+				descriptorIndexes.add(Integer.valueOf(data.readUnsignedShort()));
+				break;
+			case CONSTANT_METHOD_TYPE:
+				descriptorIndexes.add(Integer.valueOf(data.readUnsignedShort()));
+				break;
+			case CONSTANT_STRING:
+			case CONSTANT_MODULE:
+			case CONSTANT_PACKAGE:
+				data.readUnsignedShort();
+				break;
+			case CONSTANT_INTEGER:
+			case CONSTANT_FLOAT:
+			case CONSTANT_FIELDREF:
+			case CONSTANT_METHODREF:
+			case CONSTANT_INTERFACE_METHODREF:
+			case CONSTANT_DYNAMIC:
+			case CONSTANT_INVOKE_DYNAMIC:
+				data.readInt();
+				break;
+			case CONSTANT_LONG:
+			case CONSTANT_DOUBLE:
+				data.readLong();
+				// eight byte constants take two entries
+				i++;
+				break;
+			case CONSTANT_METHOD_HANDLE:
+				data.readUnsignedByte();
+				data.readUnsignedShort();
+				break;
+			default:
+				throw new IOException("Unknown constant pool tag " + tag);
+			}
+		}
+
+		ClassFileInfo info = new ClassFileInfo();
+		info.access = data.readUnsignedShort();
+		info.name = utf8[classIndex[data.readUnsignedShort()]];
+		int superIndex = data.readUnsignedShort();
+		info.superName = superIndex == 0 ? null : utf8[classIndex[superIndex]];
+		int interfaceCount = data.readUnsignedShort();
+		for (int i = 0; i < interfaceCount; i++) {
+			info.interfaces.add(utf8[classIndex[data.readUnsignedShort()]]);
+		}
+
+		readMembers(data, utf8, info.fields);
+		readMembers(data, utf8, info.methods);
+
+		if (collectReferences) {
+			Set<String> references = new HashSet<String>();
+			for (int i = 1; i < count; i++) {
+				if (classIndex[i] != 0) {
+					addClassName(utf8[classIndex[i]], references);
+				}
+			}
+			for (Integer index : descriptorIndexes) {
+				addDescriptorClasses(utf8[index.intValue()], references);
+			}
+			for (Member member : info.fields) {
+				addDescriptorClasses(member.descriptor, references);
+			}
+			for (Member member : info.methods) {
+				addDescriptorClasses(member.descriptor, references);
+			}
+			references.remove(info.name);
+			info.referencedClasses = references;
+
+			Set<String> mentioned = new HashSet<String>(references);
+			for (int i = 1; i < count; i++) {
+				if (utf8[i] != null) {
+					addMentionedClasses(utf8[i], mentioned);
+				}
+			}
+			mentioned.remove(info.name);
+			info.mentionedClasses = mentioned;
+		}
+		return info;
+	}
+
+	private static void readMembers(DataInputStream data, String[] utf8, List<Member> members) throws IOException {
+		int memberCount = data.readUnsignedShort();
+		for (int i = 0; i < memberCount; i++) {
+			int access = data.readUnsignedShort();
+			String name = utf8[data.readUnsignedShort()];
+			members.add(new Member(access, name, utf8[data.readUnsignedShort()]));
+			skipAttributes(data);
+		}
+	}
+
+	private static void skipAttributes(DataInputStream data) throws IOException {
+		int attributeCount = data.readUnsignedShort();
+		for (int i = 0; i < attributeCount; i++) {
+			data.readUnsignedShort();
+			skipFully(data, data.readInt() & 0xFFFFFFFFL);
+		}
+	}
+
+	private static void skipFully(DataInputStream data, long length) throws IOException {
+		while (length > 0) {
+			int skipped = data.skipBytes((int) Math.min(length, Integer.MAX_VALUE));
+			if (skipped <= 0) {
+				throw new IOException("Unexpected end of class file");
+			}
+			length -= skipped;
+		}
+	}
+
+	/**
+	 * Adds a class name as found in a CONSTANT_Class entry, which may also be an array descriptor.
+	 */
+	private static void addClassName(String className, Set<String> references) {
+		if (className.startsWith("[")) {
+			addDescriptorClasses(className, references);
+		} else {
+			references.add(className);
+		}
+	}
+
+	/**
+	 * Adds all classes of a field or method descriptor, e.g. <code>(Ljava/lang/String;I)[Ljava/util/List;</code>.
+	 */
+	static void addDescriptorClasses(String descriptor, Set<String> references) {
+		int start = descriptor.indexOf('L');
+		while (start >= 0) {
+			int end = descriptor.indexOf(';', start);
+			if (end < 0) {
+				return;
+			}
+			references.add(descriptor.substring(start + 1, end));
+			start = descriptor.indexOf('L', end);
+		}
+	}
+
+	/**
+	 * Adds the candidate class names of a string that may be a descriptor or a generic signature, e.g.
+	 * <code>Ljava/util/List&lt;Lcom/example/Item;&gt;;</code>. Any other string may yield names that aren't classes.
+	 */
+	private static void addMentionedClasses(String text, Set<String> references) {
+		int start = text.indexOf('L');
+		while (start >= 0) {
+			int end = start + 1;
+			while (end < text.length() && text.charAt(end) != ';' && text.charAt(end) != '<') {
+				end++;
+			}
+			if (end == text.length()) {
+				return;
+			}
+			if (end > start + 1) {
+				references.add(text.substring(start + 1, end));
+			}
+			start = text.indexOf('L', end);
+		}
+	}
+
+	public int getAccess() {
+		return access;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the super class name, <code>null</code> for <code>java/lang/Object</code> and module descriptors
+	 */
+	public String getSuperName() {
+		return superName;
+	}
+
+	public List<String> getInterfaces() {
+		return interfaces;
+	}
+
+	public List<Member> getFields() {
+		return fields;
+	}
+
+	public List<Member> getMethods() {
+		return methods;
+	}
+
+	/**
+	 * @return the classes in the descriptors of the non private fields and methods
+	 */
+	public Set<String> getSignatureClasses() {
+		Set<String> classes = new HashSet<String>();
+		for (Member member : fields) {
+			if ((member.access & ACC_PRIVATE) == 0) {
+				addDescriptorClasses(member.descriptor, classes);
+			}
+		}
+		for (Member member : methods) {
+			if ((member.access & ACC_PRIVATE) == 0) {
+				addDescriptorClasses(member.descriptor, classes);
+			}
+		}
+		classes.remove(name);
+		return classes;
+	}
+
+	/**
+	 * @return the referenced classes, <code>null</code> if the class file was not read with references
+	 */
+	public Set<String> getReferencedClasses() {
+		return referencedClasses;
+	}
+
+	/**
+	 * @return the referenced classes plus the names in any descriptor or generic signature of the constant pool, which
+	 *         may contain names that aren't classes; <code>null</code> if the class file was not read with references
+	 */
+	public Set<String> getMentionedClasses() {
+		return mentionedClasses;
+	}
+}
@@ -0,0 +1,303 @@
+package com.github.wvengen.maven.proguard;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Walks the class files of class path entries, which are either jars (or other zips) or class directories.
+ */
+public class ClassPathScanner {
+
+	private static final String CLASS_SUFFIX = ".class";
+
+	/**
+	 * Prefix of the class files in a <code>.jmod</code> file.
+	 */
+	private static final String JMOD_CLASSES = "classes/";
+
+	public interface ClassVisitor {
+
+		/**
+		 * @param className
+		 *            the internal class name derived from the entry name
+		 * @param in
+		 *            the class file contents, closed by the scanner
+		 */
+		void visitClass(String className, InputStream in) throws IOException;
+	}
+
+	public interface ClassReader<T> {
+
+		/**
+		 * Called on a thread of the executor passed to {@link ClassPathScanner#submit}.
+		 *
+		 * @param className
+		 *            the internal class name derived from the entry name
+		 * @param in
+		 *            the class file contents, closed by the scanner
+		 * @return the result for the class, <code>null</code> if there is none
+		 */
+		T read(String className, InputStream in) throws IOException;
+	}
+
+	private ClassPathScanner() {
+	}
+
+	/**
+	 * @return the internal class name for a jar entry or relative file name, <code>null</code> if the entry is not a
+	 *         class file that ends up on a class path
+	 */
+	public static String toClassName(String entryName) {
+		if (!entryName.endsWith(CLASS_SUFFIX) || entryName.startsWith("META-INF/")
+				|| entryName.endsWith("module-info.class")) {
+			return null;
+		}
+		return entryName.substring(0, entryName.length() - CLASS_SUFFIX.length());
+	}
+
+	private static boolean isArchive(String fileName) {
+		return fileName.endsWith(".jar") || fileName.endsWith(".zip") || fileName.endsWith(".jmod");
+	}
+
+	/**
+	 * Collects the class names of a class path entry. For jars only the central directory is read. Like ProGuard,
+	 * archives inside directories (e.g. <code>jmods</code>) are read as well.
+	 */
+	public static Set<String> classNames(File entry) throws IOException {
+		Set<String> classNames = new HashSet<String>();
+		if (entry.isDirectory()) {
+			collectClassNames(entry, "", classNames);
+		} else if (entry.isFile()) {
+			collectArchiveClassNames(entry, classNames);
+		}
+		return classNames;
+	}
+
+	private static void collectArchiveClassNames(File archive, Set<String> classNames) throws IOException {
+		boolean jmod = archive.getName().endsWith(".jmod");
+		ZipFile zip = new ZipFile(archive);
+		try {
+			for (Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements();) {
+				String name = entries.nextElement().getName();
+				if (jmod) {
+					if (!name.startsWith(JMOD_CLASSES)) {
+						continue;
+					}
+					name = name.substring(JMOD_CLASSES.length());
+				}
+				String className = toClassName(name);
+				if (className != null) {
+					classNames.add(className);
+				}
+			}
+		} finally {
+			zip.close();
+		}
+	}
+
+	private static void collectClassNames(File dir, String prefix, Set<String> classNames) throws IOException {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File file : files) {
+			String name = prefix + file.getName();
+			if (file.isDirectory()) {
+				collectClassNames(file, name + "/", classNames);
+			} else if (isArchive(file.getName())) {
+				collectArchiveClassNames(file, classNames);
+			} else {
+				String className = toClassName(name);
+				if (className != null) {
+					classNames.add(className);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Lists the class file entries of a jar or the relative class file names of a directory, so that the classes can
+	 * be read in parallel with {@link #visitClasses(File, Collection, ClassVisitor)}.
+	 */
+	public static List<String> classEntries(File entry) throws IOException {
+		List<String> names = new ArrayList<String>();
+		if (entry.isDirectory()) {
+			collectClassEntries(entry, "", names);
+		} else if (entry.isFile()) {
+			ZipFile zip = new ZipFile(entry);
+			try {
+				for (Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements();) {
+					String name = entries.nextElement().getName();
+					if (toClassName(name) != null) {
+						names.add(name);
+					}
+				}
+			} finally {
+				zip.close();
+			}
+		}
+		return names;
+	}
+
+	private static void collectClassEntries(File dir, String prefix, List<String> names) {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File file : files) {
+			String name = prefix + file.getName();
+			if (file.isDirectory()) {
+				collectClassEntries(file, name + "/", names);
+			} else if (toClassName(name) != null) {
+				names.add(name);
+			}
+		}
+	}
+
+	/**
+	 * Visits the given class file entries of a class path entry, as listed by {@link #classEntries(File)}.
+	 */
+	public static void visitClasses(File entry, Collection<String> entryNames, ClassVisitor visitor)
+			throws IOException {
+		if (entry.isDirectory()) {
+			for (String name : entryNames) {
+				InputStream in = new FileInputStream(new File(entry, name));
+				try {
+					visitor.visitClass(toClassName(name), in);
+				} finally {
+					in.close();
+				}
+			}
+		} else {
+			ZipFile zip = new ZipFile(entry);
+			try {
+				for (String name : entryNames) {
+					ZipEntry zipEntry = zip.getEntry(name);
+					InputStream in = zip.getInputStream(zipEntry);
+					try {
+						visitor.visitClass(toClassName(name), in);
+					} finally {
+						in.close();
+					}
+				}
+			} finally {
+				zip.close();
+			}
+		}
+	}
+
+	/**
+	 * Visits every class file of a class path entry.
+	 */
+	public static void visitClasses(File entry, ClassVisitor visitor) throws IOException {
+		if (entry.isDirectory()) {
+			visitDirectory(entry, "", visitor);
+		} else if (entry.isFile()) {
+			ZipFile zip = new ZipFile(entry);
+			try {
+				for (Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements();) {
+					ZipEntry zipEntry = entries.nextElement();
+					String className = toClassName(zipEntry.getName());
+					if (className != null) {
+						InputStream in = zip.getInputStream(zipEntry);
+						try {
+							visitor.visitClass(className, in);
+						} finally {
+							in.close();
+						}
+					}
+				}
+			} finally {
+				zip.close();
+			}
+		}
+	}
+
+	private static void visitDirectory(File dir, String prefix, ClassVisitor visitor) throws IOException {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File file : files) {
+			String name = prefix + file.getName();
+			if (file.isDirectory()) {
+				visitDirectory(file, name + "/", visitor);
+			} else {
+				String className = toClassName(name);
+				if (className != null) {
+					InputStream in = new FileInputStream(file);
+					try {
+						visitor.visitClass(className, in);
+					} finally {
+						in.close();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Splits the class files of a class path entry into one chunk per thread and reads the chunks on the executor.
+	 * The results are collected with {@link #collect(List)}, so that several entries can be submitted before waiting.
+	 */
+	public static <T> List<Future<Map<String, T>>> submit(ExecutorService executor, int threads, final File entry,
+			final ClassReader<T> reader) throws IOException {
+		List<String> classEntries = classEntries(entry);
+		List<Future<Map<String, T>>> futures = new ArrayList<Future<Map<String, T>>>();
+		int chunkSize = Math.max(1, (classEntries.size() + threads - 1) / threads);
+		for (int i = 0; i < classEntries.size(); i += chunkSize) {
+			final List<String> chunk = classEntries.subList(i, Math.min(classEntries.size(), i + chunkSize));
+			futures.add(executor.submit(new Callable<Map<String, T>>() {
+				public Map<String, T> call() throws IOException {
+					final Map<String, T> results = new LinkedHashMap<String, T>();
+					visitClasses(entry, chunk, new ClassVisitor() {
+						public void visitClass(String className, InputStream in) throws IOException {
+							if (!results.containsKey(className)) {
+								T result = reader.read(className, in);
+								if (result != null) {
+									results.put(className, result);
+								}
+							}
+						}
+					});
+					return results;
+				}
+			}));
+		}
+		return futures;
+	}
+
+	/**
+	 * Waits for the chunks submitted with {@link #submit(ExecutorService, int, File, ClassReader)}.
+	 *
+	 * @return the results by class name, in submission order; the first class of a name wins, as on a class path
+	 */
+	public static <T> Map<String, T> collect(List<Future<Map<String, T>>> futures) throws InterruptedException,
+			ExecutionException {
+		Map<String, T> results = new LinkedHashMap<String, T>();
+		for (Future<Map<String, T>> future : futures) {
+			for (Map.Entry<String, T> result : future.get().entrySet()) {
+				if (!results.containsKey(result.getKey())) {
+					results.put(result.getKey(), result.getValue());
+				}
+			}
+		}
+		return results;
+	}
+}
@@ -0,0 +1,39 @@
+package com.github.wvengen.maven.proguard;
+
+import java.io.File;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+
+/**
+ * <p>
+ * Compacts the mapping file shared by the modules of a build for uniqueMapping: keeps the last mapping of every
+ * class, sorts them and verifies that no obfuscated name is used twice
+ * </p>
+ *
+ * @goal compact-mapping
+ * @description Compact the uniqueMapping mapping file
+ * @threadSafe
+ */
+public class CompactMappingMojo extends AbstractMojo
+{
+
+   /**
+    * The mapping file to compact.
+    *
+    * @parameter property="proguard.mappingFile" default-value="${project.build.directory}/obfuscationMap.map"
+    * @required
+    */
+   private File mappingFile;
+
+   public void execute() throws MojoExecutionException, MojoFailureException
+   {
+      if (!mappingFile.exists())
+      {
+         getLog().info("Mapping file " + mappingFile + " does not exist");
+         return;
+      }
+      new MappingStore(getLog(), mappingFile).compact();
+   }
+}
@@ -0,0 +1,211 @@
+package com.github.wvengen.maven.proguard;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Applies the {@link Diagnostics} policy to the ProGuard reports: selects the print options passed to ProGuard and
+ * afterwards compresses, truncates or drops the report files. The mapping is not a report, it is always written.
+ */
+public class DiagnosticReports {
+
+	public static final String PRESET_FULL = "full";
+
+	public static final String PRESET_CI = "ci";
+
+	/** report name, ProGuard option, file name */
+	private static final String[][] REPORTS = { { "seeds", "-printseeds", "proguard_seeds.txt" },
+			{ "configuration", "-printconfiguration", "proguard_conf.txt" }, { "dump", "-dump", "proguard_dump.txt" },
+			{ "usage", "-printusage", "proguard_usage.txt" } };
+
+	private static final List<String> CI_REPORTS = Arrays.asList("configuration", "seeds");
+
+	private Log log;
+
+	private File directory;
+
+	private boolean keepOnlyOnFailure;
+
+	private boolean compress;
+
+	private long maxReportSize = -1;
+
+	private Map<String, File> reportFiles = new LinkedHashMap<String, File>();
+
+	/**
+	 * @param diagnostics
+	 *            the policy, <code>null</code> for all reports, uncompressed
+	 * @param directory
+	 *            the directory the reports are written to
+	 */
+	public DiagnosticReports(Log log, Diagnostics diagnostics, File directory) throws MojoExecutionException {
+		this.log = log;
+		this.directory = directory;
+		List<String> selected = new ArrayList<String>();
+		for (String[] report : REPORTS) {
+			selected.add(report[0]);
+		}
+		if (diagnostics != null) {
+			String preset = diagnostics.preset == null ? PRESET_FULL : diagnostics.preset;
+			if (PRESET_CI.equals(preset)) {
+				keepOnlyOnFailure = true;
+				selected = CI_REPORTS;
+			} else if (!PRESET_FULL.equals(preset)) {
+				throw new MojoExecutionException("Unknown diagnostics preset " + preset + ", use " + PRESET_FULL
+						+ " or " + PRESET_CI);
+			}
+			if (diagnostics.reports != null) {
+				selected = diagnostics.reports;
+			}
+			compress = diagnostics.compress;
+			if (diagnostics.maxReportSize != null) {
+				maxReportSize = ForkScheduler.parseMemory(diagnostics.maxReportSize);
+			}
+		}
+		for (String name : selected) {
+			String[] report = findReport(name.trim());
+			reportFiles.put(report[1], new File(directory, report[2]).getAbsoluteFile());
+		}
+	}
+
+	private static String[] findReport(String name) throws MojoExecutionException {
+		StringBuilder names = new StringBuilder();
+		for (String[] report : REPORTS) {
+			if (report[0].equals(name)) {
+				return report;
+			}
+			names.append(names.length() > 0 ? ", " : "").append(report[0]);
+		}
+		throw new MojoExecutionException("Unknown diagnostics report " + name + ", use one of " + names);
+	}
+
+	/**
+	 * @return the files ProGuard writes the selected reports to, by ProGuard option
+	 */
+	public Map<String, File> getReportFiles() {
+		return reportFiles;
+	}
+
+	/**
+	 * Removes the reports of earlier runs, so that no stale report is mistaken for a current one.
+	 */
+	public void prepare() {
+		for (String[] report : REPORTS) {
+			File file = new File(directory, report[2]);
+			file.delete();
+			new File(directory, report[2] + ".gz").delete();
+		}
+	}
+
+	/**
+	 * Compresses and truncates the reports after ProGuard has finished, or drops them if they are only kept for
+	 * failures.
+	 *
+	 * @param success
+	 *            whether ProGuard succeeded
+	 */
+	public void finish(boolean success) throws MojoExecutionException {
+		for (File file : reportFiles.values()) {
+			if (!file.exists()) {
+				continue;
+			}
+			if (keepOnlyOnFailure && success) {
+				file.delete();
+				continue;
+			}
+			if (compress || (maxReportSize >= 0 && file.length() > maxReportSize)) {
+				file = rewrite(file);
+			}
+			if (keepOnlyOnFailure) {
+				log.info("ProGuard diagnostics: " + file);
+			}
+		}
+	}
+
+	/**
+	 * Streams a report into its compressed or truncated form.
+	 *
+	 * @return the new report file
+	 */
+	private File rewrite(File file) throws MojoExecutionException {
+		File target = new File(file.getPath() + (compress ? ".gz" : ".tmp"));
+		long length = file.length();
+		try {
+			InputStream in = new BufferedInputStream(new FileInputStream(file), 65536);
+			try {
+				OutputStream out = new FileOutputStream(target);
+				if (compress) {
+					out = new GZIPOutputStream(out, 65536);
+				}
+				try {
+					long written = copy(in, out, maxReportSize < 0 ? Long.MAX_VALUE : maxReportSize);
+					if (written < length) {
+						String summary = "\n# Truncated by proguard-maven-plugin after " + written + " of " + length
+								+ " bytes, see maxReportSize\n";
+						out.write(summary.getBytes("UTF-8"));
+						log.warn("ProGuard report " + file.getName() + " truncated to " + written + " of " + length
+								+ " bytes");
+					}
+				} finally {
+					out.close();
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			target.delete();
+			throw new MojoExecutionException("Can't write ProGuard report " + target, e);
+		}
+		file.delete();
+		if (compress) {
+			return target;
+		}
+		if (!target.renameTo(file)) {
+			throw new MojoExecutionException("Can't rename " + target);
+		}
+		return file;
+	}
+
+	/**
+	 * Copies up to the budget, ending at the last complete line when the budget is exceeded.
+	 *
+	 * @return the number of bytes written
+	 */
+	private static long copy(InputStream in, OutputStream out, long budget) throws IOException {
+		byte[] buffer = new byte[65536];
+		long written = 0;
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			if (written + read <= budget) {
+				out.write(buffer, 0, read);
+				written += read;
+				continue;
+			}
+			int allowed = (int) (budget - written);
+			int end = allowed;
+			while (end > 0 && buffer[end - 1] != '\n') {
+				end--;
+			}
+			if (end == 0) {
+				end = allowed;
+			}
+			out.write(buffer, 0, end);
+			return written + end;
+		}
+		return written;
+	}
+}
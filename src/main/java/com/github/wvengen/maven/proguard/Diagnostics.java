@@ -0,0 +1,22 @@
+package com.github.wvengen.maven.proguard;
+
+import java.util.List;
+
+public class Diagnostics {
+	/** <code>full</code> (default) or <code>ci</code>, which keeps reports only when ProGuard fails */
+	protected String preset;
+
+	/** reports to emit: <code>seeds</code>, <code>configuration</code>, <code>dump</code>, <code>usage</code> */
+	protected List<String> reports;
+
+	protected boolean compress;
+
+	/** maximum size of each report, e.g. <code>20m</code>, longer reports are truncated */
+	protected String maxReportSize;
+
+	/** number of warning and note kinds in the summary of the ProGuard output */
+	protected int maxMessageKinds = 20;
+
+	/** number of sample lines of each warning and note kind in the summary */
+	protected int messageSamples = 3;
+}
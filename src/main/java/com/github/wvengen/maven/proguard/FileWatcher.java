@@ -0,0 +1,70 @@
+package com.github.wvengen.maven.proguard;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Detects changes of files and directories by polling their names, sizes and modification times, which works on every
+ * file system and JVM. Bursts of changes, e.g. of a compile, are reported once they have settled.
+ */
+public class FileWatcher {
+
+	private List<File> files;
+
+	private Map<String, String> snapshot;
+
+	public FileWatcher(List<File> files) {
+		this.files = files;
+		this.snapshot = snapshot();
+	}
+
+	/**
+	 * Waits for a change that is followed by a quiet period.
+	 *
+	 * @param interval
+	 *            the milliseconds between two polls
+	 * @param debounce
+	 *            the milliseconds without further changes before the change is reported
+	 * @return the time of the first poll that saw the change
+	 */
+	public long await(long interval, long debounce) throws InterruptedException {
+		Map<String, String> current;
+		do {
+			Thread.sleep(interval);
+			current = snapshot();
+		} while (current.equals(snapshot));
+		long changed = System.currentTimeMillis();
+		long lastChange = changed;
+		while (System.currentTimeMillis() - lastChange < debounce) {
+			Thread.sleep(Math.max(1, Math.min(interval, debounce)));
+			Map<String, String> next = snapshot();
+			if (!next.equals(current)) {
+				current = next;
+				lastChange = System.currentTimeMillis();
+			}
+		}
+		snapshot = current;
+		return changed;
+	}
+
+	private Map<String, String> snapshot() {
+		Map<String, String> snapshot = new TreeMap<String, String>();
+		for (File file : files) {
+			add(file, snapshot);
+		}
+		return snapshot;
+	}
+
+	private static void add(File file, Map<String, String> snapshot) {
+		if (file.isDirectory()) {
+			File[] children = file.listFiles();
+			for (int i = 0; children != null && i < children.length; i++) {
+				add(children[i], snapshot);
+			}
+		} else if (file.exists()) {
+			snapshot.put(file.getPath(), file.length() + ":" + file.lastModified());
+		}
+	}
+}
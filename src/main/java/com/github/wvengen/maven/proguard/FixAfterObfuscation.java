@@ -10,12 +10,8 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
@@ -23,9 +19,6 @@ import java.util.zip.ZipOutputStream;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.logging.Log;
 
-import proguard.obfuscate.MappingProcessor;
-import proguard.obfuscate.MappingReader;
-
 public class FixAfterObfuscation {
 
 	private static final String EXPORT_PACKAGE = "Export-Package";
@@ -237,65 +230,29 @@ public class FixAfterObfuscation {
 	}
 
 	public void process(File obfuscatedJar, File mappingFile) throws MojoExecutionException {
+		process(obfuscatedJar, mappingFile, obfuscatedJar.getParentFile());
+	}
+
+	/**
+	 * @param obfuscatedJar
+	 *            the obfuscated jar or directory
+	 * @param workDir
+	 *            the directory the obfuscated jar is unpacked in
+	 */
+	public void process(File obfuscatedJar, File mappingFile, File workDir) throws MojoExecutionException {
+		if (obfuscatedJar.isDirectory()) {
+			// nothing to unpack
+			fixManifest(obfuscatedJar, new ProGuardObfuscationMapping(mappingFile));
+			return;
+		}
 		String jarName = obfuscatedJar.getName();
 		// remove .jar file ending
 		jarName = jarName.substring(0, jarName.length() - 4);
-		File targetDir = new File(obfuscatedJar.getParentFile(), jarName);
+		File targetDir = new File(workDir, jarName);
 		ProGuardObfuscationMapping mapping = new ProGuardObfuscationMapping(mappingFile);
 
 		extractObfuscatedJar(obfuscatedJar, targetDir);
 		fixManifest(targetDir, mapping);
 		rebuildObfuscatedJar(targetDir, obfuscatedJar);
 	}
-
-	private static class ProGuardObfuscationMapping implements MappingProcessor {
-
-		private Map<String, String> origToObfuscatedClasses;
-		private Map<String, Collection<String>> origToObfuscatedPackages;
-
-		public ProGuardObfuscationMapping(File mappingFile) throws MojoExecutionException {
-			MappingReader mappingReader = new MappingReader(mappingFile);
-			try {
-				origToObfuscatedClasses = new HashMap<String, String>();
-				origToObfuscatedPackages = new HashMap<String, Collection<String>>();
-				mappingReader.pump(this);
-			} catch (IOException e) {
-				throw new MojoExecutionException("Mapping file could not be read", e);
-			}
-		}
-
-		public Collection<String> getObfuscatedPackages(String packageToObfuscate) {
-			Collection<String> obfuscatedPackages = origToObfuscatedPackages.get(packageToObfuscate);
-			if (obfuscatedPackages == null) {
-				// if no obfuscation informations can be found, return the
-				// given package
-				return Collections.singleton(packageToObfuscate);
-			}
-			return obfuscatedPackages;
-		}
-
-		public boolean processClassMapping(String className, String obfuscatedClassName) {
-			origToObfuscatedClasses.put(className, obfuscatedClassName);
-
-			String packageName = className.substring(0, className.lastIndexOf('.'));
-			String obfuscatedPackageName = obfuscatedClassName.substring(0, obfuscatedClassName.lastIndexOf('.'));
-
-			Collection<String> obfuscatedPackages = origToObfuscatedPackages.get(packageName);
-			if (obfuscatedPackages == null) {
-				obfuscatedPackages = new HashSet<String>();
-				origToObfuscatedPackages.put(packageName, obfuscatedPackages);
-			}
-			obfuscatedPackages.add(obfuscatedPackageName);
-			return true;
-		}
-
-		public void processFieldMapping(String arg0, String arg1, String arg2, String arg3) {
-			// do nothing
-		}
-
-		public void processMethodMapping(String arg0, int arg1, int arg2, String arg3, String arg4, String arg5, String arg6) {
-			// do nothing
-		}
-
-	}
 }
@@ -0,0 +1,217 @@
+package com.github.wvengen.maven.proguard;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Summarizes a Java Flight Recorder recording of the ProGuard process as text: the top allocation sites, the hot
+ * methods and the garbage collection pauses. The recording is streamed through the <code>jdk.jfr.consumer</code> API,
+ * which is accessed by reflection, since the plugin is compiled for older JDKs; without it no summary is written.
+ */
+public class FlightRecordingSummary {
+
+	private Log log;
+
+	private int top;
+
+	/** bytes by allocation site */
+	private Map<String, long[]> allocations = new HashMap<String, long[]>();
+
+	/** samples by method */
+	private Map<String, long[]> samples = new HashMap<String, long[]>();
+
+	/** count, total and longest pause in nanoseconds by collector */
+	private Map<String, long[]> collections = new HashMap<String, long[]>();
+
+	private Method getEventType;
+
+	private Method getTypeName;
+
+	private Method getStackTrace;
+
+	private Method getFrames;
+
+	private Method getMethod;
+
+	private Method getMethodName;
+
+	private Method getMethodType;
+
+	private Method getClassName;
+
+	private Method getValue;
+
+	private Method getLong;
+
+	private Method getDuration;
+
+	private Method toNanos;
+
+	public FlightRecordingSummary(Log log, int top) {
+		this.log = log;
+		this.top = top;
+	}
+
+	/**
+	 * Writes the summary of the recording.
+	 *
+	 * @return whether the summary was written
+	 */
+	public boolean write(File recording, File summary) {
+		long start = System.currentTimeMillis();
+		try {
+			read(recording);
+		} catch (ClassNotFoundException e) {
+			log.warn("Can't summarize " + recording + ", this JDK has no jdk.jfr.consumer API");
+			return false;
+		} catch (InvocationTargetException e) {
+			log.warn("Can't summarize " + recording + ": " + e.getCause());
+			return false;
+		} catch (Exception e) {
+			log.warn("Can't summarize " + recording + ": " + e);
+			return false;
+		}
+		try {
+			PrintWriter out = new PrintWriter(new FileWriter(summary));
+			try {
+				out.println("ProGuard flight recording " + recording.getName());
+				out.println();
+				print(out, "Top allocation sites (bytes)", allocations);
+				print(out, "Hot methods (execution samples)", samples);
+				out.println("Garbage collections");
+				out.println(String.format("  %-40s %8s %14s %14s", "collector", "count", "total pause ms",
+						"longest ms"));
+				for (Map.Entry<String, long[]> collection : collections.entrySet()) {
+					long[] values = collection.getValue();
+					out.println(String.format("  %-40s %8d %14.1f %14.1f", collection.getKey(),
+							Long.valueOf(values[0]), Double.valueOf(values[1] / 1e6), Double.valueOf(values[2] / 1e6)));
+				}
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			log.warn("Can't write " + summary + ": " + e);
+			return false;
+		}
+		log.info("ProGuard profile: " + recording + ", summary " + summary + " ("
+				+ (System.currentTimeMillis() - start) + " ms)");
+		return true;
+	}
+
+	private void print(PrintWriter out, String title, Map<String, long[]> counts) {
+		List<Map.Entry<String, long[]>> entries = new ArrayList<Map.Entry<String, long[]>>(counts.entrySet());
+		Collections.sort(entries, new Comparator<Map.Entry<String, long[]>>() {
+			public int compare(Map.Entry<String, long[]> a, Map.Entry<String, long[]> b) {
+				long difference = b.getValue()[0] - a.getValue()[0];
+				return difference > 0 ? 1 : difference < 0 ? -1 : a.getKey().compareTo(b.getKey());
+			}
+		});
+		out.println(title);
+		for (int i = 0; i < entries.size() && i < top; i++) {
+			out.println(String.format("  %14d  %s", Long.valueOf(entries.get(i).getValue()[0]), entries.get(i)
+					.getKey()));
+		}
+		out.println();
+	}
+
+	private void read(File recording) throws Exception {
+		Class<?> recordingFile = Class.forName("jdk.jfr.consumer.RecordingFile");
+		Class<?> recordedEvent = Class.forName("jdk.jfr.consumer.RecordedEvent");
+		Class<?> recordedObject = Class.forName("jdk.jfr.consumer.RecordedObject");
+		getEventType = recordedEvent.getMethod("getEventType");
+		getTypeName = Class.forName("jdk.jfr.EventType").getMethod("getName");
+		getStackTrace = recordedEvent.getMethod("getStackTrace");
+		getFrames = Class.forName("jdk.jfr.consumer.RecordedStackTrace").getMethod("getFrames");
+		getMethod = Class.forName("jdk.jfr.consumer.RecordedFrame").getMethod("getMethod");
+		Class<?> recordedMethod = Class.forName("jdk.jfr.consumer.RecordedMethod");
+		getMethodName = recordedMethod.getMethod("getName");
+		getMethodType = recordedMethod.getMethod("getType");
+		getClassName = Class.forName("jdk.jfr.consumer.RecordedClass").getMethod("getName");
+		getValue = recordedObject.getMethod("getValue", String.class);
+		getLong = recordedObject.getMethod("getLong", String.class);
+		getDuration = recordedObject.getMethod("getDuration", String.class);
+		toNanos = Class.forName("java.time.Duration").getMethod("toNanos");
+
+		Object path = File.class.getMethod("toPath").invoke(recording);
+		Object file = recordingFile.getConstructor(Class.forName("java.nio.file.Path")).newInstance(path);
+		Method hasMoreEvents = recordingFile.getMethod("hasMoreEvents");
+		Method readEvent = recordingFile.getMethod("readEvent");
+		try {
+			while (((Boolean) hasMoreEvents.invoke(file)).booleanValue()) {
+				Object event = readEvent.invoke(file);
+				String type = (String) getTypeName.invoke(getEventType.invoke(event));
+				if ("jdk.ExecutionSample".equals(type)) {
+					add(samples, topFrame(event), 1);
+				} else if ("jdk.ObjectAllocationInNewTLAB".equals(type)) {
+					add(allocations, allocationSite(event), number(event, "tlabSize"));
+				} else if ("jdk.ObjectAllocationOutsideTLAB".equals(type)) {
+					add(allocations, allocationSite(event), number(event, "allocationSize"));
+				} else if ("jdk.ObjectAllocationSample".equals(type)) {
+					add(allocations, allocationSite(event), number(event, "weight"));
+				} else if ("jdk.GarbageCollection".equals(type)) {
+					addCollection(event);
+				}
+			}
+		} finally {
+			recordingFile.getMethod("close").invoke(file);
+		}
+	}
+
+	private long number(Object event, String field) throws Exception {
+		return ((Long) getLong.invoke(event, field)).longValue();
+	}
+
+	private static void add(Map<String, long[]> counts, String key, long value) {
+		long[] count = counts.get(key);
+		if (count == null) {
+			count = new long[1];
+			counts.put(key, count);
+		}
+		count[0] += value;
+	}
+
+	private void addCollection(Object event) throws Exception {
+		String name = String.valueOf(getValue.invoke(event, "name"));
+		long pauses = ((Long) toNanos.invoke(getDuration.invoke(event, "sumOfPauses"))).longValue();
+		long longest = ((Long) toNanos.invoke(getDuration.invoke(event, "longestPause"))).longValue();
+		long[] values = collections.get(name);
+		if (values == null) {
+			values = new long[3];
+			collections.put(name, values);
+		}
+		values[0]++;
+		values[1] += pauses;
+		values[2] = Math.max(values[2], longest);
+	}
+
+	private String topFrame(Object event) throws Exception {
+		Object stackTrace = getStackTrace.invoke(event);
+		if (stackTrace == null) {
+			return "(no stack trace)";
+		}
+		List<?> frames = (List<?>) getFrames.invoke(stackTrace);
+		if (frames.isEmpty()) {
+			return "(no stack trace)";
+		}
+		Object method = getMethod.invoke(frames.get(0));
+		return getClassName.invoke(getMethodType.invoke(method)) + "." + getMethodName.invoke(method);
+	}
+
+	private String allocationSite(Object event) throws Exception {
+		Object objectClass = getValue.invoke(event, "objectClass");
+		String className = objectClass == null ? "?" : (String) getClassName.invoke(objectClass);
+		return className + " in " + topFrame(event);
+	}
+}
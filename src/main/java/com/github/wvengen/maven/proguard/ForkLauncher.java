@@ -0,0 +1,248 @@
+package com.github.wvengen.maven.proguard;
+
+import java.io.FileWriter;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Date;
+import java.util.Map;
+
+import javax.management.ObjectName;
+
+/**
+ * Main class of the forked ProGuard process when the plugin measures it. Runs the real main class and, when the
+ * process exits (ProGuard calls <code>System.exit</code>), writes the peak heap usage in bytes to the file named by
+ * the <code>proguard.peakHeapFile</code> system property. With the <code>proguard.histogramPrefix</code> property it
+ * writes a class histogram whenever ProGuard announces a phase on standard output, and one at exit. With the
+ * <code>proguard.stallTimeout</code> property a watchdog thread writes thread dumps while ProGuard prints nothing, and
+ * halts the process when it runs longer than <code>proguard.timeout</code>. Only depends on the JDK, since the fork's
+ * classpath is the ProGuard jar plus the plugin classes.
+ */
+public class ForkLauncher {
+
+	public static final String PEAK_HEAP_FILE = "proguard.peakHeapFile";
+
+	public static final String HISTOGRAM_PREFIX = "proguard.histogramPrefix";
+
+	public static final String STALL_TIMEOUT = "proguard.stallTimeout";
+
+	public static final String DUMP_INTERVAL = "proguard.dumpInterval";
+
+	public static final String MAX_DUMPS = "proguard.maxDumps";
+
+	public static final String TIMEOUT = "proguard.timeout";
+
+	public static final String THREAD_DUMP_PREFIX = "proguard.threadDumpPrefix";
+
+	/** exit code of a process halted by the watchdog */
+	public static final int TIMEOUT_EXIT_CODE = 124;
+
+	/** the ProGuard messages that start a phase */
+	private static final String[] PHASES = { "Reading input", "Initializing", "Shrinking", "Optimizing",
+			"Obfuscating", "Preverifying", "Preparing output", "Writing output" };
+
+	private static int histograms;
+
+	/** the original standard error, whose output doesn't count as progress */
+	private static final PrintStream STDERR = System.err;
+
+	private static volatile long lastOutput = System.currentTimeMillis();
+
+	private ForkLauncher() {
+	}
+
+	public static void main(String[] args) throws Throwable {
+		final String peakHeapFile = System.getProperty(PEAK_HEAP_FILE);
+		if (peakHeapFile != null) {
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+				public void run() {
+					writePeakHeap(peakHeapFile);
+				}
+			});
+		}
+		String threadDumpPrefix = System.getProperty(THREAD_DUMP_PREFIX);
+		if (threadDumpPrefix != null) {
+			System.setOut(new PrintStream(new ProgressStream(System.out), true));
+			System.setErr(new PrintStream(new ProgressStream(System.err), true));
+			startWatchdog(threadDumpPrefix, Long.getLong(STALL_TIMEOUT, 0).longValue(),
+					Long.getLong(DUMP_INTERVAL, 60000).longValue(), Integer.getInteger(MAX_DUMPS, 5).intValue(),
+					Long.getLong(TIMEOUT, 0).longValue());
+		}
+		final String histogramPrefix = System.getProperty(HISTOGRAM_PREFIX);
+		if (histogramPrefix != null) {
+			System.setOut(new PrintStream(System.out, true) {
+				public void println(String line) {
+					String phase = findPhase(line);
+					if (phase != null) {
+						writeHistogram(histogramPrefix, "before_" + phase);
+					}
+					super.println(line);
+				}
+			});
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+				public void run() {
+					writeHistogram(histogramPrefix, "exit");
+				}
+			});
+		}
+		String[] mainArgs = new String[args.length - 1];
+		System.arraycopy(args, 1, mainArgs, 0, mainArgs.length);
+		try {
+			Class.forName(args[0]).getMethod("main", new Class[] { String[].class }).invoke(null,
+					new Object[] { mainArgs });
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Records the time of the last output.
+	 */
+	private static class ProgressStream extends FilterOutputStream {
+
+		ProgressStream(OutputStream out) {
+			super(out);
+		}
+
+		public void write(int b) throws IOException {
+			lastOutput = System.currentTimeMillis();
+			out.write(b);
+		}
+
+		public void write(byte[] b, int off, int len) throws IOException {
+			lastOutput = System.currentTimeMillis();
+			out.write(b, off, len);
+		}
+	}
+
+	/**
+	 * Starts the daemon thread that writes thread dumps when there was no output for <code>stallTimeout</code>
+	 * milliseconds, at most one per <code>dumpInterval</code>, and halts the process after <code>timeout</code>
+	 * milliseconds.
+	 */
+	private static void startWatchdog(final String prefix, final long stallTimeout, final long dumpInterval,
+			final int maxDumps, final long timeout) {
+		final long start = System.currentTimeMillis();
+		Thread watchdog = new Thread("proguard-watchdog") {
+			public void run() {
+				int dumps = 0;
+				long lastDump = 0;
+				while (true) {
+					try {
+						Thread.sleep(1000);
+					} catch (InterruptedException e) {
+						return;
+					}
+					long now = System.currentTimeMillis();
+					if (timeout > 0 && now - start > timeout) {
+						String file = writeThreadDump(prefix, ++dumps);
+						System.err.println("ProGuard timed out after " + (now - start) / 1000 + " s, thread dump "
+								+ file);
+						Runtime.getRuntime().halt(TIMEOUT_EXIT_CODE);
+					}
+					if (stallTimeout > 0 && now - lastOutput > stallTimeout && now - lastDump >= dumpInterval
+							&& dumps < maxDumps) {
+						String file = writeThreadDump(prefix, ++dumps);
+						lastDump = now;
+						// not through System.err, that would count as progress
+						STDERR.println("ProGuard printed nothing for " + (now - lastOutput) + " ms, thread dump "
+								+ file);
+					}
+				}
+			}
+		};
+		watchdog.setDaemon(true);
+		watchdog.start();
+	}
+
+	static String writeThreadDump(String prefix, int number) {
+		String file = prefix + (number < 10 ? "_0" : "_") + number + ".txt";
+		try {
+			PrintWriter writer = new PrintWriter(new FileWriter(file));
+			try {
+				writer.println("Thread dump at " + new Date());
+				for (Map.Entry<Thread, StackTraceElement[]> thread : Thread.getAllStackTraces().entrySet()) {
+					Thread t = thread.getKey();
+					writer.println();
+					writer.println("\"" + t.getName() + "\"" + (t.isDaemon() ? " daemon" : "") + " prio="
+							+ t.getPriority() + " state=" + t.getState());
+					for (StackTraceElement element : thread.getValue()) {
+						writer.println("\tat " + element);
+					}
+				}
+			} finally {
+				writer.close();
+			}
+		} catch (IOException e) {
+			STDERR.println("Can't write thread dump " + file + ": " + e);
+		}
+		return file;
+	}
+
+	/**
+	 * The sum of the peak usage of the heap pools; the pools peak at different times, so this is an upper bound.
+	 */
+	static long getPeakHeap() {
+		long peak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+				peak += pool.getPeakUsage().getUsed();
+			}
+		}
+		return peak;
+	}
+
+	/**
+	 * @return the lower case name of the phase the ProGuard message starts, <code>null</code> if none
+	 */
+	static String findPhase(String line) {
+		if (line == null) {
+			return null;
+		}
+		String message = line.trim();
+		for (String phase : PHASES) {
+			if (message.startsWith(phase)) {
+				return phase.toLowerCase().replace(' ', '_');
+			}
+		}
+		return null;
+	}
+
+	private static synchronized void writeHistogram(String prefix, String name) {
+		histograms++;
+		String file = prefix + (histograms < 10 ? "_0" : "_") + histograms + "_" + name + ".txt";
+		try {
+			Object histogram = ManagementFactory.getPlatformMBeanServer().invoke(
+					new ObjectName("com.sun.management:type=DiagnosticCommand"), "gcClassHistogram",
+					new Object[] { new String[0] }, new String[] { String[].class.getName() });
+			Writer writer = new FileWriter(file);
+			try {
+				writer.write(String.valueOf(histogram));
+			} finally {
+				writer.close();
+			}
+		} catch (Exception e) {
+			System.err.println("Can't write class histogram " + file + ": " + e);
+		}
+	}
+
+	private static void writePeakHeap(String file) {
+		try {
+			Writer writer = new FileWriter(file);
+			try {
+				writer.write(String.valueOf(getPeakHeap()));
+			} finally {
+				writer.close();
+			}
+		} catch (IOException e) {
+			System.err.println("Can't write peak heap to " + file + ": " + e);
+		}
+	}
+}
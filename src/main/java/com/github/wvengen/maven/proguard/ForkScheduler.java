@@ -0,0 +1,217 @@
+package com.github.wvengen.maven.proguard;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Limits the total heap of the ProGuard processes forked concurrently from this Maven JVM, e.g. by several executions
+ * in a parallel build. The state is static, so it is shared by all modules of a build that use the same plugin
+ * version. A fork waits until its heap fits into the budget; a fork larger than the whole budget runs once no other
+ * fork is running.
+ */
+public class ForkScheduler {
+
+	private static long inUse;
+
+	private static int running;
+
+	/**
+	 * The forks waiting for the budget, in arrival order.
+	 */
+	private static List<Ticket> waiting = new ArrayList<Ticket>();
+
+	private static class Ticket {
+
+		private long heap;
+
+		Ticket(long heap) {
+			this.heap = heap;
+		}
+	}
+
+	private ForkScheduler() {
+	}
+
+	/**
+	 * Parses a memory size in the <code>-Xmx</code> notation, e.g. <code>512m</code> or <code>4g</code>.
+	 *
+	 * @return the size in bytes
+	 */
+	public static long parseMemory(String size) throws MojoExecutionException {
+		String value = size.trim().toLowerCase();
+		long unit = 1;
+		if (value.endsWith("b")) {
+			value = value.substring(0, value.length() - 1);
+		}
+		if (value.endsWith("k")) {
+			unit = 1024L;
+		} else if (value.endsWith("m")) {
+			unit = 1024L * 1024;
+		} else if (value.endsWith("g")) {
+			unit = 1024L * 1024 * 1024;
+		} else if (value.endsWith("t")) {
+			unit = 1024L * 1024 * 1024 * 1024;
+		}
+		if (unit > 1) {
+			value = value.substring(0, value.length() - 1);
+		}
+		try {
+			long number = Long.parseLong(value.trim());
+			if (number <= 0) {
+				throw new MojoExecutionException("Memory size must be positive: " + size);
+			}
+			return number * unit;
+		} catch (NumberFormatException e) {
+			throw new MojoExecutionException("Invalid memory size: " + size, e);
+		}
+	}
+
+	public static String formatMemory(long bytes) {
+		if (bytes % (1024L * 1024 * 1024) == 0) {
+			return (bytes / (1024L * 1024 * 1024)) + "g";
+		}
+		return (bytes / (1024L * 1024)) + "m";
+	}
+
+	/**
+	 * Parses a fork memory budget, either a memory size (see {@link #parseMemory(String)}) or a percentage of the
+	 * physical memory, e.g. <code>75%</code>.
+	 *
+	 * @return the budget in bytes, <code>-1</code> for no budget if the physical memory is unknown
+	 */
+	public static long parseBudget(Log log, String budget) throws MojoExecutionException {
+		String value = budget.trim();
+		if (!value.endsWith("%")) {
+			return parseMemory(value);
+		}
+		double percent;
+		try {
+			percent = Double.parseDouble(value.substring(0, value.length() - 1).trim());
+		} catch (NumberFormatException e) {
+			throw new MojoExecutionException("Invalid memory budget: " + budget, e);
+		}
+		if (percent <= 0) {
+			throw new MojoExecutionException("Memory budget must be positive: " + budget);
+		}
+		long physical = getPhysicalMemory();
+		if (physical <= 0) {
+			log.debug("Physical memory unknown, no ProGuard memory budget");
+			return -1;
+		}
+		return (long) (physical * percent / 100);
+	}
+
+	/**
+	 * @return the physical memory of the machine in bytes, <code>-1</code> if the JVM doesn't tell
+	 */
+	static long getPhysicalMemory() {
+		Object os = ManagementFactory.getOperatingSystemMXBean();
+		// com.sun.management.OperatingSystemMXBean, not available on every JVM
+		for (String name : new String[] { "getTotalMemorySize", "getTotalPhysicalMemorySize" }) {
+			try {
+				Method method = os.getClass().getMethod(name);
+				method.setAccessible(true);
+				return ((Number) method.invoke(os)).longValue();
+			} catch (Exception e) {
+				// try the next name
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the maximum heap of a JVM started without <code>-Xmx</code>, a quarter of the physical memory,
+	 *         <code>-1</code> if the physical memory is unknown
+	 */
+	public static long getDefaultHeap() {
+		long physical = getPhysicalMemory();
+		return physical <= 0 ? -1 : physical / 4;
+	}
+
+	/**
+	 * Waits until the heap of a new fork fits into the budget and reserves it. Waiting forks are admitted largest
+	 * first, which shortens the total time of a parallel build; a smaller fork may start while a larger one doesn't
+	 * fit yet, unless the larger one exceeds the whole budget and waits for all forks to finish.
+	 *
+	 * @param budget
+	 *            the total heap of all concurrent forks
+	 * @param heap
+	 *            the heap of the new fork
+	 * @return the milliseconds waited
+	 */
+	public static long acquire(Log log, long budget, long heap) throws MojoExecutionException {
+		long start = System.currentTimeMillis();
+		boolean logged = false;
+		synchronized (ForkScheduler.class) {
+			Ticket ticket = new Ticket(heap);
+			waiting.add(ticket);
+			try {
+				while (next(budget) != ticket) {
+					if (!logged) {
+						log.info("Waiting for ProGuard memory budget, " + formatMemory(inUse) + " of "
+								+ formatMemory(budget) + " in use by " + running + " running ProGuard processes, "
+								+ (waiting.size() - 1) + " other processes waiting");
+						logged = true;
+					}
+					ForkScheduler.class.wait();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new MojoExecutionException("Interrupted while waiting for the ProGuard memory budget", e);
+			} finally {
+				waiting.remove(ticket);
+				// the next waiting fork may fit as well
+				ForkScheduler.class.notifyAll();
+			}
+			inUse += heap;
+			running++;
+		}
+		long waited = System.currentTimeMillis() - start;
+		if (logged) {
+			log.info("Waited " + waited + " ms for the ProGuard memory budget");
+		}
+		return waited;
+	}
+
+	/**
+	 * @return the waiting fork to start next, <code>null</code> if none can start
+	 */
+	private static Ticket next(long budget) {
+		Ticket next = null;
+		for (Ticket ticket : waiting) {
+			long heap = ticket.heap;
+			if (running == 0 || inUse + heap <= budget) {
+				if (next == null || heap > next.heap) {
+					next = ticket;
+				}
+			} else if (heap > budget) {
+				// keep the budget free until all running forks are finished
+				return null;
+			}
+		}
+		return next;
+	}
+
+	/**
+	 * @return the number of forks waiting for the budget
+	 */
+	static synchronized int getWaiting() {
+		return waiting.size();
+	}
+
+	/**
+	 * Releases the heap reserved by {@link #acquire(Log, long, long)}.
+	 */
+	public static void release(long heap) {
+		synchronized (ForkScheduler.class) {
+			inUse -= heap;
+			running--;
+			ForkScheduler.class.notifyAll();
+		}
+	}
+}
@@ -0,0 +1,173 @@
+package com.github.wvengen.maven.proguard;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.tools.ant.BuildEvent;
+import org.apache.tools.ant.BuildListener;
+import org.apache.tools.ant.taskdefs.Java;
+
+/**
+ * The Maven side of the {@link Watchdog}: passes the limits to the {@link ForkLauncher} of the ProGuard process,
+ * which writes the thread dumps and enforces the timeout, keeps the last line ProGuard printed and describes a stalled
+ * or killed process for the failure message. The Ant timeout of the fork is a backstop for a process too wedged to
+ * halt itself.
+ */
+public class ForkWatchdog implements BuildListener {
+
+	/** time the process gets to halt itself before Ant kills it */
+	private static final long KILL_GRACE = 60000;
+
+	private Watchdog config;
+
+	private File prefix;
+
+	private volatile String lastLine;
+
+	public ForkWatchdog(Watchdog config, File directory) {
+		this.config = config;
+		this.prefix = new File(directory, "proguard_threads");
+	}
+
+	/**
+	 * Parses a duration like <code>90s</code>, <code>10m</code> or <code>2h</code>; plain numbers are milliseconds.
+	 *
+	 * @return the duration in milliseconds
+	 */
+	public static long parseDuration(String duration) throws MojoExecutionException {
+		String value = duration.trim().toLowerCase();
+		long unit = 1;
+		if (value.endsWith("ms")) {
+			value = value.substring(0, value.length() - 2);
+		} else if (value.endsWith("s")) {
+			unit = 1000L;
+		} else if (value.endsWith("m")) {
+			unit = 60 * 1000L;
+		} else if (value.endsWith("h")) {
+			unit = 60 * 60 * 1000L;
+		}
+		if (unit > 1) {
+			value = value.substring(0, value.length() - 1);
+		}
+		try {
+			return Long.parseLong(value.trim()) * unit;
+		} catch (NumberFormatException e) {
+			throw new MojoExecutionException("Invalid duration " + duration + ", use e.g. 90s, 10m or 2h");
+		}
+	}
+
+	/**
+	 * Removes the dumps of earlier runs and configures the launched process.
+	 */
+	public void configure(Java java) throws MojoExecutionException {
+		for (File dump : getDumps()) {
+			dump.delete();
+		}
+		lastLine = null;
+		ProGuardMojo.addSysproperty(java, ForkLauncher.THREAD_DUMP_PREFIX, prefix.getAbsolutePath());
+		ProGuardMojo.addSysproperty(java, ForkLauncher.STALL_TIMEOUT,
+				String.valueOf(parseDuration(config.stallTimeout)));
+		ProGuardMojo.addSysproperty(java, ForkLauncher.DUMP_INTERVAL,
+				String.valueOf(parseDuration(config.dumpInterval)));
+		ProGuardMojo.addSysproperty(java, ForkLauncher.MAX_DUMPS, String.valueOf(config.maxDumps));
+		if (config.timeout != null) {
+			long timeout = parseDuration(config.timeout);
+			ProGuardMojo.addSysproperty(java, ForkLauncher.TIMEOUT, String.valueOf(timeout));
+			java.setTimeout(Long.valueOf(timeout + KILL_GRACE));
+		}
+	}
+
+	/**
+	 * @return the thread dumps written by the process, oldest first
+	 */
+	public List<File> getDumps() {
+		List<File> dumps = new ArrayList<File>();
+		File[] files = prefix.getParentFile().listFiles();
+		if (files != null) {
+			Arrays.sort(files);
+			for (File file : files) {
+				if (file.getName().startsWith(prefix.getName() + "_")) {
+					dumps.add(file);
+				}
+			}
+		}
+		return dumps;
+	}
+
+	/**
+	 * @return the last line, the thread dumps and the main thread of the last dump, for the failure message
+	 */
+	public String describe(int result) {
+		StringBuilder description = new StringBuilder();
+		if (result == ForkLauncher.TIMEOUT_EXIT_CODE) {
+			description.append("\nProGuard was halted after the timeout of ").append(config.timeout);
+		}
+		if (lastLine != null) {
+			description.append("\nLast output: ").append(lastLine);
+		}
+		List<File> dumps = getDumps();
+		if (!dumps.isEmpty()) {
+			description.append("\nThread dumps:");
+			for (File dump : dumps) {
+				description.append("\n  ").append(dump);
+			}
+			description.append(mainThread(dumps.get(dumps.size() - 1)));
+		}
+		return description.toString();
+	}
+
+	private static String mainThread(File dump) {
+		StringBuilder stack = new StringBuilder();
+		try {
+			BufferedReader reader = new BufferedReader(new FileReader(dump));
+			try {
+				boolean inMain = false;
+				String line;
+				while ((line = reader.readLine()) != null) {
+					if (line.startsWith("\"")) {
+						inMain = line.startsWith("\"main\"");
+					}
+					if (inMain && line.length() > 0) {
+						stack.append('\n').append(line);
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (IOException e) {
+			return "";
+		}
+		return stack.toString();
+	}
+
+	public void messageLogged(BuildEvent event) {
+		String message = event.getMessage();
+		if (message != null && message.trim().length() > 0) {
+			lastLine = message.trim();
+		}
+	}
+
+	public void buildStarted(BuildEvent event) {
+	}
+
+	public void buildFinished(BuildEvent event) {
+	}
+
+	public void targetStarted(BuildEvent event) {
+	}
+
+	public void targetFinished(BuildEvent event) {
+	}
+
+	public void taskStarted(BuildEvent event) {
+	}
+
+	public void taskFinished(BuildEvent event) {
+	}
+}
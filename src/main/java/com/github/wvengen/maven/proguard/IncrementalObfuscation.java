@@ -0,0 +1,678 @@
+package com.github.wvengen.maven.proguard;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * Obfuscates only the changed classes of the input jar, for development builds without optimization. The state
+ * directory keeps the CRC and {@link LibraryAbi ABI} of every input entry, a configuration key, and copies of the
+ * previous output jar and mapping.
+ * <p>
+ * When only method bodies of existing classes changed, ProGuard runs on the changed classes, the classes they
+ * reference and the super and sub classes of those, with the previous mapping applied and the members the previous run
+ * kept as seeds. All other input classes are libraries. The changed classes are then patched into the previous output
+ * jar. Added, removed or resource entries, changed class signatures or hierarchies, and classes or members the
+ * previous run didn't name all need a full run.
+ */
+public class IncrementalObfuscation {
+
+	private static final String STATE_FILE = "state.txt";
+
+	private static final String OUTPUT_FILE = "output.jar";
+
+	private static final String MAPPING_FILE = "proguard_map.txt";
+
+	private static final String CLASS_SUFFIX = ".class";
+
+	/**
+	 * The classes of one incremental run.
+	 */
+	public static class Plan {
+
+		private Set<String> changed = new TreeSet<String>();
+
+		private Set<String> program = new TreeSet<String>();
+
+		private File programJar;
+
+		private File libraryJar;
+
+		private File seeds;
+
+		private File mapping;
+
+		/**
+		 * @return the internal names of the changed classes
+		 */
+		public Set<String> getChanged() {
+			return changed;
+		}
+
+		/**
+		 * @return the internal names of the classes ProGuard processes
+		 */
+		public Set<String> getProgram() {
+			return program;
+		}
+
+		/**
+		 * @return the jar with the program classes
+		 */
+		public File getProgramJar() {
+			return programJar;
+		}
+
+		/**
+		 * @return the jar with the other classes of the input jar
+		 */
+		public File getLibraryJar() {
+			return libraryJar;
+		}
+
+		/**
+		 * @return the ProGuard configuration that keeps what the previous run kept
+		 */
+		public File getSeeds() {
+			return seeds;
+		}
+
+		/**
+		 * @return the previous mapping, for <code>-applymapping</code>
+		 */
+		public File getMapping() {
+			return mapping;
+		}
+	}
+
+	private Log log;
+
+	private File stateDirectory;
+
+	private File inJar;
+
+	private ProGuardFilter userFilter;
+
+	private String configurationKey;
+
+	/**
+	 * @param userFilter
+	 *            the filter already applied to the input jar, <code>null</code> for none
+	 * @param configurationKey
+	 *            see {@link ResourceFastPath#configurationKey(List, java.util.Collection)}
+	 */
+	public IncrementalObfuscation(Log log, File stateDirectory, File inJar, ProGuardFilter userFilter,
+			String configurationKey) {
+		this.log = log;
+		this.stateDirectory = stateDirectory;
+		this.inJar = inJar;
+		this.userFilter = userFilter;
+		this.configurationKey = configurationKey;
+	}
+
+	/**
+	 * Compares the input jar with the previous run and prepares the inputs of an incremental run.
+	 *
+	 * @return the plan, <code>null</code> if ProGuard has to process all classes
+	 */
+	public Plan plan() throws MojoExecutionException {
+		long start = System.currentTimeMillis();
+		Map<String, String[]> previous = readState();
+		if (previous == null) {
+			log.info("Incremental obfuscation not possible, no previous run with the same configuration");
+			return null;
+		}
+		Map<String, String[]> current = readEntries();
+
+		Plan plan = new Plan();
+		TreeSet<String> names = new TreeSet<String>(previous.keySet());
+		names.addAll(current.keySet());
+		for (String name : names) {
+			String[] previousEntry = previous.get(name);
+			String[] currentEntry = current.get(name);
+			if (previousEntry != null && currentEntry != null && previousEntry[0].equals(currentEntry[0])) {
+				continue;
+			}
+			if (name.endsWith("/") || (userFilter != null && !userFilter.matches(name))) {
+				continue;
+			}
+			if (previousEntry == null || currentEntry == null) {
+				log.info("Incremental obfuscation not possible, " + name + (currentEntry == null ? " was removed"
+						: " was added"));
+				return null;
+			}
+			if (ClassPathScanner.toClassName(name) == null) {
+				log.info("Incremental obfuscation not possible, " + name + " changed");
+				return null;
+			}
+			if (!previousEntry[1].equals(currentEntry[1])) {
+				log.info("Incremental obfuscation not possible, the hierarchy or signatures of " + name + " changed");
+				return null;
+			}
+			plan.changed.add(ClassPathScanner.toClassName(name));
+		}
+		if (plan.changed.isEmpty()) {
+			log.info("Incremental obfuscation: no class changed");
+			return plan;
+		}
+
+		Map<String, ClassFileInfo> classes = readClasses(current.keySet());
+		addProgramClasses(plan, classes);
+		plan.mapping = new File(stateDirectory, MAPPING_FILE);
+		Map<String, Set<String>> keptMembers = new HashMap<String, Set<String>>();
+		readMapping(plan.mapping, null, keptMembers);
+
+		File directory = new File(stateDirectory, "increment");
+		plan.programJar = new File(directory, "program.jar");
+		plan.libraryJar = new File(directory, "library.jar");
+		plan.seeds = new File(directory, "seeds.pro");
+		try {
+			if (directory.exists()) {
+				FileUtils.deleteDirectory(directory);
+			}
+			directory.mkdirs();
+			writeClasses(plan, classes.keySet());
+			writeSeeds(plan, keptMembers);
+		} catch (IOException e) {
+			throw new MojoExecutionException("Can't write the incremental inputs to " + directory, e);
+		}
+		log.info("Incremental obfuscation of " + plan.changed.size() + " changed classes with " + plan.program.size()
+				+ " of " + classes.size() + " classes as program, prepared in " + (System.currentTimeMillis() - start)
+				+ " ms");
+		return plan;
+	}
+
+	/**
+	 * Adds the changed classes, the input classes they mention and the super classes of those, so that ProGuard
+	 * resolves all members as in a full run, and the input classes that extend any of them, which can't be libraries.
+	 * Mentioned classes include those only named by annotations or generic signatures, which ProGuard renames in the
+	 * changed classes as well.
+	 */
+	private static void addProgramClasses(Plan plan, Map<String, ClassFileInfo> classes) {
+		for (String className : plan.changed) {
+			plan.program.add(className);
+			for (String reference : classes.get(className).getMentionedClasses()) {
+				if (classes.containsKey(reference)) {
+					plan.program.add(reference);
+				}
+			}
+		}
+		boolean added = true;
+		while (added) {
+			added = false;
+			for (String className : new ArrayList<String>(plan.program)) {
+				for (String superName : getSuperNames(classes.get(className))) {
+					if (classes.containsKey(superName) && plan.program.add(superName)) {
+						added = true;
+					}
+				}
+			}
+			for (Map.Entry<String, ClassFileInfo> info : classes.entrySet()) {
+				if (plan.program.contains(info.getKey())) {
+					continue;
+				}
+				for (String superName : getSuperNames(info.getValue())) {
+					if (plan.program.contains(superName)) {
+						plan.program.add(info.getKey());
+						added = true;
+						break;
+					}
+				}
+			}
+		}
+	}
+
+	private static List<String> getSuperNames(ClassFileInfo info) {
+		List<String> superNames = new ArrayList<String>(info.getInterfaces());
+		if (info.getSuperName() != null) {
+			superNames.add(info.getSuperName());
+		}
+		return superNames;
+	}
+
+	private Map<String, ClassFileInfo> readClasses(Set<String> entryNames) throws MojoExecutionException {
+		final Map<String, ClassFileInfo> classes = new LinkedHashMap<String, ClassFileInfo>();
+		List<String> classEntries = new ArrayList<String>();
+		for (String name : entryNames) {
+			if (ClassPathScanner.toClassName(name) != null && (userFilter == null || userFilter.matches(name))) {
+				classEntries.add(name);
+			}
+		}
+		try {
+			ClassPathScanner.visitClasses(inJar, classEntries, new ClassPathScanner.ClassVisitor() {
+				public void visitClass(String className, InputStream in) throws IOException {
+					classes.put(className, ClassFileInfo.read(in, true));
+				}
+			});
+		} catch (IOException e) {
+			throw new MojoExecutionException("Can't read " + inJar, e);
+		}
+		return classes;
+	}
+
+	private void writeClasses(Plan plan, Set<String> classNames) throws IOException {
+		RawZipWriter program = new RawZipWriter(plan.programJar);
+		try {
+			RawZipWriter library = new RawZipWriter(plan.libraryJar);
+			try {
+				if (inJar.isDirectory()) {
+					for (String className : classNames) {
+						InputStream in = new FileInputStream(new File(inJar, className + CLASS_SUFFIX));
+						try {
+							(plan.program.contains(className) ? program : library).add(className + CLASS_SUFFIX, in,
+									true);
+						} finally {
+							in.close();
+						}
+					}
+				} else {
+					RawZipFile zip = new RawZipFile(inJar);
+					try {
+						for (RawZipFile.Entry entry : zip.getEntries()) {
+							String className = ClassPathScanner.toClassName(entry.getName());
+							if (className != null && classNames.contains(className)) {
+								(plan.program.contains(className) ? program : library).copy(zip, entry);
+							}
+						}
+					} finally {
+						zip.close();
+					}
+				}
+			} finally {
+				library.close();
+			}
+		} finally {
+			program.close();
+		}
+	}
+
+	/**
+	 * Keeps the program classes the previous run kept, with their constructors and the members of the previous mapping,
+	 * and lets the mapping name them.
+	 */
+	private static void writeSeeds(Plan plan, Map<String, Set<String>> keptMembers) throws IOException {
+		BufferedWriter writer = new BufferedWriter(new FileWriter(plan.seeds));
+		try {
+			for (String className : plan.program) {
+				Set<String> members = keptMembers.get(className.replace('/', '.'));
+				if (members == null) {
+					continue;
+				}
+				writer.write("-keep,allowobfuscation class " + className.replace('/', '.') + " {");
+				writer.newLine();
+				// constructors are not in the mapping, they are never renamed
+				writer.write("    <init>(...);");
+				writer.newLine();
+				for (String member : members) {
+					writer.write("    " + member + ";");
+					writer.newLine();
+				}
+				writer.write("}");
+				writer.newLine();
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Reads a mapping, with line numbers stripped from the members.
+	 *
+	 * @param lines
+	 *            receives the class lines and the member lines prefixed with their class, may be <code>null</code>
+	 * @param members
+	 *            receives the original members by original class name, may be <code>null</code>
+	 * @return the obfuscated class names by original class name
+	 */
+	static Map<String, String> readMapping(File mappingFile, Set<String> lines, Map<String, Set<String>> members)
+			throws MojoExecutionException {
+		Map<String, String> classNames = new HashMap<String, String>();
+		try {
+			BufferedReader reader = new BufferedReader(new FileReader(mappingFile));
+			try {
+				String className = null;
+				String line;
+				while ((line = reader.readLine()) != null) {
+					if (line.length() == 0 || line.startsWith("#")) {
+						continue;
+					}
+					if (!Character.isWhitespace(line.charAt(0))) {
+						int arrow = line.indexOf(" -> ");
+						className = line.substring(0, arrow);
+						classNames.put(className, line.substring(arrow + 4, line.length() - 1));
+						if (lines != null) {
+							lines.add(line);
+						}
+						continue;
+					}
+					String member = line.trim();
+					// line numbers of methods, e.g. 12:15:void run() -> a
+					while (member.length() > 0 && Character.isDigit(member.charAt(0))) {
+						member = member.substring(member.indexOf(':') + 1);
+					}
+					if (lines != null) {
+						lines.add(className + " " + member);
+					}
+					if (members != null) {
+						Set<String> classMembers = members.get(className);
+						if (classMembers == null) {
+							classMembers = new TreeSet<String>();
+							members.put(className, classMembers);
+						}
+						classMembers.add(member.substring(0, member.indexOf(" -> ")));
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (IOException e) {
+			throw new MojoExecutionException("Can't read mapping " + mappingFile, e);
+		} catch (RuntimeException e) {
+			throw new MojoExecutionException("Can't parse mapping " + mappingFile, e);
+		}
+		return classNames;
+	}
+
+	/**
+	 * Patches the classes of an incremental run into the previous output.
+	 *
+	 * @param output
+	 *            the output jar of the incremental run, <code>null</code> if no class changed
+	 * @param mapping
+	 *            the mapping of the incremental run, <code>null</code> if no class changed
+	 * @return <code>false</code> if the run named classes or members that the previous run didn't, then ProGuard has to
+	 *         process all classes
+	 */
+	public boolean apply(Plan plan, File output, File mapping, File outJar, File mappingFile)
+			throws MojoExecutionException {
+		long start = System.currentTimeMillis();
+		File previousOutput = new File(stateDirectory, OUTPUT_FILE);
+		File previousMapping = new File(stateDirectory, MAPPING_FILE);
+		Map<String, String> entries = new HashMap<String, String>();
+		if (!plan.changed.isEmpty()) {
+			Set<String> previousLines = new HashSet<String>();
+			Map<String, String> classNames = readMapping(previousMapping, previousLines, null);
+			Set<String> lines = new TreeSet<String>();
+			readMapping(mapping, lines, null);
+			lines.removeAll(previousLines);
+			if (!lines.isEmpty()) {
+				log.info("Incremental obfuscation not possible, the previous run didn't name " + lines.iterator().next());
+				return false;
+			}
+			for (String className : plan.changed) {
+				String obfuscatedName = classNames.get(className.replace('/', '.'));
+				if (obfuscatedName != null) {
+					entries.put(obfuscatedName.replace('.', '/') + CLASS_SUFFIX, className);
+				}
+			}
+		}
+		try {
+			RawZipFile increment = output == null ? null : new RawZipFile(output);
+			try {
+				Map<String, RawZipFile.Entry> incrementEntries = new HashMap<String, RawZipFile.Entry>();
+				if (increment != null) {
+					for (RawZipFile.Entry entry : increment.getEntries()) {
+						incrementEntries.put(entry.getName(), entry);
+					}
+				}
+				RawZipWriter writer = new RawZipWriter(outJar);
+				try {
+					RawZipFile previous = new RawZipFile(previousOutput);
+					try {
+						for (RawZipFile.Entry entry : previous.getEntries()) {
+							if (!entries.containsKey(entry.getName())) {
+								writer.copy(previous, entry);
+							} else if (incrementEntries.containsKey(entry.getName())) {
+								writer.copy(increment, incrementEntries.get(entry.getName()));
+							} else {
+								log.info("Incremental obfuscation not possible, "
+										+ entries.get(entry.getName()) + " was not written");
+								return false;
+							}
+						}
+					} finally {
+						previous.close();
+					}
+				} finally {
+					writer.close();
+				}
+			} finally {
+				if (increment != null) {
+					increment.close();
+				}
+			}
+			if (plan.changed.isEmpty()) {
+				FileUtils.copyFile(previousMapping, mappingFile);
+			} else {
+				Set<String> changedNames = new HashSet<String>();
+				for (String className : plan.changed) {
+					changedNames.add(className.replace('/', '.'));
+				}
+				mergeMapping(previousMapping, mapping, changedNames, mappingFile);
+			}
+		} catch (IOException e) {
+			outJar.delete();
+			throw new MojoExecutionException("Can't patch the previous output " + previousOutput, e);
+		}
+		log.info("Incremental obfuscation: patched " + entries.size() + " classes into the previous output in "
+				+ (System.currentTimeMillis() - start) + " ms");
+		return true;
+	}
+
+	/**
+	 * Writes the previous mapping with the sections of the changed classes taken from the incremental run, whose
+	 * method line numbers match the patched classes.
+	 *
+	 * @param classNames
+	 *            the original names of the changed classes
+	 */
+	static void mergeMapping(File previousMapping, File incrementMapping, Set<String> classNames, File mappingFile)
+			throws IOException {
+		Map<String, List<String>> sections = new HashMap<String, List<String>>();
+		BufferedReader reader = new BufferedReader(new FileReader(incrementMapping));
+		try {
+			List<String> section = null;
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.length() > 0 && !Character.isWhitespace(line.charAt(0)) && !line.startsWith("#")) {
+					String className = line.substring(0, line.indexOf(" -> "));
+					section = classNames.contains(className) ? new ArrayList<String>() : null;
+					if (section != null) {
+						sections.put(className, section);
+					}
+				}
+				if (section != null) {
+					section.add(line);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		BufferedWriter writer = new BufferedWriter(new FileWriter(mappingFile));
+		try {
+			reader = new BufferedReader(new FileReader(previousMapping));
+			try {
+				boolean replaced = false;
+				String line;
+				while ((line = reader.readLine()) != null) {
+					if (line.length() > 0 && !Character.isWhitespace(line.charAt(0)) && !line.startsWith("#")) {
+						List<String> section = sections.get(line.substring(0, line.indexOf(" -> ")));
+						replaced = section != null;
+						if (replaced) {
+							for (String sectionLine : section) {
+								writer.write(sectionLine);
+								writer.newLine();
+							}
+						}
+					}
+					if (!replaced) {
+						writer.write(line);
+						writer.newLine();
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Records a successful ProGuard run.
+	 */
+	public void save(File outJar, File mappingFile) throws MojoExecutionException {
+		if (!stateDirectory.exists() && !stateDirectory.mkdirs()) {
+			throw new MojoExecutionException("Can't create " + stateDirectory);
+		}
+		// the state file is written last, without it the copies are never used
+		new File(stateDirectory, STATE_FILE).delete();
+		try {
+			FileUtils.copyFile(outJar, new File(stateDirectory, OUTPUT_FILE));
+			FileUtils.copyFile(mappingFile, new File(stateDirectory, MAPPING_FILE));
+		} catch (IOException e) {
+			throw new MojoExecutionException("Can't save the ProGuard output to " + stateDirectory, e);
+		}
+		writeState(readEntries());
+	}
+
+	/**
+	 * @return the CRC and, for classes, the ABI hash of every entry of the input jar
+	 */
+	private Map<String, String[]> readEntries() throws MojoExecutionException {
+		final Map<String, String[]> entries = new TreeMap<String, String[]>();
+		try {
+			if (inJar.isDirectory()) {
+				collectFiles(inJar, "", entries);
+			} else {
+				RawZipFile zip = new RawZipFile(inJar);
+				try {
+					for (RawZipFile.Entry entry : zip.getEntries()) {
+						entries.put(entry.getName(), new String[] { Long.toHexString(entry.getCrc()), "-" });
+					}
+				} finally {
+					zip.close();
+				}
+			}
+			ClassPathScanner.visitClasses(inJar, new ClassPathScanner.ClassVisitor() {
+				public void visitClass(String className, InputStream in) throws IOException {
+					String[] entry = entries.get(className + CLASS_SUFFIX);
+					if (entry != null) {
+						MessageDigest digest = Checksums.newDigest();
+						Checksums.update(digest, LibraryAbi.abi(ClassFileInfo.read(in, false)));
+						entry[1] = Checksums.toHex(digest.digest());
+					}
+				}
+			});
+		} catch (IOException e) {
+			throw new MojoExecutionException("Can't read " + inJar, e);
+		}
+		return entries;
+	}
+
+	private static void collectFiles(File dir, String prefix, Map<String, String[]> entries) throws IOException {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File file : files) {
+			if (file.isDirectory()) {
+				collectFiles(file, prefix + file.getName() + "/", entries);
+			} else {
+				InputStream in = new FileInputStream(file);
+				try {
+					MessageDigest digest = Checksums.newDigest();
+					byte[] buffer = new byte[65536];
+					int read;
+					while ((read = in.read(buffer)) != -1) {
+						digest.update(buffer, 0, read);
+					}
+					entries.put(prefix + file.getName(), new String[] { Checksums.toHex(digest.digest()), "-" });
+				} finally {
+					in.close();
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the entries of the previous run, <code>null</code> if there is none or its configuration differs
+	 */
+	private Map<String, String[]> readState() throws MojoExecutionException {
+		File stateFile = new File(stateDirectory, STATE_FILE);
+		if (!stateFile.exists()) {
+			return null;
+		}
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(stateFile), "UTF-8"));
+			try {
+				if (!configurationKey.equals(reader.readLine())) {
+					log.debug("Incremental obfuscation: configuration or libraries changed");
+					return null;
+				}
+				Map<String, String[]> entries = new HashMap<String, String[]>();
+				String line;
+				while ((line = reader.readLine()) != null) {
+					String[] fields = line.split(" ", 3);
+					entries.put(fields[2], new String[] { fields[0], fields[1] });
+				}
+				return entries;
+			} finally {
+				reader.close();
+			}
+		} catch (IOException e) {
+			throw new MojoExecutionException("Can't read " + stateFile, e);
+		}
+	}
+
+	private void writeState(Map<String, String[]> entries) throws MojoExecutionException {
+		File stateFile = new File(stateDirectory, STATE_FILE);
+		File tmp = new File(stateDirectory, STATE_FILE + ".tmp");
+		try {
+			Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+			try {
+				writer.write(configurationKey);
+				writer.write('\n');
+				for (Map.Entry<String, String[]> entry : entries.entrySet()) {
+					writer.write(entry.getValue()[0]);
+					writer.write(' ');
+					writer.write(entry.getValue()[1]);
+					writer.write(' ');
+					writer.write(entry.getKey());
+					writer.write('\n');
+				}
+			} finally {
+				writer.close();
+			}
+		} catch (IOException e) {
+			throw new MojoExecutionException("Can't write " + tmp, e);
+		}
+		stateFile.delete();
+		if (!tmp.renameTo(stateFile)) {
+			throw new MojoExecutionException("Can't rename " + tmp);
+		}
+	}
+}
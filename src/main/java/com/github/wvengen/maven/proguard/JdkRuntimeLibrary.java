@@ -0,0 +1,227 @@
+package com.github.wvengen.maven.proguard;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Builds a compact library jar with only those JDK classes the program needs, read from the running JDK. On Java 9+
+ * the classes come from the <code>jrt:</code> file system, on older JDKs from <code>rt.jar</code>. The jar is cached
+ * per JDK build and keyed on the classes the program and libraries need from the JDK, so the JDK classes are only read
+ * again when those change.
+ */
+public class JdkRuntimeLibrary {
+
+	private Log log;
+
+	private File cacheDirectory;
+
+	/**
+	 * Loader that only sees the JDK classes (the platform or extension class loader), not the Maven class path.
+	 */
+	private ClassLoader jdkLoader;
+
+	public JdkRuntimeLibrary(Log log, File cacheDirectory) {
+		this.log = log;
+		this.cacheDirectory = cacheDirectory;
+		ClassLoader systemLoader = ClassLoader.getSystemClassLoader();
+		this.jdkLoader = systemLoader.getParent() != null ? systemLoader.getParent() : systemLoader;
+	}
+
+	/**
+	 * @return the identifier of the running JDK build, used as cache directory name
+	 */
+	public static String getJdkBuild() {
+		String build = System.getProperty("java.vendor") + "-" + System.getProperty("java.runtime.version");
+		return build.replaceAll("[^A-Za-z0-9._+-]", "_");
+	}
+
+	/**
+	 * @return the home directory of the running JDK, for Java 8 and older the parent of the <code>jre</code> directory
+	 */
+	public static File getJdkHome() {
+		File javaHome = new File(System.getProperty("java.home")).getAbsoluteFile();
+		if ("jre".equals(javaHome.getName()) && javaHome.getParentFile() != null) {
+			return javaHome.getParentFile();
+		}
+		return javaHome;
+	}
+
+	/**
+	 * @return whether a configured library points into the running JDK and is therefore replaced by the runtime
+	 *         library
+	 */
+	public static boolean isJdkLibrary(File library) {
+		String jdkHome = getJdkHome().getAbsolutePath() + File.separator;
+		return library.getAbsolutePath().startsWith(jdkHome) || library.getName().equals("rt.jar")
+				|| library.getName().equals("jmods");
+	}
+
+	/**
+	 * Creates (or reuses) the runtime library for the given program and libraries.
+	 *
+	 * @param programEntries
+	 *            the injars, their references determine which JDK classes are needed
+	 * @param libraryEntries
+	 *            the non JDK libraries, their super classes and interfaces are needed as well
+	 * @return the runtime library jar
+	 */
+	public File create(Collection<File> programEntries, Collection<File> libraryEntries)
+			throws MojoExecutionException {
+		final Set<String> defined = new HashSet<String>();
+		final Set<String> roots = new HashSet<String>();
+		try {
+			for (File entry : programEntries) {
+				defined.addAll(ClassPathScanner.classNames(entry));
+				ClassPathScanner.visitClasses(entry, new ClassPathScanner.ClassVisitor() {
+					public void visitClass(String className, InputStream in) throws IOException {
+						roots.addAll(ClassFileInfo.read(in, true).getReferencedClasses());
+					}
+				});
+			}
+			for (File entry : libraryEntries) {
+				defined.addAll(ClassPathScanner.classNames(entry));
+				ClassPathScanner.visitClasses(entry, new ClassPathScanner.ClassVisitor() {
+					public void visitClass(String className, InputStream in) throws IOException {
+						addSuperTypes(ClassFileInfo.read(in, false), roots);
+					}
+				});
+			}
+		} catch (IOException e) {
+			throw new MojoExecutionException("Can't read classes for the JDK runtime library", e);
+		}
+
+		// the jar only depends on the roots and the program or library classes that shadow JDK classes, so the cache
+		// is checked before the JDK classes are read
+		MessageDigest digest = Checksums.newDigest();
+		for (String className : new TreeSet<String>(roots)) {
+			if (!defined.contains(className)) {
+				Checksums.update(digest, className);
+			}
+		}
+		for (String className : new TreeSet<String>(defined)) {
+			if (jdkLoader.getResource(className + ".class") != null) {
+				Checksums.update(digest, "!" + className);
+			}
+		}
+		File jdkDirectory = new File(cacheDirectory, getJdkBuild());
+		File runtimeJar = new File(jdkDirectory, "runtime-" + Checksums.toHex(digest.digest()) + ".jar");
+		if (runtimeJar.exists()) {
+			log.info("Using cached JDK runtime library " + runtimeJar);
+			return runtimeJar;
+		}
+		Map<String, byte[]> classes = collectJdkClasses(roots, defined);
+		writeJar(classes, runtimeJar);
+		log.info("Created JDK runtime library " + runtimeJar + " (" + classes.size() + " classes)");
+		return runtimeJar;
+	}
+
+	private static void addSuperTypes(ClassFileInfo info, Set<String> classNames) {
+		if (info.getSuperName() != null) {
+			classNames.add(info.getSuperName());
+		}
+		classNames.addAll(info.getInterfaces());
+	}
+
+	/**
+	 * Resolves the given classes against the JDK, including the class hierarchy and the classes in the member
+	 * signatures of every JDK class found, which ProGuard resolves as well.
+	 */
+	private Map<String, byte[]> collectJdkClasses(Set<String> roots, Set<String> defined)
+			throws MojoExecutionException {
+		Map<String, byte[]> classes = new TreeMap<String, byte[]>();
+		Set<String> visited = new HashSet<String>(defined);
+		LinkedList<String> pending = new LinkedList<String>(roots);
+		while (!pending.isEmpty()) {
+			String className = pending.removeFirst();
+			if (!visited.add(className)) {
+				continue;
+			}
+			byte[] bytes = readJdkClass(className);
+			if (bytes == null) {
+				// not a JDK class, ProGuard reports it if it is missing
+				continue;
+			}
+			classes.put(className, bytes);
+			try {
+				ClassFileInfo info = ClassFileInfo.read(new ByteArrayInputStream(bytes), false);
+				Set<String> dependencies = info.getSignatureClasses();
+				addSuperTypes(info, dependencies);
+				pending.addAll(dependencies);
+			} catch (IOException e) {
+				throw new MojoExecutionException("Can't read JDK class " + className, e);
+			}
+		}
+		return classes;
+	}
+
+	private byte[] readJdkClass(String className) throws MojoExecutionException {
+		InputStream in = jdkLoader.getResourceAsStream(className + ".class");
+		if (in == null) {
+			return null;
+		}
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+			return out.toByteArray();
+		} catch (IOException e) {
+			throw new MojoExecutionException("Can't read JDK class " + className, e);
+		} finally {
+			try {
+				in.close();
+			} catch (IOException e) {
+				log.debug("JDK class stream could not be closed correctly");
+			}
+		}
+	}
+
+	private void writeJar(Map<String, byte[]> classes, File runtimeJar) throws MojoExecutionException {
+		File directory = runtimeJar.getParentFile();
+		if (!directory.exists() && !directory.mkdirs()) {
+			throw new MojoExecutionException("Can't create " + directory);
+		}
+		// write to a temporary file first, concurrent builds may create the same jar
+		File tmp = new File(directory, runtimeJar.getName() + "." + System.nanoTime() + ".tmp");
+		try {
+			JarOutputStream out = new JarOutputStream(new FileOutputStream(tmp));
+			try {
+				for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+					out.putNextEntry(new ZipEntry(entry.getKey() + ".class"));
+					out.write(entry.getValue());
+					out.closeEntry();
+				}
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			tmp.delete();
+			throw new MojoExecutionException("Can't write JDK runtime library " + runtimeJar, e);
+		}
+		if (!tmp.renameTo(runtimeJar)) {
+			tmp.delete();
+			if (!runtimeJar.exists()) {
+				throw new MojoExecutionException("Can't create JDK runtime library " + runtimeJar);
+			}
+		}
+	}
+}
@@ -0,0 +1,197 @@
+package com.github.wvengen.maven.proguard;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Fingerprints libraries by their ABI: class names and access flags, super classes, interfaces and the access flags,
+ * names and descriptors of fields and methods. ProGuard only uses libraries for the class hierarchy and member
+ * signatures, so a library rebuilt with changed method bodies yields the same fingerprint. Fingerprints are cached by
+ * content hash for jars and by the names, sizes and modification times of the files for directories; cache misses are
+ * scanned in parallel. Archives inside library directories, e.g. <code>jmods</code>, are fingerprinted by size and
+ * modification time only.
+ */
+public class LibraryAbi {
+
+	private static final Object LOCK = new Object();
+
+	/**
+	 * Above this many cached fingerprints, the ones not used by the current run are dropped.
+	 */
+	private static final int MAX_ENTRIES = 5000;
+
+	private Log log;
+
+	private File cacheDirectory;
+
+	private int threads;
+
+	public LibraryAbi(Log log, File cacheDirectory) {
+		this.log = log;
+		this.cacheDirectory = cacheDirectory;
+		this.threads = Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * @return the ABI fingerprints of the existing libraries, in order
+	 */
+	public Map<File, String> fingerprint(List<File> libraryFiles) throws MojoExecutionException {
+		long start = System.currentTimeMillis();
+		List<File> jars = new ArrayList<File>();
+		for (File library : libraryFiles) {
+			if (library.isFile()) {
+				jars.add(library);
+			}
+		}
+		Map<File, String> contentHashes = new LibraryDeduplicator(log, cacheDirectory, true, 0).hash(jars);
+
+		Map<File, String> keys = new LinkedHashMap<File, String>();
+		for (File library : libraryFiles) {
+			if (library.isFile()) {
+				keys.put(library, "jar-" + contentHashes.get(library));
+			} else if (library.isDirectory()) {
+				keys.put(library, "dir-" + stamp(library));
+			}
+		}
+
+		Map<File, String> result = new LinkedHashMap<File, String>();
+		synchronized (LOCK) {
+			PropertiesCache cacheFile = new PropertiesCache(log, new File(cacheDirectory, "abi.properties"),
+					"library ABI fingerprints");
+			Properties cache = cacheFile.load();
+			Map<File, List<Future<Map<String, String>>>> scans =
+					new LinkedHashMap<File, List<Future<Map<String, String>>>>();
+			ExecutorService executor = Executors.newFixedThreadPool(threads);
+			try {
+				for (Map.Entry<File, String> key : keys.entrySet()) {
+					if (cache.getProperty(key.getValue()) == null) {
+						scans.put(key.getKey(), submit(executor, key.getKey()));
+					}
+				}
+				for (Map.Entry<File, List<Future<Map<String, String>>>> scan : scans.entrySet()) {
+					cache.setProperty(keys.get(scan.getKey()), digest(scan.getKey(), scan.getValue()));
+				}
+			} finally {
+				executor.shutdownNow();
+			}
+			for (Map.Entry<File, String> key : keys.entrySet()) {
+				result.put(key.getKey(), cache.getProperty(key.getValue()));
+			}
+			if (!scans.isEmpty()) {
+				if (cache.size() > MAX_ENTRIES) {
+					cache.keySet().retainAll(new HashSet<String>(keys.values()));
+				}
+				cacheFile.store(cache);
+			}
+			log.info("ABI fingerprints of " + keys.size() + " libraries (" + scans.size() + " scanned) took "
+					+ (System.currentTimeMillis() - start) + " ms");
+		}
+		return result;
+	}
+
+	private List<Future<Map<String, String>>> submit(ExecutorService executor, File library)
+			throws MojoExecutionException {
+		try {
+			return ClassPathScanner.submit(executor, threads, library, new ClassPathScanner.ClassReader<String>() {
+				public String read(String className, InputStream in) throws IOException {
+					return abi(ClassFileInfo.read(in, false));
+				}
+			});
+		} catch (IOException e) {
+			throw new MojoExecutionException("Can't read library " + library, e);
+		}
+	}
+
+	private String digest(File library, List<Future<Map<String, String>>> futures) throws MojoExecutionException {
+		Map<String, String> abis;
+		try {
+			abis = new TreeMap<String, String>(ClassPathScanner.collect(futures));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MojoExecutionException("ABI scan interrupted", e);
+		} catch (ExecutionException e) {
+			throw new MojoExecutionException("Can't scan library " + library + ": " + e.getCause().getMessage(),
+					e.getCause());
+		}
+		MessageDigest digest = Checksums.newDigest();
+		for (String abi : abis.values()) {
+			Checksums.update(digest, abi);
+		}
+		if (library.isDirectory()) {
+			addStamps(digest, library, "", true);
+		}
+		return Checksums.toHex(digest.digest());
+	}
+
+	/**
+	 * @return the ABI of a class, independent of the order of its members
+	 */
+	static String abi(ClassFileInfo info) {
+		StringBuilder abi = new StringBuilder();
+		abi.append(Integer.toHexString(info.getAccess())).append(' ').append(info.getName()).append(" extends ")
+				.append(info.getSuperName());
+		for (String interfaceName : info.getInterfaces()) {
+			abi.append(' ').append(interfaceName);
+		}
+		Set<String> members = new TreeSet<String>();
+		for (ClassFileInfo.Member field : info.getFields()) {
+			members.add("F " + Integer.toHexString(field.getAccess()) + ' ' + field.getName() + ' '
+					+ field.getDescriptor());
+		}
+		for (ClassFileInfo.Member method : info.getMethods()) {
+			members.add("M " + Integer.toHexString(method.getAccess()) + ' ' + method.getName()
+					+ method.getDescriptor());
+		}
+		for (String member : members) {
+			abi.append('\n').append(member);
+		}
+		return abi.toString();
+	}
+
+	/**
+	 * @return a fingerprint of the names, sizes and modification times of the files in a directory
+	 */
+	private static String stamp(File directory) {
+		MessageDigest digest = Checksums.newDigest();
+		addStamps(digest, directory, "", false);
+		return Checksums.toHex(digest.digest());
+	}
+
+	private static void addStamps(MessageDigest digest, File dir, String prefix, boolean archivesOnly) {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File file : new TreeSet<File>(Arrays.asList(files))) {
+			String name = prefix + file.getName();
+			if (file.isDirectory()) {
+				addStamps(digest, file, name + "/", archivesOnly);
+			} else if (!archivesOnly || isArchive(name)) {
+				Checksums.update(digest, name + ":" + file.length() + ":" + file.lastModified());
+			}
+		}
+	}
+
+	private static boolean isArchive(String name) {
+		return name.endsWith(".jar") || name.endsWith(".zip") || name.endsWith(".jmod");
+	}
+}
@@ -0,0 +1,126 @@
+package com.github.wvengen.maven.proguard;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.Map;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Merges the class entries of many library jars into one cached bundle, so that ProGuard opens one jar instead of
+ * hundreds. Entries are copied raw, without recompression; for a class in several jars the first jar wins, like in
+ * ProGuard. The bundle is named by the content hashes of the jars in class path order, since the order decides which
+ * of several copies of a class is bundled, and shared by all modules with the same libraries in the same order. The
+ * last use of a bundle is recorded in a <code>.used</code> marker next to it, so that the bundle itself keeps its
+ * modification time, which the resource fast path compares. Bundles unused for {@link #MAX_AGE} are removed.
+ */
+public class LibraryBundle {
+
+	private static final Object LOCK = new Object();
+
+	/** bundles not used for this long are removed */
+	private static final long MAX_AGE = 30L * 24 * 60 * 60 * 1000;
+
+	private Log log;
+
+	private File cacheDirectory;
+
+	public LibraryBundle(Log log, File cacheDirectory) {
+		this.log = log;
+		this.cacheDirectory = cacheDirectory;
+	}
+
+	/**
+	 * Creates or reuses the bundle of the jars.
+	 *
+	 * @param hashes
+	 *            the jars, in class path order, with their content hashes
+	 * @return the bundle
+	 */
+	public File create(Map<File, String> hashes) throws MojoExecutionException {
+		MessageDigest digest = Checksums.newDigest();
+		for (String hash : hashes.values()) {
+			Checksums.update(digest, hash);
+		}
+		File bundle = new File(cacheDirectory, "bundle-" + Checksums.toHex(digest.digest()) + ".jar");
+		synchronized (LOCK) {
+			if (bundle.exists()) {
+				markUsed(bundle);
+				log.info("Use library bundle " + bundle + " of " + hashes.size() + " jars");
+				return bundle;
+			}
+			removeUnused();
+			long start = System.currentTimeMillis();
+			cacheDirectory.mkdirs();
+			// unique, another Maven process may create the same bundle
+			File tmp = new File(bundle.getPath() + "." + System.nanoTime() + ".tmp");
+			int classes = 0;
+			try {
+				RawZipWriter writer = new RawZipWriter(tmp);
+				try {
+					for (File jar : hashes.keySet()) {
+						RawZipFile zip = new RawZipFile(jar);
+						try {
+							for (RawZipFile.Entry entry : zip.getEntries()) {
+								if (entry.getName().endsWith(".class") && writer.copy(zip, entry)) {
+									classes++;
+								}
+							}
+						} finally {
+							zip.close();
+						}
+					}
+				} finally {
+					writer.close();
+				}
+			} catch (IOException e) {
+				tmp.delete();
+				throw new MojoExecutionException("Can't create library bundle " + bundle, e);
+			}
+			if (!tmp.renameTo(bundle)) {
+				tmp.delete();
+				if (bundle.exists()) {
+					return bundle;
+				}
+				throw new MojoExecutionException("Can't rename " + tmp + " to " + bundle);
+			}
+			markUsed(bundle);
+			log.info("Bundled " + classes + " classes of " + hashes.size() + " library jars into " + bundle + " in "
+					+ (System.currentTimeMillis() - start) + " ms");
+		}
+		return bundle;
+	}
+
+	private static File getMarker(File bundle) {
+		return new File(bundle.getPath() + ".used");
+	}
+
+	private void markUsed(File bundle) {
+		File marker = getMarker(bundle);
+		try {
+			if (!marker.createNewFile()) {
+				marker.setLastModified(System.currentTimeMillis());
+			}
+		} catch (IOException e) {
+			log.debug("Can't mark library bundle " + bundle + " as used: " + e);
+		}
+	}
+
+	private void removeUnused() {
+		File[] files = cacheDirectory.listFiles();
+		long oldest = System.currentTimeMillis() - MAX_AGE;
+		for (int i = 0; files != null && i < files.length; i++) {
+			if (files[i].getName().startsWith("bundle-") && files[i].getName().endsWith(".jar")) {
+				File marker = getMarker(files[i]);
+				long lastUsed = marker.exists() ? marker.lastModified() : files[i].lastModified();
+				if (lastUsed < oldest) {
+					log.debug("Remove unused library bundle " + files[i]);
+					files[i].delete();
+					marker.delete();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,215 @@
+package com.github.wvengen.maven.proguard;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Drops library jars whose content is identical to an earlier library, e.g. the same snapshot resolved under two
+ * paths, and packs large class directories, e.g. <code>target/classes</code> of reactor modules, into cached jars,
+ * so ProGuard reads one file instead of walking thousands. Content hashes are cached by path, size and modification
+ * time; packed jars are named by a fingerprint of the class files' names, sizes and modification times.
+ */
+public class LibraryDeduplicator {
+
+	private static final Object LOCK = new Object();
+
+	private Log log;
+
+	private File cacheDirectory;
+
+	private boolean deduplicate;
+
+	private int packThreshold;
+
+	/**
+	 * @param deduplicate
+	 *            whether to drop libraries with identical content
+	 * @param packThreshold
+	 *            the number of class files from which a directory is packed, 0 to pack none
+	 */
+	public LibraryDeduplicator(Log log, File cacheDirectory, boolean deduplicate, int packThreshold) {
+		this.log = log;
+		this.cacheDirectory = cacheDirectory;
+		this.deduplicate = deduplicate;
+		this.packThreshold = packThreshold;
+	}
+
+	/**
+	 * @return the libraries to replace, in order, mapped to their replacement or to <code>null</code> if they are
+	 *         dropped
+	 */
+	public Map<File, File> process(List<File> libraryFiles) throws MojoExecutionException {
+		long start = System.currentTimeMillis();
+		Map<File, File> replacements = new LinkedHashMap<File, File>();
+		Map<String, File> byHash = new HashMap<String, File>();
+		synchronized (LOCK) {
+			Properties hashes = loadHashes();
+			try {
+				for (File library : libraryFiles) {
+					File file = library;
+					if (library.isDirectory()) {
+						if (packThreshold <= 0) {
+							continue;
+						}
+						file = pack(library);
+						if (file == null) {
+							continue;
+						}
+						replacements.put(library, file);
+					} else if (!library.isFile()) {
+						continue;
+					}
+					if (!deduplicate) {
+						continue;
+					}
+					String hash = hash(file, hashes);
+					File first = byHash.get(hash);
+					if (first == null) {
+						byHash.put(hash, file);
+					} else {
+						log.info("Skip library " + library + ", it is identical to " + first);
+						replacements.put(library, null);
+					}
+				}
+			} catch (IOException e) {
+				throw new MojoExecutionException("Can't process the libraries", e);
+			}
+			storeHashes(hashes);
+		}
+		log.debug("Library deduplication took " + (System.currentTimeMillis() - start) + " ms");
+		return replacements;
+	}
+
+	/**
+	 * @return the content hashes of the jars, through the same cache as the deduplication
+	 */
+	public Map<File, String> hash(List<File> jars) throws MojoExecutionException {
+		Map<File, String> result = new LinkedHashMap<File, String>();
+		synchronized (LOCK) {
+			Properties hashes = loadHashes();
+			try {
+				for (File jar : jars) {
+					result.put(jar, hash(jar, hashes));
+				}
+			} catch (IOException e) {
+				throw new MojoExecutionException("Can't hash the libraries", e);
+			}
+			storeHashes(hashes);
+		}
+		return result;
+	}
+
+	private String hash(File file, Properties hashes) throws IOException {
+		String stamp = file.length() + ":" + file.lastModified() + ":";
+		String cached = hashes.getProperty(file.getAbsolutePath());
+		if (cached != null && cached.startsWith(stamp)) {
+			return cached.substring(stamp.length());
+		}
+		String hash = Checksums.sha1(file);
+		hashes.setProperty(file.getAbsolutePath(), stamp + hash);
+		return hash;
+	}
+
+	private PropertiesCache getHashesCache() {
+		return new PropertiesCache(log, new File(cacheDirectory, "hashes.properties"), "library content hashes");
+	}
+
+	private Properties loadHashes() {
+		return getHashesCache().load();
+	}
+
+	/**
+	 * Stores the hashes as <code>path=size:modified:sha1</code>, without those of jars that no longer exist.
+	 */
+	private void storeHashes(Properties hashes) {
+		for (Iterator<Object> i = hashes.keySet().iterator(); i.hasNext();) {
+			if (!new File((String) i.next()).exists()) {
+				i.remove();
+			}
+		}
+		getHashesCache().store(hashes);
+	}
+
+	/**
+	 * @return the packed jar, <code>null</code> if the directory has fewer class files than the threshold
+	 */
+	private File pack(File directory) throws IOException {
+		List<String> names = new ArrayList<String>();
+		addClassFiles(directory, "", names);
+		if (names.size() < packThreshold) {
+			return null;
+		}
+		Collections.sort(names);
+		MessageDigest digest = Checksums.newDigest();
+		for (String name : names) {
+			File file = new File(directory, name);
+			Checksums.update(digest, name + ":" + file.length() + ":" + file.lastModified());
+		}
+		String prefix = Checksums.sha1(directory.getAbsolutePath()).substring(0, 12) + "-";
+		File packDirectory = new File(cacheDirectory, "packed");
+		File jar = new File(packDirectory, prefix + Checksums.toHex(digest.digest()) + ".jar");
+		if (jar.exists()) {
+			log.info("Use packed library " + jar + " for " + directory);
+			return jar;
+		}
+		packDirectory.mkdirs();
+		long start = System.currentTimeMillis();
+		File tmp = new File(jar.getPath() + ".tmp");
+		RawZipWriter writer = new RawZipWriter(tmp);
+		try {
+			for (String name : names) {
+				InputStream in = new FileInputStream(new File(directory, name));
+				try {
+					// stored, ProGuard reads them faster than deflated ones
+					writer.add(name, in, true);
+				} finally {
+					in.close();
+				}
+			}
+		} finally {
+			writer.close();
+		}
+		// the previous packs of this directory are stale
+		File[] previous = packDirectory.listFiles();
+		for (int i = 0; previous != null && i < previous.length; i++) {
+			if (previous[i].getName().startsWith(prefix) && previous[i].getName().endsWith(".jar")) {
+				previous[i].delete();
+			}
+		}
+		if (!tmp.renameTo(jar)) {
+			tmp.delete();
+			throw new IOException("Can't rename " + tmp + " to " + jar);
+		}
+		log.info("Packed " + names.size() + " classes of " + directory + " into " + jar + " in "
+				+ (System.currentTimeMillis() - start) + " ms");
+		return jar;
+	}
+
+	private static void addClassFiles(File dir, String prefix, List<String> names) {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File file : files) {
+			if (file.isDirectory()) {
+				addClassFiles(file, prefix + file.getName() + "/", names);
+			} else if (file.getName().endsWith(".class")) {
+				names.add(prefix + file.getName());
+			}
+		}
+	}
+}
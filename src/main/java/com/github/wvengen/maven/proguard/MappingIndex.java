@@ -0,0 +1,372 @@
+package com.github.wvengen.maven.proguard;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * Compact binary index of a ProGuard mapping file for deobfuscation, memory-mapped for lookups. It holds the classes
+ * sorted by obfuscated name and, per class, the methods sorted by obfuscated name with their line ranges. The index is
+ * kept next to the mapping file (<code>proguard_map.txt.idx</code>) and rebuilt when the mapping changes. Lookups are
+ * thread safe.
+ * <p>
+ * Layout: a header (magic, version, mapping size and modification time, counts, string table offset), the class
+ * table (obfuscated name, original name, first method, method count), the method table (obfuscated name, original
+ * name, first line, last line), and the string table (2 byte length, UTF-8 bytes).
+ */
+public class MappingIndex {
+
+	private static final int MAGIC = 0x50474D49;
+
+	private static final int VERSION = 1;
+
+	private static final int HEADER_LENGTH = 36;
+
+	private static final int CLASS_LENGTH = 16;
+
+	private static final int METHOD_LENGTH = 16;
+
+	private ByteBuffer buffer;
+
+	private int classCount;
+
+	private int methodsOffset;
+
+	private int stringsOffset;
+
+	/**
+	 * A method candidate returned by {@link MappingIndex#findMethods(String, String, int)}.
+	 */
+	public static class Method {
+
+		private String className;
+
+		private String name;
+
+		Method(String className, String name) {
+			this.className = className;
+			this.name = name;
+		}
+
+		/**
+		 * @return the original name of the class
+		 */
+		public String getClassName() {
+			return className;
+		}
+
+		/**
+		 * @return the original name of the method
+		 */
+		public String getName() {
+			return name;
+		}
+	}
+
+	private MappingIndex(ByteBuffer buffer) throws IOException {
+		this.buffer = buffer;
+		if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+			throw new IOException("Not a mapping index");
+		}
+		classCount = buffer.getInt(24);
+		int methodCount = buffer.getInt(28);
+		stringsOffset = buffer.getInt(32);
+		methodsOffset = HEADER_LENGTH + classCount * CLASS_LENGTH;
+		if (stringsOffset != methodsOffset + methodCount * METHOD_LENGTH || stringsOffset > buffer.limit()) {
+			throw new IOException("Corrupt mapping index");
+		}
+	}
+
+	/**
+	 * Opens the index of a mapping file, building it first if it is missing or outdated.
+	 */
+	public static MappingIndex open(File mappingFile) throws MojoExecutionException {
+		File indexFile = new File(mappingFile.getPath() + ".idx");
+		try {
+			if (!isCurrent(indexFile, mappingFile)) {
+				build(mappingFile, indexFile);
+			}
+			RandomAccessFile file = new RandomAccessFile(indexFile, "r");
+			try {
+				FileChannel channel = file.getChannel();
+				// the mapping stays valid after the file is closed
+				return new MappingIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+			} finally {
+				file.close();
+			}
+		} catch (IOException e) {
+			throw new MojoExecutionException("Can't read mapping index " + indexFile, e);
+		}
+	}
+
+	private static boolean isCurrent(File indexFile, File mappingFile) throws IOException {
+		if (!indexFile.exists() || indexFile.length() < HEADER_LENGTH) {
+			return false;
+		}
+		RandomAccessFile file = new RandomAccessFile(indexFile, "r");
+		try {
+			return file.readInt() == MAGIC && file.readInt() == VERSION && file.readLong() == mappingFile.length()
+					&& file.readLong() == mappingFile.lastModified();
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Compiles a mapping file into an index file.
+	 */
+	public static void build(File mappingFile, File indexFile) throws MojoExecutionException {
+		ProGuardObfuscationMapping mapping = new ProGuardObfuscationMapping(mappingFile, true);
+
+		Map<String, List<ProGuardObfuscationMapping.MethodMapping>> methodsByClass = new HashMap<String, List<ProGuardObfuscationMapping.MethodMapping>>();
+		for (ProGuardObfuscationMapping.MethodMapping method : mapping.getMethods()) {
+			List<ProGuardObfuscationMapping.MethodMapping> methods = methodsByClass.get(method.getClassName());
+			if (methods == null) {
+				methods = new ArrayList<ProGuardObfuscationMapping.MethodMapping>();
+				methodsByClass.put(method.getClassName(), methods);
+			}
+			methods.add(method);
+		}
+		List<Map.Entry<String, String>> classes = new ArrayList<Map.Entry<String, String>>(mapping.getClasses()
+				.entrySet());
+		Collections.sort(classes, new Comparator<Map.Entry<String, String>>() {
+			public int compare(Map.Entry<String, String> a, Map.Entry<String, String> b) {
+				return compareUtf8(utf8(a.getValue()), utf8(b.getValue()));
+			}
+		});
+
+		StringTable strings = new StringTable();
+		ByteArrayOutputStream classTable = new ByteArrayOutputStream();
+		ByteArrayOutputStream methodTable = new ByteArrayOutputStream();
+		DataOutputStream classOut = new DataOutputStream(classTable);
+		DataOutputStream methodOut = new DataOutputStream(methodTable);
+		int methodCount = 0;
+		try {
+			for (Map.Entry<String, String> entry : classes) {
+				List<ProGuardObfuscationMapping.MethodMapping> methods = methodsByClass.get(entry.getKey());
+				if (methods == null) {
+					methods = Collections.emptyList();
+				}
+				Collections.sort(methods, new Comparator<ProGuardObfuscationMapping.MethodMapping>() {
+					public int compare(ProGuardObfuscationMapping.MethodMapping a,
+							ProGuardObfuscationMapping.MethodMapping b) {
+						int result = compareUtf8(utf8(a.getObfuscatedName()), utf8(b.getObfuscatedName()));
+						return result != 0 ? result : a.getFirstLine() - b.getFirstLine();
+					}
+				});
+				classOut.writeInt(strings.add(entry.getValue()));
+				classOut.writeInt(strings.add(entry.getKey()));
+				classOut.writeInt(methodCount);
+				classOut.writeInt(methods.size());
+				for (ProGuardObfuscationMapping.MethodMapping method : methods) {
+					methodOut.writeInt(strings.add(method.getObfuscatedName()));
+					methodOut.writeInt(strings.add(method.getOriginalName()));
+					methodOut.writeInt(method.getFirstLine());
+					methodOut.writeInt(method.getLastLine());
+				}
+				methodCount += methods.size();
+			}
+
+			File tmp = new File(indexFile.getPath() + ".tmp");
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 65536));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeLong(mappingFile.length());
+				out.writeLong(mappingFile.lastModified());
+				out.writeInt(classes.size());
+				out.writeInt(methodCount);
+				out.writeInt(HEADER_LENGTH + classTable.size() + methodTable.size());
+				classTable.writeTo(out);
+				methodTable.writeTo(out);
+				strings.writeTo(out);
+			} finally {
+				out.close();
+			}
+			indexFile.delete();
+			if (!tmp.renameTo(indexFile)) {
+				throw new MojoExecutionException("Can't rename " + tmp);
+			}
+		} catch (IOException e) {
+			throw new MojoExecutionException("Can't write mapping index " + indexFile, e);
+		}
+	}
+
+	/**
+	 * @return the original class name, <code>null</code> if the class is not in the mapping
+	 */
+	public String findClass(String obfuscatedClassName) {
+		int index = findClassIndex(utf8(obfuscatedClassName));
+		return index < 0 ? null : readString(buffer.getInt(HEADER_LENGTH + index * CLASS_LENGTH + 4));
+	}
+
+	/**
+	 * Finds the original methods an obfuscated method name may stand for.
+	 *
+	 * @param line
+	 *            the line number from the stack frame, 0 if unknown; methods whose line range does not contain it are
+	 *            skipped when the mapping has line numbers for them
+	 * @return the candidates, empty if the class or method is not in the mapping
+	 */
+	public List<Method> findMethods(String obfuscatedClassName, String obfuscatedMethodName, int line) {
+		List<Method> result = new ArrayList<Method>();
+		int index = findClassIndex(utf8(obfuscatedClassName));
+		if (index < 0) {
+			return result;
+		}
+		int classEntry = HEADER_LENGTH + index * CLASS_LENGTH;
+		String className = readString(buffer.getInt(classEntry + 4));
+		int first = buffer.getInt(classEntry + 8);
+		int count = buffer.getInt(classEntry + 12);
+		byte[] name = utf8(obfuscatedMethodName);
+
+		// binary search for the first method with the name
+		int low = first;
+		int high = first + count;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (compareString(buffer.getInt(methodsOffset + middle * METHOD_LENGTH), name) < 0) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		List<Method> outsideRange = new ArrayList<Method>();
+		for (int i = low; i < first + count; i++) {
+			int methodEntry = methodsOffset + i * METHOD_LENGTH;
+			if (compareString(buffer.getInt(methodEntry), name) != 0) {
+				break;
+			}
+			Method method = new Method(className, readString(buffer.getInt(methodEntry + 4)));
+			int firstLine = buffer.getInt(methodEntry + 8);
+			int lastLine = buffer.getInt(methodEntry + 12);
+			if (line <= 0 || firstLine == 0 || (line >= firstLine && line <= lastLine)) {
+				addUnique(result, method);
+			} else {
+				addUnique(outsideRange, method);
+			}
+		}
+		// no line range matched, all candidates are possible
+		return result.isEmpty() ? outsideRange : result;
+	}
+
+	private static void addUnique(List<Method> methods, Method method) {
+		for (Method existing : methods) {
+			if (existing.name.equals(method.name)) {
+				return;
+			}
+		}
+		methods.add(method);
+	}
+
+	private int findClassIndex(byte[] name) {
+		int low = 0;
+		int high = classCount - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int result = compareString(buffer.getInt(HEADER_LENGTH + middle * CLASS_LENGTH), name);
+			if (result < 0) {
+				low = middle + 1;
+			} else if (result > 0) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Compares a string of the string table with the given UTF-8 bytes, without decoding it.
+	 */
+	private int compareString(int offset, byte[] bytes) {
+		int position = stringsOffset + offset;
+		int length = buffer.getShort(position) & 0xFFFF;
+		position += 2;
+		int common = Math.min(length, bytes.length);
+		for (int i = 0; i < common; i++) {
+			int result = (buffer.get(position + i) & 0xFF) - (bytes[i] & 0xFF);
+			if (result != 0) {
+				return result;
+			}
+		}
+		return length - bytes.length;
+	}
+
+	private String readString(int offset) {
+		int position = stringsOffset + offset;
+		byte[] bytes = new byte[buffer.getShort(position) & 0xFFFF];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = buffer.get(position + 2 + i);
+		}
+		try {
+			return new String(bytes, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static byte[] utf8(String value) {
+		try {
+			return value.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static int compareUtf8(byte[] a, byte[] b) {
+		int common = Math.min(a.length, b.length);
+		for (int i = 0; i < common; i++) {
+			int result = (a[i] & 0xFF) - (b[i] & 0xFF);
+			if (result != 0) {
+				return result;
+			}
+		}
+		return a.length - b.length;
+	}
+
+	/**
+	 * Deduplicating string table.
+	 */
+	private static class StringTable {
+
+		private Map<String, Integer> offsets = new HashMap<String, Integer>();
+
+		private ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		int add(String value) throws IOException {
+			Integer offset = offsets.get(value);
+			if (offset == null) {
+				offset = Integer.valueOf(bytes.size());
+				offsets.put(value, offset);
+				byte[] encoded = utf8(value);
+				if (encoded.length > 0xFFFF) {
+					throw new IOException("Name too long for the mapping index: " + value.substring(0, 100));
+				}
+				bytes.write(encoded.length >>> 8);
+				bytes.write(encoded.length & 0xFF);
+				bytes.write(encoded);
+			}
+			return offset.intValue();
+		}
+
+		void writeTo(DataOutputStream out) throws IOException {
+			bytes.writeTo(out);
+		}
+	}
+}
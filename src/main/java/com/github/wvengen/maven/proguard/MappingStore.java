@@ -0,0 +1,300 @@
+package com.github.wvengen.maven.proguard;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * The mapping file shared by the modules of a build for <code>uniqueMapping</code>. Every ProGuard run appends its
+ * mapping; compaction keeps only the last mapping of every original class, sorted by class name, and resolves
+ * obfuscated names used by two classes. Appending and compacting are serialized within the Maven JVM, so modules of a
+ * parallel build don't interleave their writes.
+ */
+public class MappingStore {
+
+	private static final Object LOCK = new Object();
+
+	private static final String ARROW = " -> ";
+
+	/**
+	 * The class mapping counts per store file, kept up to date by appends and compactions, so that the duplicate
+	 * ratio is only computed from the whole file once per Maven JVM.
+	 */
+	private static final Map<File, Statistics> STATISTICS = new HashMap<File, Statistics>();
+
+	private static class Statistics {
+
+		long length;
+
+		long lastModified;
+
+		int total;
+
+		Set<String> classes = new HashSet<String>();
+
+		void update(File file) {
+			length = file.length();
+			lastModified = file.lastModified();
+		}
+	}
+
+	private Log log;
+
+	private File file;
+
+	public MappingStore(Log log, File file) {
+		this.log = log;
+		this.file = file;
+	}
+
+	/**
+	 * Appends a mapping and compacts the store if it has grown beyond the thresholds.
+	 *
+	 * @param maxSize
+	 *            the size in bytes above which the store is compacted, negative for no limit
+	 * @param maxDuplicateRatio
+	 *            the fraction of duplicate class mappings above which the store is compacted, negative for no limit
+	 */
+	public void append(File mapping, long maxSize, double maxDuplicateRatio) throws MojoExecutionException,
+			MojoFailureException {
+		synchronized (LOCK) {
+			Statistics statistics = maxDuplicateRatio >= 0 ? getStatistics() : null;
+			try {
+				if (!file.exists()) {
+					file.getParentFile().mkdirs();
+				}
+				BufferedWriter writer = new BufferedWriter(new FileWriter(file, true));
+				try {
+					BufferedReader reader = new BufferedReader(new FileReader(mapping));
+					try {
+						char[] buffer = new char[8192];
+						int read;
+						while ((read = reader.read(buffer)) != -1) {
+							writer.write(buffer, 0, read);
+						}
+					} finally {
+						reader.close();
+					}
+				} finally {
+					writer.close();
+				}
+				if (statistics != null) {
+					count(mapping, statistics);
+					statistics.update(file);
+				}
+			} catch (IOException e) {
+				throw new MojoExecutionException("Unable to create mapping file", e);
+			}
+
+			if (maxSize >= 0 && file.length() > maxSize) {
+				log.info("Compacting mapping file " + file + ", it is larger than " + ForkScheduler.formatMemory(maxSize));
+				compact();
+			} else if (maxDuplicateRatio >= 0) {
+				double ratio = getDuplicateRatio();
+				if (ratio > maxDuplicateRatio) {
+					log.info("Compacting mapping file " + file + ", " + Math.round(ratio * 100)
+							+ "% of its class mappings are duplicates");
+					compact();
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the fraction of class mappings that are overridden by a later mapping of the same class
+	 */
+	public double getDuplicateRatio() throws MojoExecutionException {
+		synchronized (LOCK) {
+			Statistics statistics = getStatistics();
+			return statistics.total == 0 ? 0 : (double) (statistics.total - statistics.classes.size())
+					/ statistics.total;
+		}
+	}
+
+	/**
+	 * @return the counts of the store, read from the file only if it was changed by someone else
+	 */
+	private Statistics getStatistics() throws MojoExecutionException {
+		File key = file.getAbsoluteFile();
+		Statistics statistics = STATISTICS.get(key);
+		if (statistics != null && statistics.length == file.length()
+				&& statistics.lastModified == file.lastModified()) {
+			return statistics;
+		}
+		statistics = new Statistics();
+		try {
+			if (file.exists()) {
+				count(file, statistics);
+			}
+		} catch (IOException e) {
+			throw new MojoExecutionException("Can't read mapping file " + file, e);
+		}
+		statistics.update(file);
+		STATISTICS.put(key, statistics);
+		return statistics;
+	}
+
+	private static void count(File mapping, Statistics statistics) throws IOException {
+		BufferedReader reader = new BufferedReader(new FileReader(mapping));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String className = originalClass(line);
+				if (className != null) {
+					statistics.total++;
+					statistics.classes.add(className);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Rewrites the store with only the last mapping of every class, sorted by original class name. Of two classes
+	 * mapped to the same obfuscated name the one mapped last is kept: the other one is a stale mapping of a deleted or
+	 * renamed class, whose name ProGuard doesn't reserve when it applies the mapping.
+	 */
+	public void compact() throws MojoExecutionException, MojoFailureException {
+		compact(true);
+	}
+
+	/**
+	 * @param dropStale
+	 *            whether to drop the older of two classes mapped to the same obfuscated name instead of failing, for
+	 *            stores that are appended to in build order
+	 * @throws MojoFailureException
+	 *             if two classes are mapped to the same obfuscated name and stale mappings are not dropped
+	 */
+	public void compact(boolean dropStale) throws MojoExecutionException, MojoFailureException {
+		synchronized (LOCK) {
+			long start = System.currentTimeMillis();
+			long oldLength = file.length();
+			Map<String, List<String>> sections = new TreeMap<String, List<String>>();
+			// the position of the last mapping of every class, later mappings win conflicts
+			final Map<String, Integer> positions = new HashMap<String, Integer>();
+			int total = 0;
+			try {
+				BufferedReader reader = new BufferedReader(new FileReader(file));
+				try {
+					List<String> section = null;
+					String line;
+					while ((line = reader.readLine()) != null) {
+						String className = originalClass(line);
+						if (className != null) {
+							section = new ArrayList<String>();
+							// the last mapping of a class wins
+							sections.put(className, section);
+							positions.put(className, Integer.valueOf(total));
+							total++;
+						}
+						if (section != null && line.trim().length() > 0) {
+							section.add(line);
+						}
+					}
+				} finally {
+					reader.close();
+				}
+			} catch (IOException e) {
+				throw new MojoExecutionException("Can't read mapping file " + file, e);
+			}
+
+			verify(sections, dropStale ? positions : null);
+
+			File tmp = new File(file.getPath() + ".tmp");
+			try {
+				BufferedWriter writer = new BufferedWriter(new FileWriter(tmp));
+				try {
+					for (List<String> section : sections.values()) {
+						for (String line : section) {
+							writer.write(line);
+							writer.newLine();
+						}
+					}
+				} finally {
+					writer.close();
+				}
+			} catch (IOException e) {
+				tmp.delete();
+				throw new MojoExecutionException("Can't write mapping file " + tmp, e);
+			}
+			if (!file.delete() || !tmp.renameTo(file)) {
+				throw new MojoExecutionException("Can't replace mapping file " + file);
+			}
+			Statistics statistics = new Statistics();
+			statistics.total = sections.size();
+			statistics.classes.addAll(sections.keySet());
+			statistics.update(file);
+			STATISTICS.put(file.getAbsoluteFile(), statistics);
+			log.info("Compacted mapping file " + file + " from " + total + " to " + sections.size()
+					+ " class mappings (" + oldLength + " to " + file.length() + " bytes) in "
+					+ (System.currentTimeMillis() - start) + " ms");
+		}
+	}
+
+	/**
+	 * @param positions
+	 *            the position of the last mapping of every class, to drop the older of two classes with the same
+	 *            obfuscated name; <code>null</code> to fail instead
+	 */
+	private void verify(Map<String, List<String>> sections, final Map<String, Integer> positions)
+			throws MojoFailureException {
+		List<String> classNames = new ArrayList<String>(sections.keySet());
+		if (positions != null) {
+			// latest first
+			Collections.sort(classNames, new Comparator<String>() {
+				public int compare(String a, String b) {
+					return positions.get(b).compareTo(positions.get(a));
+				}
+			});
+		}
+		Map<String, String> obfuscatedToOriginal = new HashMap<String, String>();
+		StringBuilder conflicts = new StringBuilder();
+		for (String className : classNames) {
+			String header = sections.get(className).get(0);
+			String obfuscated = header.substring(header.indexOf(ARROW) + ARROW.length(), header.length() - 1).trim();
+			String previous = obfuscatedToOriginal.get(obfuscated);
+			if (previous == null) {
+				obfuscatedToOriginal.put(obfuscated, className);
+			} else if (positions != null) {
+				log.info("Dropping the stale mapping of " + className + ", " + obfuscated + " is now used by "
+						+ previous);
+				sections.remove(className);
+			} else {
+				conflicts.append("\n  ").append(obfuscated).append(" is used by ").append(previous).append(" and ")
+						.append(className);
+			}
+		}
+		if (conflicts.length() > 0) {
+			throw new MojoFailureException("Conflicting obfuscated names in mapping file " + file + ":" + conflicts
+					+ "\nRemove the mapping file and rebuild all modules.");
+		}
+	}
+
+	/**
+	 * @return the original class name if the line starts a class mapping (<code>a.B -> c.d:</code>)
+	 */
+	private static String originalClass(String line) {
+		if (line.length() == 0 || Character.isWhitespace(line.charAt(0)) || !line.endsWith(":")) {
+			return null;
+		}
+		int arrow = line.indexOf(ARROW);
+		return arrow < 0 ? null : line.substring(0, arrow).trim();
+	}
+}
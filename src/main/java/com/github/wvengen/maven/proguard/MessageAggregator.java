@@ -0,0 +1,265 @@
+package com.github.wvengen.maven.proguard;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.maven.plugin.logging.Log;
+import org.apache.tools.ant.BuildEvent;
+import org.apache.tools.ant.BuildListener;
+import org.apache.tools.ant.Project;
+
+/**
+ * Logs the output of the ProGuard process to the Maven log, except for the <code>Warning:</code> and
+ * <code>Note:</code> lines about single classes and their indented continuation lines. Those are written to a gzipped
+ * file and aggregated by kind, with the class names in the message replaced by <code>*</code>, counting the packages
+ * of the classes they are about and keeping a few samples. {@link #finish()} logs a bounded summary. ProGuard's own
+ * totals (<code>there were ...</code>) and errors are logged as they come.
+ */
+public class MessageAggregator implements BuildListener {
+
+	private static final Pattern MESSAGE = Pattern.compile("(Warning|Note): (.*)");
+
+	/** "com.foo.Bar: can't find referenced class org.bar.Baz" */
+	private static final Pattern CLASS_PREFIX = Pattern.compile("([\\w$]+(?:\\.[\\w$]+)+): (.*)");
+
+	private static final Pattern CLASS_NAME = Pattern.compile("[\\w$]+(?:[./][\\w$<>]+)+");
+
+	private Log log;
+
+	private File file;
+
+	private int maxKinds;
+
+	private int samples;
+
+	private Writer writer;
+
+	private Map<String, Kind> kinds = new LinkedHashMap<String, Kind>();
+
+	private int warnings;
+
+	private int notes;
+
+	/** whether the previous line was aggregated, so its continuation lines are too */
+	private boolean aggregating;
+
+	/**
+	 * The messages of one kind.
+	 */
+	private static class Kind {
+
+		String name;
+
+		int count;
+
+		Map<String, int[]> packages = new TreeMap<String, int[]>();
+
+		List<String> samples = new ArrayList<String>();
+
+		Kind(String name) {
+			this.name = name;
+		}
+	}
+
+	/**
+	 * @param file
+	 *            the gzipped file with all aggregated lines
+	 * @param maxKinds
+	 *            the number of kinds in the summary
+	 * @param samples
+	 *            the number of samples of each kind in the summary
+	 */
+	public MessageAggregator(Log log, File file, int maxKinds, int samples) {
+		this.log = log;
+		this.file = file;
+		this.maxKinds = maxKinds;
+		this.samples = samples;
+		file.delete();
+	}
+
+	public synchronized void messageLogged(BuildEvent event) {
+		String line = event.getMessage();
+		if (line == null) {
+			return;
+		}
+		Matcher message = MESSAGE.matcher(line.trim());
+		if (message.matches() && !message.group(2).startsWith("there were")
+				&& !message.group(2).startsWith("Exception while processing")) {
+			aggregating = true;
+			if ("Warning".equals(message.group(1))) {
+				warnings++;
+			} else {
+				notes++;
+			}
+			aggregate(message.group(1), message.group(2), line.trim());
+			write(line);
+		} else if (aggregating && line.length() > 0 && Character.isWhitespace(line.charAt(0))) {
+			write(line);
+		} else {
+			aggregating = false;
+			log(event.getPriority(), line);
+		}
+	}
+
+	private void log(int priority, String line) {
+		if (line.startsWith("Error:") || line.startsWith("Warning: Exception while processing")) {
+			log.error(line);
+		} else if (priority <= Project.MSG_WARN) {
+			log.warn(line);
+		} else if (priority == Project.MSG_INFO) {
+			log.info(line);
+		} else {
+			log.debug(line);
+		}
+	}
+
+	private void aggregate(String type, String text, String line) {
+		String subject = null;
+		String rest = text;
+		Matcher prefix = CLASS_PREFIX.matcher(text);
+		if (prefix.matches()) {
+			subject = prefix.group(1);
+			rest = prefix.group(2);
+		} else {
+			Matcher className = CLASS_NAME.matcher(text);
+			if (className.find()) {
+				subject = className.group();
+			}
+		}
+		String name = type + ": " + normalize(rest);
+		Kind kind = kinds.get(name);
+		if (kind == null) {
+			kind = new Kind(name);
+			kinds.put(name, kind);
+		}
+		kind.count++;
+		if (kind.samples.size() < samples) {
+			kind.samples.add(line);
+		}
+		String packageName = "(none)";
+		if (subject != null) {
+			subject = subject.replace('/', '.');
+			int lastDot = subject.lastIndexOf('.');
+			packageName = lastDot < 0 ? "" : subject.substring(0, lastDot);
+		}
+		int[] count = kind.packages.get(packageName);
+		if (count == null) {
+			count = new int[1];
+			kind.packages.put(packageName, count);
+		}
+		count[0]++;
+	}
+
+	/**
+	 * @return the message with quoted and bracketed parts and class names replaced by <code>*</code>
+	 */
+	static String normalize(String message) {
+		String kind = message.replaceAll("'[^']*'", "'*'").replaceAll("\\[[^\\]]*\\]", "[*]");
+		return CLASS_NAME.matcher(kind).replaceAll("*");
+	}
+
+	private void write(String line) {
+		try {
+			if (writer == null) {
+				writer = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(file), 65536), "UTF-8");
+			}
+			writer.write(line);
+			writer.write('\n');
+		} catch (IOException e) {
+			log.warn("Can't write " + file + ": " + e);
+		}
+	}
+
+	/**
+	 * Closes the file and logs the summary.
+	 */
+	public synchronized void finish() {
+		if (writer != null) {
+			try {
+				writer.close();
+			} catch (IOException e) {
+				log.warn("Can't write " + file + ": " + e);
+			}
+			writer = null;
+		}
+		if (kinds.isEmpty()) {
+			return;
+		}
+		List<Kind> sorted = new ArrayList<Kind>(kinds.values());
+		Collections.sort(sorted, new Comparator<Kind>() {
+			public int compare(Kind a, Kind b) {
+				return b.count - a.count;
+			}
+		});
+		summary(warnings > 0, "ProGuard printed " + warnings + " warnings and " + notes + " notes of " + kinds.size()
+				+ " kinds, all of them are in " + file);
+		for (int i = 0; i < sorted.size() && i < maxKinds; i++) {
+			Kind kind = sorted.get(i);
+			boolean warning = kind.name.startsWith("Warning");
+			summary(warning, "  " + kind.count + " x " + kind.name + " in " + topPackages(kind));
+			for (String sample : kind.samples) {
+				summary(warning, "      e.g. " + sample);
+			}
+		}
+		if (sorted.size() > maxKinds) {
+			summary(warnings > 0, "  ... and " + (sorted.size() - maxKinds) + " more kinds");
+		}
+	}
+
+	private void summary(boolean warning, String line) {
+		if (warning) {
+			log.warn(line);
+		} else {
+			log.info(line);
+		}
+	}
+
+	private static String topPackages(Kind kind) {
+		List<Map.Entry<String, int[]>> packages = new ArrayList<Map.Entry<String, int[]>>(kind.packages.entrySet());
+		Collections.sort(packages, new Comparator<Map.Entry<String, int[]>>() {
+			public int compare(Map.Entry<String, int[]> a, Map.Entry<String, int[]> b) {
+				return b.getValue()[0] - a.getValue()[0];
+			}
+		});
+		StringBuilder result = new StringBuilder();
+		for (int i = 0; i < packages.size() && i < 3; i++) {
+			result.append(i > 0 ? ", " : "").append(packages.get(i).getKey()).append(" (")
+					.append(packages.get(i).getValue()[0]).append(')');
+		}
+		if (packages.size() > 3) {
+			result.append(", ").append(packages.size() - 3).append(" more packages");
+		}
+		return result.toString();
+	}
+
+	public void buildStarted(BuildEvent event) {
+	}
+
+	public void buildFinished(BuildEvent event) {
+	}
+
+	public void targetStarted(BuildEvent event) {
+	}
+
+	public void targetFinished(BuildEvent event) {
+	}
+
+	public void taskStarted(BuildEvent event) {
+	}
+
+	public void taskFinished(BuildEvent event) {
+	}
+}
@@ -0,0 +1,194 @@
+package com.github.wvengen.maven.proguard;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * The per-module mappings of <code>uniqueMapping</code> with <code>hash</code> naming. Every module flattens its
+ * classes into a package derived from a hash of its groupId and artifactId, so it doesn't depend on the modules built
+ * before it: a module only applies the mappings of the reactor modules it depends on, which Maven builds first anyway.
+ * After a run the module's mapping is stored in the mappings directory, and all module mappings are merged into the
+ * shared mapping file, which fails the build if classes of two modules got the same obfuscated name.
+ */
+public class ModuleMappings {
+
+	private static final Object LOCK = new Object();
+
+	private static final int PACKAGE_LENGTH = 6;
+
+	private static final Set<String> KEYWORDS = new HashSet<String>(Arrays.asList("double", "import", "native",
+			"public", "return", "static", "switch", "throws"));
+
+	private static final String SUFFIX = ".map";
+
+	private Log log;
+
+	private File directory;
+
+	public ModuleMappings(Log log, File directory) {
+		this.log = log;
+		this.directory = directory;
+	}
+
+	/**
+	 * @return the package of a module, a stable hash of its coordinates in lower case letters
+	 */
+	public static String packageName(String groupId, String artifactId) {
+		MessageDigest digest = Checksums.newDigest();
+		Checksums.update(digest, groupId);
+		Checksums.update(digest, artifactId);
+		byte[] hash = digest.digest();
+		long value = 0;
+		for (int i = 0; i < 8; i++) {
+			value = (value << 8) | (hash[i] & 0xFF);
+		}
+		value &= Long.MAX_VALUE;
+		StringBuilder name = new StringBuilder();
+		while (name.length() < PACKAGE_LENGTH || KEYWORDS.contains(name.toString())) {
+			name.append((char) ('a' + value % 26));
+			value /= 26;
+		}
+		return name.toString();
+	}
+
+	/**
+	 * @return the package of the module at an index of the reactor, <code>a</code> to <code>z</code>, then
+	 *         <code>aa</code>, <code>ab</code> and so on
+	 */
+	public static String indexName(int index) {
+		StringBuilder name = new StringBuilder();
+		int value = index;
+		do {
+			name.insert(0, (char) ('a' + value % 26));
+			value = value / 26 - 1;
+		} while (value >= 0);
+		return name.toString();
+	}
+
+	public File getMappingFile(String groupId, String artifactId) {
+		return new File(directory, groupId + "_" + artifactId + SUFFIX);
+	}
+
+	/**
+	 * Concatenates mappings, e.g. those of the modules a module depends on, for <code>-applymapping</code>.
+	 *
+	 * @return the target, <code>null</code> if none of the mappings exists
+	 */
+	public File merge(List<File> mappings, File target) throws MojoExecutionException {
+		boolean found = false;
+		try {
+			target.getParentFile().mkdirs();
+			OutputStream out = new FileOutputStream(target);
+			try {
+				synchronized (LOCK) {
+					for (File mapping : mappings) {
+						if (mapping.exists()) {
+							append(mapping, out);
+							found = true;
+						}
+					}
+				}
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			throw new MojoExecutionException("Can't write " + target, e);
+		}
+		if (!found) {
+			target.delete();
+			return null;
+		}
+		return target;
+	}
+
+	/**
+	 * Stores the mapping of a module and merges all module mappings into the shared mapping file.
+	 *
+	 * @throws MojoFailureException
+	 *             if two classes got the same obfuscated name
+	 */
+	public void store(File mapping, String groupId, String artifactId, File sharedMappingFile)
+			throws MojoExecutionException, MojoFailureException {
+		synchronized (LOCK) {
+			File moduleMapping = getMappingFile(groupId, artifactId);
+			File tmp = new File(moduleMapping.getPath() + ".tmp");
+			File mergedTmp = new File(sharedMappingFile.getPath() + ".tmp");
+			try {
+				directory.mkdirs();
+				OutputStream out = new FileOutputStream(tmp);
+				try {
+					append(mapping, out);
+				} finally {
+					out.close();
+				}
+				moduleMapping.delete();
+				if (!tmp.renameTo(moduleMapping)) {
+					throw new MojoExecutionException("Can't replace " + moduleMapping);
+				}
+
+				File[] files = directory.listFiles();
+				Set<File> moduleMappings = new TreeSet<File>();
+				for (int i = 0; files != null && i < files.length; i++) {
+					if (files[i].getName().endsWith(SUFFIX)) {
+						moduleMappings.add(files[i]);
+					}
+				}
+				sharedMappingFile.getParentFile().mkdirs();
+				out = new FileOutputStream(mergedTmp);
+				try {
+					for (File file : moduleMappings) {
+						append(file, out);
+					}
+				} finally {
+					out.close();
+				}
+				sharedMappingFile.delete();
+				if (!mergedTmp.renameTo(sharedMappingFile)) {
+					throw new MojoExecutionException("Can't replace " + sharedMappingFile);
+				}
+				log.info("Merged the mappings of " + moduleMappings.size() + " modules into " + sharedMappingFile);
+			} catch (IOException e) {
+				throw new MojoExecutionException("Can't store the mapping of " + groupId + ":" + artifactId, e);
+			} finally {
+				tmp.delete();
+				mergedTmp.delete();
+			}
+			// sorts the merged mappings and verifies that no obfuscated name is used twice
+			new MappingStore(log, sharedMappingFile).compact(false);
+		}
+	}
+
+	private static void append(File file, OutputStream out) throws IOException {
+		int last = '\n';
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] buffer = new byte[65536];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+				if (read > 0) {
+					last = buffer[read - 1];
+				}
+			}
+		} finally {
+			in.close();
+		}
+		if (last != '\n') {
+			out.write('\n');
+		}
+	}
+}
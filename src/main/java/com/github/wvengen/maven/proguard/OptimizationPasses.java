@@ -0,0 +1,225 @@
+package com.github.wvengen.maven.proguard;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.tools.ant.BuildEvent;
+import org.apache.tools.ant.BuildListener;
+
+/**
+ * Learns the number of optimization passes worth running for a module. A calibration run uses
+ * {@link AdaptiveOptimization#maxPasses} passes with verbose output, from which the optimizations ProGuard counts per
+ * pass are read; the learned count is the number of leading passes whose optimizations reach
+ * {@link AdaptiveOptimization#minGainPercent} of the first pass's. The count is stored by a fingerprint of the input
+ * class names and the configuration, so new classes or options trigger a new calibration, as does
+ * {@link AdaptiveOptimization#recalibrateEvery}. The state file of an execution only keeps the count of the latest
+ * fingerprint.
+ */
+public class OptimizationPasses implements BuildListener {
+
+	private static final Pattern COUNT = Pattern.compile("\\s+Number of [^:]*:\\s*(\\d+)\\s*");
+
+	private Log log;
+
+	private AdaptiveOptimization config;
+
+	private File stateFile;
+
+	private Properties state = new Properties();
+
+	private String fingerprint;
+
+	private boolean calibrating;
+
+	/** the optimizations of each pass of a calibration run */
+	private List<long[]> passes = Collections.synchronizedList(new ArrayList<long[]>());
+
+	public OptimizationPasses(Log log, AdaptiveOptimization config, File stateFile) throws MojoExecutionException {
+		this.log = log;
+		this.config = config;
+		this.stateFile = stateFile;
+		if (stateFile.exists()) {
+			try {
+				InputStream in = new FileInputStream(stateFile);
+				try {
+					state.load(in);
+				} finally {
+					in.close();
+				}
+			} catch (IOException e) {
+				throw new MojoExecutionException("Can't read " + stateFile, e);
+			}
+		}
+	}
+
+	/**
+	 * Fingerprints the names of the classes in the program files and the configuration.
+	 */
+	public static String fingerprint(List<File> programFiles, List<String> configuration) throws MojoExecutionException {
+		List<String> names = new ArrayList<String>();
+		try {
+			for (File programFile : programFiles) {
+				if (programFile.isDirectory()) {
+					addClassNames(programFile, "", names);
+				} else if (programFile.exists()) {
+					RawZipFile zip = new RawZipFile(programFile);
+					try {
+						for (RawZipFile.Entry entry : zip.getEntries()) {
+							if (entry.getName().endsWith(".class")) {
+								names.add(entry.getName());
+							}
+						}
+					} finally {
+						zip.close();
+					}
+				}
+			}
+		} catch (IOException e) {
+			throw new MojoExecutionException("Can't read the program files", e);
+		}
+		Collections.sort(names);
+		MessageDigest digest = Checksums.newDigest();
+		for (String value : configuration) {
+			Checksums.update(digest, value);
+		}
+		for (String name : names) {
+			Checksums.update(digest, name);
+		}
+		return Checksums.toHex(digest.digest());
+	}
+
+	private static void addClassNames(File dir, String prefix, List<String> names) {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File file : files) {
+			if (file.isDirectory()) {
+				addClassNames(file, prefix + file.getName() + "/", names);
+			} else if (file.getName().endsWith(".class")) {
+				names.add(prefix + file.getName());
+			}
+		}
+	}
+
+	/**
+	 * @return the number of passes for this run; if {@link #isCalibrating()}, ProGuard has to run verbose
+	 */
+	public int choose(String fingerprint) {
+		this.fingerprint = fingerprint;
+		String learned = state.getProperty(fingerprint + ".passes");
+		int runs = Integer.parseInt(state.getProperty(fingerprint + ".runs", "0"));
+		if (learned == null) {
+			log.info("Calibrating optimization passes with " + config.maxPasses + " passes");
+			calibrating = true;
+			return config.maxPasses;
+		}
+		if (config.recalibrateEvery > 0 && runs >= config.recalibrateEvery) {
+			log.info("Calibrating optimization passes again after " + runs + " builds");
+			calibrating = true;
+			return config.maxPasses;
+		}
+		log.info("Using " + learned + " learned optimization passes");
+		return Integer.parseInt(learned);
+	}
+
+	public boolean isCalibrating() {
+		return calibrating;
+	}
+
+	/**
+	 * Learns from a calibration run or counts a run with the learned passes. Only called for successful runs.
+	 */
+	public void finish() throws MojoExecutionException {
+		if (calibrating) {
+			if (passes.isEmpty()) {
+				log.warn("ProGuard reported no optimization passes, nothing learned");
+				return;
+			}
+			int learned = learn(passes, config.minGainPercent);
+			StringBuilder counts = new StringBuilder();
+			for (long[] pass : passes) {
+				counts.append(counts.length() > 0 ? ", " : "").append(pass[0]);
+			}
+			log.info("Learned " + learned + " optimization passes from the optimizations per pass: " + counts);
+			// the counts of previous inputs or configurations are hardly ever used again
+			state.clear();
+			state.setProperty(fingerprint + ".passes", String.valueOf(learned));
+			state.setProperty(fingerprint + ".runs", "0");
+		} else {
+			int runs = Integer.parseInt(state.getProperty(fingerprint + ".runs", "0"));
+			state.setProperty(fingerprint + ".runs", String.valueOf(runs + 1));
+		}
+		stateFile.getParentFile().mkdirs();
+		try {
+			OutputStream out = new FileOutputStream(stateFile);
+			try {
+				state.store(out, "optimization passes learned by proguard-maven-plugin, by input fingerprint");
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			throw new MojoExecutionException("Can't write " + stateFile, e);
+		}
+	}
+
+	/**
+	 * @return the number of leading passes with at least <code>minGainPercent</code> of the first pass's
+	 *         optimizations, at least 1
+	 */
+	static int learn(List<long[]> passes, double minGainPercent) {
+		long first = passes.get(0)[0];
+		int learned = 1;
+		while (learned < passes.size() && passes.get(learned)[0] * 100.0 >= first * minGainPercent
+				&& passes.get(learned)[0] > 0) {
+			learned++;
+		}
+		return learned;
+	}
+
+	public void messageLogged(BuildEvent event) {
+		if (!calibrating || event.getMessage() == null) {
+			return;
+		}
+		String line = event.getMessage();
+		if (line.trim().startsWith("Optimizing")) {
+			passes.add(new long[1]);
+			return;
+		}
+		Matcher count = COUNT.matcher(line);
+		if (count.matches() && !passes.isEmpty()) {
+			passes.get(passes.size() - 1)[0] += Long.parseLong(count.group(1));
+		}
+	}
+
+	public void buildStarted(BuildEvent event) {
+	}
+
+	public void buildFinished(BuildEvent event) {
+	}
+
+	public void targetStarted(BuildEvent event) {
+	}
+
+	public void targetFinished(BuildEvent event) {
+	}
+
+	public void taskStarted(BuildEvent event) {
+	}
+
+	public void taskFinished(BuildEvent event) {
+	}
+}
@@ -0,0 +1,26 @@
+package com.github.wvengen.maven.proguard;
+
+import java.io.File;
+
+public class PerformanceBaseline {
+	/** CSV file with the history of this execution, by default in the local repository, so it survives a clean */
+	protected File historyFile;
+
+	/** JSON file with the history and the baseline for dashboards, by default <code>proguard_trend.json</code> */
+	protected File trendFile;
+
+	/** number of previous runs whose median is the baseline */
+	protected int baselineRuns = 5;
+
+	/** number of runs kept in the history file */
+	protected int maxHistory = 100;
+
+	/** warn when ProGuard time or peak heap exceeds the baseline by more than this percentage */
+	protected double warnPercent = 25;
+
+	/** fail when ProGuard time or peak heap exceeds the baseline by more than this percentage */
+	protected double failPercent = -1;
+
+	/** don't compare ProGuard times below this many milliseconds, they are mostly noise */
+	protected long minMillis = 2000;
+}
@@ -0,0 +1,262 @@
+package com.github.wvengen.maven.proguard;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Records the stage timings, the peak heap of the ProGuard fork and the input sizes of every run in a CSV history
+ * file, and compares ProGuard time and peak heap against the median of the previous runs. A run that regresses beyond
+ * the fail threshold is not recorded, so it can't become part of the baseline; delete the history file to accept a
+ * new baseline. The history and the baseline are also written as JSON for dashboards.
+ */
+public class PerformanceHistory {
+
+	public static final String PROGUARD_MILLIS = "proguardMillis";
+
+	public static final String PEAK_HEAP_BYTES = "peakHeapBytes";
+
+	private static final String TIMESTAMP = "timestamp";
+
+	private Log log;
+
+	private PerformanceBaseline config;
+
+	private File historyFile;
+
+	private File trendFile;
+
+	private Map<String, Long> values = new LinkedHashMap<String, Long>();
+
+	/** the columns of the history file as read, runs don't set every value */
+	private List<String> header = Collections.emptyList();
+
+	/**
+	 * @param historyFile
+	 *            the history file, used if the configuration doesn't name one
+	 * @param trendFile
+	 *            the trend file, used if the configuration doesn't name one
+	 */
+	public PerformanceHistory(Log log, PerformanceBaseline config, File historyFile, File trendFile) {
+		this.log = log;
+		this.config = config;
+		this.historyFile = config.historyFile != null ? config.historyFile : historyFile;
+		this.trendFile = config.trendFile != null ? config.trendFile : trendFile;
+	}
+
+	/**
+	 * Adds to a value of this run, e.g. the milliseconds of a stage that ran more than once.
+	 */
+	public void add(String name, long value) {
+		Long previous = values.get(name);
+		values.put(name, Long.valueOf(previous == null ? value : previous.longValue() + value));
+	}
+
+	public void set(String name, long value) {
+		values.put(name, Long.valueOf(value));
+	}
+
+	/**
+	 * Compares this run with the baseline, records it and writes the trend.
+	 *
+	 * @throws MojoFailureException
+	 *             if ProGuard time or peak heap regressed beyond the fail threshold
+	 */
+	public void finish() throws MojoExecutionException, MojoFailureException {
+		List<Map<String, String>> runs = read();
+		List<Map<String, String>> baselineRuns = runs.subList(Math.max(0, runs.size() - config.baselineRuns),
+				runs.size());
+		Map<String, Long> baseline = new LinkedHashMap<String, Long>();
+		for (String name : values.keySet()) {
+			long median = median(baselineRuns, name);
+			if (median > 0) {
+				baseline.put(name, Long.valueOf(median));
+			}
+		}
+
+		StringBuilder failures = new StringBuilder();
+		compare(PROGUARD_MILLIS, "ProGuard time", " ms", config.minMillis, baseline, failures);
+		compare(PEAK_HEAP_BYTES, "ProGuard peak heap", " bytes", 1, baseline, failures);
+		if (failures.length() > 0) {
+			throw new MojoFailureException("Performance regression against the baseline in " + historyFile + ":"
+					+ failures + "\nDelete the history file to accept the new numbers as baseline.");
+		}
+
+		Map<String, String> run = new LinkedHashMap<String, String>();
+		run.put(TIMESTAMP, String.valueOf(System.currentTimeMillis()));
+		for (Map.Entry<String, Long> value : values.entrySet()) {
+			run.put(value.getKey(), value.getValue().toString());
+		}
+		runs.add(run);
+		if (runs.size() > config.maxHistory) {
+			runs = runs.subList(runs.size() - config.maxHistory, runs.size());
+		}
+		write(runs);
+		writeTrend(runs, baseline);
+	}
+
+	private void compare(String name, String description, String unit, long minimum, Map<String, Long> baseline,
+			StringBuilder failures) {
+		Long current = values.get(name);
+		Long reference = baseline.get(name);
+		if (current == null || reference == null || reference.longValue() < minimum) {
+			return;
+		}
+		double percent = (current.longValue() - reference.longValue()) * 100.0 / reference.longValue();
+		String message = description + " " + current + unit + " is " + Math.round(percent) + "% above the baseline of "
+				+ reference + unit + " (median of the last " + config.baselineRuns + " runs)";
+		if (config.failPercent >= 0 && percent > config.failPercent) {
+			failures.append("\n  ").append(message);
+		} else if (config.warnPercent >= 0 && percent > config.warnPercent) {
+			log.warn(message);
+		}
+	}
+
+	private static long median(List<Map<String, String>> runs, String name) {
+		List<Long> samples = new ArrayList<Long>();
+		for (Map<String, String> run : runs) {
+			String value = run.get(name);
+			if (value != null && value.length() > 0) {
+				samples.add(Long.valueOf(value));
+			}
+		}
+		if (samples.isEmpty()) {
+			return -1;
+		}
+		Collections.sort(samples);
+		return samples.get(samples.size() / 2).longValue();
+	}
+
+	private List<Map<String, String>> read() throws MojoExecutionException {
+		List<Map<String, String>> runs = new ArrayList<Map<String, String>>();
+		if (!historyFile.exists()) {
+			return runs;
+		}
+		try {
+			BufferedReader reader = new BufferedReader(new FileReader(historyFile));
+			try {
+				String line = reader.readLine();
+				if (line == null) {
+					return runs;
+				}
+				header = Arrays.asList(line.split(","));
+				while ((line = reader.readLine()) != null) {
+					String[] fields = line.split(",");
+					Map<String, String> run = new HashMap<String, String>();
+					for (int i = 0; i < fields.length && i < header.size(); i++) {
+						run.put(header.get(i), fields[i]);
+					}
+					runs.add(run);
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (IOException e) {
+			throw new MojoExecutionException("Can't read performance history " + historyFile, e);
+		}
+		return runs;
+	}
+
+	/**
+	 * @return the columns of the history file followed by the values new in this run, so that the values of earlier
+	 *         runs are kept when this run didn't set them
+	 */
+	private List<String> columns() {
+		Set<String> columns = new LinkedHashSet<String>();
+		columns.add(TIMESTAMP);
+		columns.addAll(header);
+		columns.addAll(values.keySet());
+		return new ArrayList<String>(columns);
+	}
+
+	private void write(List<Map<String, String>> runs) throws MojoExecutionException {
+		historyFile.getParentFile().mkdirs();
+		File tmp = new File(historyFile.getPath() + ".tmp");
+		List<String> columns = columns();
+		try {
+			PrintWriter writer = new PrintWriter(new FileWriter(tmp));
+			try {
+				writer.println(join(columns, null));
+				for (Map<String, String> run : runs) {
+					writer.println(join(columns, run));
+				}
+			} finally {
+				writer.close();
+			}
+		} catch (IOException e) {
+			tmp.delete();
+			throw new MojoExecutionException("Can't write performance history " + tmp, e);
+		}
+		historyFile.delete();
+		if (!tmp.renameTo(historyFile)) {
+			throw new MojoExecutionException("Can't replace performance history " + historyFile);
+		}
+	}
+
+	private static String join(List<String> columns, Map<String, String> run) {
+		StringBuilder line = new StringBuilder();
+		for (String column : columns) {
+			if (line.length() > 0) {
+				line.append(',');
+			}
+			if (run == null) {
+				line.append(column);
+			} else if (run.get(column) != null) {
+				line.append(run.get(column));
+			}
+		}
+		return line.toString();
+	}
+
+	private void writeTrend(List<Map<String, String>> runs, Map<String, Long> baseline) throws MojoExecutionException {
+		List<String> columns = columns();
+		trendFile.getParentFile().mkdirs();
+		try {
+			PrintWriter writer = new PrintWriter(new FileWriter(trendFile));
+			try {
+				writer.println("{");
+				writer.print("  \"baseline\": {");
+				String separator = "";
+				for (Map.Entry<String, Long> value : baseline.entrySet()) {
+					writer.print(separator + "\"" + value.getKey() + "\": " + value.getValue());
+					separator = ", ";
+				}
+				writer.println("},");
+				writer.println("  \"runs\": [");
+				for (int i = 0; i < runs.size(); i++) {
+					writer.print("    {");
+					separator = "";
+					for (String column : columns) {
+						String value = runs.get(i).get(column);
+						writer.print(separator + "\"" + column + "\": " + (value == null || value.length() == 0 ? "null" : value));
+						separator = ", ";
+					}
+					writer.println(i < runs.size() - 1 ? "}," : "}");
+				}
+				writer.println("  ]");
+				writer.println("}");
+			} finally {
+				writer.close();
+			}
+		} catch (IOException e) {
+			throw new MojoExecutionException("Can't write performance trend " + trendFile, e);
+		}
+		log.info("Performance history: " + values + ", trend written to " + trendFile);
+	}
+}
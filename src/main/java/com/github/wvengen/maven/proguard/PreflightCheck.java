@@ -0,0 +1,244 @@
+package com.github.wvengen.maven.proguard;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Checks before ProGuard is forked that every class referenced from the injars can be resolved against the injars and
+ * the libraries. Class names are indexed from the central directories of all entries in parallel, then the constant
+ * pools of the program classes are scanned in parallel. Unresolved classes are reported grouped by package.
+ */
+public class PreflightCheck {
+
+	private static final int MAX_SAMPLES = 3;
+
+	private Log log;
+
+	private ProGuardOptions options;
+
+	private int threads;
+
+	public PreflightCheck(Log log, ProGuardOptions options) {
+		this.log = log;
+		this.options = options;
+		this.threads = Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * @throws MojoFailureException
+	 *             if unresolved references are found that are not covered by <code>-dontwarn</code>, unless
+	 *             <code>-ignorewarnings</code> is configured
+	 */
+	public void check(List<File> programEntries, List<File> libraryEntries) throws MojoExecutionException,
+			MojoFailureException {
+		long start = System.currentTimeMillis();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<File> entries = new ArrayList<File>(programEntries);
+			entries.addAll(libraryEntries);
+			Set<String> index = index(executor, entries);
+			Map<String, Set<String>> unresolved = resolve(executor, programEntries, index);
+			filterDontWarn(unresolved);
+			log.info("Pre-flight check of " + index.size() + " classes in " + entries.size() + " entries took "
+					+ (System.currentTimeMillis() - start) + " ms");
+			if (!unresolved.isEmpty()) {
+				String report = report(unresolved);
+				if (options.hasOption("-ignorewarnings")) {
+					log.warn(report);
+				} else {
+					throw new MojoFailureException(report);
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private Set<String> index(ExecutorService executor, List<File> entries) throws MojoExecutionException {
+		List<Future<Set<String>>> futures = new ArrayList<Future<Set<String>>>();
+		for (final File entry : entries) {
+			futures.add(executor.submit(new Callable<Set<String>>() {
+				public Set<String> call() throws IOException {
+					return ClassPathScanner.classNames(entry);
+				}
+			}));
+		}
+		Set<String> index = new HashSet<String>();
+		for (Future<Set<String>> future : futures) {
+			index.addAll(get(future));
+		}
+		return index;
+	}
+
+	/**
+	 * @return the unresolved class names mapped to the program classes referring to them
+	 */
+	private Map<String, Set<String>> resolve(ExecutorService executor, List<File> programEntries,
+			final Set<String> index) throws MojoExecutionException {
+		ClassPathScanner.ClassReader<Set<String>> reader = new ClassPathScanner.ClassReader<Set<String>>() {
+			public Set<String> read(String className, InputStream in) throws IOException {
+				Set<String> missing = new TreeSet<String>();
+				for (String reference : ClassFileInfo.read(in, true).getReferencedClasses()) {
+					if (!index.contains(reference)) {
+						missing.add(reference);
+					}
+				}
+				return missing.isEmpty() ? null : missing;
+			}
+		};
+		List<Future<Map<String, Set<String>>>> futures = new ArrayList<Future<Map<String, Set<String>>>>();
+		for (File entry : programEntries) {
+			try {
+				futures.addAll(ClassPathScanner.submit(executor, threads, entry, reader));
+			} catch (IOException e) {
+				throw new MojoExecutionException("Can't read " + entry, e);
+			}
+		}
+		Map<String, Set<String>> unresolved = new TreeMap<String, Set<String>>();
+		for (Future<Map<String, Set<String>>> future : futures) {
+			for (Map.Entry<String, Set<String>> missing : get(future).entrySet()) {
+				for (String reference : missing.getValue()) {
+					addReference(unresolved, reference, missing.getKey());
+				}
+			}
+		}
+		return unresolved;
+	}
+
+	private static void addReference(Map<String, Set<String>> references, String className, String referencingClass) {
+		Set<String> referencingClasses = references.get(className);
+		if (referencingClasses == null) {
+			referencingClasses = new TreeSet<String>();
+			references.put(className, referencingClasses);
+		}
+		referencingClasses.add(referencingClass);
+	}
+
+	private static <T> T get(Future<T> future) throws MojoExecutionException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MojoExecutionException("Pre-flight check interrupted", e);
+		} catch (ExecutionException e) {
+			throw new MojoExecutionException("Pre-flight check failed: " + e.getCause().getMessage(), e.getCause());
+		}
+	}
+
+	/**
+	 * Drops unresolved references that ProGuard would not warn about. Like ProGuard, a <code>-dontwarn</code> filter
+	 * applies to the referencing as well as to the referenced class.
+	 */
+	private void filterDontWarn(Map<String, Set<String>> unresolved) {
+		List<ProGuardFilter> filters = new ArrayList<ProGuardFilter>();
+		for (String filter : options.getFilters("-dontwarn")) {
+			if (filter.length() == 0) {
+				unresolved.clear();
+				return;
+			}
+			filters.add(new ProGuardFilter(filter, '.'));
+		}
+		if (filters.isEmpty()) {
+			return;
+		}
+		for (Iterator<Map.Entry<String, Set<String>>> i = unresolved.entrySet().iterator(); i.hasNext();) {
+			Map.Entry<String, Set<String>> entry = i.next();
+			if (matches(filters, entry.getKey())) {
+				i.remove();
+				continue;
+			}
+			for (Iterator<String> j = entry.getValue().iterator(); j.hasNext();) {
+				if (matches(filters, j.next())) {
+					j.remove();
+				}
+			}
+			if (entry.getValue().isEmpty()) {
+				i.remove();
+			}
+		}
+	}
+
+	private static boolean matches(List<ProGuardFilter> filters, String className) {
+		String externalName = toExternalName(className);
+		for (ProGuardFilter filter : filters) {
+			if (filter.matches(externalName)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static String toExternalName(String className) {
+		return className.replace('/', '.');
+	}
+
+	private static String packageName(String className) {
+		int end = className.lastIndexOf('/');
+		return end < 0 ? "" : toExternalName(className.substring(0, end));
+	}
+
+	private static String report(Map<String, Set<String>> unresolved) {
+		Map<String, List<String>> packages = new TreeMap<String, List<String>>();
+		for (String className : unresolved.keySet()) {
+			String packageName = packageName(className);
+			List<String> classes = packages.get(packageName);
+			if (classes == null) {
+				classes = new ArrayList<String>();
+				packages.put(packageName, classes);
+			}
+			classes.add(className);
+		}
+
+		StringBuilder report = new StringBuilder();
+		report.append("Pre-flight check found ").append(unresolved.size()).append(" unresolved classes in ")
+				.append(packages.size()).append(" packages:");
+		boolean jdkMissing = false;
+		for (Map.Entry<String, List<String>> entry : packages.entrySet()) {
+			String packageName = entry.getKey();
+			jdkMissing |= packageName.startsWith("java.") || packageName.startsWith("javax.");
+			Set<String> referencingClasses = new TreeSet<String>();
+			for (String className : entry.getValue()) {
+				referencingClasses.addAll(unresolved.get(className));
+			}
+			report.append("\n  ").append(packageName.length() == 0 ? "(default package)" : packageName).append(": ")
+					.append(entry.getValue().size()).append(" classes, referenced from ")
+					.append(referencingClasses.size()).append(" classes, e.g.");
+			int samples = 0;
+			for (String className : entry.getValue()) {
+				if (samples++ == MAX_SAMPLES) {
+					report.append(", ...");
+					break;
+				}
+				report.append(samples == 1 ? " " : ", ").append(toExternalName(unresolved.get(className).iterator().next())).append(" -> ")
+						.append(toExternalName(className));
+			}
+		}
+		report.append("\nAdd the dependencies providing these packages");
+		if (jdkMissing) {
+			report.append(" (for JDK classes add the JDK to libs or enable jdkRuntimeLibrary)");
+		}
+		report.append(", or if they are not needed at runtime add:");
+		for (String packageName : packages.keySet()) {
+			report.append("\n  -dontwarn ").append(packageName.length() == 0 ? "*" : packageName + ".**");
+		}
+		return report.toString();
+	}
+}
@@ -0,0 +1,72 @@
+package com.github.wvengen.maven.proguard;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Matches names against a ProGuard filter list like <code>!com.foo.internal.**,com.foo.**</code>. The first
+ * matching element decides. A name that matches no element is only accepted when the last element is negated, like
+ * ProGuard does. Supported wildcards are <code>?</code>, <code>*</code> and <code>**</code>.
+ */
+public class ProGuardFilter {
+
+	private List<Pattern> patterns = new ArrayList<Pattern>();
+
+	private List<Boolean> negated = new ArrayList<Boolean>();
+
+	/**
+	 * @param filter
+	 *            the comma separated filter list
+	 * @param separator
+	 *            the separator <code>*</code> does not match, '.' for class names and '/' for file names
+	 */
+	public ProGuardFilter(String filter, char separator) {
+		for (String element : filter.split(",")) {
+			element = element.trim();
+			if (element.length() == 0) {
+				continue;
+			}
+			boolean not = element.startsWith("!");
+			if (not) {
+				element = element.substring(1);
+			}
+			patterns.add(Pattern.compile(toRegex(element, separator)));
+			negated.add(Boolean.valueOf(not));
+		}
+	}
+
+	private static String toRegex(String element, char separator) {
+		String notSeparator = "[^" + Pattern.quote(String.valueOf(separator)) + "]";
+		StringBuilder regex = new StringBuilder();
+		for (int i = 0; i < element.length(); i++) {
+			char c = element.charAt(i);
+			if (c == '*') {
+				if (i + 1 < element.length() && element.charAt(i + 1) == '*') {
+					regex.append(".*");
+					i++;
+				} else {
+					regex.append(notSeparator).append('*');
+				}
+			} else if (c == '?') {
+				regex.append(notSeparator);
+			} else {
+				regex.append(Pattern.quote(String.valueOf(c)));
+			}
+		}
+		return regex.toString();
+	}
+
+	public boolean isEmpty() {
+		return patterns.isEmpty();
+	}
+
+	public boolean matches(String name) {
+		for (int i = 0; i < patterns.size(); i++) {
+			if (patterns.get(i).matcher(name).matches()) {
+				return !negated.get(i).booleanValue();
+			}
+		}
+		return !negated.isEmpty() && negated.get(negated.size() - 1).booleanValue();
+	}
+}
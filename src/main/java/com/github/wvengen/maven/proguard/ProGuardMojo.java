@@ -21,20 +21,29 @@
 package com.github.wvengen.maven.proguard;
 
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.maven.archiver.MavenArchiveConfiguration;
 import org.apache.maven.archiver.MavenArchiver;
 import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.repository.ArtifactRepository;
 import org.apache.maven.model.Dependency;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
@@ -46,7 +55,9 @@ import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.DefaultLogger;
 import org.apache.tools.ant.Project;
 import org.apache.tools.ant.taskdefs.Java;
+import org.apache.tools.ant.types.Environment;
 import org.codehaus.plexus.archiver.jar.JarArchiver;
+import org.codehaus.plexus.util.FileUtils;
 import org.codehaus.plexus.util.StringUtils;
 
 /**
@@ -79,7 +90,7 @@ public class ProGuardMojo extends AbstractMojo
     *
     * @parameter default-value="${basedir}/proguard.conf"
     */
-   private File proguardInclude;
+   protected File proguardInclude;
 
    /**
     * Select specific ProGuard version from plugin dependencies
@@ -131,6 +142,111 @@ public class ProGuardMojo extends AbstractMojo
     */
    private UniqueMapping uniqueMapping;
 
+   /**
+    * Which ProGuard reports to write (<code>seeds</code>, <code>configuration</code>, <code>dump</code>,
+    * <code>usage</code>) and whether to gzip or truncate them. The <code>ci</code> preset keeps reports only when
+    * ProGuard fails. By default all reports are written uncompressed.
+    *
+    * @parameter
+    */
+   private Diagnostics diagnostics;
+
+   /**
+    * Writes <code>proguard_size.json</code> and <code>proguard_size.html</code> with the input and output bytes and
+    * the removed and renamed classes, methods and fields per package and per dependency, measured on the final
+    * output jar. The build fails when the output jar exceeds <code>maxOutputSize</code> or grew by more than
+    * <code>maxGrowthPercent</code> since the baseline, which the first report stores in <code>baselineFile</code> and
+    * <code>updateBaseline</code> moves.
+    *
+    * @parameter
+    */
+   private SizeReport sizeReport;
+
+   /**
+    * Records the stage timings, the peak heap of the ProGuard fork and the input sizes of every run in a history file
+    * and warns or fails when ProGuard time or peak heap exceeds the median of the previous runs by more than
+    * <code>warnPercent</code> or <code>failPercent</code>. The history and the baseline are also written to
+    * <code>proguard_trend.json</code>.
+    *
+    * @parameter
+    */
+   private PerformanceBaseline performanceBaseline;
+
+   /**
+    * Profiles the ProGuard process with a Java Flight Recorder recording, <code>proguard.jfr</code>, summarized in
+    * <code>proguard_profile.txt</code> (top allocation sites, hot methods and GC pauses), and optionally class
+    * histograms at the ProGuard phase boundaries, <code>proguard_histogram_*.txt</code>.
+    *
+    * @parameter
+    */
+   private Profiling profiling;
+
+   /**
+    * Watches the output of the ProGuard process: when it prints nothing for <code>stallTimeout</code>, thread dumps
+    * are written to <code>proguard_threads_*.txt</code> every <code>dumpInterval</code>, and the process is killed
+    * after <code>timeout</code>. The failure message names the dumps and the last line ProGuard printed.
+    *
+    * @parameter
+    */
+   private Watchdog watchdog;
+
+   /**
+    * Aggregate the <code>Warning:</code> and <code>Note:</code> lines ProGuard prints about single classes by kind and
+    * package. The Maven log gets a summary with counts and samples (its size is set by <code>maxMessageKinds</code>
+    * and <code>messageSamples</code> of <code>diagnostics</code>), all lines go to
+    * <code>proguard_messages.txt.gz</code>.
+    *
+    * @parameter property="proguard.aggregateMessages" default-value="true"
+    */
+   private boolean aggregateMessages = true;
+
+   /**
+    * Learns how many optimization passes are worth running: a calibration run with <code>maxPasses</code> passes
+    * counts ProGuard's optimizations per pass, and later builds run the passes that reached
+    * <code>minGainPercent</code> of the first pass. The count is kept in the local repository per module, input class
+    * names and configuration, and calibrated again every <code>recalibrateEvery</code> builds. Overrides
+    * <code>-optimizationpasses</code> in the configuration.
+    *
+    * @parameter
+    */
+   private AdaptiveOptimization adaptiveOptimization;
+
+   /**
+    * Moves the classes of a class-load-order <code>profile</code> (from <code>-Xlog:class+load</code>,
+    * <code>-verbose:class</code> or one class name per line) to the front of the output jar, in load order and
+    * translated through the obfuscation mapping, optionally <code>store</code>d uncompressed. Applied to the final jar,
+    * after the assembly.
+    *
+    * @parameter
+    */
+   private StartupOrder startupOrder;
+
+   /**
+    * Drop library jars whose content is identical to an earlier library, e.g. the same snapshot resolved under two
+    * paths. Content hashes are cached in the local repository by path, size and modification time.
+    *
+    * @parameter property="proguard.deduplicateLibraries" default-value="false"
+    */
+   private boolean deduplicateLibraries;
+
+   /**
+    * Pack library directories with at least this many class files, e.g. <code>target/classes</code> of reactor
+    * modules, into jars cached in the local repository, so ProGuard reads one file instead of walking the directory.
+    * 0 packs none.
+    *
+    * @parameter property="proguard.packLibraryDirectories" default-value="0"
+    */
+   private int packLibraryDirectories;
+
+   /**
+    * Merge the class entries of all library jars into one bundle jar cached in the local repository and shared by all
+    * modules with the same libraries in the same order, so that ProGuard opens one jar instead of hundreds. Libraries with a filter,
+    * library directories and the JDK runtime library stay separate.
+    *
+    * @parameter property="proguard.bundleLibraries" default-value="false"
+    */
+   private boolean bundleLibraries;
+
    /**
     * Additional -libraryjars e.g. ${java.home}/lib/rt.jar Project compile dependency are added automatically. See
     * exclusions
@@ -139,6 +255,24 @@ public class ProGuardMojo extends AbstractMojo
     */
    private List<String> libs;
 
+   /**
+    * Extract the JDK classes the program actually needs from the running JDK (through the <code>jrt:</code> file
+    * system on Java 9+) into a compact library jar and pass it as the only JDK -libraryjars. The jar is cached per
+    * JDK build in the local repository. Entries of <code>libs</code> pointing into the JDK are dropped.
+    *
+    * @parameter default-value="false"
+    */
+   private boolean jdkRuntimeLibrary;
+
+   /**
+    * Check before forking ProGuard that all classes referenced from the injars can be resolved against the injars and
+    * libraries. Unresolved references that are not covered by <code>-dontwarn</code> fail the build with a report
+    * grouped by package, unless <code>-ignorewarnings</code> is configured.
+    *
+    * @parameter default-value="false"
+    */
+   private boolean preflightCheck;
+
    /**
     * List of dependency exclusions
     *
@@ -166,6 +300,20 @@ public class ProGuardMojo extends AbstractMojo
     */
    private boolean injarNotExistsSkip;
 
+   /**
+    * Read the compiled classes (<code>project.build.outputDirectory</code>) instead of <code>injar</code> and package
+    * the ProGuard output into <code>outjar</code> with the <code>archive</code> configuration, as the
+    * maven-jar-plugin would. Without <code>outjar</code> the output is <code>injar</code> and becomes the file of the
+    * project's main artifact. The classes are compressed once, instead of being packed by the maven-jar-plugin, copied
+    * to the -proguard_base jar, unpacked by ProGuard and unpacked and packed again to adapt the manifest. Bind the
+    * execution to the package phase and the default-jar execution of the maven-jar-plugin to the phase
+    * <code>none</code>. The output is a directory for ProGuard, so <code>resourcePassthrough</code>,
+    * <code>resourceFastPath</code> and <code>incremental</code> don't apply.
+    *
+    * @parameter property="proguard.packageClasses" default-value="false"
+    */
+   private boolean packageClasses;
+
    /**
     * Apply ProGuard classpathentry Filters to input jar. e.g. <code>!**.gif,!**&#47;tests&#47;**'</code>
     *
@@ -173,6 +321,45 @@ public class ProGuardMojo extends AbstractMojo
     */
    protected String inFilter;
 
+   /**
+    * Feed ProGuard only the class files and the resources it has to adapt (<code>-adaptresourcefilenames</code>,
+    * <code>-adaptresourcefilecontents</code>) of the input jar. All other resources are copied from the input jar into
+    * the output jar after ProGuard has finished, without recompressing them. Resources are selected by extension.
+    *
+    * @parameter default-value="false"
+    */
+   private boolean resourcePassthrough;
+
+   /**
+    * Skip ProGuard when only resources of the input jar changed since the last successful run with the same
+    * configuration, libraries and class files. The changed resources are patched into the previous output jar and the
+    * previous mapping is reused. The state is kept in <code>proguard_fastpath</code> below the output directory.
+    *
+    * @parameter default-value="false"
+    */
+   private boolean resourceFastPath;
+
+   /**
+    * Obfuscate only the changed classes of the input jar and patch them into the previous output jar, for development
+    * builds. ProGuard runs on the changed classes and their neighbours with the previous mapping applied; all other
+    * input classes are libraries. Needs obfuscation, <code>-dontoptimize</code> and a jar output; added or removed
+    * classes, changed class signatures or hierarchies, changed resources, configuration or libraries and classes or
+    * members that the previous run didn't name fall back to a full run. The state is kept in
+    * <code>proguard_incremental</code> below the output directory.
+    *
+    * @parameter property="proguard.incremental" default-value="false"
+    */
+   private boolean incremental;
+
+   /**
+    * Key the resource fast path on the ABI of the libraries (classes, super classes, interfaces and member signatures
+    * with their access flags) instead of their size and modification time, so a rebuilt library with only changed
+    * method bodies doesn't force a ProGuard run. Fingerprints are cached in the local repository by content hash.
+    *
+    * @parameter property="proguard.libraryAbiKeys" default-value="true"
+    */
+   private boolean libraryAbiKeys;
+
    /**
     * Specifies the names of the output jars. If attach=true the value ignored and name constructed base on classifier
     * If empty input jar would be overdriven.
@@ -243,6 +430,15 @@ public class ProGuardMojo extends AbstractMojo
     */
    protected List<String> pluginArtifacts;
 
+   /**
+    * The local repository, plugin caches are kept below it.
+    *
+    * @parameter property="localRepository"
+    * @readonly
+    * @required
+    */
+   protected ArtifactRepository localRepository;
+
    /**
     * @component
     */
@@ -257,7 +453,7 @@ public class ProGuardMojo extends AbstractMojo
    private JarArchiver jarArchiver;
 
    /**
-    * The maven archive configuration to use. only if assembly is used.
+    * The maven archive configuration to use. only if assembly or packageClasses is used.
     *
     * @parameter
     */
@@ -270,6 +466,56 @@ public class ProGuardMojo extends AbstractMojo
     */
    protected String maxMemory;
 
+   /**
+    * Keep the working files of each execution (the ProGuard print files, the -proguard_base copy of the input and the
+    * unpacked output) in a directory <code>proguard-&lt;execution id&gt;</code> below the output directory, so that
+    * several executions in one module, e.g. for different classifiers, don't overwrite each other's files.
+    *
+    * @parameter default-value="false"
+    */
+   private boolean isolateExecutions;
+
+   /**
+    * The id of this execution, used to name its working directory.
+    *
+    * @parameter default-value="${mojoExecution.executionId}"
+    * @readonly
+    */
+   private String executionId;
+
+   /**
+    * Run ProGuard on worker processes instead of forking it here: remote workers at the configured <code>urls</code>
+    * and/or <code>local</code> workers started on this machine (see {@link ProGuardWorker}). Inputs are uploaded by
+    * content hash, so a worker only receives files it doesn't have yet; the files ProGuard writes below the output
+    * directory are downloaded. The watchdog, profiling, message aggregation and adaptive optimization only apply to
+    * local forks.
+    *
+    * @parameter
+    */
+   private RemoteWorkers remoteWorkers;
+
+   /**
+    * Total heap of all ProGuard processes forked concurrently from one Maven JVM, e.g. <code>4g</code>, or a
+    * percentage of the physical memory, e.g. <code>75%</code>. A fork waits until its <code>maxMemory</code> fits
+    * into the budget; waiting forks start largest first. Forks without <code>maxMemory</code> are counted with the
+    * default heap of a new JVM, a quarter of the physical memory, and not limited if that is unknown.
+    *
+    * @parameter property="proguard.forkMemoryBudget" default-value="75%"
+    */
+   private String forkMemoryBudget;
+
+   /**
+    * Shrink the program classes in up to this many partitions, each in its own ProGuard fork, in parallel. The
+    * partitions are cut along the strongly connected components of the class reference graph; classes that a partition
+    * uses from another one are kept whole, with all members, even if the code using them is removed. The output may
+    * therefore be larger than that of a single ProGuard run. Only applies with <code>obfuscate=false</code> and
+    * <code>-dontoptimize</code>, and not with <code>remoteWorkers</code>. <code>0</code> or <code>1</code> processes
+    * all classes in one fork.
+    *
+    * @parameter property="proguard.shrinkPartitions" default-value="0"
+    */
+   private int shrinkPartitions;
+
    /**
     * ProGuard main class name.
     *
@@ -279,6 +525,39 @@ public class ProGuardMojo extends AbstractMojo
 
    private Log log;
 
+   private File workDirectory;
+
+   private PerformanceHistory performance;
+
+   private OptimizationPasses optimizationPasses;
+
+   /**
+    * Milliseconds in which ProGuard forks of this execution waited for the memory budget while none of them ran.
+    */
+   private long queueMillis;
+
+   private int forksWaiting;
+
+   private int forksRunning;
+
+   private long forksChanged;
+
+   /**
+    * The per-module mappings of <code>uniqueMapping</code> with hash naming.
+    */
+   private ModuleMappings moduleMappings;
+
+   /**
+    * Set by the watch goal: runs ProGuard in a process that is kept running between runs instead of forking it.
+    */
+   protected WarmProGuard warmProGuard;
+
+   /**
+    * Cleared by the watch goal, whose output is replaced on every run: whether the output becomes the file of the
+    * project's artifact or is attached to the project.
+    */
+   protected boolean registerOutput = true;
+
    /**
     * ProGuard docs: Names with special characters like spaces and parentheses must be quoted with single or double
     * quotes.
@@ -293,6 +572,33 @@ public class ProGuardMojo extends AbstractMojo
       return fileNameToString(file.toString());
    }
 
+   /**
+    * Strips a ProGuard filter from a class path entry, e.g. <code>lib/rt.jar(java/**)</code>.
+    */
+   private static File libraryFile(final String lib)
+   {
+      final int filterStart = lib.indexOf('(');
+      if (filterStart > 0 && lib.endsWith(")"))
+      {
+         return new File(lib.substring(0, filterStart));
+      }
+      return new File(lib);
+   }
+
+   private File getCacheDirectory(final String name)
+   {
+      return new File(localRepository.getBasedir(), "com/github/wvengen/proguard-maven-plugin/" + name);
+   }
+
+   /**
+    * @return the group id, artifact id and execution id, as a relative path
+    */
+   private String getExecutionKey()
+   {
+      return mavenProject.getGroupId() + "/" + mavenProject.getArtifactId() + "-"
+            + (executionId == null ? "default" : executionId);
+   }
+
    private boolean useArtifactClassifier()
    {
       return appendClassifier && attachArtifactClassifier != null && attachArtifactClassifier.length() > 0;
@@ -309,6 +615,7 @@ public class ProGuardMojo extends AbstractMojo
          return;
       }
 
+      final long start = System.currentTimeMillis();
       final ArrayList<String> args = new ArrayList<String>();
       File mappingFile = null;
       if (uniqueMapping != null)
@@ -353,10 +660,38 @@ public class ProGuardMojo extends AbstractMojo
             }
          }
 
-         if (mappingFile.exists())
+         final String modulePackage;
+         if ("hash".equals(uniqueMapping.naming))
+         {
+            moduleMappings = new ModuleMappings(log, new File(mappingFile.getParentFile(), "proguard-mappings"));
+            final List<File> dependencyMappings = new ArrayList<File>();
+            for (final Iterator i = mavenProject.getArtifacts().iterator(); i.hasNext();)
+            {
+               final Artifact artifact = (Artifact)i.next();
+               dependencyMappings.add(moduleMappings.getMappingFile(artifact.getGroupId(), artifact.getArtifactId()));
+            }
+            final File applyMapping = moduleMappings.merge(dependencyMappings, new File(outputDirectory,
+                  "proguard_dependency_map.txt"));
+            if (applyMapping != null)
+            {
+               args.add("-applymapping");
+               args.add(fileToString(applyMapping));
+            }
+            modulePackage = ModuleMappings.packageName(mavenProject.getGroupId(), mavenProject.getArtifactId());
+         }
+         else if ("index".equals(uniqueMapping.naming))
+         {
+            if (mappingFile.exists())
+            {
+               args.add("-applymapping");
+               args.add(fileToString(mappingFile));
+            }
+            modulePackage = ModuleMappings.indexName(projectIndex);
+         }
+         else
          {
-            args.add("-applymapping");
-            args.add(fileToString(mappingFile));
+            throw new MojoExecutionException("Unknown uniqueMapping naming " + uniqueMapping.naming
+                  + ", use hash or index");
          }
 
          args.add("-flattenpackagehierarchy");
@@ -364,13 +699,13 @@ public class ProGuardMojo extends AbstractMojo
          final StringBuilder packageNameBuilder = new StringBuilder();
          packageNameBuilder.append(uniqueMapping.packageName);
          packageNameBuilder.append(".");
-         packageNameBuilder.append(Character.toChars('a' + projectIndex));
+         packageNameBuilder.append(modulePackage);
          args.add(packageNameBuilder.toString());
       }
 
       final boolean mainIsJar = mavenProject.getPackaging().equals("jar");
 
-      File inJarFile = new File(outputDirectory, injar);
+      File inJarFile = getInputFile();
       if (!inJarFile.exists())
       {
          if (injarNotExistsSkip)
@@ -392,10 +727,28 @@ public class ProGuardMojo extends AbstractMojo
          }
       }
 
+      workDirectory = outputDirectory;
+      if (isolateExecutions)
+      {
+         workDirectory = new File(outputDirectory, "proguard-" + (executionId == null ? "default" : executionId));
+         if (!workDirectory.exists() && !workDirectory.mkdirs())
+         {
+            throw new MojoFailureException("Can't create " + workDirectory);
+         }
+      }
+
+      performance = null;
+      if (performanceBaseline != null)
+      {
+         performance = new PerformanceHistory(log, performanceBaseline, new File(getCacheDirectory("history"),
+               getExecutionKey() + ".csv"), new File(workDirectory, "proguard_trend.json"));
+      }
+
       File outJarFile;
+      File packagedJar = null;
       boolean sameArtifact;
 
-      if (attach)
+      if (attach && registerOutput)
       {
          outjar = nameNoType(injar);
          if (useArtifactClassifier())
@@ -405,7 +758,33 @@ public class ProGuardMojo extends AbstractMojo
          outjar += "." + attachArtifactType;
       }
 
-      if (outjar != null && !outjar.equals(injar))
+      if (packageClasses)
+      {
+         sameArtifact = outjar == null || outjar.equals(injar);
+         packagedJar = new File(outputDirectory, sameArtifact ? injar : outjar).getAbsoluteFile();
+         if (packagedJar.exists())
+         {
+            if (!deleteFileOrDirectory(packagedJar))
+            {
+               throw new MojoFailureException("Can't delete " + packagedJar);
+            }
+         }
+         // ProGuard writes the classes into a directory, which is then packaged once
+         outJarFile = new File(workDirectory, nameNoType(packagedJar.getName()) + "-proguard_classes")
+               .getAbsoluteFile();
+         if (outJarFile.exists())
+         {
+            if (!deleteFileOrDirectory(outJarFile))
+            {
+               throw new MojoFailureException("Can't delete " + outJarFile);
+            }
+         }
+         if (!outJarFile.mkdirs())
+         {
+            throw new MojoFailureException("Can't create " + outJarFile);
+         }
+      }
+      else if (outjar != null && !outjar.equals(injar))
       {
          sameArtifact = false;
          outJarFile = new File(outputDirectory, outjar).getAbsoluteFile();
@@ -424,11 +803,11 @@ public class ProGuardMojo extends AbstractMojo
          File baseFile;
          if (inJarFile.isDirectory())
          {
-            baseFile = new File(outputDirectory, nameNoType(injar) + "-proguard_base");
+            baseFile = new File(workDirectory, nameNoType(injar) + "-proguard_base");
          }
          else
          {
-            baseFile = new File(outputDirectory, nameNoType(injar) + "-proguard_base.jar");
+            baseFile = new File(workDirectory, nameNoType(injar) + "-proguard_base.jar");
          }
          if (baseFile.exists())
          {
@@ -473,6 +852,8 @@ public class ProGuardMojo extends AbstractMojo
 
       final Collection<String> libraryJars = new HashSet<String>();
       final Set<String> inPath = new HashSet<String>();
+      final List<File> programFiles = new ArrayList<File>();
+      final List<File> libraryFiles = new ArrayList<File>();
       boolean hasInclusionLibrary = false;
       if (assembly != null)
       {
@@ -483,6 +864,7 @@ public class ProGuardMojo extends AbstractMojo
             {
                final File file = getClasspathElement(getDependancy(inc, mavenProject), mavenProject);
                inPath.add(file.toString());
+               programFiles.add(file);
                log.debug("--- ADD injars:" + inc.artifactId);
                final StringBuffer filter = new StringBuffer(fileToString(file));
                filter.append("(!META-INF/MANIFEST.MF");
@@ -506,16 +888,37 @@ public class ProGuardMojo extends AbstractMojo
                // This may not be CompileArtifacts, maven 2.0.6 bug
                final File file = getClasspathElement(getDependancy(inc, mavenProject), mavenProject);
                inPath.add(file.toString());
+               libraryFiles.add(file);
                libraryJars.add(fileToString(file));
             }
          }
       }
 
+      ResourcePassthrough passthrough = null;
       if (inJarFile.exists())
       {
+         programFiles.add(inJarFile);
          args.add("-injars");
          final StringBuffer filter = new StringBuffer(fileToString(inJarFile));
-         if (inFilter != null || !addMavenDescriptor)
+         if (resourcePassthrough)
+         {
+            passthrough = createResourcePassthrough(inJarFile, outJarFile);
+         }
+         if (passthrough != null)
+         {
+            // the passthrough filter goes in front, so that the first match still decides for all other entries
+            filter.append("(").append(passthrough.getFilter());
+            if (!addMavenDescriptor)
+            {
+               filter.append(",!META-INF/maven/**");
+            }
+            if (inFilter != null)
+            {
+               filter.append(",").append(inFilter);
+            }
+            filter.append(")");
+         }
+         else if (inFilter != null || !addMavenDescriptor)
          {
             filter.append("(");
             boolean coma = false;
@@ -561,12 +964,14 @@ public class ProGuardMojo extends AbstractMojo
             if (includeDependencyInjar)
             {
                log.debug("--- ADD library as injars:" + artifact.getArtifactId());
+               programFiles.add(file);
                args.add("-injars");
                args.add(fileToString(file));
             }
             else
             {
                log.debug("--- ADD libraryjars:" + artifact.getArtifactId());
+               libraryFiles.add(file);
                libraryJars.add(fileToString(file));
             }
          }
@@ -602,24 +1007,88 @@ public class ProGuardMojo extends AbstractMojo
          for (final Iterator i = libs.iterator(); i.hasNext();)
          {
             final Object lib = i.next();
+            if (jdkRuntimeLibrary && JdkRuntimeLibrary.isJdkLibrary(libraryFile(lib.toString())))
+            {
+               log.info("Replace library " + lib + " with the JDK runtime library");
+               continue;
+            }
+            libraryFiles.add(libraryFile(lib.toString()));
             libraryJars.add(fileNameToString(lib.toString()));
          }
       }
 
+      if (deduplicateLibraries || packLibraryDirectories > 0)
+      {
+         final Map<File, File> replacements = new LibraryDeduplicator(log, getCacheDirectory("libraries"),
+               deduplicateLibraries, packLibraryDirectories).process(libraryFiles);
+         for (final Map.Entry<File, File> replacement : replacements.entrySet())
+         {
+            // libraries with a filter are left alone
+            if (libraryJars.remove(fileToString(replacement.getKey())))
+            {
+               libraryFiles.remove(replacement.getKey());
+               if (replacement.getValue() != null && !libraryFiles.contains(replacement.getValue()))
+               {
+                  libraryFiles.add(replacement.getValue());
+                  libraryJars.add(fileToString(replacement.getValue()));
+               }
+            }
+         }
+      }
+
+      if (bundleLibraries)
+      {
+         final List<File> jars = new ArrayList<File>();
+         for (final File libraryFile : libraryFiles)
+         {
+            if (libraryFile.isFile() && libraryJars.contains(fileToString(libraryFile)))
+            {
+               jars.add(libraryFile);
+            }
+         }
+         if (jars.size() > 1)
+         {
+            final File librariesCache = getCacheDirectory("libraries");
+            final Map<File, String> hashes = new LibraryDeduplicator(log, librariesCache, true, 0).hash(jars);
+            final File bundle = new LibraryBundle(log, new File(librariesCache, "bundles")).create(hashes);
+            for (final File jar : jars)
+            {
+               libraryFiles.remove(jar);
+               libraryJars.remove(fileToString(jar));
+            }
+            libraryFiles.add(bundle);
+            libraryJars.add(fileToString(bundle));
+         }
+      }
+
+      if (jdkRuntimeLibrary)
+      {
+         final File runtimeJar = new JdkRuntimeLibrary(log, getCacheDirectory("jdk-runtime")).create(programFiles,
+               libraryFiles);
+         libraryFiles.add(runtimeJar);
+         libraryJars.add(fileToString(runtimeJar));
+      }
+
       args.add("-printmapping");
-      final File printMappingFile = new File(outputDirectory, "proguard_map.txt").getAbsoluteFile();
+      final File printMappingFile = new File(workDirectory, "proguard_map.txt").getAbsoluteFile();
       args.add(fileToString(printMappingFile));
-      args.add("-printseeds");
-      args.add(fileToString(new File(outputDirectory, "proguard_seeds.txt").getAbsoluteFile()));
-      args.add("-printconfiguration");
-      args.add(fileToString(new File(outputDirectory, "proguard_conf.txt").getAbsoluteFile()));
-      args.add("-dump");
-      args.add(fileToString(new File(outputDirectory, "proguard_dump.txt").getAbsoluteFile()));
-      args.add("-printusage");
-      args.add(fileToString(new File(outputDirectory, "proguard_usage.txt").getAbsoluteFile()));
+      final DiagnosticReports reports = new DiagnosticReports(log, diagnostics, workDirectory);
+      for (final Map.Entry<String, File> report : reports.getReportFiles().entrySet())
+      {
+         args.add(report.getKey());
+         args.add(fileToString(report.getValue()));
+      }
+      File usageFile = reports.getReportFiles().get("-printusage");
+      if (sizeReport != null && usageFile == null)
+      {
+         usageFile = new File(workDirectory, "proguard_usage.txt").getAbsoluteFile();
+         args.add("-printusage");
+         args.add(fileToString(usageFile));
+      }
 
-      if (log.isDebugEnabled())
+      if (log.isDebugEnabled() || (profiling != null && profiling.histograms))
       {
+         // ProGuard only announces its phases when verbose
          args.add("-verbose");
       }
 
@@ -631,56 +1100,127 @@ public class ProGuardMojo extends AbstractMojo
          }
       }
 
-      log.info("execute ProGuard " + args.toString());
-      try
-      {
-         proguardMain(getProguardJar(this), fillArgsWithLibraries(args, libraryJars), this);
-      }
-      catch (final BuildException ex)
+      optimizationPasses = null;
+      if (adaptiveOptimization != null)
       {
-         if (ex.getCause() instanceof IOException)
+         final ProGuardOptions proguardOptions = new ProGuardOptions(options, proguardInclude);
+         if (proguardOptions.getTokens().contains("-dontoptimize"))
          {
-            log.info("Probably the run command is too long. Therefor the command is shortened and executed again.");
-            final Collection<String> resultingLibraries = new HashSet<String>();
-            for (final String libraryJar : libraryJars)
+            log.info("Adaptive optimization passes are disabled by -dontoptimize");
+         }
+         else
+         {
+            optimizationPasses = new OptimizationPasses(log, adaptiveOptimization, new File(
+                  getCacheDirectory("optimization"), getExecutionKey() + ".properties"));
+            final int passes = optimizationPasses.choose(OptimizationPasses.fingerprint(programFiles,
+                  proguardOptions.getTokens()));
+            if (optimizationPasses.isCalibrating() && !args.contains("-verbose"))
             {
-               final int countMatches = StringUtils.countMatches(libraryJar, "jar");
-               final int index1 = libraryJar.lastIndexOf('/');
-               final int index2 = libraryJar.lastIndexOf('\\');
-               final int index = Math.max(index1, index2);
-               if (countMatches <= 1 && index > 0)
-               {
-                  resultingLibraries.add(libraryJar.substring(0, index + 1) + "'");
-               }
-               else
-               {
-                  resultingLibraries.add(libraryJar);
-               }
+               // ProGuard only reports the optimizations per pass when verbose
+               args.add("-verbose");
             }
-
-            proguardMain(getProguardJar(this), fillArgsWithLibraries(args, resultingLibraries), this);
+            // the last -optimizationpasses wins
+            args.add("-optimizationpasses");
+            args.add(String.valueOf(passes));
          }
       }
 
-      new FixAfterObfuscation(getLog()).process(outJarFile, printMappingFile);
-
-      if (assembly != null && hasInclusionLibrary)
+      final File proguardJar = getProguardJar(this);
+      ResourceFastPath fastPath = null;
+      if (resourceFastPath)
       {
-
-         log.info("creating assembly");
-
-         final File baseFile = new File(outputDirectory, nameNoType(injar) + "-proguard_result.jar");
-         if (baseFile.exists())
-         {
-            if (!baseFile.delete())
-            {
-               throw new MojoFailureException("Can't delete " + baseFile);
-            }
+         fastPath = createResourceFastPath(inJarFile, outJarFile, mappingFile, proguardJar, args, libraryJars,
+               programFiles, libraryFiles);
+      }
+      IncrementalObfuscation incrementalObfuscation = null;
+      if (incremental)
+      {
+         incrementalObfuscation = createIncrementalObfuscation(inJarFile, outJarFile, mappingFile, proguardJar, args,
+               libraryJars, programFiles, libraryFiles);
+      }
+      if (performance != null)
+      {
+         performance.set("prepareMillis", System.currentTimeMillis() - start);
+         performance.set("inputBytes", sizeOf(programFiles));
+         performance.set("libraryBytes", sizeOf(libraryFiles));
+      }
+      final SizeReportBuilder sizeReportBuilder = sizeReport != null ? new SizeReportBuilder(log, workDirectory)
+            : null;
+      if (fastPath != null && fastPath.apply(outJarFile, printMappingFile))
+      {
+         log.info("Bypass ProGuard processing because no class files, libraries or configuration changed");
+         // a bypassed run says nothing about ProGuard performance
+         performance = null;
+         if (sizeReportBuilder != null)
+         {
+            sizeReportBuilder.read(programFiles, printMappingFile, null);
          }
-         final File archiverFile = outJarFile.getAbsoluteFile();
-         if (!outJarFile.renameTo(baseFile))
+      }
+      else
+      {
+         reports.prepare();
+         boolean success = false;
+         try
          {
-            throw new MojoFailureException("Can't rename " + outJarFile);
+            if (incrementalObfuscation != null
+                  && runIncremental(incrementalObfuscation, proguardJar, args, libraryJars, outJarFile,
+                        printMappingFile))
+            {
+               // an incremental run says nothing about ProGuard performance
+               performance = null;
+            }
+            else
+            {
+               runProGuard(proguardJar, args, libraryJars, programFiles, libraryFiles, outJarFile, printMappingFile,
+                     passthrough);
+            }
+            if (sizeReportBuilder != null)
+            {
+               // before the reports are compressed or dropped
+               sizeReportBuilder.read(programFiles, printMappingFile, usageFile);
+            }
+            success = true;
+         }
+         finally
+         {
+            reports.finish(success);
+         }
+         if (optimizationPasses != null)
+         {
+            optimizationPasses.finish();
+         }
+         if (fastPath != null)
+         {
+            fastPath.save(outJarFile, printMappingFile);
+         }
+         if (incrementalObfuscation != null)
+         {
+            incrementalObfuscation.save(outJarFile, printMappingFile);
+         }
+      }
+
+
+      if (assembly != null && hasInclusionLibrary)
+      {
+
+         log.info("creating assembly");
+
+         File baseFile = outJarFile;
+         final File archiverFile = packagedJar != null ? packagedJar : outJarFile.getAbsoluteFile();
+         if (packagedJar == null)
+         {
+            baseFile = new File(workDirectory, nameNoType(injar) + "-proguard_result.jar");
+            if (baseFile.exists())
+            {
+               if (!baseFile.delete())
+               {
+                  throw new MojoFailureException("Can't delete " + baseFile);
+               }
+            }
+            if (!outJarFile.renameTo(baseFile))
+            {
+               throw new MojoFailureException("Can't rename " + outJarFile);
+            }
          }
 
          final MavenArchiver archiver = new MavenArchiver();
@@ -690,7 +1230,14 @@ public class ProGuardMojo extends AbstractMojo
 
          try
          {
-            jarArchiver.addArchivedFileSet(baseFile);
+            if (baseFile.isDirectory())
+            {
+               jarArchiver.addDirectory(baseFile);
+            }
+            else
+            {
+               jarArchiver.addArchivedFileSet(baseFile);
+            }
 
             for (final Iterator iter = assembly.inclusions.iterator(); iter.hasNext();)
             {
@@ -722,8 +1269,41 @@ public class ProGuardMojo extends AbstractMojo
          }
 
       }
+      else if (packagedJar != null)
+      {
+         archive.setAddMavenDescriptor(addMavenDescriptor);
+         packageClasses(log, jarArchiver, mavenProject, archive, outJarFile, packagedJar);
+      }
+
+      if (packagedJar != null)
+      {
+         outJarFile = packagedJar;
+         if (sameArtifact && mainIsJar && registerOutput)
+         {
+            mavenProject.getArtifact().setFile(outJarFile);
+         }
+      }
+
+      if (startupOrder != null)
+      {
+         if (outJarFile.isDirectory())
+         {
+            log.info("Startup ordering skipped, the output is not a jar");
+         }
+         else
+         {
+            new StartupJarOrder(log, startupOrder).process(outJarFile, printMappingFile);
+         }
+      }
+
+      if (sizeReportBuilder != null)
+      {
+         // the output as shipped, after the assembly and the startup ordering
+         sizeReportBuilder.create(outJarFile, sizeReport, sizeReport.baselineFile != null ? sizeReport.baselineFile
+               : new File(getCacheDirectory("size"), getExecutionKey() + ".properties"));
+      }
 
-      if (attach && !sameArtifact)
+      if (attach && !sameArtifact && registerOutput)
       {
          if (useArtifactClassifier())
          {
@@ -735,67 +1315,571 @@ public class ProGuardMojo extends AbstractMojo
          }
       }
 
+      if (performance != null)
+      {
+         performance.set("totalMillis", System.currentTimeMillis() - start);
+         performance.finish();
+      }
+
+      if (mappingFile == null)
+      {
+         // no uniqueMapping configured
+         return;
+      }
+
+      if (moduleMappings != null)
+      {
+         moduleMappings.store(printMappingFile, mavenProject.getGroupId(), mavenProject.getArtifactId(), mappingFile);
+         return;
+      }
+
       // append new mappings to existing mapping file
-      FileReader mappingReader = null;
-      FileWriter mappingWriter = null;
+      final long compactSize = uniqueMapping.compactSize == null ? -1 : ForkScheduler
+            .parseMemory(uniqueMapping.compactSize);
+      new MappingStore(log, mappingFile).append(printMappingFile, compactSize, uniqueMapping.compactDuplicateRatio);
+   }
+
+   /**
+    * Packages the classes written by ProGuard into a jar with the archive configuration. A manifest that ProGuard
+    * wrote, with the class names fixed after obfuscation, takes the place of the configured manifest file, since the
+    * archiver skips a manifest in the packaged directory.
+    */
+   static void packageClasses(final Log log, final JarArchiver jarArchiver, final MavenProject mavenProject,
+         final MavenArchiveConfiguration archive, final File classesDirectory, final File jarFile)
+         throws MojoExecutionException
+   {
+      log.info("Packaging " + classesDirectory + " into " + jarFile);
+      final MavenArchiver archiver = new MavenArchiver();
+      archiver.setArchiver(jarArchiver);
+      archiver.setOutputFile(jarFile);
+      final File configuredManifest = archive.getManifestFile();
+      final File manifest = new File(classesDirectory, "META-INF/MANIFEST.MF");
+      if (manifest.isFile())
+      {
+         archive.setManifestFile(manifest);
+      }
       try
       {
-         createIfNecessary(mappingFile);
+         jarArchiver.addDirectory(classesDirectory);
+         archiver.createArchive(mavenProject, archive);
+      }
+      catch (final Exception e)
+      {
+         throw new MojoExecutionException("Unable to create jar", e);
+      }
+      finally
+      {
+         archive.setManifestFile(configuredManifest);
+      }
+   }
 
-         mappingWriter = new FileWriter(mappingFile, true);
-         mappingReader = new FileReader(printMappingFile);
+   private void runProGuard(final File proguardJar, final List<String> args, final Collection<String> libraryJars,
+         final List<File> programFiles, final List<File> libraryFiles, final File outJarFile,
+         final File printMappingFile, final ResourcePassthrough passthrough)
+         throws MojoExecutionException, MojoFailureException
+   {
+      if (preflightCheck)
+      {
+         new PreflightCheck(log, new ProGuardOptions(options, proguardInclude)).check(programFiles, libraryFiles);
+      }
 
-         int input;
-         while ((input = mappingReader.read()) != -1)
+      log.info("execute ProGuard " + args.toString());
+      final long start = System.currentTimeMillis();
+      queueMillis = 0;
+      try
+      {
+         if (remoteWorkers != null)
+         {
+            runRemote(proguardJar, fillArgsWithLibraries(args, libraryJars), programFiles, libraryFiles);
+         }
+         else if (shrinkPartitions <= 1
+               || !runPartitioned(proguardJar, args, libraryJars, programFiles, outJarFile, printMappingFile))
          {
-            mappingWriter.write(input);
+            fork(proguardJar, fillArgsWithLibraries(args, libraryJars), workDirectory);
          }
       }
-      catch (final IOException e)
+      catch (final BuildException ex)
       {
-         throw new MojoExecutionException("Unable to create mapping file", e);
+         if (ex.getCause() instanceof IOException)
+         {
+            log.info("Probably the run command is too long. Therefor the command is shortened and executed again.");
+            final Collection<String> resultingLibraries = new HashSet<String>();
+            for (final String libraryJar : libraryJars)
+            {
+               final int countMatches = StringUtils.countMatches(libraryJar, "jar");
+               final int index1 = libraryJar.lastIndexOf('/');
+               final int index2 = libraryJar.lastIndexOf('\\');
+               final int index = Math.max(index1, index2);
+               if (countMatches <= 1 && index > 0)
+               {
+                  resultingLibraries.add(libraryJar.substring(0, index + 1) + "'");
+               }
+               else
+               {
+                  resultingLibraries.add(libraryJar);
+               }
+            }
+
+            proguardMain(proguardJar, fillArgsWithLibraries(args, resultingLibraries), this, workDirectory);
+         }
+         else
+         {
+            throw new MojoExecutionException("Obfuscation failed: " + ex.getMessage(), ex);
+         }
       }
-      finally
+      final long postprocessStart = System.currentTimeMillis();
+
+      new FixAfterObfuscation(getLog()).process(outJarFile, printMappingFile, workDirectory);
+
+      if (passthrough != null)
       {
-         try
+         passthrough.merge(outJarFile);
+      }
+      if (performance != null)
+      {
+         // waiting for the memory budget says nothing about ProGuard performance
+         performance.set(PerformanceHistory.PROGUARD_MILLIS, postprocessStart - start - queueMillis);
+         performance.set("queueMillis", queueMillis);
+         performance.set("postprocessMillis", System.currentTimeMillis() - postprocessStart);
+      }
+   }
+
+   private void runRemote(final File proguardJar, final List<String> runArgs, final List<File> programFiles,
+         final List<File> libraryFiles) throws MojoExecutionException
+   {
+      final Set<File> inputs = new LinkedHashSet<File>(programFiles);
+      inputs.addAll(libraryFiles);
+      for (int i = 1; i < runArgs.size(); i++)
+      {
+         final String option = runArgs.get(i - 1);
+         if (option.equals("-applymapping") || option.equals("-include"))
+         {
+            inputs.add(new File(StringUtils.strip(runArgs.get(i), "'")));
+         }
+      }
+      for (final Iterator<File> i = inputs.iterator(); i.hasNext();)
+      {
+         if (!i.next().exists())
+         {
+            i.remove();
+         }
+      }
+      final List<String> jvmArgs = new ArrayList<String>();
+      if (maxMemory != null)
+      {
+         jvmArgs.add("-Xmx" + maxMemory);
+      }
+      final int result = new RemoteProGuard(log, remoteWorkers, getCacheDirectory("libraries")).run(
+            getPluginClasses(), proguardJar, proguardMainClass, jvmArgs, runArgs, new ArrayList<File>(inputs),
+            outputDirectory);
+      if (result != 0)
+      {
+         throw new MojoExecutionException("Obfuscation failed (result=" + result + ")");
+      }
+   }
+
+   /**
+    * Shrinks the program classes in partitions, in parallel forks, and merges their outputs and reports.
+    *
+    * @return false if the configuration or the classes don't allow partitions
+    */
+   private boolean runPartitioned(final File proguardJar, final List<String> args,
+         final Collection<String> libraryJars, final List<File> programFiles, final File outJarFile,
+         final File printMappingFile) throws MojoExecutionException
+   {
+      if (obfuscate || !new ProGuardOptions(options, proguardInclude).hasOption("-dontoptimize"))
+      {
+         log.info("Shrink partitions need obfuscate=false and -dontoptimize, processing all classes in one fork");
+         return false;
+      }
+      // the filter of every program file, e.g. (!META-INF/maven/**)
+      final List<String> filters = new ArrayList<String>();
+      for (int i = 0; i < args.size(); i++)
+      {
+         if (args.get(i).equals("-injars"))
          {
-            if (mappingWriter != null)
+            final String injar = args.get(++i);
+            final String file = filters.size() < programFiles.size() ? fileToString(programFiles.get(filters.size()))
+                  : null;
+            if (file == null || !injar.startsWith(file))
             {
-               mappingWriter.close();
+               log.info("Shrink partitions can't match input " + injar + ", processing all classes in one fork");
+               return false;
             }
-            if (mappingReader != null)
+            filters.add(injar.substring(file.length()));
+         }
+      }
+
+      final ShrinkPartitions partitioner = new ShrinkPartitions(log, new File(workDirectory, "proguard-partitions"));
+      final List<ShrinkPartitions.Partition> partitions = partitioner.partition(programFiles,
+            shrinkPartitions);
+      if (partitions.size() < 2)
+      {
+         return false;
+      }
+      partitioner.write(programFiles, partitions);
+
+      final Map<String, List<File>> reports = new LinkedHashMap<String, List<File>>();
+      final List<File> outputs = new ArrayList<File>();
+      final List<Callable<Object>> forks = new ArrayList<Callable<Object>>();
+      for (final ShrinkPartitions.Partition partition : partitions)
+      {
+         final File directory = partitioner.getDirectory(partition);
+         final File output = new File(directory, ShrinkPartitions.isArchive(outJarFile) ? "output.jar" : "output");
+         outputs.add(output);
+         final ArrayList<String> partitionArgs = new ArrayList<String>();
+         for (int i = 0; i < args.size(); i++)
+         {
+            final String option = args.get(i);
+            if (option.equals("-injars"))
+            {
+               if (!partitionArgs.contains("-injars"))
+               {
+                  // the inputs go in front of the output
+                  addPartitionInputs(partitionArgs, partitioner, partition, filters);
+               }
+               i++;
+            }
+            else if (option.equals("-outjars"))
             {
-               mappingReader.close();
+               partitionArgs.add(option);
+               partitionArgs.add(fileToString(output));
+               i++;
+            }
+            else if (option.equals("-printmapping") || reportFileOption(option))
+            {
+               // each fork writes its own report, they are concatenated afterwards
+               final File report = new File(StringUtils.strip(args.get(++i), "'"));
+               final File partitionReport = new File(directory, report.getName());
+               List<File> reportFiles = reports.get(report.getPath());
+               if (reportFiles == null)
+               {
+                  reportFiles = new ArrayList<File>();
+                  reports.put(report.getPath(), reportFiles);
+               }
+               reportFiles.add(partitionReport);
+               partitionArgs.add(option);
+               partitionArgs.add(fileToString(partitionReport));
+            }
+            else
+            {
+               partitionArgs.add(option);
             }
          }
-         catch (final IOException e)
+         partitionArgs.add("-include");
+         partitionArgs.add(fileToString(partitioner.getSeeds(partition)));
+         // the earlier partitions are libraries, their package private members are still referenced
+         partitionArgs.add("-dontskipnonpubliclibraryclassmembers");
+         final Collection<String> partitionLibraries = new ArrayList<String>(libraryJars);
+         for (final ShrinkPartitions.Partition earlier : partitions.subList(0, partition.getIndex()))
+         {
+            for (int i = 0; i < filters.size(); i++)
+            {
+               final File input = partitioner.getInput(earlier, i);
+               if (input.exists())
+               {
+                  partitionLibraries.add(fileToString(input) + filters.get(i));
+               }
+            }
+         }
+         forks.add(new Callable<Object>()
+         {
+            public Object call() throws MojoExecutionException
+            {
+               proguardMain(proguardJar, fillArgsWithLibraries(partitionArgs, partitionLibraries), ProGuardMojo.this,
+                     directory);
+               return null;
+            }
+         });
+      }
+
+      final ExecutorService executor = Executors.newFixedThreadPool(partitions.size());
+      try
+      {
+         for (final Future<Object> fork : executor.invokeAll(forks))
+         {
+            fork.get();
+         }
+      }
+      catch (final InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         throw new MojoExecutionException("Interrupted while shrinking partitions", e);
+      }
+      catch (final ExecutionException e)
+      {
+         if (e.getCause() instanceof MojoExecutionException)
+         {
+            throw (MojoExecutionException)e.getCause();
+         }
+         if (e.getCause() instanceof RuntimeException)
          {
-            // if it can't be closed, it can't be closed ...
+            throw (RuntimeException)e.getCause();
          }
+         throw new MojoExecutionException("Shrinking a partition failed", e.getCause());
       }
+      finally
+      {
+         executor.shutdownNow();
+      }
+
+      partitioner.merge(outputs, outJarFile);
+      for (final Map.Entry<String, List<File>> report : reports.entrySet())
+      {
+         partitioner.concatenate(report.getValue(), new File(report.getKey()));
+      }
+      return true;
    }
 
-   private ArrayList<String> fillArgsWithLibraries(final Collection<String> args, final Collection<String> libraries)
+   private static void addPartitionInputs(final List<String> partitionArgs, final ShrinkPartitions partitioner,
+         final ShrinkPartitions.Partition partition, final List<String> filters)
    {
-      final ArrayList<String> runArgs = new ArrayList<String>(args);
-      for (final String libraryJar : libraries)
+      for (int i = 0; i < filters.size(); i++)
       {
-         runArgs.add("-libraryjars");
-         runArgs.add(libraryJar);
+         final File input = partitioner.getInput(partition, i);
+         if (input.exists())
+         {
+            partitionArgs.add("-injars");
+            partitionArgs.add(fileToString(input) + filters.get(i));
+         }
       }
-      return runArgs;
+      partitionArgs.add("-injars");
+      partitionArgs.add(fileToString(partitioner.getAnchor(partition)));
+   }
+
+   private static boolean reportFileOption(final String option)
+   {
+      return option.equals("-printseeds") || option.equals("-printusage") || option.equals("-printconfiguration")
+            || option.equals("-dump");
    }
 
-   private void createIfNecessary(final File mappingFile) throws IOException
+   private static long sizeOf(final Collection<File> files)
    {
-      if (mappingFile != null)
+      long size = 0;
+      for (final File file : files)
       {
-         if (!mappingFile.exists())
+         if (file.isDirectory())
          {
-            mappingFile.getParentFile().mkdirs();
-            mappingFile.createNewFile();
+            final File[] children = file.listFiles();
+            size += children == null ? 0 : sizeOf(Arrays.asList(children));
+         }
+         else
+         {
+            size += file.length();
          }
       }
+      return size;
+   }
+
+   /**
+    * @return the passthrough for the input jar, <code>null</code> if no resources can be passed through
+    */
+   private ResourcePassthrough createResourcePassthrough(final File inJarFile, final File outJarFile)
+         throws MojoExecutionException
+   {
+      if (outJarFile.isDirectory() || nameNoType(outJarFile.getName()).equals(outJarFile.getName()))
+      {
+         log.info("Resource passthrough disabled, the output is not a jar");
+         return null;
+      }
+      final ResourcePassthrough passthrough = new ResourcePassthrough(log, inJarFile, getInjarUserFilter(),
+            new ProGuardOptions(options, proguardInclude));
+      return passthrough.isEmpty() ? null : passthrough;
+   }
+
+   /**
+    * @return the fast path for the input jar, <code>null</code> if the output is not a jar
+    */
+   private ResourceFastPath createResourceFastPath(final File inJarFile, final File outJarFile,
+         final File mappingFile, final File proguardJar, final List<String> args,
+         final Collection<String> libraryJars, final List<File> programFiles, final List<File> libraryFiles)
+         throws MojoExecutionException
+   {
+      if (!inJarFile.exists() || outJarFile.isDirectory()
+            || nameNoType(outJarFile.getName()).equals(outJarFile.getName()))
+      {
+         log.info("Resource fast path disabled, the output is not a jar");
+         return null;
+      }
+      final ProGuardOptions proguardOptions = new ProGuardOptions(options, proguardInclude);
+      final File stateDirectory = new File(new File(workDirectory, "proguard_fastpath"),
+            nameNoType(outJarFile.getName()));
+      return new ResourceFastPath(log, stateDirectory, inJarFile, getInjarUserFilter(), proguardOptions,
+            configurationKey(inJarFile, mappingFile, proguardJar, args, libraryJars, programFiles, libraryFiles,
+                  proguardOptions));
+   }
+
+   private IncrementalObfuscation createIncrementalObfuscation(final File inJarFile, final File outJarFile,
+         final File mappingFile, final File proguardJar, final List<String> args,
+         final Collection<String> libraryJars, final List<File> programFiles, final List<File> libraryFiles)
+         throws MojoExecutionException
+   {
+      final ProGuardOptions proguardOptions = new ProGuardOptions(options, proguardInclude);
+      if (!inJarFile.exists() || outJarFile.isDirectory()
+            || nameNoType(outJarFile.getName()).equals(outJarFile.getName()))
+      {
+         log.info("Incremental obfuscation disabled, the output is not a jar");
+         return null;
+      }
+      if (!obfuscate || !proguardOptions.hasOption("-dontoptimize") || uniqueMapping != null
+            || programFiles.size() > 1)
+      {
+         log.info("Incremental obfuscation disabled, it needs obfuscation, -dontoptimize, a single injar and no"
+               + " uniqueMapping");
+         return null;
+      }
+      final File stateDirectory = new File(new File(workDirectory, "proguard_incremental"),
+            nameNoType(outJarFile.getName()));
+      return new IncrementalObfuscation(log, stateDirectory, inJarFile, getInjarUserFilter(), configurationKey(
+            inJarFile, mappingFile, proguardJar, args, libraryJars, programFiles, libraryFiles, proguardOptions));
+   }
+
+   /**
+    * Builds the key of everything besides the input jar that determines the ProGuard result, see
+    * {@link ResourceFastPath#configurationKey(List, Collection)}.
+    */
+   private String configurationKey(final File inJarFile, final File mappingFile, final File proguardJar,
+         final List<String> args, final Collection<String> libraryJars, final List<File> programFiles,
+         final List<File> libraryFiles, final ProGuardOptions proguardOptions) throws MojoExecutionException
+   {
+      final List<String> keyValues = new ArrayList<String>(args);
+      final Set<String> libraryValues = new TreeSet<String>(libraryJars);
+      final List<File> keyInputs = new ArrayList<File>(programFiles);
+      keyInputs.remove(inJarFile);
+      if (libraryAbiKeys)
+      {
+         for (final Map.Entry<File, String> abi : new LibraryAbi(log, getCacheDirectory("libraries")).fingerprint(
+               libraryFiles).entrySet())
+         {
+            // the ABI stands in for the path, which changes with the content of a bundle or packed directory
+            libraryValues.remove(fileToString(abi.getKey()));
+            keyValues.add(abi.getValue());
+         }
+      }
+      else
+      {
+         keyInputs.addAll(libraryFiles);
+      }
+      keyValues.addAll(libraryValues);
+      keyValues.addAll(proguardOptions.getTokens());
+      keyInputs.add(proguardJar);
+      if (mappingFile != null && mappingFile.exists())
+      {
+         keyInputs.add(mappingFile);
+      }
+      return ResourceFastPath.configurationKey(keyValues, keyInputs);
+   }
+
+   /**
+    * Runs ProGuard on the changed classes only, see {@link IncrementalObfuscation}.
+    *
+    * @return false if ProGuard has to process all classes
+    */
+   private boolean runIncremental(final IncrementalObfuscation incrementalObfuscation, final File proguardJar,
+         final List<String> args, final Collection<String> libraryJars, final File outJarFile,
+         final File printMappingFile) throws MojoExecutionException
+   {
+      final IncrementalObfuscation.Plan plan = incrementalObfuscation.plan();
+      if (plan == null)
+      {
+         return false;
+      }
+      if (plan.getChanged().isEmpty())
+      {
+         return incrementalObfuscation.apply(plan, null, null, outJarFile, printMappingFile);
+      }
+      final File directory = plan.getProgramJar().getParentFile();
+      final File output = new File(directory, "output.jar");
+      final File mapping = new File(directory, "proguard_map.txt");
+      final ArrayList<String> incrementalArgs = new ArrayList<String>();
+      for (int i = 0; i < args.size(); i++)
+      {
+         final String option = args.get(i);
+         if (option.equals("-injars"))
+         {
+            if (!incrementalArgs.contains("-injars"))
+            {
+               incrementalArgs.add(option);
+               incrementalArgs.add(fileToString(plan.getProgramJar()));
+            }
+            i++;
+         }
+         else if (option.equals("-outjars"))
+         {
+            incrementalArgs.add(option);
+            incrementalArgs.add(fileToString(output));
+            i++;
+         }
+         else if (option.equals("-printmapping"))
+         {
+            incrementalArgs.add(option);
+            incrementalArgs.add(fileToString(mapping));
+            i++;
+         }
+         else if (reportFileOption(option))
+         {
+            // the reports of an incremental run would only cover its classes
+            i++;
+         }
+         else
+         {
+            incrementalArgs.add(option);
+         }
+      }
+      incrementalArgs.add("-applymapping");
+      incrementalArgs.add(fileToString(plan.getMapping()));
+      incrementalArgs.add("-include");
+      incrementalArgs.add(fileToString(plan.getSeeds()));
+      // the unchanged classes are libraries, their package private members are still referenced
+      incrementalArgs.add("-dontskipnonpubliclibraryclassmembers");
+      final Collection<String> incrementalLibraries = new ArrayList<String>(libraryJars);
+      incrementalLibraries.add(fileToString(plan.getLibraryJar()));
+
+      log.info("execute ProGuard incrementally " + incrementalArgs);
+      try
+      {
+         fork(proguardJar, fillArgsWithLibraries(incrementalArgs, incrementalLibraries), directory);
+      }
+      catch (final MojoExecutionException e)
+      {
+         log.info("Incremental ProGuard run failed (" + e.getMessage() + "), running ProGuard on all classes");
+         return false;
+      }
+      if (!incrementalObfuscation.apply(plan, output, mapping, outJarFile, printMappingFile))
+      {
+         log.info("Running ProGuard on all classes");
+         return false;
+      }
+      return true;
+   }
+
+   private ProGuardFilter getInjarUserFilter()
+   {
+      final StringBuilder userFilter = new StringBuilder();
+      if (!addMavenDescriptor)
+      {
+         userFilter.append("!META-INF/maven/**");
+      }
+      if (inFilter != null)
+      {
+         if (userFilter.length() > 0)
+         {
+            userFilter.append(",");
+         }
+         userFilter.append(inFilter);
+      }
+      return userFilter.length() == 0 ? null : new ProGuardFilter(userFilter.toString(), '/');
+   }
+
+   private ArrayList<String> fillArgsWithLibraries(final Collection<String> args, final Collection<String> libraries)
+   {
+      final ArrayList<String> runArgs = new ArrayList<String>(args);
+      for (final String libraryJar : libraries)
+      {
+         runArgs.add("-libraryjars");
+         runArgs.add(libraryJar);
+      }
+      return runArgs;
    }
 
    private static File getProguardJar(final ProGuardMojo mojo) throws MojoExecutionException
@@ -860,9 +1944,43 @@ public class ProGuardMojo extends AbstractMojo
       return new File(proguardJar);
    }
 
-   private static void proguardMain(final File proguardJar, final ArrayList argsList, final ProGuardMojo mojo)
+   /**
+    * Runs ProGuard in the warm process of the watch goal, or else in a new fork.
+    */
+   private void fork(final File proguardJar, final ArrayList<String> argsList, final File forkDirectory)
          throws MojoExecutionException
    {
+      if (warmProGuard == null)
+      {
+         proguardMain(proguardJar, argsList, this, forkDirectory);
+         return;
+      }
+      final int result = warmProGuard.run(proguardJar, argsList, new File(forkDirectory, "proguard_args.txt"));
+      if (result != 0)
+      {
+         throw new MojoExecutionException("Obfuscation failed (result=" + result + ")");
+      }
+   }
+
+   /**
+    * Counts the forks of this execution that wait for the memory budget or run. Time in which forks wait and none
+    * runs is queue time; partition forks wait side by side, so their waits are not added up.
+    */
+   private synchronized void forkStateChanged(final int waiting, final int running)
+   {
+      final long now = System.currentTimeMillis();
+      if ((forksWaiting > 0) && (forksRunning == 0))
+      {
+         queueMillis += now - forksChanged;
+      }
+      forksWaiting += waiting;
+      forksRunning += running;
+      forksChanged = now;
+   }
+
+   private static void proguardMain(final File proguardJar, final ArrayList argsList, final ProGuardMojo mojo,
+         final File forkDirectory) throws MojoExecutionException
+   {
 
       final Java java = new Java();
 
@@ -870,14 +1988,28 @@ public class ProGuardMojo extends AbstractMojo
       antProject.setName(mojo.mavenProject.getName());
       antProject.init();
 
-      final DefaultLogger antLogger = new DefaultLogger();
-      antLogger.setOutputPrintStream(System.out);
-      antLogger.setErrorPrintStream(System.err);
-      antLogger.setMessageOutputLevel(mojo.log.isDebugEnabled() ? Project.MSG_DEBUG : Project.MSG_INFO);
-
-      antProject.addBuildListener(antLogger);
+      MessageAggregator aggregator = null;
+      if (mojo.aggregateMessages)
+      {
+         final Diagnostics diagnostics = mojo.diagnostics != null ? mojo.diagnostics : new Diagnostics();
+         aggregator = new MessageAggregator(mojo.log, new File(forkDirectory, "proguard_messages.txt.gz"),
+               diagnostics.maxMessageKinds, diagnostics.messageSamples);
+         antProject.addBuildListener(aggregator);
+      }
+      else
+      {
+         final DefaultLogger antLogger = new DefaultLogger();
+         antLogger.setOutputPrintStream(System.out);
+         antLogger.setErrorPrintStream(System.err);
+         antLogger.setMessageOutputLevel(mojo.log.isDebugEnabled() ? Project.MSG_DEBUG : Project.MSG_INFO);
+         antProject.addBuildListener(antLogger);
+      }
       antProject.setBaseDir(mojo.mavenProject.getBasedir());
 
+      if (mojo.optimizationPasses != null)
+      {
+         antProject.addBuildListener(mojo.optimizationPasses);
+      }
       java.setProject(antProject);
       java.setTaskName("proguard");
 
@@ -885,7 +2017,64 @@ public class ProGuardMojo extends AbstractMojo
 
       java.createClasspath().setLocation(proguardJar);
       // java.createClasspath().setPath(System.getProperty("java.class.path"));
-      java.setClassname(mojo.proguardMainClass);
+      File peakHeapFile = null;
+      final boolean histograms = mojo.profiling != null && mojo.profiling.histograms;
+      ForkWatchdog forkWatchdog = null;
+      if (mojo.performance != null || histograms || mojo.watchdog != null)
+      {
+         // measure the fork through the launcher, which runs the ProGuard main class
+         java.createClasspath().setLocation(getPluginClasses());
+         java.setClassname(ForkLauncher.class.getName());
+         java.createArg().setValue(mojo.proguardMainClass);
+         if (mojo.performance != null)
+         {
+            peakHeapFile = new File(forkDirectory, "proguard_peak_heap.txt");
+            peakHeapFile.delete();
+            addSysproperty(java, ForkLauncher.PEAK_HEAP_FILE, peakHeapFile.getAbsolutePath());
+         }
+         if (histograms)
+         {
+            final File[] oldHistograms = forkDirectory.listFiles();
+            for (int i = 0; oldHistograms != null && i < oldHistograms.length; i++)
+            {
+               if (oldHistograms[i].getName().startsWith("proguard_histogram_"))
+               {
+                  oldHistograms[i].delete();
+               }
+            }
+            addSysproperty(java, ForkLauncher.HISTOGRAM_PREFIX, new File(forkDirectory, "proguard_histogram")
+                  .getAbsolutePath());
+         }
+         if (mojo.watchdog != null)
+         {
+            forkWatchdog = new ForkWatchdog(mojo.watchdog, forkDirectory);
+            forkWatchdog.configure(java);
+            antProject.addBuildListener(forkWatchdog);
+         }
+      }
+      else
+      {
+         java.setClassname(mojo.proguardMainClass);
+      }
+
+      File recording = null;
+      if (mojo.profiling != null)
+      {
+         if (mojo.profiling.flightRecorder)
+         {
+            recording = new File(forkDirectory, "proguard.jfr").getAbsoluteFile();
+            recording.delete();
+            java.createJvmarg().setValue("-XX:StartFlightRecording=dumponexit=true,filename=" + recording
+                  + ",settings=" + mojo.profiling.settings);
+         }
+         if (mojo.profiling.jvmArgs != null)
+         {
+            for (final String jvmArg : mojo.profiling.jvmArgs)
+            {
+               java.createJvmarg().setValue(jvmArg);
+            }
+         }
+      }
 
       java.setFailonerror(true);
 
@@ -902,11 +2091,121 @@ public class ProGuardMojo extends AbstractMojo
          java.createArg().setValue(i.next().toString());
       }
 
-      final int result = java.executeJava();
+      // without maxMemory the fork gets the default heap of a new JVM, not the heap of the Maven JVM
+      final long forkHeap = mojo.maxMemory != null ? ForkScheduler.parseMemory(mojo.maxMemory) : ForkScheduler
+            .getDefaultHeap();
+      final long budget = (mojo.forkMemoryBudget == null) || (forkHeap <= 0) ? -1 : ForkScheduler.parseBudget(
+            mojo.log, mojo.forkMemoryBudget);
+      if (budget > 0)
+      {
+         mojo.forkStateChanged(1, 0);
+         try
+         {
+            ForkScheduler.acquire(mojo.log, budget, forkHeap);
+         }
+         finally
+         {
+            mojo.forkStateChanged(-1, 0);
+         }
+         mojo.forkStateChanged(0, 1);
+      }
+      final int result;
+      try
+      {
+         result = java.executeJava();
+      }
+      catch (final BuildException e)
+      {
+         if (e.getCause() instanceof IOException)
+         {
+            // the command line may be too long, see runProGuard
+            throw e;
+         }
+         // e.g. the Ant timeout that backs up the watchdog killed the process
+         throw new MojoExecutionException("Obfuscation failed: " + e.getMessage()
+               + (forkWatchdog == null ? "" : forkWatchdog.describe(0)), e);
+      }
+      finally
+      {
+         if (budget > 0)
+         {
+            ForkScheduler.release(forkHeap);
+            mojo.forkStateChanged(0, -1);
+         }
+         if (aggregator != null)
+         {
+            aggregator.finish();
+         }
+      }
+      if (recording != null)
+      {
+         if (recording.exists())
+         {
+            new FlightRecordingSummary(mojo.log, mojo.profiling.top).write(recording, new File(forkDirectory,
+                  "proguard_profile.txt"));
+         }
+         else
+         {
+            mojo.log.warn("No flight recording was written to " + recording
+                  + ", the JVM may need additional profiling.jvmArgs");
+         }
+      }
+      if (peakHeapFile != null && peakHeapFile.exists())
+      {
+         try
+         {
+            final long peakHeap = Long.parseLong(FileUtils.fileRead(peakHeapFile).trim());
+            synchronized (mojo)
+            {
+               // the forks of shrink partitions run at the same time, their peaks add up
+               mojo.performance.add(PerformanceHistory.PEAK_HEAP_BYTES, peakHeap);
+            }
+         }
+         catch (final IOException e)
+         {
+            mojo.log.warn("Can't read the peak heap of the ProGuard process: " + e);
+         }
+      }
       if (result != 0)
       {
-         throw new MojoExecutionException("Obfuscation failed (result=" + result + ")");
+         throw new MojoExecutionException("Obfuscation failed (result=" + result + ")"
+               + (forkWatchdog == null ? "" : forkWatchdog.describe(result)));
+      }
+      if (forkWatchdog != null && !forkWatchdog.getDumps().isEmpty())
+      {
+         mojo.log.warn("ProGuard stalled but finished, thread dumps: " + forkWatchdog.getDumps());
+      }
+   }
+
+   static void addSysproperty(final Java java, final String key, final String value)
+   {
+      final Environment.Variable property = new Environment.Variable();
+      property.setKey(key);
+      property.setValue(value);
+      java.addSysproperty(property);
+   }
+
+   /**
+    * @return the jar or directory ProGuard reads the program classes from
+    */
+   File getInputFile()
+   {
+      return packageClasses ? new File(mavenProject.getBuild().getOutputDirectory()) : new File(outputDirectory,
+            injar);
+   }
+
+   /**
+    * @return the jar or directory with the plugin classes, for the classpath of the forked process
+    */
+   static File getPluginClasses() throws MojoExecutionException
+   {
+      final URL url = ForkLauncher.class.getProtectionDomain().getCodeSource().getLocation();
+      final File file = FileUtils.toFile(url);
+      if (file == null)
+      {
+         throw new MojoExecutionException("Unrecognized location (" + url + ") of the plugin classes");
       }
+      return file;
    }
 
    private static String nameNoType(final String fileName)
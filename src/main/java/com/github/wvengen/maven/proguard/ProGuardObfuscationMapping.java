@@ -0,0 +1,153 @@
+package com.github.wvengen.maven.proguard;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+import proguard.obfuscate.MappingProcessor;
+import proguard.obfuscate.MappingReader;
+
+/**
+ * A ProGuard mapping file read through ProGuard's own {@link MappingReader}.
+ */
+public class ProGuardObfuscationMapping implements MappingProcessor {
+
+	/**
+	 * A method of the mapping, with the line range of the original method as found in the mapping.
+	 */
+	public static class MethodMapping {
+
+		private String className;
+
+		private String originalName;
+
+		private String obfuscatedName;
+
+		private int firstLine;
+
+		private int lastLine;
+
+		MethodMapping(String className, String originalName, String obfuscatedName, int firstLine, int lastLine) {
+			this.className = className;
+			this.originalName = originalName;
+			this.obfuscatedName = obfuscatedName;
+			this.firstLine = firstLine;
+			this.lastLine = lastLine;
+		}
+
+		/**
+		 * @return the original name of the declaring class
+		 */
+		public String getClassName() {
+			return className;
+		}
+
+		public String getOriginalName() {
+			return originalName;
+		}
+
+		public String getObfuscatedName() {
+			return obfuscatedName;
+		}
+
+		/**
+		 * @return the first line, 0 if the mapping has no line numbers for the method
+		 */
+		public int getFirstLine() {
+			return firstLine;
+		}
+
+		public int getLastLine() {
+			return lastLine;
+		}
+	}
+
+	private Map<String, String> origToObfuscatedClasses = new HashMap<String, String>();
+
+	private Map<String, Collection<String>> origToObfuscatedPackages = new HashMap<String, Collection<String>>();
+
+	private List<MethodMapping> methods;
+
+	public ProGuardObfuscationMapping(File mappingFile) throws MojoExecutionException {
+		this(mappingFile, false);
+	}
+
+	/**
+	 * @param collectMethods
+	 *            whether to keep the method mappings as well
+	 */
+	public ProGuardObfuscationMapping(File mappingFile, boolean collectMethods) throws MojoExecutionException {
+		if (collectMethods) {
+			methods = new ArrayList<MethodMapping>();
+		}
+		MappingReader mappingReader = new MappingReader(mappingFile);
+		try {
+			mappingReader.pump(this);
+		} catch (IOException e) {
+			throw new MojoExecutionException("Mapping file could not be read", e);
+		}
+	}
+
+	public Collection<String> getObfuscatedPackages(String packageToObfuscate) {
+		Collection<String> obfuscatedPackages = origToObfuscatedPackages.get(packageToObfuscate);
+		if (obfuscatedPackages == null) {
+			// if no obfuscation informations can be found, return the
+			// given package
+			return Collections.singleton(packageToObfuscate);
+		}
+		return obfuscatedPackages;
+	}
+
+	/**
+	 * @return the obfuscated class name by original class name
+	 */
+	public Map<String, String> getClasses() {
+		return origToObfuscatedClasses;
+	}
+
+	/**
+	 * @return the method mappings in mapping file order, <code>null</code> if they were not collected
+	 */
+	public List<MethodMapping> getMethods() {
+		return methods;
+	}
+
+	private static String packageName(String className) {
+		int lastDot = className.lastIndexOf('.');
+		return lastDot < 0 ? "" : className.substring(0, lastDot);
+	}
+
+	public boolean processClassMapping(String className, String obfuscatedClassName) {
+		origToObfuscatedClasses.put(className, obfuscatedClassName);
+
+		String packageName = packageName(className);
+		String obfuscatedPackageName = packageName(obfuscatedClassName);
+
+		Collection<String> obfuscatedPackages = origToObfuscatedPackages.get(packageName);
+		if (obfuscatedPackages == null) {
+			obfuscatedPackages = new HashSet<String>();
+			origToObfuscatedPackages.put(packageName, obfuscatedPackages);
+		}
+		obfuscatedPackages.add(obfuscatedPackageName);
+		return true;
+	}
+
+	public void processFieldMapping(String className, String fieldType, String fieldName, String newFieldName) {
+		// do nothing
+	}
+
+	public void processMethodMapping(String className, int firstLineNumber, int lastLineNumber,
+			String methodReturnType, String methodName, String methodArguments, String newMethodName) {
+		if (methods != null) {
+			methods.add(new MethodMapping(className, methodName, newMethodName, firstLineNumber, lastLineNumber));
+		}
+	}
+}
@@ -0,0 +1,132 @@
+package com.github.wvengen.maven.proguard;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * Lightweight view on the ProGuard configuration given through <code>options</code> and the
+ * <code>proguardInclude</code> file, used by the plugin to look up individual options. It is not a full ProGuard
+ * configuration parser: options are split on whitespace, except for comma separated lists like ProGuard's filters, and
+ * comments are stripped.
+ */
+public class ProGuardOptions {
+
+	private List<String> tokens = new ArrayList<String>();
+
+	/**
+	 * @param options
+	 *            the plugin <code>options</code>, may be <code>null</code>
+	 * @param includeFile
+	 *            the <code>proguardInclude</code> file, may be <code>null</code> or missing
+	 */
+	public ProGuardOptions(String[] options, File includeFile) throws MojoExecutionException {
+		Set<File> included = new HashSet<File>();
+		if (options != null) {
+			for (String option : options) {
+				addTokens(option, null, included);
+			}
+		}
+		if (includeFile != null && includeFile.exists()) {
+			readFile(includeFile, included);
+		}
+	}
+
+	private void readFile(File file, Set<File> included) throws MojoExecutionException {
+		if (!included.add(file.getAbsoluteFile())) {
+			return;
+		}
+		try {
+			BufferedReader reader = new BufferedReader(new FileReader(file));
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					addTokens(line, file.getParentFile(), included);
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (IOException e) {
+			throw new MojoExecutionException("Can't read ProGuard configuration " + file, e);
+		}
+	}
+
+	private void addTokens(String text, File baseDir, Set<File> included) throws MojoExecutionException {
+		int comment = text.indexOf('#');
+		if (comment >= 0) {
+			text = text.substring(0, comment);
+		}
+		String previous = null;
+		for (String token : text.trim().split("\\s+")) {
+			if (token.length() == 0) {
+				continue;
+			}
+			int last = tokens.size() - 1;
+			if (last >= 0 && (token.startsWith(",") || tokens.get(last).endsWith(","))) {
+				// ProGuard allows whitespace around the commas of a list, as in "-dontwarn a.**, b.**"
+				tokens.set(last, tokens.get(last) + token);
+				previous = tokens.get(last);
+				continue;
+			}
+			if ("-include".equals(previous) || (previous == null && token.startsWith("@"))) {
+				String fileName = unquote(token.startsWith("@") ? token.substring(1) : token);
+				File file = new File(fileName);
+				if (!file.isAbsolute() && baseDir != null) {
+					file = new File(baseDir, fileName);
+				}
+				if (file.exists()) {
+					readFile(file, included);
+				}
+			}
+			tokens.add(token);
+			previous = token;
+		}
+	}
+
+	private static String unquote(String value) {
+		if (value.length() >= 2 && (value.startsWith("'") || value.startsWith("\""))) {
+			return value.substring(1, value.length() - 1);
+		}
+		return value;
+	}
+
+	/**
+	 * @return all tokens, including those of nested include files
+	 */
+	public List<String> getTokens() {
+		return tokens;
+	}
+
+	public boolean hasOption(String option) {
+		return tokens.contains(option);
+	}
+
+	/**
+	 * @return the filter arguments of every occurrence of the option, an empty string for occurrences without
+	 *         filter
+	 */
+	public List<String> getFilters(String option) {
+		List<String> filters = new ArrayList<String>();
+		for (int i = 0; i < tokens.size(); i++) {
+			if (option.equals(tokens.get(i))) {
+				if (i + 1 < tokens.size() && !tokens.get(i + 1).startsWith("-")) {
+					StringBuilder filter = new StringBuilder();
+					for (String element : tokens.get(i + 1).split(",")) {
+						filter.append(filter.length() == 0 ? "" : ",").append(unquote(element));
+					}
+					filters.add(filter.toString());
+				} else {
+					filters.add("");
+				}
+			}
+		}
+		return filters;
+	}
+}
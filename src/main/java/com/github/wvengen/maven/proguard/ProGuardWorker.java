@@ -0,0 +1,429 @@
+package com.github.wvengen.maven.proguard;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Worker process that runs ProGuard jobs sent by {@link RemoteProGuard} over HTTP. Files are kept in a content
+ * addressed store below the store directory, so inputs that an earlier job uploaded are not uploaded again:
+ * <ul>
+ * <li><code>POST /blobs/</code> with one SHA-1 per line answers with the ones that are not stored,</li>
+ * <li><code>PUT /blobs/&lt;sha1&gt;</code> stores a file, whose content must match the SHA-1,</li>
+ * <li><code>GET /blobs/&lt;sha1&gt;</code> returns a stored file,</li>
+ * <li><code>POST /jobs</code> runs a job described by a properties file and answers with a properties file holding
+ * the exit code and the stored output and log files.</li>
+ * </ul>
+ * A job names its main class, the stored jar to run it from, JVM arguments, its inputs and the ProGuard arguments, in
+ * which <code>${input.N}</code> stands for the path of input N and <code>${output}</code> for the output directory of
+ * the job, plus the directories to create below the output directory. Every job runs in its own JVM.
+ * <p>
+ * Arguments: the store directory, the port (default 0, any free port), the number of concurrent jobs (default 1) and
+ * the address to listen on (default <code>127.0.0.1</code>, e.g. <code>0.0.0.0</code> for all interfaces). With the
+ * <code>proguard.workerToken</code> system property or the <code>PROGUARD_WORKER_TOKEN</code> environment variable,
+ * every request has to carry the token in the <code>X-ProGuard-Token</code> header; a worker listening on other than
+ * the loopback interface doesn't start without a token. A worker runs whatever it is sent, so it should only be
+ * reachable from build machines. Several workers may share a store directory. Only depends on the JDK, since its
+ * classpath is the plugin classes.
+ */
+public class ProGuardWorker {
+
+	public static final String TOKEN_PROPERTY = "proguard.workerToken";
+
+	/** environment variable holding the token if the system property is not set, e.g. for local workers */
+	public static final String TOKEN_ENV = "PROGUARD_WORKER_TOKEN";
+
+	public static final String TOKEN_HEADER = "X-ProGuard-Token";
+
+	/** printed to standard output once the worker accepts requests, followed by the port */
+	public static final String LISTENING = "ProGuard worker listening on port ";
+
+	/** stored files unused for this long are deleted when a worker starts */
+	private static final long MAX_UNUSED_MILLIS = 7L * 24 * 60 * 60 * 1000;
+
+	private File blobs;
+
+	private File jobs;
+
+	private File tmp;
+
+	private Semaphore slots;
+
+	private String token;
+
+	private ProGuardWorker(File store, int concurrentJobs, String token) {
+		this.blobs = new File(store, "blobs");
+		this.jobs = new File(store, "jobs");
+		this.tmp = new File(store, "tmp");
+		this.slots = new Semaphore(concurrentJobs, true);
+		this.token = token;
+		blobs.mkdirs();
+		jobs.mkdirs();
+		tmp.mkdirs();
+		// several workers may share the store, so only files that are no longer used are deleted
+		long oldest = System.currentTimeMillis() - MAX_UNUSED_MILLIS;
+		for (File directory : new File[] { blobs, jobs, tmp }) {
+			File[] files = directory.listFiles();
+			for (int i = 0; files != null && i < files.length; i++) {
+				if (files[i].lastModified() < oldest) {
+					delete(files[i]);
+				}
+			}
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: ProGuardWorker <store directory> [port] [jobs] [address]");
+			System.exit(2);
+		}
+		int port = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+		int concurrentJobs = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+		InetSocketAddress address = new InetSocketAddress(InetAddress.getByName(args.length > 3 ? args[3]
+				: "127.0.0.1"), port);
+		String token = System.getProperty(TOKEN_PROPERTY, System.getenv(TOKEN_ENV));
+		if (token == null && !address.getAddress().isLoopbackAddress()) {
+			System.err.println("A worker listening on " + address.getAddress().getHostAddress()
+					+ " runs jobs from the network and needs a token, set " + TOKEN_PROPERTY + " or " + TOKEN_ENV);
+			System.exit(2);
+		}
+		final ProGuardWorker worker = new ProGuardWorker(new File(args[0]), concurrentJobs, token);
+		HttpServer server = HttpServer.create(address, 0);
+		server.createContext("/blobs/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				worker.handle(exchange, true);
+			}
+		});
+		server.createContext("/jobs", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				worker.handle(exchange, false);
+			}
+		});
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.start();
+		System.out.println(LISTENING + server.getAddress().getPort());
+		System.out.flush();
+	}
+
+	private void handle(HttpExchange exchange, boolean blob) throws IOException {
+		try {
+			if (token != null && !isToken(exchange.getRequestHeaders().getFirst(TOKEN_HEADER))) {
+				respond(exchange, 403, "Wrong token");
+			} else if (blob) {
+				handleBlob(exchange);
+			} else if ("POST".equals(exchange.getRequestMethod())) {
+				handleJob(exchange);
+			} else {
+				respond(exchange, 405, "Method not allowed");
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+			respond(exchange, 500, String.valueOf(e));
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * Compares in constant time, so the token can't be guessed from the response times.
+	 */
+	private boolean isToken(String value) throws IOException {
+		return value != null && MessageDigest.isEqual(token.getBytes("UTF-8"), value.getBytes("UTF-8"));
+	}
+
+	private void handleBlob(HttpExchange exchange) throws IOException {
+		String hash = exchange.getRequestURI().getPath().substring("/blobs/".length());
+		if (hash.length() == 0 && "POST".equals(exchange.getRequestMethod())) {
+			handleMissing(exchange);
+			return;
+		}
+		if (!isHash(hash)) {
+			respond(exchange, 400, "Not a SHA-1: " + hash);
+			return;
+		}
+		File file = new File(blobs, hash);
+		String method = exchange.getRequestMethod();
+		if ("PUT".equals(method)) {
+			File upload = File.createTempFile("upload", ".tmp", tmp);
+			try {
+				MessageDigest digest = Checksums.newDigest();
+				InputStream in = exchange.getRequestBody();
+				OutputStream out = new FileOutputStream(upload);
+				try {
+					byte[] buffer = new byte[65536];
+					int read;
+					while ((read = in.read(buffer)) != -1) {
+						digest.update(buffer, 0, read);
+						out.write(buffer, 0, read);
+					}
+				} finally {
+					out.close();
+				}
+				if (!hash.equals(Checksums.toHex(digest.digest()))) {
+					respond(exchange, 400, "Content doesn't match " + hash);
+				} else if (file.exists() || upload.renameTo(file)) {
+					respond(exchange, 201, "");
+				} else {
+					respond(exchange, 500, "Can't store " + hash);
+				}
+			} finally {
+				upload.delete();
+			}
+		} else if (!file.exists()) {
+			respond(exchange, 404, "Unknown blob " + hash);
+		} else if ("GET".equals(method)) {
+			exchange.sendResponseHeaders(200, file.length());
+			OutputStream out = exchange.getResponseBody();
+			copy(file, out);
+			out.close();
+		} else {
+			respond(exchange, 405, "Method not allowed");
+		}
+	}
+
+	private void handleMissing(HttpExchange exchange) throws IOException {
+		StringBuilder missing = new StringBuilder();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(exchange.getRequestBody(), "UTF-8"));
+		String hash;
+		while ((hash = reader.readLine()) != null) {
+			File file = new File(blobs, hash);
+			if (!isHash(hash) || !file.exists()) {
+				missing.append(hash).append('\n');
+			} else {
+				// the client won't upload it, so the job will use the stored file
+				file.setLastModified(System.currentTimeMillis());
+			}
+		}
+		respond(exchange, 200, missing.toString());
+	}
+
+	private void handleJob(HttpExchange exchange) throws IOException, InterruptedException {
+		Properties job = new Properties();
+		job.load(exchange.getRequestBody());
+		File jobDirectory = File.createTempFile("job", "", jobs);
+		jobDirectory.delete();
+		File output = new File(jobDirectory, "out");
+		output.mkdirs();
+		try {
+			List<String> command = new ArrayList<String>();
+			command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+			for (int i = 0; job.getProperty("jvmarg." + i) != null; i++) {
+				command.add(job.getProperty("jvmarg." + i));
+			}
+			command.add("-cp");
+			command.add(blob(job.getProperty("classpath")).getPath());
+			command.add(job.getProperty("main"));
+
+			String root = output.getCanonicalPath() + File.separator;
+			for (int i = 0; job.getProperty("directory." + i) != null; i++) {
+				File directory = new File(output, job.getProperty("directory." + i));
+				if (!directory.getCanonicalPath().startsWith(root)) {
+					throw new IOException("Directory outside of the output: " + directory);
+				}
+				directory.mkdirs();
+			}
+			List<String> inputs = new ArrayList<String>();
+			for (int i = 0; job.getProperty("input." + i) != null; i++) {
+				inputs.add(materialize(job.getProperty("input." + i), new File(jobDirectory, "in/" + i)));
+			}
+			for (int i = 0; job.getProperty("arg." + i) != null; i++) {
+				String arg = job.getProperty("arg." + i);
+				for (int n = 0; n < inputs.size(); n++) {
+					arg = arg.replace("${input." + n + "}", inputs.get(n));
+				}
+				command.add(arg.replace("${output}", output.getPath()));
+			}
+
+			File logFile = new File(jobDirectory, "log.txt");
+			int exitCode;
+			slots.acquire();
+			try {
+				ProcessBuilder builder = new ProcessBuilder(command);
+				builder.directory(jobDirectory);
+				builder.redirectErrorStream(true);
+				Process process = builder.start();
+				process.getOutputStream().close();
+				OutputStream log = new FileOutputStream(logFile);
+				try {
+					InputStream in = process.getInputStream();
+					byte[] buffer = new byte[8192];
+					int read;
+					while ((read = in.read(buffer)) != -1) {
+						log.write(buffer, 0, read);
+					}
+				} finally {
+					log.close();
+				}
+				exitCode = process.waitFor();
+			} finally {
+				slots.release();
+			}
+
+			Properties result = new Properties();
+			result.setProperty("exitCode", String.valueOf(exitCode));
+			result.setProperty("log", store(logFile));
+			List<String> outputs = new ArrayList<String>();
+			collectFiles(output, "", outputs);
+			for (int i = 0; i < outputs.size(); i++) {
+				String name = outputs.get(i);
+				result.setProperty("output." + i, store(new File(output, name)) + " " + name);
+			}
+			exchange.sendResponseHeaders(200, 0);
+			OutputStream out = exchange.getResponseBody();
+			result.store(out, null);
+			out.close();
+		} finally {
+			delete(jobDirectory);
+		}
+	}
+
+	/**
+	 * Copies a stored input, <code>&lt;sha1&gt; file|dir &lt;name&gt;</code>, into the job; directories are uploaded as
+	 * zip.
+	 *
+	 * @return the path of the input
+	 */
+	private String materialize(String input, File directory) throws IOException {
+		String[] parts = input.split(" ", 3);
+		// the name only keeps the extension, which tells ProGuard how to read the input
+		File target = new File(directory, new File(parts[2]).getName());
+		directory.mkdirs();
+		if ("dir".equals(parts[1])) {
+			unzip(blob(parts[0]), target);
+		} else {
+			OutputStream out = new FileOutputStream(target);
+			try {
+				copy(blob(parts[0]), out);
+			} finally {
+				out.close();
+			}
+		}
+		return target.getPath();
+	}
+
+	private File blob(String hash) throws IOException {
+		File file = new File(blobs, hash);
+		if (!isHash(hash) || !file.exists()) {
+			throw new IOException("Unknown blob " + hash);
+		}
+		// keep inputs in use from being cleaned up
+		file.setLastModified(System.currentTimeMillis());
+		return file;
+	}
+
+	/**
+	 * Moves a file into the store.
+	 *
+	 * @return its SHA-1
+	 */
+	private String store(File file) throws IOException {
+		String hash = Checksums.sha1(file);
+		File target = new File(blobs, hash);
+		if (!target.exists() && !file.renameTo(target)) {
+			throw new IOException("Can't store " + file);
+		}
+		return hash;
+	}
+
+	private static void unzip(File zip, File directory) throws IOException {
+		String root = directory.getCanonicalPath() + File.separator;
+		ZipInputStream in = new ZipInputStream(new FileInputStream(zip));
+		try {
+			ZipEntry entry;
+			while ((entry = in.getNextEntry()) != null) {
+				File file = new File(directory, entry.getName());
+				if (!file.getCanonicalPath().startsWith(root)) {
+					throw new IOException("Entry outside of the directory: " + entry.getName());
+				}
+				if (entry.isDirectory()) {
+					file.mkdirs();
+					continue;
+				}
+				file.getParentFile().mkdirs();
+				OutputStream out = new FileOutputStream(file);
+				try {
+					byte[] buffer = new byte[65536];
+					int read;
+					while ((read = in.read(buffer)) != -1) {
+						out.write(buffer, 0, read);
+					}
+				} finally {
+					out.close();
+				}
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void collectFiles(File dir, String prefix, List<String> names) {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File file : files) {
+			String name = prefix + file.getName();
+			if (file.isDirectory()) {
+				collectFiles(file, name + "/", names);
+			} else {
+				names.add(name);
+			}
+		}
+	}
+
+	private static boolean isHash(String value) {
+		return value != null && value.matches("[0-9a-f]{40}");
+	}
+
+	private static void copy(File file, OutputStream out) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] buffer = new byte[65536];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void respond(HttpExchange exchange, int status, String message) throws IOException {
+		byte[] body = message.getBytes("UTF-8");
+		exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+		if (body.length > 0) {
+			OutputStream out = exchange.getResponseBody();
+			out.write(body);
+			out.close();
+		}
+	}
+
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+		if (files != null) {
+			for (File child : files) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
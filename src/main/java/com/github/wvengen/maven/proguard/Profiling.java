@@ -0,0 +1,20 @@
+package com.github.wvengen.maven.proguard;
+
+import java.util.List;
+
+public class Profiling {
+	/** start the ProGuard process with a Java Flight Recorder recording */
+	protected boolean flightRecorder = true;
+
+	/** the recording settings, <code>default</code> or <code>profile</code> */
+	protected String settings = "profile";
+
+	/** write a class histogram at every ProGuard phase boundary; this makes ProGuard verbose */
+	protected boolean histograms;
+
+	/** number of entries in each section of the summary */
+	protected int top = 20;
+
+	/** additional JVM arguments of the ProGuard process, e.g. <code>-XX:+UnlockCommercialFeatures</code> */
+	protected List<String> jvmArgs;
+}
@@ -0,0 +1,76 @@
+package com.github.wvengen.maven.proguard;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * A properties file in the local repository that caches values which can be computed again. A cache that can't be read
+ * or written is logged and otherwise ignored. The file is replaced through a uniquely named temporary file, as other
+ * Maven processes may write the same cache.
+ */
+public class PropertiesCache {
+
+	private Log log;
+
+	private File file;
+
+	private String description;
+
+	/**
+	 * @param description
+	 *            what the cache holds, for the log and the comment of the file
+	 */
+	public PropertiesCache(Log log, File file, String description) {
+		this.log = log;
+		this.file = file;
+		this.description = description;
+	}
+
+	public Properties load() {
+		Properties properties = new Properties();
+		if (file.exists()) {
+			try {
+				InputStream in = new FileInputStream(file);
+				try {
+					properties.load(in);
+				} finally {
+					in.close();
+				}
+			} catch (IOException e) {
+				log.warn("Can't read " + description + " " + file + ", they are computed again: " + e);
+			}
+		}
+		return properties;
+	}
+
+	public void store(Properties properties) {
+		File tmp = new File(file.getPath() + "." + System.nanoTime() + ".tmp");
+		try {
+			file.getAbsoluteFile().getParentFile().mkdirs();
+			OutputStream out = new FileOutputStream(tmp);
+			try {
+				properties.store(out, description);
+			} finally {
+				out.close();
+			}
+			if (!tmp.renameTo(file)) {
+				// renaming over an existing file fails on some platforms
+				file.delete();
+				if (!tmp.renameTo(file)) {
+					tmp.delete();
+					log.warn("Can't replace " + description + " " + file);
+				}
+			}
+		} catch (IOException e) {
+			tmp.delete();
+			log.warn("Can't write " + description + " " + file + ": " + e);
+		}
+	}
+}
@@ -0,0 +1,223 @@
+package com.github.wvengen.maven.proguard;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads the central directory of a zip file and gives access to the raw (still compressed) entry data, so entries can
+ * be copied into another zip without inflating and deflating them again. Zip64 archives are not supported.
+ */
+public class RawZipFile {
+
+	static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+	static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+	static final int END_SIGNATURE = 0x06054b50;
+	static final int LOCAL_HEADER_LENGTH = 30;
+	static final int CENTRAL_HEADER_LENGTH = 46;
+	static final int END_LENGTH = 22;
+	static final int FLAG_UTF8 = 0x800;
+
+	/**
+	 * An entry as described by the central directory.
+	 */
+	public static class Entry {
+
+		byte[] rawName;
+
+		String name;
+
+		int flags;
+
+		int method;
+
+		int dosTime;
+
+		long crc;
+
+		long compressedSize;
+
+		long size;
+
+		byte[] extra;
+
+		long localHeaderOffset;
+
+		public String getName() {
+			return name;
+		}
+
+		public boolean isDirectory() {
+			return name.endsWith("/");
+		}
+
+		public int getMethod() {
+			return method;
+		}
+
+		public long getCrc() {
+			return crc;
+		}
+
+		public long getCompressedSize() {
+			return compressedSize;
+		}
+
+		public long getSize() {
+			return size;
+		}
+	}
+
+	private File file;
+
+	private RandomAccessFile raf;
+
+	private List<Entry> entries = new ArrayList<Entry>();
+
+	public RawZipFile(File file) throws IOException {
+		this.file = file;
+		this.raf = new RandomAccessFile(file, "r");
+		try {
+			readCentralDirectory();
+		} catch (IOException e) {
+			raf.close();
+			throw e;
+		}
+	}
+
+	private void readCentralDirectory() throws IOException {
+		long length = raf.length();
+		int tailLength = (int) Math.min(length, END_LENGTH + 0xFFFF);
+		byte[] tail = new byte[tailLength];
+		raf.seek(length - tailLength);
+		raf.readFully(tail);
+		int end = -1;
+		for (int i = tailLength - END_LENGTH; i >= 0; i--) {
+			if (getInt(tail, i) == END_SIGNATURE) {
+				end = i;
+				break;
+			}
+		}
+		if (end < 0) {
+			throw new IOException("Not a zip file: " + file);
+		}
+		int count = getShort(tail, end + 10);
+		long directorySize = getInt(tail, end + 12) & 0xFFFFFFFFL;
+		long directoryOffset = getInt(tail, end + 16) & 0xFFFFFFFFL;
+		if (count == 0xFFFF || directoryOffset == 0xFFFFFFFFL) {
+			throw new IOException("Zip64 archives are not supported: " + file);
+		}
+
+		byte[] directory = new byte[(int) directorySize];
+		raf.seek(directoryOffset);
+		raf.readFully(directory);
+		int position = 0;
+		for (int i = 0; i < count; i++) {
+			if (getInt(directory, position) != CENTRAL_HEADER_SIGNATURE) {
+				throw new IOException("Corrupt central directory in " + file);
+			}
+			Entry entry = new Entry();
+			entry.flags = getShort(directory, position + 8);
+			entry.method = getShort(directory, position + 10);
+			entry.dosTime = getInt(directory, position + 12);
+			entry.crc = getInt(directory, position + 16) & 0xFFFFFFFFL;
+			entry.compressedSize = getInt(directory, position + 20) & 0xFFFFFFFFL;
+			entry.size = getInt(directory, position + 24) & 0xFFFFFFFFL;
+			int nameLength = getShort(directory, position + 28);
+			int extraLength = getShort(directory, position + 30);
+			int commentLength = getShort(directory, position + 32);
+			entry.localHeaderOffset = getInt(directory, position + 42) & 0xFFFFFFFFL;
+			if (entry.compressedSize == 0xFFFFFFFFL || entry.localHeaderOffset == 0xFFFFFFFFL) {
+				throw new IOException("Zip64 archives are not supported: " + file);
+			}
+			entry.rawName = new byte[nameLength];
+			System.arraycopy(directory, position + CENTRAL_HEADER_LENGTH, entry.rawName, 0, nameLength);
+			entry.name = decodeName(entry.rawName, entry.flags);
+			entry.extra = new byte[extraLength];
+			System.arraycopy(directory, position + CENTRAL_HEADER_LENGTH + nameLength, entry.extra, 0, extraLength);
+			entries.add(entry);
+			position += CENTRAL_HEADER_LENGTH + nameLength + extraLength + commentLength;
+		}
+	}
+
+	private static String decodeName(byte[] rawName, int flags) throws UnsupportedEncodingException {
+		return new String(rawName, (flags & FLAG_UTF8) != 0 ? "UTF-8" : "ISO-8859-1");
+	}
+
+	static int getShort(byte[] buffer, int offset) {
+		return (buffer[offset] & 0xFF) | ((buffer[offset + 1] & 0xFF) << 8);
+	}
+
+	static int getInt(byte[] buffer, int offset) {
+		return getShort(buffer, offset) | (getShort(buffer, offset + 2) << 16);
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return the entries in central directory order
+	 */
+	public List<Entry> getEntries() {
+		return Collections.unmodifiableList(entries);
+	}
+
+	/**
+	 * @return the position of the compressed data of the entry
+	 */
+	long getDataOffset(Entry entry) throws IOException {
+		byte[] header = new byte[LOCAL_HEADER_LENGTH];
+		synchronized (raf) {
+			raf.seek(entry.localHeaderOffset);
+			raf.readFully(header);
+		}
+		if (getInt(header, 0) != LOCAL_HEADER_SIGNATURE) {
+			throw new IOException("Corrupt local header for " + entry.name + " in " + file);
+		}
+		return entry.localHeaderOffset + LOCAL_HEADER_LENGTH + getShort(header, 26) + getShort(header, 28);
+	}
+
+	/**
+	 * @return a stream of the raw, still compressed, entry data
+	 */
+	public InputStream openRaw(Entry entry) throws IOException {
+		final long start = getDataOffset(entry);
+		final long end = start + entry.compressedSize;
+		return new InputStream() {
+
+			private long position = start;
+
+			@Override
+			public int read() throws IOException {
+				byte[] single = new byte[1];
+				return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+			}
+
+			@Override
+			public int read(byte[] buffer, int offset, int length) throws IOException {
+				if (position >= end) {
+					return -1;
+				}
+				int count = (int) Math.min(length, end - position);
+				synchronized (raf) {
+					raf.seek(position);
+					count = raf.read(buffer, offset, count);
+				}
+				if (count > 0) {
+					position += count;
+				}
+				return count;
+			}
+		};
+	}
+
+	public void close() throws IOException {
+		raf.close();
+	}
+}
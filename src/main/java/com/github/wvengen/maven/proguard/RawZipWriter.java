@@ -0,0 +1,252 @@
+package com.github.wvengen.maven.proguard;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+
+/**
+ * Writes a zip file from raw entries of other zips, copied without recompression, and from new entries. The first
+ * entry written under a name wins, later entries with the same name are skipped.
+ */
+public class RawZipWriter {
+
+	private static final int VERSION = 20;
+
+	private OutputStream out;
+
+	private long position;
+
+	private List<RawZipFile.Entry> written = new ArrayList<RawZipFile.Entry>();
+
+	private Set<String> names = new HashSet<String>();
+
+	public RawZipWriter(File file) throws IOException {
+		this.out = new BufferedOutputStream(new FileOutputStream(file), 65536);
+	}
+
+	public boolean contains(String name) {
+		return names.contains(name);
+	}
+
+	/**
+	 * Copies an entry of another zip without recompressing it.
+	 *
+	 * @return <code>false</code> if an entry with the same name was already written
+	 */
+	public boolean copy(RawZipFile source, RawZipFile.Entry entry) throws IOException {
+		if (!names.add(entry.name)) {
+			return false;
+		}
+		RawZipFile.Entry copy = new RawZipFile.Entry();
+		copy.rawName = entry.rawName;
+		copy.name = entry.name;
+		// sizes and checksum are known, so no data descriptor is written
+		copy.flags = entry.flags & ~0x08;
+		copy.method = entry.method;
+		copy.dosTime = entry.dosTime;
+		copy.crc = entry.crc;
+		copy.compressedSize = entry.compressedSize;
+		copy.size = entry.size;
+		copy.extra = entry.extra;
+		writeLocalHeader(copy);
+		InputStream in = source.openRaw(entry);
+		try {
+			pump(in);
+		} finally {
+			in.close();
+		}
+		return true;
+	}
+
+	/**
+	 * Copies an entry of another zip, storing it uncompressed.
+	 *
+	 * @return <code>false</code> if an entry with the same name was already written
+	 */
+	public boolean copyStored(RawZipFile source, RawZipFile.Entry entry) throws IOException {
+		if (entry.method == ZipEntry.STORED) {
+			return copy(source, entry);
+		}
+		InputStream in = new InflaterInputStream(source.openRaw(entry), new Inflater(true));
+		try {
+			return add(entry.name, in, entry.dosTime, true);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Adds a new entry with the current time.
+	 *
+	 * @param store
+	 *            whether to store the data uncompressed instead of deflating it
+	 * @return <code>false</code> if an entry with the same name was already written
+	 */
+	public boolean add(String name, InputStream in, boolean store) throws IOException {
+		return add(name, in, toDosTime(System.currentTimeMillis()), store);
+	}
+
+	private boolean add(String name, InputStream in, int dosTime, boolean store) throws IOException {
+		if (names.contains(name)) {
+			return false;
+		}
+		CRC32 crc = new CRC32();
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		Deflater deflater = store ? null : new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		OutputStream dataOut = store ? data : new DeflaterOutputStream(data, deflater);
+		long size = 0;
+		byte[] buffer = new byte[65536];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			crc.update(buffer, 0, read);
+			dataOut.write(buffer, 0, read);
+			size += read;
+		}
+		dataOut.close();
+		if (deflater != null) {
+			deflater.end();
+		}
+
+		names.add(name);
+		RawZipFile.Entry entry = new RawZipFile.Entry();
+		entry.rawName = name.getBytes("UTF-8");
+		entry.name = name;
+		entry.flags = isAscii(name) ? 0 : RawZipFile.FLAG_UTF8;
+		entry.method = store ? ZipEntry.STORED : ZipEntry.DEFLATED;
+		entry.dosTime = dosTime;
+		entry.crc = crc.getValue();
+		entry.compressedSize = data.size();
+		entry.size = size;
+		entry.extra = new byte[0];
+		writeLocalHeader(entry);
+		data.writeTo(out);
+		position += data.size();
+		return true;
+	}
+
+	private static boolean isAscii(String name) {
+		for (int i = 0; i < name.length(); i++) {
+			if (name.charAt(i) > 0x7F) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	static int toDosTime(long time) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTimeInMillis(time);
+		int year = calendar.get(Calendar.YEAR);
+		if (year < 1980) {
+			return (1 << 21) | (1 << 16);
+		}
+		return (year - 1980) << 25 | (calendar.get(Calendar.MONTH) + 1) << 21
+				| calendar.get(Calendar.DAY_OF_MONTH) << 16 | calendar.get(Calendar.HOUR_OF_DAY) << 11
+				| calendar.get(Calendar.MINUTE) << 5 | calendar.get(Calendar.SECOND) >> 1;
+	}
+
+	private void pump(InputStream in) throws IOException {
+		byte[] buffer = new byte[65536];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			out.write(buffer, 0, read);
+			position += read;
+		}
+	}
+
+	private void writeLocalHeader(RawZipFile.Entry entry) throws IOException {
+		checkSize();
+		entry.localHeaderOffset = position;
+		writeInt(RawZipFile.LOCAL_HEADER_SIGNATURE);
+		writeShort(VERSION);
+		writeShort(entry.flags);
+		writeShort(entry.method);
+		writeInt(entry.dosTime);
+		writeInt((int) entry.crc);
+		writeInt((int) entry.compressedSize);
+		writeInt((int) entry.size);
+		writeShort(entry.rawName.length);
+		writeShort(0);
+		write(entry.rawName);
+		written.add(entry);
+	}
+
+	private void checkSize() throws IOException {
+		if (position >= 0xFFFFFFFFL || written.size() >= 0xFFFF) {
+			throw new IOException("Zip64 archives are not supported");
+		}
+	}
+
+	/**
+	 * Writes the central directory and closes the file.
+	 */
+	public void close() throws IOException {
+		try {
+			long directoryOffset = position;
+			for (RawZipFile.Entry entry : written) {
+				writeInt(RawZipFile.CENTRAL_HEADER_SIGNATURE);
+				writeShort(VERSION);
+				writeShort(VERSION);
+				writeShort(entry.flags);
+				writeShort(entry.method);
+				writeInt(entry.dosTime);
+				writeInt((int) entry.crc);
+				writeInt((int) entry.compressedSize);
+				writeInt((int) entry.size);
+				writeShort(entry.rawName.length);
+				writeShort(entry.extra.length);
+				// comment length, disk number, internal and external attributes
+				writeShort(0);
+				writeShort(0);
+				writeShort(0);
+				writeInt(0);
+				writeInt((int) entry.localHeaderOffset);
+				write(entry.rawName);
+				write(entry.extra);
+			}
+			long directorySize = position - directoryOffset;
+			checkSize();
+			writeInt(RawZipFile.END_SIGNATURE);
+			writeShort(0);
+			writeShort(0);
+			writeShort(written.size());
+			writeShort(written.size());
+			writeInt((int) directorySize);
+			writeInt((int) directoryOffset);
+			writeShort(0);
+		} finally {
+			out.close();
+		}
+	}
+
+	private void writeShort(int value) throws IOException {
+		out.write(value & 0xFF);
+		out.write((value >>> 8) & 0xFF);
+		position += 2;
+	}
+
+	private void writeInt(int value) throws IOException {
+		writeShort(value & 0xFFFF);
+		writeShort((value >>> 16) & 0xFFFF);
+	}
+
+	private void write(byte[] bytes) throws IOException {
+		out.write(bytes);
+		position += bytes.length;
+	}
+}
@@ -0,0 +1,546 @@
+package com.github.wvengen.maven.proguard;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Runs ProGuard on a {@link ProGuardWorker}. The job carries the ProGuard jar and the inputs by SHA-1; inputs the
+ * worker already stores are not uploaded again, directories are uploaded as zip. Paths of the inputs and of the output
+ * directory are replaced by placeholders in the arguments, and the files the job writes below the output directory are
+ * downloaded into it. Other files named by the configuration have to exist on the worker under the same path. Every
+ * job goes to the worker with the fewest jobs from this Maven JVM. Local workers are started on first use, shared by
+ * all modules of the build and stopped when Maven exits; without a configured token they require a random one, so
+ * other users of the machine can't run jobs on them.
+ */
+public class RemoteProGuard {
+
+	/** time a local worker may take to start */
+	private static final long START_TIMEOUT_MILLIS = 60000;
+
+	/** fixed time of the entries of zipped directories, so unchanged directories are not uploaded again */
+	private static final long ZIP_TIME = 315532800000L;
+
+	private static final List<Process> localWorkers = new ArrayList<Process>();
+
+	private static final List<String> localUrls = new ArrayList<String>();
+
+	/** token of the local workers of this Maven JVM if none is configured */
+	private static final String localToken = newToken();
+
+	private static final Map<String, Integer> activeJobs = new HashMap<String, Integer>();
+
+	private Log log;
+
+	private RemoteWorkers config;
+
+	private File cacheDirectory;
+
+	/**
+	 * @param cacheDirectory
+	 *            keeps the content hashes of the inputs and the store of the local workers
+	 */
+	public RemoteProGuard(Log log, RemoteWorkers config, File cacheDirectory) {
+		this.log = log;
+		this.config = config;
+		this.cacheDirectory = cacheDirectory;
+	}
+
+	/**
+	 * Runs a ProGuard job on the least busy worker.
+	 *
+	 * @param pluginClasses
+	 *            the classpath of local workers
+	 * @param inputs
+	 *            the files named in the arguments that are uploaded
+	 * @param outputDirectory
+	 *            the directory whose files written by ProGuard are downloaded
+	 * @return the exit code of ProGuard
+	 */
+	public int run(File pluginClasses, File proguardJar, String mainClass, List<String> jvmArgs, List<String> args,
+			List<File> inputs, File outputDirectory) throws MojoExecutionException {
+		List<String> urls = new ArrayList<String>();
+		if (config.urls != null) {
+			for (String url : config.urls) {
+				urls.add(url.endsWith("/") ? url : url + "/");
+			}
+		}
+		if (config.local > 0) {
+			urls.addAll(startLocalWorkers(pluginClasses));
+		}
+		if (urls.isEmpty()) {
+			throw new MojoExecutionException("No ProGuard workers, configure remoteWorkers urls or local");
+		}
+		String url = acquire(urls);
+		try {
+			return run(url, proguardJar, mainClass, jvmArgs, args, inputs, outputDirectory);
+		} catch (IOException e) {
+			throw new MojoExecutionException("ProGuard job on " + url + " failed: " + e.getMessage(), e);
+		} finally {
+			release(url);
+		}
+	}
+
+	private int run(String url, File proguardJar, String mainClass, List<String> jvmArgs, List<String> args,
+			List<File> inputs, File outputDirectory) throws IOException, MojoExecutionException {
+		long start = System.currentTimeMillis();
+		List<File> files = new ArrayList<File>();
+		files.add(proguardJar);
+		for (File input : inputs) {
+			if (input.isFile()) {
+				files.add(input);
+			}
+		}
+		Map<File, String> hashes = new LibraryDeduplicator(log, cacheDirectory, true, 0).hash(files);
+
+		Properties job = new Properties();
+		job.setProperty("main", mainClass);
+		job.setProperty("classpath", hashes.get(proguardJar));
+		for (int i = 0; i < jvmArgs.size(); i++) {
+			job.setProperty("jvmarg." + i, jvmArgs.get(i));
+		}
+		Map<String, File> uploads = new LinkedHashMap<String, File>();
+		uploads.put(hashes.get(proguardJar), proguardJar);
+		List<File> zips = new ArrayList<File>();
+		List<Integer> order = new ArrayList<Integer>();
+		for (int i = 0; i < inputs.size(); i++) {
+			File input = inputs.get(i);
+			if (input.isDirectory()) {
+				File zip = File.createTempFile("proguard-input", ".zip");
+				zips.add(zip);
+				zip(input, zip);
+				String hash = Checksums.sha1(zip);
+				uploads.put(hash, zip);
+				job.setProperty("input." + i, hash + " dir " + input.getName());
+			} else {
+				uploads.put(hashes.get(input), input);
+				job.setProperty("input." + i, hashes.get(input) + " file " + input.getName());
+			}
+			// longer paths first, in case one input is below another
+			int position = 0;
+			while (position < order.size()
+					&& inputs.get(order.get(position).intValue()).getPath().length() >= input.getPath().length()) {
+				position++;
+			}
+			order.add(position, Integer.valueOf(i));
+		}
+		Set<String> directories = new TreeSet<String>();
+		for (int i = 0; i < args.size(); i++) {
+			String arg = args.get(i);
+			for (Integer input : order) {
+				arg = replacePath(arg, inputs.get(input.intValue()).getPath(), "${input." + input + "}", false);
+			}
+			arg = replacePath(arg, outputDirectory.getPath(), "${output}", true);
+			job.setProperty("arg." + i, arg);
+			addOutputDirectories(arg, directories);
+		}
+		int count = 0;
+		for (String directory : directories) {
+			job.setProperty("directory." + count++, directory);
+		}
+		int uploaded;
+		try {
+			uploaded = upload(url, uploads);
+		} finally {
+			for (File zip : zips) {
+				zip.delete();
+			}
+		}
+		log.info("Running ProGuard on worker " + url + ", uploaded " + uploaded + " of " + uploads.size() + " files");
+
+		HttpURLConnection connection = open(url, "jobs", "POST");
+		connection.setDoOutput(true);
+		// a job takes as long as ProGuard
+		connection.setReadTimeout(0);
+		OutputStream out = connection.getOutputStream();
+		job.store(out, null);
+		out.close();
+		check(connection, url + "jobs");
+		Properties result = new Properties();
+		InputStream in = connection.getInputStream();
+		try {
+			result.load(in);
+		} finally {
+			in.close();
+		}
+
+		logOutput(url, result.getProperty("log"));
+		String root = outputDirectory.getCanonicalPath() + File.separator;
+		int outputs = 0;
+		for (; result.getProperty("output." + outputs) != null; outputs++) {
+			String[] output = result.getProperty("output." + outputs).split(" ", 2);
+			File file = new File(outputDirectory, output[1]);
+			if (!file.getCanonicalPath().startsWith(root)) {
+				throw new IOException("Output outside of the output directory: " + output[1]);
+			}
+			download(url, output[0], file);
+		}
+		log.info("ProGuard job on " + url + " took " + (System.currentTimeMillis() - start) + " ms, downloaded "
+				+ outputs + " files");
+		return Integer.parseInt(result.getProperty("exitCode"));
+	}
+
+	/**
+	 * Replaces the occurrences of a path that are not part of a longer name.
+	 *
+	 * @param children
+	 *            whether paths below the path are replaced as well
+	 */
+	static String replacePath(String arg, String path, String placeholder, boolean children) {
+		StringBuilder result = new StringBuilder();
+		int from = 0;
+		int index;
+		while ((index = arg.indexOf(path, from)) >= 0) {
+			int end = index + path.length();
+			boolean startsName = index == 0 || !isNameChar(arg.charAt(index - 1));
+			boolean endsName = end == arg.length() || !isNameChar(arg.charAt(end))
+					&& (children || arg.charAt(end) != File.separatorChar && arg.charAt(end) != '/');
+			if (startsName && endsName) {
+				result.append(arg, from, index).append(placeholder);
+			} else {
+				result.append(arg, from, end);
+			}
+			from = end;
+		}
+		return result.append(arg.substring(from)).toString();
+	}
+
+	/**
+	 * Collects the directories below the output directory that ProGuard writes files to, e.g. the isolated working
+	 * directory, since ProGuard doesn't create them.
+	 */
+	static void addOutputDirectories(String arg, Set<String> directories) {
+		String placeholder = "${output}/";
+		int index = -1;
+		while ((index = arg.indexOf(placeholder, index + 1)) >= 0) {
+			int end = index + placeholder.length();
+			while (end < arg.length() && "'\"();:,".indexOf(arg.charAt(end)) < 0) {
+				end++;
+			}
+			String path = arg.substring(index + placeholder.length(), end).replace(File.separatorChar, '/');
+			int slash = path.lastIndexOf('/');
+			if (slash > 0) {
+				directories.add(path.substring(0, slash));
+			}
+		}
+	}
+
+	private static boolean isNameChar(char c) {
+		return Character.isLetterOrDigit(c) || c == '.' || c == '-' || c == '_' || c == '$';
+	}
+
+	private void logOutput(String url, String hash) throws IOException {
+		HttpURLConnection connection = open(url, "blobs/" + hash, "GET");
+		check(connection, url + "blobs/" + hash);
+		BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream()));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				log.info(line);
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Uploads the files the worker doesn't have yet.
+	 *
+	 * @param files
+	 *            the files by SHA-1
+	 * @return the number of uploaded files
+	 */
+	private int upload(String url, Map<String, File> files) throws IOException {
+		HttpURLConnection query = open(url, "blobs/", "POST");
+		query.setDoOutput(true);
+		Writer writer = new OutputStreamWriter(query.getOutputStream(), "UTF-8");
+		for (String hash : files.keySet()) {
+			writer.write(hash + "\n");
+		}
+		writer.close();
+		check(query, url + "blobs/");
+		List<String> missing = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(query.getInputStream(), "UTF-8"));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (files.containsKey(line)) {
+					missing.add(line);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+
+		for (String hash : missing) {
+			HttpURLConnection put = open(url, "blobs/" + hash, "PUT");
+			put.setDoOutput(true);
+			put.setFixedLengthStreamingMode((int) files.get(hash).length());
+			OutputStream out = put.getOutputStream();
+			InputStream in = new FileInputStream(files.get(hash));
+			try {
+				copy(in, out);
+			} finally {
+				in.close();
+				out.close();
+			}
+			check(put, url + "blobs/" + hash);
+		}
+		return missing.size();
+	}
+
+	private void download(String url, String hash, File file) throws IOException {
+		HttpURLConnection connection = open(url, "blobs/" + hash, "GET");
+		check(connection, url + "blobs/" + hash);
+		file.getParentFile().mkdirs();
+		InputStream in = connection.getInputStream();
+		try {
+			OutputStream out = new FileOutputStream(file);
+			try {
+				copy(in, out);
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	private HttpURLConnection open(String url, String path, String method) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(url + path).openConnection();
+		connection.setRequestMethod(method);
+		connection.setConnectTimeout(30000);
+		String token = getToken(url);
+		if (token != null) {
+			connection.setRequestProperty(ProGuardWorker.TOKEN_HEADER, token);
+		}
+		return connection;
+	}
+
+	private String getToken(String url) {
+		if (config.token != null) {
+			return config.token;
+		}
+		synchronized (localWorkers) {
+			return localUrls.contains(url) ? localToken : null;
+		}
+	}
+
+	private static String newToken() {
+		byte[] token = new byte[20];
+		new SecureRandom().nextBytes(token);
+		return Checksums.toHex(token);
+	}
+
+	private static void check(HttpURLConnection connection, String url) throws IOException {
+		int status = connection.getResponseCode();
+		if (status / 100 != 2) {
+			StringBuilder message = new StringBuilder();
+			InputStream error = connection.getErrorStream();
+			if (error != null) {
+				BufferedReader reader = new BufferedReader(new InputStreamReader(error, "UTF-8"));
+				try {
+					String line;
+					while ((line = reader.readLine()) != null) {
+						message.append(' ').append(line);
+					}
+				} finally {
+					reader.close();
+				}
+			}
+			throw new IOException(url + " answered " + status + message);
+		}
+	}
+
+	private static void zip(File directory, File zip) throws IOException {
+		ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip));
+		try {
+			addToZip(directory, "", out);
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void addToZip(File dir, String prefix, ZipOutputStream out) throws IOException {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File file : new TreeSet<File>(Arrays.asList(files))) {
+			String name = prefix + file.getName();
+			if (file.isDirectory()) {
+				addToZip(file, name + "/", out);
+			} else {
+				ZipEntry entry = new ZipEntry(name);
+				entry.setTime(ZIP_TIME);
+				out.putNextEntry(entry);
+				InputStream in = new FileInputStream(file);
+				try {
+					copy(in, out);
+				} finally {
+					in.close();
+				}
+				out.closeEntry();
+			}
+		}
+	}
+
+	private static void copy(InputStream in, OutputStream out) throws IOException {
+		byte[] buffer = new byte[65536];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			out.write(buffer, 0, read);
+		}
+	}
+
+	private static String acquire(List<String> urls) {
+		synchronized (activeJobs) {
+			String best = null;
+			int bestCount = Integer.MAX_VALUE;
+			for (String url : urls) {
+				Integer count = activeJobs.get(url);
+				int value = count == null ? 0 : count.intValue();
+				if (value < bestCount) {
+					best = url;
+					bestCount = value;
+				}
+			}
+			activeJobs.put(best, Integer.valueOf(bestCount + 1));
+			return best;
+		}
+	}
+
+	private static void release(String url) {
+		synchronized (activeJobs) {
+			activeJobs.put(url, Integer.valueOf(activeJobs.get(url).intValue() - 1));
+		}
+	}
+
+	/**
+	 * Starts the configured number of local workers, unless they are running already.
+	 *
+	 * @return the URLs of the local workers
+	 */
+	private List<String> startLocalWorkers(File pluginClasses) throws MojoExecutionException {
+		synchronized (localWorkers) {
+			if (localWorkers.isEmpty()) {
+				Runtime.getRuntime().addShutdownHook(new Thread() {
+					public void run() {
+						synchronized (localWorkers) {
+							for (Process worker : localWorkers) {
+								worker.destroy();
+							}
+						}
+					}
+				});
+			}
+			File store = new File(cacheDirectory, "worker");
+			while (localUrls.size() < config.local) {
+				List<String> command = new ArrayList<String>();
+				command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+				command.add("-cp");
+				command.add(pluginClasses.getPath());
+				command.add(ProGuardWorker.class.getName());
+				command.add(store.getPath());
+				command.add("0");
+				command.add(String.valueOf(Math.max(1, config.jobs)));
+				command.add("127.0.0.1");
+				try {
+					ProcessBuilder builder = new ProcessBuilder(command);
+					// not on the command line, which other users of the machine can see
+					builder.environment().put(ProGuardWorker.TOKEN_ENV,
+							config.token != null ? config.token : localToken);
+					builder.redirectErrorStream(true);
+					Process process = builder.start();
+					localWorkers.add(process);
+					localUrls.add("http://127.0.0.1:" + waitForPort(process) + "/");
+				} catch (IOException e) {
+					throw new MojoExecutionException("Can't start a local ProGuard worker", e);
+				}
+			}
+			log.debug("Local ProGuard workers: " + localUrls);
+			return new ArrayList<String>(localUrls.subList(0, config.local));
+		}
+	}
+
+	/**
+	 * @return the URLs of the local workers started so far
+	 */
+	static List<String> getLocalUrls() {
+		synchronized (localWorkers) {
+			return new ArrayList<String>(localUrls);
+		}
+	}
+
+	/**
+	 * Reads the port from the output of a starting worker and keeps draining its output.
+	 */
+	private int waitForPort(Process process) throws IOException {
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+		final int[] port = { -1 };
+		Thread drain = new Thread("ProGuard worker output") {
+			public void run() {
+				try {
+					String line;
+					while ((line = reader.readLine()) != null) {
+						synchronized (port) {
+							if (port[0] < 0 && line.startsWith(ProGuardWorker.LISTENING)) {
+								port[0] = Integer.parseInt(line.substring(ProGuardWorker.LISTENING.length()).trim());
+								port.notifyAll();
+							} else {
+								log.debug("ProGuard worker: " + line);
+							}
+						}
+					}
+				} catch (IOException e) {
+					// the worker exited
+				}
+				synchronized (port) {
+					port.notifyAll();
+				}
+			}
+		};
+		drain.setDaemon(true);
+		drain.start();
+		long deadline = System.currentTimeMillis() + START_TIMEOUT_MILLIS;
+		synchronized (port) {
+			while (port[0] < 0 && drain.isAlive() && System.currentTimeMillis() < deadline) {
+				try {
+					port.wait(1000);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+		}
+		if (port[0] < 0) {
+			process.destroy();
+			throw new IOException("The local ProGuard worker did not start");
+		}
+		return port[0];
+	}
+}
@@ -0,0 +1,17 @@
+package com.github.wvengen.maven.proguard;
+
+import java.util.List;
+
+public class RemoteWorkers {
+	/** base URLs of running {@link ProGuardWorker}s, e.g. <code>http://build-2:7341/</code> */
+	protected List<String> urls;
+
+	/** number of worker processes to start on this machine, listening on the loopback interface */
+	protected int local;
+
+	/** number of jobs every local worker runs at the same time */
+	protected int jobs = 1;
+
+	/** shared secret sent to the workers, which must have been started with the same token */
+	protected String token;
+}
@@ -0,0 +1,393 @@
+package com.github.wvengen.maven.proguard;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Skips ProGuard when only resources of the input jar changed since the last successful run. The state directory
+ * keeps a manifest with the CRC of every input jar entry, a configuration key, and copies of the previous output jar
+ * and mapping. When the key and all class files (and the manifest, which is rewritten after obfuscation) are
+ * unchanged, the changed resources are patched into the previous output jar and the previous mapping is reused.
+ * <p>
+ * The configuration key covers the ProGuard arguments, the configuration options, the libraries (by their
+ * {@link LibraryAbi} or by size and modification time) and the size and modification time of the other injars and the
+ * ProGuard jar. Resources that ProGuard adapts (<code>-adaptresourcefilenames</code>,
+ * <code>-adaptresourcefilecontents</code>) always need a full run.
+ */
+public class ResourceFastPath {
+
+	private static final String MANIFEST = "META-INF/MANIFEST.MF";
+
+	private static final String STATE_FILE = "state.txt";
+
+	private static final String OUTPUT_FILE = "output.jar";
+
+	private static final String MAPPING_FILE = "proguard_map.txt";
+
+	private Log log;
+
+	private File stateDirectory;
+
+	private File inJar;
+
+	private ProGuardFilter userFilter;
+
+	private List<ProGuardFilter> adaptFilters = new ArrayList<ProGuardFilter>();
+
+	private boolean adaptAll;
+
+	private String configurationKey;
+
+	/**
+	 * @param userFilter
+	 *            the filter already applied to the input jar, <code>null</code> for none
+	 * @param configurationKey
+	 *            see {@link #configurationKey(List, Collection)}
+	 */
+	public ResourceFastPath(Log log, File stateDirectory, File inJar, ProGuardFilter userFilter,
+			ProGuardOptions options, String configurationKey) {
+		this.log = log;
+		this.stateDirectory = stateDirectory;
+		this.inJar = inJar;
+		this.userFilter = userFilter;
+		this.configurationKey = configurationKey;
+		List<String> adaptOptions = new ArrayList<String>(options.getFilters("-adaptresourcefilenames"));
+		adaptOptions.addAll(options.getFilters("-adaptresourcefilecontents"));
+		for (String filter : adaptOptions) {
+			if (filter.length() == 0) {
+				adaptAll = true;
+			} else {
+				adaptFilters.add(new ProGuardFilter(filter, '/'));
+			}
+		}
+	}
+
+	/**
+	 * Builds the key of everything besides the input jar that determines the ProGuard result.
+	 *
+	 * @param values
+	 *            the ProGuard arguments, configuration options and library fingerprints
+	 * @param inputs
+	 *            the other injars, the ProGuard jar and possibly the libraries, fingerprinted by size and modification
+	 *            time
+	 */
+	public static String configurationKey(List<String> values, Collection<File> inputs) {
+		MessageDigest digest = Checksums.newDigest();
+		for (String value : values) {
+			Checksums.update(digest, value);
+		}
+		for (File input : inputs) {
+			addFingerprint(digest, input);
+		}
+		return Checksums.toHex(digest.digest());
+	}
+
+	private static void addFingerprint(MessageDigest digest, File file) {
+		Checksums.update(digest, file.getAbsolutePath());
+		if (file.isDirectory()) {
+			File[] files = file.listFiles();
+			if (files != null) {
+				for (File child : new TreeSet<File>(Arrays.asList(files))) {
+					addFingerprint(digest, child);
+				}
+			}
+		} else {
+			Checksums.update(digest, file.length() + ":" + file.lastModified());
+		}
+	}
+
+	/**
+	 * Patches the previous output when possible.
+	 *
+	 * @return <code>true</code> if the output jar and mapping were created from the previous run, <code>false</code>
+	 *         if ProGuard has to run
+	 */
+	public boolean apply(File outJar, File mappingFile) throws MojoExecutionException {
+		long start = System.currentTimeMillis();
+		Map<String, Long> previous = readState();
+		if (previous == null) {
+			log.info("Resource fast path not possible, no previous run with the same configuration");
+			return false;
+		}
+		Map<String, Long> current = readEntries();
+
+		Set<String> changed = new HashSet<String>();
+		Set<String> removed = new HashSet<String>();
+		TreeSet<String> names = new TreeSet<String>(previous.keySet());
+		names.addAll(current.keySet());
+		for (String name : names) {
+			Long previousCrc = previous.get(name);
+			Long currentCrc = current.get(name);
+			if (previousCrc != null && previousCrc.equals(currentCrc)) {
+				continue;
+			}
+			if (name.endsWith("/") || (userFilter != null && !userFilter.matches(name))) {
+				continue;
+			}
+			if (name.endsWith(".class") || name.equals(MANIFEST) || adaptAll || matches(name)) {
+				log.info("Resource fast path not possible, " + name + " changed");
+				return false;
+			}
+			if (currentCrc == null) {
+				removed.add(name);
+			} else {
+				changed.add(name);
+			}
+		}
+
+		File previousOutput = new File(stateDirectory, OUTPUT_FILE);
+		try {
+			if (changed.isEmpty() && removed.isEmpty()) {
+				copy(previousOutput, outJar);
+			} else {
+				patch(previousOutput, outJar, changed, removed);
+			}
+			copy(new File(stateDirectory, MAPPING_FILE), mappingFile);
+		} catch (IOException e) {
+			outJar.delete();
+			log.info("Resource fast path not possible, can't read the previous output " + previousOutput + ": " + e);
+			return false;
+		}
+		if (changed.isEmpty() && removed.isEmpty()) {
+			writeState(current);
+		} else {
+			// the next run starts from the patched output, not from the one of the last full run
+			save(outJar, mappingFile);
+		}
+		log.info("Resource fast path: reused the previous ProGuard output with " + changed.size() + " changed and "
+				+ removed.size() + " removed resources in " + (System.currentTimeMillis() - start) + " ms");
+		return true;
+	}
+
+	/**
+	 * Records a successful ProGuard run.
+	 */
+	public void save(File outJar, File mappingFile) throws MojoExecutionException {
+		if (!stateDirectory.exists() && !stateDirectory.mkdirs()) {
+			throw new MojoExecutionException("Can't create " + stateDirectory);
+		}
+		// the state file is written last, without it the copies are never used
+		new File(stateDirectory, STATE_FILE).delete();
+		try {
+			copy(outJar, new File(stateDirectory, OUTPUT_FILE));
+			copy(mappingFile, new File(stateDirectory, MAPPING_FILE));
+		} catch (IOException e) {
+			throw new MojoExecutionException("Can't save the ProGuard output to " + stateDirectory, e);
+		}
+		writeState(readEntries());
+	}
+
+	private boolean matches(String name) {
+		for (ProGuardFilter filter : adaptFilters) {
+			if (filter.matches(name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void patch(File previousOutput, File outJar, Set<String> changed, Set<String> removed)
+			throws IOException {
+		RawZipFile input = inJar.isDirectory() ? null : new RawZipFile(inJar);
+		try {
+			Map<String, RawZipFile.Entry> inputEntries = new HashMap<String, RawZipFile.Entry>();
+			if (input != null) {
+				for (RawZipFile.Entry entry : input.getEntries()) {
+					inputEntries.put(entry.getName(), entry);
+				}
+			}
+			RawZipWriter writer = new RawZipWriter(outJar);
+			try {
+				RawZipFile output = new RawZipFile(previousOutput);
+				try {
+					for (RawZipFile.Entry entry : output.getEntries()) {
+						String name = entry.getName();
+						if (changed.contains(name)) {
+							// keep the entry order of the previous output
+							copyInput(writer, input, inputEntries, name);
+						} else if (!removed.contains(name)) {
+							writer.copy(output, entry);
+						}
+					}
+				} finally {
+					output.close();
+				}
+				for (String name : new TreeSet<String>(changed)) {
+					if (!writer.contains(name)) {
+						copyInput(writer, input, inputEntries, name);
+					}
+				}
+			} finally {
+				writer.close();
+			}
+		} finally {
+			if (input != null) {
+				input.close();
+			}
+		}
+	}
+
+	private void copyInput(RawZipWriter writer, RawZipFile input, Map<String, RawZipFile.Entry> inputEntries,
+			String name) throws IOException {
+		if (input != null) {
+			writer.copy(input, inputEntries.get(name));
+		} else {
+			InputStream in = new FileInputStream(new File(inJar, name));
+			try {
+				writer.add(name, in, false);
+			} finally {
+				in.close();
+			}
+		}
+	}
+
+	/**
+	 * @return the CRC of every entry of the input jar
+	 */
+	private Map<String, Long> readEntries() throws MojoExecutionException {
+		Map<String, Long> entries = new TreeMap<String, Long>();
+		try {
+			if (inJar.isDirectory()) {
+				collectFiles(inJar, "", entries);
+			} else {
+				RawZipFile zip = new RawZipFile(inJar);
+				try {
+					for (RawZipFile.Entry entry : zip.getEntries()) {
+						entries.put(entry.getName(), Long.valueOf(entry.getCrc()));
+					}
+				} finally {
+					zip.close();
+				}
+			}
+		} catch (IOException e) {
+			throw new MojoExecutionException("Can't read " + inJar, e);
+		}
+		return entries;
+	}
+
+	private static void collectFiles(File dir, String prefix, Map<String, Long> entries) throws IOException {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File file : files) {
+			if (file.isDirectory()) {
+				collectFiles(file, prefix + file.getName() + "/", entries);
+			} else {
+				entries.put(prefix + file.getName(), Long.valueOf(crc(file)));
+			}
+		}
+	}
+
+	private static long crc(File file) throws IOException {
+		CRC32 crc = new CRC32();
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] buffer = new byte[65536];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				crc.update(buffer, 0, read);
+			}
+		} finally {
+			in.close();
+		}
+		return crc.getValue();
+	}
+
+	/**
+	 * @return the entries of the previous run, <code>null</code> if there is none or its configuration differs
+	 */
+	private Map<String, Long> readState() throws MojoExecutionException {
+		File stateFile = new File(stateDirectory, STATE_FILE);
+		if (!stateFile.exists()) {
+			return null;
+		}
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(stateFile), "UTF-8"));
+			try {
+				if (!configurationKey.equals(reader.readLine())) {
+					log.debug("Resource fast path: configuration or libraries changed");
+					return null;
+				}
+				Map<String, Long> entries = new HashMap<String, Long>();
+				String line;
+				while ((line = reader.readLine()) != null) {
+					int space = line.indexOf(' ');
+					entries.put(line.substring(space + 1), Long.valueOf(line.substring(0, space), 16));
+				}
+				return entries;
+			} finally {
+				reader.close();
+			}
+		} catch (IOException e) {
+			throw new MojoExecutionException("Can't read " + stateFile, e);
+		}
+	}
+
+	private void writeState(Map<String, Long> entries) throws MojoExecutionException {
+		File stateFile = new File(stateDirectory, STATE_FILE);
+		File tmp = new File(stateDirectory, STATE_FILE + ".tmp");
+		try {
+			Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+			try {
+				writer.write(configurationKey);
+				writer.write('\n');
+				for (Map.Entry<String, Long> entry : entries.entrySet()) {
+					writer.write(Long.toHexString(entry.getValue().longValue()));
+					writer.write(' ');
+					writer.write(entry.getKey());
+					writer.write('\n');
+				}
+			} finally {
+				writer.close();
+			}
+		} catch (IOException e) {
+			throw new MojoExecutionException("Can't write " + tmp, e);
+		}
+		stateFile.delete();
+		if (!tmp.renameTo(stateFile)) {
+			throw new MojoExecutionException("Can't rename " + tmp);
+		}
+	}
+
+	private static void copy(File source, File target) throws IOException {
+		InputStream in = new FileInputStream(source);
+		try {
+			OutputStream out = new FileOutputStream(target);
+			try {
+				byte[] buffer = new byte[65536];
+				int read;
+				while ((read = in.read(buffer)) != -1) {
+					out.write(buffer, 0, read);
+				}
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
+	}
+}
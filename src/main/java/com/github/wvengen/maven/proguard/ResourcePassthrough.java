@@ -0,0 +1,216 @@
+package com.github.wvengen.maven.proguard;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Keeps resources that ProGuard does not need to adapt away from ProGuard and copies them from the input jar into the
+ * output jar afterwards, without recompressing them. Resources are selected by file extension, so that the ProGuard
+ * injar filter stays short: an extension is passed through when no entry with that extension is a class file, the
+ * manifest or matched by <code>-adaptresourcefilenames</code> or <code>-adaptresourcefilecontents</code>.
+ */
+public class ResourcePassthrough {
+
+	private static final String MANIFEST = "META-INF/MANIFEST.MF";
+
+	private static final Pattern SIMPLE_EXTENSION = Pattern.compile("[A-Za-z0-9_-]+");
+
+	private Log log;
+
+	private File inJar;
+
+	private Set<String> extensions = new HashSet<String>();
+
+	private List<String> resources = new ArrayList<String>();
+
+	/**
+	 * @param userFilter
+	 *            the filter already applied to the input jar, <code>null</code> for none
+	 */
+	public ResourcePassthrough(Log log, File inJar, ProGuardFilter userFilter, ProGuardOptions options)
+			throws MojoExecutionException {
+		this.log = log;
+		this.inJar = inJar;
+
+		List<ProGuardFilter> adaptFilters = new ArrayList<ProGuardFilter>();
+		List<String> adaptOptions = new ArrayList<String>(options.getFilters("-adaptresourcefilenames"));
+		adaptOptions.addAll(options.getFilters("-adaptresourcefilecontents"));
+		for (String filter : adaptOptions) {
+			if (filter.length() == 0) {
+				log.info("Resource passthrough disabled, all resources are adapted");
+				return;
+			}
+			adaptFilters.add(new ProGuardFilter(filter, '/'));
+		}
+
+		Map<String, List<String>> byExtension = new TreeMap<String, List<String>>();
+		Set<String> processedExtensions = new HashSet<String>();
+		for (String name : listEntries()) {
+			if (name.endsWith("/") || (userFilter != null && !userFilter.matches(name))) {
+				continue;
+			}
+			String extension = extension(name);
+			if (extension == null || name.equals(MANIFEST) || name.endsWith(".class") || matches(adaptFilters, name)) {
+				processedExtensions.add(extension);
+				continue;
+			}
+			List<String> names = byExtension.get(extension);
+			if (names == null) {
+				names = new ArrayList<String>();
+				byExtension.put(extension, names);
+			}
+			names.add(name);
+		}
+		for (Map.Entry<String, List<String>> entry : byExtension.entrySet()) {
+			if (!processedExtensions.contains(entry.getKey())) {
+				extensions.add(entry.getKey());
+				resources.addAll(entry.getValue());
+			}
+		}
+		log.info("Resource passthrough of " + resources.size() + " resources with extensions " + extensions);
+	}
+
+	private List<String> listEntries() throws MojoExecutionException {
+		List<String> names = new ArrayList<String>();
+		try {
+			if (inJar.isDirectory()) {
+				collectFiles(inJar, "", names);
+			} else {
+				RawZipFile zip = new RawZipFile(inJar);
+				try {
+					for (RawZipFile.Entry entry : zip.getEntries()) {
+						names.add(entry.getName());
+					}
+				} finally {
+					zip.close();
+				}
+			}
+		} catch (IOException e) {
+			throw new MojoExecutionException("Can't read " + inJar, e);
+		}
+		return names;
+	}
+
+	private static void collectFiles(File dir, String prefix, List<String> names) {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File file : files) {
+			if (file.isDirectory()) {
+				collectFiles(file, prefix + file.getName() + "/", names);
+			} else {
+				names.add(prefix + file.getName());
+			}
+		}
+	}
+
+	/**
+	 * @return the extension if it can be used in a filter, <code>null</code> otherwise
+	 */
+	private static String extension(String name) {
+		String fileName = name.substring(name.lastIndexOf('/') + 1);
+		int dot = fileName.lastIndexOf('.');
+		if (dot <= 0) {
+			return null;
+		}
+		String extension = fileName.substring(dot + 1);
+		return SIMPLE_EXTENSION.matcher(extension).matches() ? extension : null;
+	}
+
+	private static boolean matches(List<ProGuardFilter> filters, String name) {
+		for (ProGuardFilter filter : filters) {
+			if (filter.matches(name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public boolean isEmpty() {
+		return resources.isEmpty();
+	}
+
+	/**
+	 * @return the filter elements that keep the passed through resources away from ProGuard, to be put in front of
+	 *         the injar filter
+	 */
+	public String getFilter() {
+		StringBuilder filter = new StringBuilder();
+		for (String extension : extensions) {
+			if (filter.length() > 0) {
+				filter.append(',');
+			}
+			filter.append("!**.").append(extension);
+		}
+		return filter.toString();
+	}
+
+	/**
+	 * Copies the passed through resources into the jar written by ProGuard.
+	 */
+	public void merge(File outJar) throws MojoExecutionException {
+		if (resources.isEmpty()) {
+			return;
+		}
+		long start = System.currentTimeMillis();
+		File merged = new File(outJar.getParentFile(), outJar.getName() + ".merge");
+		try {
+			RawZipWriter writer = new RawZipWriter(merged);
+			try {
+				RawZipFile proguardOutput = new RawZipFile(outJar);
+				try {
+					for (RawZipFile.Entry entry : proguardOutput.getEntries()) {
+						writer.copy(proguardOutput, entry);
+					}
+				} finally {
+					proguardOutput.close();
+				}
+				if (inJar.isDirectory()) {
+					for (String name : resources) {
+						InputStream in = new FileInputStream(new File(inJar, name));
+						try {
+							writer.add(name, in, false);
+						} finally {
+							in.close();
+						}
+					}
+				} else {
+					Set<String> names = new HashSet<String>(resources);
+					RawZipFile input = new RawZipFile(inJar);
+					try {
+						for (RawZipFile.Entry entry : input.getEntries()) {
+							if (names.contains(entry.getName())) {
+								writer.copy(input, entry);
+							}
+						}
+					} finally {
+						input.close();
+					}
+				}
+			} finally {
+				writer.close();
+			}
+		} catch (IOException e) {
+			merged.delete();
+			throw new MojoExecutionException("Can't merge passed through resources into " + outJar, e);
+		}
+		if (!outJar.delete() || !merged.renameTo(outJar)) {
+			throw new MojoExecutionException("Can't replace " + outJar);
+		}
+		log.info("Merged " + resources.size() + " passed through resources in "
+				+ (System.currentTimeMillis() - start) + " ms");
+	}
+}
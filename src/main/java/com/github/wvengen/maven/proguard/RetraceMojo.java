@@ -0,0 +1,79 @@
+package com.github.wvengen.maven.proguard;
+
+import java.io.File;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+
+/**
+ * <p>
+ * Deobfuscates the stack traces in a log file with the mapping written by the proguard goal
+ * </p>
+ *
+ * @goal retrace
+ * @requiresProject false
+ * @description Deobfuscate stack traces with an indexed ProGuard mapping
+ * @threadSafe
+ */
+public class RetraceMojo extends AbstractMojo
+{
+
+   /**
+    * The ProGuard mapping file. Its binary index is kept next to it as <code>proguard_map.txt.idx</code>.
+    *
+    * @parameter property="retrace.mapping" default-value="${project.build.directory}/proguard_map.txt"
+    * @required
+    */
+   private File mappingFile;
+
+   /**
+    * The log file to deobfuscate.
+    *
+    * @parameter property="retrace.input"
+    * @required
+    */
+   private File input;
+
+   /**
+    * The deobfuscated log file, by default the input file name with <code>.retraced</code> appended.
+    *
+    * @parameter property="retrace.output"
+    */
+   private File output;
+
+   /**
+    * The encoding of the log file.
+    *
+    * @parameter property="retrace.encoding" default-value="UTF-8"
+    */
+   private String encoding;
+
+   /**
+    * The number of threads, by default the number of processors.
+    *
+    * @parameter property="retrace.threads" default-value="0"
+    */
+   private int threads;
+
+   public void execute() throws MojoExecutionException, MojoFailureException
+   {
+      if (!mappingFile.exists())
+      {
+         throw new MojoFailureException("Can't find mapping file " + mappingFile);
+      }
+      if (!input.exists())
+      {
+         throw new MojoFailureException("Can't find file " + input);
+      }
+      final File outputFile = output != null ? output : new File(input.getPath() + ".retraced");
+      final int threadCount = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+
+      final long start = System.currentTimeMillis();
+      final MappingIndex index = MappingIndex.open(mappingFile);
+      getLog().debug("mapping index opened in " + (System.currentTimeMillis() - start) + " ms");
+      new Retracer(index).retrace(input, outputFile, encoding, threadCount);
+      getLog().info("Retraced " + input + " to " + outputFile + " in " + (System.currentTimeMillis() - start)
+            + " ms");
+   }
+}
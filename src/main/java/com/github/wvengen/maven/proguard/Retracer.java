@@ -0,0 +1,183 @@
+package com.github.wvengen.maven.proguard;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * Deobfuscates stack traces with a {@link MappingIndex}. Stack frames (<code>at a.b.c(SourceFile:12)</code>) get
+ * their class and method names restored, using the line number to pick the method when the obfuscated name is
+ * ambiguous; other lines get qualified class names restored. Large logs are processed in parallel chunks of lines,
+ * written in their original order.
+ */
+public class Retracer {
+
+	private static final Pattern FRAME = Pattern.compile("(.*?\\bat\\s+)([^\\s(]+)\\.([^\\s.(]+)\\(([^)]*)\\)(.*)");
+
+	private static final Pattern CLASS_NAME = Pattern
+			.compile("[A-Za-z_$][A-Za-z0-9_$]*(?:\\.[A-Za-z_$][A-Za-z0-9_$]*)+");
+
+	private static final int CHUNK_LINES = 20000;
+
+	private MappingIndex index;
+
+	public Retracer(MappingIndex index) {
+		this.index = index;
+	}
+
+	/**
+	 * @return the deobfuscated line
+	 */
+	public String retraceLine(String line) {
+		Matcher frame = FRAME.matcher(line);
+		if (frame.matches()) {
+			String className = frame.group(2);
+			String originalClass = index.findClass(className);
+			if (originalClass != null) {
+				String source = frame.group(4);
+				List<MappingIndex.Method> methods = index.findMethods(className, frame.group(3), lineNumber(source));
+				StringBuilder result = new StringBuilder(line.length() + 32);
+				result.append(frame.group(1)).append(originalClass).append('.');
+				if (methods.isEmpty()) {
+					result.append(frame.group(3));
+				} else {
+					for (int i = 0; i < methods.size(); i++) {
+						if (i > 0) {
+							result.append('|');
+						}
+						result.append(methods.get(i).getName());
+					}
+				}
+				result.append('(').append(source).append(')').append(frame.group(5));
+				return result.toString();
+			}
+		}
+		Matcher classNames = CLASS_NAME.matcher(line);
+		StringBuffer result = null;
+		while (classNames.find()) {
+			String originalClass = index.findClass(classNames.group());
+			if (originalClass != null) {
+				if (result == null) {
+					result = new StringBuffer(line.length() + 32);
+				}
+				classNames.appendReplacement(result, Matcher.quoteReplacement(originalClass));
+			}
+		}
+		if (result == null) {
+			return line;
+		}
+		classNames.appendTail(result);
+		return result.toString();
+	}
+
+	private static int lineNumber(String source) {
+		int colon = source.lastIndexOf(':');
+		if (colon < 0) {
+			return 0;
+		}
+		try {
+			return Integer.parseInt(source.substring(colon + 1).trim());
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Deobfuscates a log file.
+	 *
+	 * @param threads
+	 *            the number of chunks processed in parallel
+	 */
+	public void retrace(File input, File output, String encoding, int threads) throws MojoExecutionException {
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(input), encoding),
+					65536);
+			try {
+				Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(output), encoding),
+						65536);
+				try {
+					LinkedList<Future<List<String>>> pending = new LinkedList<Future<List<String>>>();
+					List<String> chunk;
+					while (!(chunk = readChunk(reader)).isEmpty()) {
+						pending.add(executor.submit(new ChunkTask(chunk)));
+						// bound the chunks in memory
+						if (pending.size() >= threads * 2) {
+							write(pending.removeFirst(), writer);
+						}
+					}
+					while (!pending.isEmpty()) {
+						write(pending.removeFirst(), writer);
+					}
+				} finally {
+					writer.close();
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (IOException e) {
+			throw new MojoExecutionException("Can't retrace " + input + " to " + output, e);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static List<String> readChunk(BufferedReader reader) throws IOException {
+		List<String> lines = new ArrayList<String>(CHUNK_LINES);
+		String line;
+		while (lines.size() < CHUNK_LINES && (line = reader.readLine()) != null) {
+			lines.add(line);
+		}
+		return lines;
+	}
+
+	private static void write(Future<List<String>> chunk, Writer writer) throws IOException,
+			MojoExecutionException {
+		try {
+			for (String line : chunk.get()) {
+				writer.write(line);
+				writer.write('\n');
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MojoExecutionException("Interrupted while retracing", e);
+		} catch (ExecutionException e) {
+			throw new MojoExecutionException("Retracing failed", e.getCause());
+		}
+	}
+
+	private class ChunkTask implements Callable<List<String>> {
+
+		private List<String> lines;
+
+		ChunkTask(List<String> lines) {
+			this.lines = lines;
+		}
+
+		public List<String> call() {
+			List<String> result = new ArrayList<String>(lines.size());
+			for (String line : lines) {
+				result.add(retraceLine(line));
+			}
+			return result;
+		}
+	}
+}
@@ -0,0 +1,602 @@
+package com.github.wvengen.maven.proguard;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * Splits the program classes so that they can be shrunk by several ProGuard runs in parallel. The strongly connected
+ * components of the class reference graph are ordered so that a class only references classes of its own or of
+ * earlier components, and cut into partitions of similar size. Every partition is shrunk with the inputs of the earlier
+ * partitions as libraries and with the classes used by later partitions kept whole as seeds, so the runs don't depend
+ * on each other's output. Resources and other entries go to the first partition.
+ * <p>
+ * Partitioned shrinking is conservative: a class that a later partition references keeps all its members, even if
+ * the referencing code is removed later or uses only some of them, so the output may be larger than that of a single
+ * run. It needs classes that are neither obfuscated nor optimized across partitions.
+ */
+public class ShrinkPartitions {
+
+	/**
+	 * Package of the empty class kept in every partition, so that ProGuard doesn't fail on a partition that is removed
+	 * completely. It is dropped from the merged output and reports.
+	 */
+	static final String ANCHOR_PACKAGE = "proguard_partition/";
+
+	private static final String[] ARCHIVE_SUFFIXES = { ".jar", ".zip", ".war", ".ear", ".jmod", ".aar", ".apk" };
+
+	/**
+	 * Classes of one partition.
+	 */
+	public static class Partition {
+
+		private int index;
+
+		private Set<String> classes = new TreeSet<String>();
+
+		private Set<String> seeds = new TreeSet<String>();
+
+		private long bytes;
+
+		Partition(int index) {
+			this.index = index;
+		}
+
+		public int getIndex() {
+			return index;
+		}
+
+		/**
+		 * @return the internal names of the classes
+		 */
+		public Set<String> getClasses() {
+			return classes;
+		}
+
+		/**
+		 * @return the internal names of the classes that later partitions reference
+		 */
+		public Set<String> getSeeds() {
+			return seeds;
+		}
+
+		public long getBytes() {
+			return bytes;
+		}
+	}
+
+	private Log log;
+
+	private File directory;
+
+	private int threads;
+
+	public ShrinkPartitions(Log log, File directory) {
+		this.log = log;
+		this.directory = directory;
+		this.threads = Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * @param inputs
+	 *            the program jars and directories
+	 * @param count
+	 *            the maximum number of partitions
+	 * @return the non empty partitions, a single one if the classes can't be split
+	 */
+	public List<Partition> partition(List<File> inputs, int count) throws MojoExecutionException {
+		long start = System.currentTimeMillis();
+		Map<String, Long> sizes = new HashMap<String, Long>();
+		Map<String, ClassFileInfo> infos = scan(inputs, sizes);
+
+		List<String> names = new ArrayList<String>(infos.keySet());
+		Map<String, Integer> ids = new HashMap<String, Integer>();
+		for (int i = 0; i < names.size(); i++) {
+			ids.put(names.get(i), Integer.valueOf(i));
+		}
+		int[][] edges = new int[names.size()][];
+		for (int i = 0; i < names.size(); i++) {
+			List<Integer> targets = new ArrayList<Integer>();
+			for (String reference : infos.get(names.get(i)).getMentionedClasses()) {
+				Integer target = ids.get(reference);
+				if (target != null) {
+					targets.add(target);
+				}
+			}
+			edges[i] = new int[targets.size()];
+			for (int j = 0; j < edges[i].length; j++) {
+				edges[i][j] = targets.get(j).intValue();
+			}
+		}
+		infos.clear();
+
+		List<int[]> components = components(edges);
+		long total = 0;
+		for (String name : names) {
+			total += sizes.get(name).longValue();
+		}
+		long target = Math.max(1, total / Math.max(1, count));
+
+		// components come out dependencies first, so contiguous runs only reference earlier partitions
+		List<Partition> partitions = new ArrayList<Partition>();
+		int[] partitionOf = new int[names.size()];
+		Partition current = null;
+		for (int[] component : components) {
+			if (current == null || (current.bytes >= target && partitions.size() < count)) {
+				current = new Partition(partitions.size());
+				partitions.add(current);
+			}
+			for (int node : component) {
+				current.classes.add(names.get(node));
+				current.bytes += sizes.get(names.get(node)).longValue();
+				partitionOf[node] = current.index;
+			}
+		}
+		for (int i = 0; i < edges.length; i++) {
+			for (int referenced : edges[i]) {
+				if (partitionOf[referenced] != partitionOf[i]) {
+					partitions.get(partitionOf[referenced]).seeds.add(names.get(referenced));
+				}
+			}
+		}
+		int seeds = 0;
+		for (Partition partition : partitions) {
+			seeds += partition.seeds.size();
+		}
+		log.info("Split " + names.size() + " classes (" + components.size() + " components) into " + partitions.size()
+				+ " partitions with " + seeds + " shared classes in " + (System.currentTimeMillis() - start) + " ms");
+		return partitions;
+	}
+
+	/**
+	 * Reads the class files of the inputs in parallel.
+	 *
+	 * @return the classes by internal name, in class path order
+	 */
+	private Map<String, ClassFileInfo> scan(List<File> inputs, Map<String, Long> sizes) throws MojoExecutionException {
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			ClassPathScanner.ClassReader<ClassFileInfo> reader = new ClassPathScanner.ClassReader<ClassFileInfo>() {
+				public ClassFileInfo read(String className, InputStream in) throws IOException {
+					return ClassFileInfo.read(in, true);
+				}
+			};
+			List<Future<Map<String, ClassFileInfo>>> futures = new ArrayList<Future<Map<String, ClassFileInfo>>>();
+			for (File input : inputs) {
+				try {
+					futures.addAll(ClassPathScanner.submit(executor, threads, input, reader));
+				} catch (IOException e) {
+					throw new MojoExecutionException("Can't read " + input, e);
+				}
+			}
+			Map<String, ClassFileInfo> infos = ClassPathScanner.collect(futures);
+			for (File input : inputs) {
+				addSizes(input, sizes);
+			}
+			return infos;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MojoExecutionException("Class scan interrupted", e);
+		} catch (ExecutionException e) {
+			throw new MojoExecutionException("Can't read the program classes: " + e.getCause().getMessage(),
+					e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static void addSizes(File input, Map<String, Long> sizes) throws MojoExecutionException {
+		try {
+			if (input.isDirectory()) {
+				for (String name : ClassPathScanner.classEntries(input)) {
+					String className = ClassPathScanner.toClassName(name);
+					if (!sizes.containsKey(className)) {
+						sizes.put(className, Long.valueOf(new File(input, name).length()));
+					}
+				}
+			} else {
+				RawZipFile zip = new RawZipFile(input);
+				try {
+					for (RawZipFile.Entry entry : zip.getEntries()) {
+						String className = ClassPathScanner.toClassName(entry.getName());
+						if (className != null && !sizes.containsKey(className)) {
+							sizes.put(className, Long.valueOf(entry.getSize()));
+						}
+					}
+				} finally {
+					zip.close();
+				}
+			}
+		} catch (IOException e) {
+			throw new MojoExecutionException("Can't read " + input, e);
+		}
+	}
+
+	/**
+	 * Finds the strongly connected components with Tarjan's algorithm, without recursion.
+	 *
+	 * @return the components, every component after the components it references
+	 */
+	static List<int[]> components(int[][] edges) {
+		int n = edges.length;
+		int[] index = new int[n];
+		int[] lowLink = new int[n];
+		boolean[] onStack = new boolean[n];
+		Arrays.fill(index, -1);
+		int[] stack = new int[n];
+		int stackSize = 0;
+		int[] callNode = new int[n];
+		int[] callEdge = new int[n];
+		int nextIndex = 0;
+		List<int[]> components = new ArrayList<int[]>();
+
+		for (int root = 0; root < n; root++) {
+			if (index[root] >= 0) {
+				continue;
+			}
+			int depth = 0;
+			callNode[0] = root;
+			callEdge[0] = 0;
+			index[root] = lowLink[root] = nextIndex++;
+			stack[stackSize++] = root;
+			onStack[root] = true;
+			while (depth >= 0) {
+				int node = callNode[depth];
+				if (callEdge[depth] < edges[node].length) {
+					int target = edges[node][callEdge[depth]++];
+					if (index[target] < 0) {
+						index[target] = lowLink[target] = nextIndex++;
+						stack[stackSize++] = target;
+						onStack[target] = true;
+						depth++;
+						callNode[depth] = target;
+						callEdge[depth] = 0;
+					} else if (onStack[target]) {
+						lowLink[node] = Math.min(lowLink[node], index[target]);
+					}
+				} else {
+					if (lowLink[node] == index[node]) {
+						int size = 0;
+						while (stack[stackSize - 1 - size] != node) {
+							size++;
+						}
+						size++;
+						int[] component = new int[size];
+						for (int i = 0; i < size; i++) {
+							int member = stack[--stackSize];
+							onStack[member] = false;
+							component[i] = member;
+						}
+						components.add(component);
+					}
+					depth--;
+					if (depth >= 0) {
+						int parent = callNode[depth];
+						lowLink[parent] = Math.min(lowLink[parent], lowLink[node]);
+					}
+				}
+			}
+		}
+		return components;
+	}
+
+	public File getDirectory(Partition partition) {
+		return new File(directory, "partition-" + partition.index);
+	}
+
+	/**
+	 * @return the jar with the entries of an input that belong to a partition, written by {@link #write(List, List)}
+	 */
+	public File getInput(Partition partition, int input) {
+		return new File(getDirectory(partition), "input-" + input + ".jar");
+	}
+
+	/**
+	 * @return the jar with the empty class that is kept in a partition
+	 */
+	public File getAnchor(Partition partition) {
+		return new File(getDirectory(partition), "anchor.jar");
+	}
+
+	/**
+	 * @return the ProGuard configuration that keeps the seeds and the anchor of a partition
+	 */
+	public File getSeeds(Partition partition) {
+		return new File(getDirectory(partition), "seeds.pro");
+	}
+
+	/**
+	 * Writes the input jars, anchors and seed configurations of the partitions. Inputs without entries of a partition
+	 * are not written.
+	 */
+	public void write(List<File> inputs, List<Partition> partitions) throws MojoExecutionException {
+		long start = System.currentTimeMillis();
+		Map<String, Partition> partitionOf = new HashMap<String, Partition>();
+		for (Partition partition : partitions) {
+			for (String className : partition.classes) {
+				partitionOf.put(className, partition);
+			}
+		}
+		try {
+			if (directory.exists()) {
+				FileUtils.deleteDirectory(directory);
+			}
+			for (Partition partition : partitions) {
+				getDirectory(partition).mkdirs();
+				writeAnchor(partition);
+				writeSeeds(partition);
+			}
+			for (int i = 0; i < inputs.size(); i++) {
+				splitInput(inputs.get(i), i, partitions, partitionOf);
+			}
+		} catch (IOException e) {
+			throw new MojoExecutionException("Can't write the partitions to " + directory, e);
+		}
+		log.debug("Wrote the inputs of " + partitions.size() + " partitions in " + (System.currentTimeMillis() - start)
+				+ " ms");
+	}
+
+	private void splitInput(File input, int inputIndex, List<Partition> partitions, Map<String, Partition> partitionOf)
+			throws IOException {
+		RawZipWriter[] writers = new RawZipWriter[partitions.size()];
+		try {
+			if (input.isDirectory()) {
+				splitDirectory(input, "", inputIndex, partitions, partitionOf, writers);
+			} else {
+				RawZipFile zip = new RawZipFile(input);
+				try {
+					for (RawZipFile.Entry entry : zip.getEntries()) {
+						Partition partition = getPartition(entry.getName(), partitions, partitionOf);
+						writer(partition, inputIndex, writers).copy(zip, entry);
+					}
+				} finally {
+					zip.close();
+				}
+			}
+		} finally {
+			for (RawZipWriter writer : writers) {
+				if (writer != null) {
+					writer.close();
+				}
+			}
+		}
+	}
+
+	private void splitDirectory(File dir, String prefix, int inputIndex, List<Partition> partitions,
+			Map<String, Partition> partitionOf, RawZipWriter[] writers) throws IOException {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File file : files) {
+			String name = prefix + file.getName();
+			if (file.isDirectory()) {
+				splitDirectory(file, name + "/", inputIndex, partitions, partitionOf, writers);
+			} else {
+				Partition partition = getPartition(name, partitions, partitionOf);
+				InputStream in = new FileInputStream(file);
+				try {
+					writer(partition, inputIndex, writers).add(name, in, true);
+				} finally {
+					in.close();
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the partition of a class entry, the first partition for any other entry
+	 */
+	private static Partition getPartition(String entryName, List<Partition> partitions,
+			Map<String, Partition> partitionOf) {
+		String className = ClassPathScanner.toClassName(entryName);
+		Partition partition = className == null ? null : partitionOf.get(className);
+		return partition == null ? partitions.get(0) : partition;
+	}
+
+	private RawZipWriter writer(Partition partition, int inputIndex, RawZipWriter[] writers) throws IOException {
+		if (writers[partition.index] == null) {
+			writers[partition.index] = new RawZipWriter(getInput(partition, inputIndex));
+		}
+		return writers[partition.index];
+	}
+
+	static String getAnchorName(Partition partition) {
+		return ANCHOR_PACKAGE + "Anchor" + partition.index;
+	}
+
+	private void writeAnchor(Partition partition) throws IOException {
+		RawZipWriter writer = new RawZipWriter(getAnchor(partition));
+		try {
+			writer.add(getAnchorName(partition) + ".class", new ByteArrayInputStream(emptyClass(getAnchorName(partition))),
+					false);
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * @return a public class without members that extends <code>java.lang.Object</code>
+	 */
+	static byte[] emptyClass(String name) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(0xCAFEBABE);
+		// Java 5
+		out.writeShort(0);
+		out.writeShort(49);
+		out.writeShort(5);
+		out.writeByte(1);
+		out.writeUTF(name);
+		out.writeByte(7);
+		out.writeShort(1);
+		out.writeByte(1);
+		out.writeUTF("java/lang/Object");
+		out.writeByte(7);
+		out.writeShort(3);
+		// public super, this class, super class, no interfaces, fields, methods or attributes
+		out.writeShort(0x21);
+		out.writeShort(2);
+		out.writeShort(4);
+		out.writeShort(0);
+		out.writeShort(0);
+		out.writeShort(0);
+		out.writeShort(0);
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Keeps the anchor and every class a later partition references, with all members, since the partition can't tell
+	 * which members the later partitions use or whether that code survives.
+	 */
+	private void writeSeeds(Partition partition) throws IOException {
+		BufferedWriter writer = new BufferedWriter(new FileWriter(getSeeds(partition)));
+		try {
+			writer.write("-keep class " + getAnchorName(partition).replace('/', '.'));
+			writer.newLine();
+			for (String seed : partition.seeds) {
+				writer.write("-keep class " + seed.replace('/', '.') + " { *; }");
+				writer.newLine();
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	static boolean isArchive(File file) {
+		String name = file.getName().toLowerCase();
+		for (String suffix : ARCHIVE_SUFFIXES) {
+			if (name.endsWith(suffix)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Merges the outputs of the partitions, in order, into the target jar or directory. Anchors are dropped, for
+	 * duplicate entries the first one wins.
+	 */
+	public void merge(List<File> outputs, File target) throws MojoExecutionException {
+		try {
+			if (isArchive(target)) {
+				File tmp = new File(target.getPath() + ".tmp");
+				RawZipWriter writer = new RawZipWriter(tmp);
+				try {
+					for (File output : outputs) {
+						if (!output.exists()) {
+							continue;
+						}
+						RawZipFile zip = new RawZipFile(output);
+						try {
+							for (RawZipFile.Entry entry : zip.getEntries()) {
+								if (!entry.getName().startsWith(ANCHOR_PACKAGE)) {
+									writer.copy(zip, entry);
+								}
+							}
+						} finally {
+							zip.close();
+						}
+					}
+				} finally {
+					writer.close();
+				}
+				target.delete();
+				if (!tmp.renameTo(target)) {
+					throw new MojoExecutionException("Can't replace " + target);
+				}
+			} else {
+				target.mkdirs();
+				for (File output : outputs) {
+					if (output.isDirectory()) {
+						copyDirectory(output, target);
+					}
+				}
+				FileUtils.deleteDirectory(new File(target, ANCHOR_PACKAGE));
+			}
+		} catch (IOException e) {
+			throw new MojoExecutionException("Can't merge the partitions into " + target, e);
+		}
+	}
+
+	private static void copyDirectory(File source, File target) throws IOException {
+		File[] files = source.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File file : files) {
+			File copy = new File(target, file.getName());
+			if (file.isDirectory()) {
+				copy.mkdirs();
+				copyDirectory(file, copy);
+			} else if (!copy.exists()) {
+				FileUtils.copyFile(file, copy);
+			}
+		}
+	}
+
+	/**
+	 * Concatenates the text reports of the partitions, without the lines about the anchors.
+	 */
+	public void concatenate(List<File> reports, File target) throws MojoExecutionException {
+		String anchor = ANCHOR_PACKAGE.replace('/', '.');
+		try {
+			BufferedWriter writer = new BufferedWriter(new FileWriter(target));
+			try {
+				for (File report : reports) {
+					if (!report.exists()) {
+						continue;
+					}
+					BufferedReader reader = new BufferedReader(new FileReader(report));
+					try {
+						boolean skipMembers = false;
+						String line;
+						while ((line = reader.readLine()) != null) {
+							if (line.contains(anchor)) {
+								skipMembers = true;
+								continue;
+							}
+							if (skipMembers && (line.startsWith(" ") || line.startsWith("\t"))) {
+								continue;
+							}
+							skipMembers = false;
+							writer.write(line);
+							writer.newLine();
+						}
+					} finally {
+						reader.close();
+					}
+				}
+			} finally {
+				writer.close();
+			}
+		} catch (IOException e) {
+			throw new MojoExecutionException("Can't write " + target, e);
+		}
+	}
+}
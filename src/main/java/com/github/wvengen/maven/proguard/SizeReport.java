@@ -0,0 +1,20 @@
+package com.github.wvengen.maven.proguard;
+
+import java.io.File;
+
+public class SizeReport {
+	/** fail when the output jar is larger than this, e.g. <code>2m</code> */
+	protected String maxOutputSize;
+
+	/** fail when the output jar grew by more than this percentage since the baseline */
+	protected double maxGrowthPercent = -1;
+
+	/**
+	 * the file with the baseline output size, written by the first report; by default kept per execution in the local
+	 * repository, check one into the project to share it
+	 */
+	protected File baselineFile;
+
+	/** set the baseline to the output size of this build, e.g. after an intended growth */
+	protected boolean updateBaseline;
+}
@@ -0,0 +1,567 @@
+package com.github.wvengen.maven.proguard;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Builds the size and shrink report of a ProGuard run, per package and per input (dependency). Jars are read through
+ * their central directory only and the usage and mapping files are streamed line by line, so nothing is loaded
+ * whole. Entry sizes are uncompressed sizes, the artifact sizes are file sizes. The report is written as
+ * <code>proguard_size.json</code> and <code>proguard_size.html</code>.
+ */
+public class SizeReportBuilder {
+
+	private static final String UNKNOWN = "(unknown)";
+
+	private static final String OUTPUT_SIZE = "outputSize";
+
+	private Log log;
+
+	private File directory;
+
+	private Map<String, Stats> packages = new TreeMap<String, Stats>();
+
+	private Map<String, Stats> inputs = new TreeMap<String, Stats>();
+
+	private Stats totals = new Stats("total");
+
+	/** input label by original class or resource name */
+	private Map<String, String> origins = new HashMap<String, String>();
+
+	/** original class name by obfuscated class name */
+	private Map<String, String> originalClasses = new HashMap<String, String>();
+
+	private boolean usageAvailable;
+
+	private long inputSize;
+
+	private long outputSize;
+
+	private long millis;
+
+	/**
+	 * Counters of a package, an input or the whole program.
+	 */
+	private static class Stats {
+
+		String name;
+
+		long inputBytes;
+
+		long outputBytes;
+
+		int inputClasses;
+
+		int outputClasses;
+
+		int removedClasses;
+
+		int removedMethods;
+
+		int removedFields;
+
+		int renamedClasses;
+
+		int renamedMethods;
+
+		int renamedFields;
+
+		Stats(String name) {
+			this.name = name;
+		}
+	}
+
+	public SizeReportBuilder(Log log, File directory) {
+		this.log = log;
+		this.directory = directory;
+	}
+
+	/**
+	 * Reads the inputs, the mapping and the usage output of the run, before the reports are compressed or dropped.
+	 *
+	 * @param usageFile
+	 *            the <code>-printusage</code> output, possibly gzipped, <code>null</code> if not available
+	 */
+	public void read(List<File> programFiles, File mappingFile, File usageFile) throws MojoExecutionException {
+		long start = System.currentTimeMillis();
+		try {
+			for (File programFile : programFiles) {
+				readInput(programFile);
+			}
+			if (mappingFile != null && mappingFile.exists()) {
+				readMapping(mappingFile);
+			}
+			if (usageFile != null && usageFile.exists()) {
+				usageAvailable = true;
+				readUsage(usageFile);
+			}
+		} catch (IOException e) {
+			throw new MojoExecutionException("Can't create the size report", e);
+		}
+		millis += System.currentTimeMillis() - start;
+	}
+
+	/**
+	 * Reads the output, writes the report and checks the budget.
+	 *
+	 * @param outJar
+	 *            the output as shipped, after the assembly and the startup ordering
+	 * @param budget
+	 *            the size budget
+	 * @param baselineFile
+	 *            holds the output size the growth is measured against; written by the first report and when the
+	 *            budget asks to update it
+	 */
+	public void create(File outJar, SizeReport budget, File baselineFile) throws MojoExecutionException,
+			MojoFailureException {
+		long start = System.currentTimeMillis();
+		try {
+			readOutput(outJar);
+		} catch (IOException e) {
+			throw new MojoExecutionException("Can't create the size report", e);
+		}
+		File jsonFile = new File(directory, "proguard_size.json");
+		writeJson(jsonFile);
+		writeHtml(new File(directory, "proguard_size.html"));
+		millis += System.currentTimeMillis() - start;
+		log.info("Size report: " + inputSize + " bytes in, " + outputSize + " bytes out, written to " + jsonFile
+				+ " in " + millis + " ms");
+
+		if (budget == null) {
+			return;
+		}
+		if (budget.maxOutputSize != null && outputSize > ForkScheduler.parseMemory(budget.maxOutputSize)) {
+			throw new MojoFailureException("Output jar " + outJar + " is " + outputSize
+					+ " bytes, larger than the budget of " + budget.maxOutputSize);
+		}
+		if (budget.maxGrowthPercent < 0 && !budget.updateBaseline) {
+			return;
+		}
+		long baselineSize = budget.updateBaseline ? -1 : readBaseline(baselineFile);
+		if (baselineSize <= 0) {
+			writeBaseline(baselineFile);
+			log.info("Size baseline set to " + outputSize + " bytes in " + baselineFile);
+		} else if (budget.maxGrowthPercent >= 0) {
+			double growth = (outputSize - baselineSize) * 100.0 / baselineSize;
+			if (growth > budget.maxGrowthPercent) {
+				throw new MojoFailureException("Output jar " + outJar + " grew by " + Math.round(growth)
+						+ "% from the baseline of " + baselineSize + " to " + outputSize + " bytes, more than "
+						+ budget.maxGrowthPercent + "%. Set updateBaseline if the growth is intended.");
+			}
+		}
+	}
+
+	private static long readBaseline(File baselineFile) throws MojoExecutionException {
+		if (!baselineFile.exists()) {
+			return -1;
+		}
+		Properties properties = new Properties();
+		try {
+			InputStream in = new FileInputStream(baselineFile);
+			try {
+				properties.load(in);
+			} finally {
+				in.close();
+			}
+			return Long.parseLong(properties.getProperty(OUTPUT_SIZE, "-1"));
+		} catch (IOException e) {
+			throw new MojoExecutionException("Can't read the size baseline " + baselineFile, e);
+		} catch (NumberFormatException e) {
+			throw new MojoExecutionException("Can't read the size baseline " + baselineFile, e);
+		}
+	}
+
+	private void writeBaseline(File baselineFile) throws MojoExecutionException {
+		File parent = baselineFile.getAbsoluteFile().getParentFile();
+		if (!parent.exists() && !parent.mkdirs()) {
+			throw new MojoExecutionException("Can't create " + parent);
+		}
+		Properties properties = new Properties();
+		properties.setProperty(OUTPUT_SIZE, String.valueOf(outputSize));
+		File tmp = new File(parent, baselineFile.getName() + "." + System.nanoTime() + ".tmp");
+		try {
+			OutputStream out = new FileOutputStream(tmp);
+			try {
+				properties.store(out, "ProGuard size baseline");
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			tmp.delete();
+			throw new MojoExecutionException("Can't write the size baseline " + baselineFile, e);
+		}
+		baselineFile.delete();
+		if (!tmp.renameTo(baselineFile)) {
+			tmp.delete();
+			throw new MojoExecutionException("Can't write the size baseline " + baselineFile);
+		}
+	}
+
+	private static Stats stats(Map<String, Stats> map, String name) {
+		Stats stats = map.get(name);
+		if (stats == null) {
+			stats = new Stats(name);
+			map.put(name, stats);
+		}
+		return stats;
+	}
+
+	private static String packageOfClass(String className) {
+		int lastDot = className.lastIndexOf('.');
+		return lastDot < 0 ? "" : className.substring(0, lastDot);
+	}
+
+	private static String packageOfEntry(String name) {
+		int lastSlash = name.lastIndexOf('/');
+		return lastSlash < 0 ? "" : name.substring(0, lastSlash).replace('/', '.');
+	}
+
+	private static String className(String entryName) {
+		return entryName.substring(0, entryName.length() - ".class".length()).replace('/', '.');
+	}
+
+	/**
+	 * Calls the visitor for every file entry with its name and uncompressed size.
+	 */
+	private static void visitEntries(File file, EntryVisitor visitor) throws IOException {
+		if (file.isDirectory()) {
+			visitFiles(file, "", visitor);
+		} else if (file.exists()) {
+			RawZipFile zip = new RawZipFile(file);
+			try {
+				for (RawZipFile.Entry entry : zip.getEntries()) {
+					if (!entry.isDirectory()) {
+						visitor.visit(entry.getName(), entry.getSize());
+					}
+				}
+			} finally {
+				zip.close();
+			}
+		}
+	}
+
+	private static void visitFiles(File dir, String prefix, EntryVisitor visitor) {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File file : files) {
+			if (file.isDirectory()) {
+				visitFiles(file, prefix + file.getName() + "/", visitor);
+			} else {
+				visitor.visit(prefix + file.getName(), file.length());
+			}
+		}
+	}
+
+	private interface EntryVisitor {
+		void visit(String name, long size);
+	}
+
+	private void readInput(File programFile) throws IOException {
+		final String label = programFile.getName();
+		final Stats input = stats(inputs, label);
+		visitEntries(programFile, new EntryVisitor() {
+			public void visit(String name, long size) {
+				inputSize += size;
+				boolean isClass = name.endsWith(".class");
+				String key = isClass ? className(name) : name;
+				if (!origins.containsKey(key)) {
+					origins.put(key, label);
+				}
+				Stats pkg = stats(packages, isClass ? packageOfClass(key) : packageOfEntry(name));
+				pkg.inputBytes += size;
+				input.inputBytes += size;
+				totals.inputBytes += size;
+				if (isClass) {
+					pkg.inputClasses++;
+					input.inputClasses++;
+					totals.inputClasses++;
+				}
+			}
+		});
+	}
+
+	private void readOutput(File outJar) throws IOException {
+		final boolean directory = outJar.isDirectory();
+		outputSize = directory ? 0 : outJar.length();
+		visitEntries(outJar, new EntryVisitor() {
+			public void visit(String name, long size) {
+				if (directory) {
+					outputSize += size;
+				}
+				boolean isClass = name.endsWith(".class");
+				String key = name;
+				String pkgName;
+				if (isClass) {
+					key = className(name);
+					String original = originalClasses.get(key);
+					if (original != null) {
+						key = original;
+					}
+					pkgName = packageOfClass(key);
+				} else {
+					pkgName = packageOfEntry(name);
+				}
+				Stats pkg = stats(packages, pkgName);
+				Stats input = stats(inputs, origin(key));
+				pkg.outputBytes += size;
+				input.outputBytes += size;
+				totals.outputBytes += size;
+				if (isClass) {
+					pkg.outputClasses++;
+					input.outputClasses++;
+					totals.outputClasses++;
+				}
+			}
+		});
+	}
+
+	private String origin(String key) {
+		String origin = origins.get(key);
+		return origin == null ? UNKNOWN : origin;
+	}
+
+	/**
+	 * Streams the mapping, counting renamed classes, methods and fields.
+	 */
+	private void readMapping(File mappingFile) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(mappingFile), "UTF-8"));
+		try {
+			String currentClass = null;
+			String line;
+			while ((line = reader.readLine()) != null) {
+				int arrow = line.indexOf(" -> ");
+				if (arrow < 0) {
+					continue;
+				}
+				String original = line.substring(0, arrow).trim();
+				String obfuscated = line.substring(arrow + 4).trim();
+				if (!Character.isWhitespace(line.charAt(0))) {
+					// class line: "a.B -> c.d:"
+					obfuscated = obfuscated.substring(0, obfuscated.length() - 1);
+					currentClass = original;
+					originalClasses.put(obfuscated, original);
+					if (!original.equals(obfuscated)) {
+						Stats[] stats = { count(original), stats(inputs, origin(original)), totals };
+						for (Stats s : stats) {
+							s.renamedClasses++;
+						}
+					}
+				} else if (currentClass != null) {
+					// member line: "12:14:void run(int) -> a" or "int count -> b"
+					int parenthesis = original.indexOf('(');
+					String name = parenthesis < 0 ? original : original.substring(0, parenthesis);
+					name = name.substring(name.lastIndexOf(' ') + 1);
+					if (!name.equals(obfuscated)) {
+						Stats[] stats = { count(currentClass), stats(inputs, origin(currentClass)), totals };
+						for (Stats s : stats) {
+							if (parenthesis < 0) {
+								s.renamedFields++;
+							} else {
+								s.renamedMethods++;
+							}
+						}
+					}
+				}
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * @return the package stats of a class
+	 */
+	private Stats count(String className) {
+		return stats(packages, packageOfClass(className));
+	}
+
+	/**
+	 * Streams the usage output, counting removed classes, methods and fields.
+	 */
+	private void readUsage(File usageFile) throws IOException {
+		InputStream in = new FileInputStream(usageFile);
+		if (usageFile.getName().endsWith(".gz")) {
+			in = new GZIPInputStream(in, 65536);
+		}
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"), 65536);
+		try {
+			String currentClass = null;
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.trim().length() == 0 || line.startsWith("#")) {
+					continue;
+				}
+				if (!Character.isWhitespace(line.charAt(0))) {
+					String className = line.trim();
+					if (className.endsWith(":")) {
+						// class with removed members
+						currentClass = className.substring(0, className.length() - 1);
+					} else {
+						currentClass = null;
+						Stats[] stats = { count(className), stats(inputs, origin(className)), totals };
+						for (Stats s : stats) {
+							s.removedClasses++;
+						}
+					}
+				} else if (currentClass != null) {
+					Stats[] stats = { count(currentClass), stats(inputs, origin(currentClass)), totals };
+					for (Stats s : stats) {
+						if (line.indexOf('(') >= 0) {
+							s.removedMethods++;
+						} else {
+							s.removedFields++;
+						}
+					}
+				}
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	private static List<Stats> bySize(Map<String, Stats> map) {
+		List<Stats> list = new ArrayList<Stats>(map.values());
+		Collections.sort(list, new Comparator<Stats>() {
+			public int compare(Stats a, Stats b) {
+				long difference = Math.max(b.inputBytes, b.outputBytes) - Math.max(a.inputBytes, a.outputBytes);
+				return difference > 0 ? 1 : difference < 0 ? -1 : a.name.compareTo(b.name);
+			}
+		});
+		return list;
+	}
+
+	private void writeJson(File file) throws MojoExecutionException {
+		try {
+			PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+			try {
+				out.println("{");
+				out.println("  \"inputSize\": " + inputSize + ",");
+				out.println("  \"outputSize\": " + outputSize + ",");
+				out.println("  \"totals\": " + toJson(totals) + ",");
+				writeJsonList(out, "packages", bySize(packages));
+				out.println(",");
+				writeJsonList(out, "dependencies", bySize(inputs));
+				out.println();
+				out.println("}");
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			throw new MojoExecutionException("Can't write " + file, e);
+		}
+	}
+
+	private void writeJsonList(PrintWriter out, String name, List<Stats> list) {
+		out.println("  \"" + name + "\": [");
+		for (int i = 0; i < list.size(); i++) {
+			out.print("    " + toJson(list.get(i)));
+			out.println(i < list.size() - 1 ? "," : "");
+		}
+		out.print("  ]");
+	}
+
+	/**
+	 * The removed counts are <code>null</code> when no usage output was available.
+	 */
+	private String toJson(Stats stats) {
+		return "{\"name\": \"" + escapeJson(stats.name) + "\", \"inputBytes\": " + stats.inputBytes
+				+ ", \"outputBytes\": " + stats.outputBytes + ", \"inputClasses\": " + stats.inputClasses
+				+ ", \"outputClasses\": " + stats.outputClasses + ", \"removedClasses\": "
+				+ removed(stats.removedClasses) + ", \"removedMethods\": " + removed(stats.removedMethods)
+				+ ", \"removedFields\": " + removed(stats.removedFields) + ", \"renamedClasses\": "
+				+ stats.renamedClasses + ", \"renamedMethods\": " + stats.renamedMethods + ", \"renamedFields\": "
+				+ stats.renamedFields + "}";
+	}
+
+	private String removed(int value) {
+		return usageAvailable ? String.valueOf(value) : "null";
+	}
+
+	private static String escapeJson(String value) {
+		StringBuilder result = new StringBuilder(value.length());
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				result.append('\\').append(c);
+			} else if (c < 0x20) {
+				result.append(String.format("\\u%04x", Integer.valueOf(c)));
+			} else {
+				result.append(c);
+			}
+		}
+		return result.toString();
+	}
+
+	private void writeHtml(File file) throws MojoExecutionException {
+		try {
+			PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+			try {
+				out.println("<!DOCTYPE html>");
+				out.println("<html><head><meta charset=\"UTF-8\"><title>ProGuard size report</title>");
+				out.println("<style>body{font-family:sans-serif}table{border-collapse:collapse}"
+						+ "td,th{border:1px solid #ccc;padding:2px 6px}td.n{text-align:right}</style></head><body>");
+				out.println("<h1>ProGuard size report</h1>");
+				out.println("<p>Input " + inputSize + " bytes, output " + outputSize + " bytes"
+						+ (inputSize > 0 ? " (" + Math.round(outputSize * 100.0 / inputSize) + "%)" : "") + "</p>");
+				writeHtmlTable(out, "Totals", Collections.singletonList(totals));
+				writeHtmlTable(out, "Dependencies", bySize(inputs));
+				writeHtmlTable(out, "Packages", bySize(packages));
+				out.println("</body></html>");
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			throw new MojoExecutionException("Can't write " + file, e);
+		}
+	}
+
+	private void writeHtmlTable(PrintWriter out, String title, List<Stats> list) {
+		out.println("<h2>" + title + "</h2>");
+		out.println("<table><tr><th>Name</th><th>Input bytes</th><th>Output bytes</th><th>Input classes</th>"
+				+ "<th>Output classes</th><th>Removed classes</th><th>Removed methods</th><th>Removed fields</th>"
+				+ "<th>Renamed classes</th><th>Renamed methods</th><th>Renamed fields</th></tr>");
+		for (Stats stats : list) {
+			out.println("<tr><td>" + escapeHtml(stats.name.length() == 0 ? "(default)" : stats.name) + "</td>"
+					+ cell(stats.inputBytes) + cell(stats.outputBytes) + cell(stats.inputClasses)
+					+ cell(stats.outputClasses) + removedCell(stats.removedClasses)
+					+ removedCell(stats.removedMethods) + removedCell(stats.removedFields)
+					+ cell(stats.renamedClasses) + cell(stats.renamedMethods) + cell(stats.renamedFields) + "</tr>");
+		}
+		out.println("</table>");
+	}
+
+	private static String cell(long value) {
+		return "<td class=\"n\">" + value + "</td>";
+	}
+
+	private String removedCell(int value) {
+		return usageAvailable ? cell(value) : "<td class=\"n\">-</td>";
+	}
+
+	private static String escapeHtml(String value) {
+		return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+	}
+}
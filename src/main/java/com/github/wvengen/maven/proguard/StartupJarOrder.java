@@ -0,0 +1,141 @@
+package com.github.wvengen.maven.proguard;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Reorders the entries of the output jar so that the classes of a class-load-order profile come first, in load order,
+ * right after the manifest. The profile names the original classes; they are translated through the obfuscation
+ * mapping. Entries are copied without recompression, the startup classes optionally stored uncompressed.
+ */
+public class StartupJarOrder {
+
+	/** <code>[0.012s][info][class,load] com.foo.Bar source: file:/app.jar</code> */
+	private static final Pattern UNIFIED_LOG = Pattern.compile(".*\\[class,load\\s*\\]\\s+([\\w$.]+)(\\s.*)?");
+
+	/** <code>[Loaded com.foo.Bar from file:/app.jar]</code> */
+	private static final Pattern VERBOSE_CLASS = Pattern.compile("\\[Loaded ([\\w$.]+) .*");
+
+	private static final Pattern CLASS_NAME = Pattern.compile("[\\w$]+(\\.[\\w$]+)*");
+
+	private Log log;
+
+	private StartupOrder config;
+
+	public StartupJarOrder(Log log, StartupOrder config) {
+		this.log = log;
+		this.config = config;
+	}
+
+	/**
+	 * @return the class names of the profile in load order, without duplicates
+	 */
+	static Set<String> readProfile(File profile) throws IOException {
+		Set<String> classes = new LinkedHashSet<String>();
+		BufferedReader reader = new BufferedReader(new FileReader(profile));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				Matcher matcher = UNIFIED_LOG.matcher(line);
+				if (matcher.matches()) {
+					classes.add(matcher.group(1));
+					continue;
+				}
+				matcher = VERBOSE_CLASS.matcher(line);
+				if (matcher.matches()) {
+					classes.add(matcher.group(1));
+				} else if (CLASS_NAME.matcher(line).matches()) {
+					classes.add(line);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		return classes;
+	}
+
+	/**
+	 * Reorders the jar in place.
+	 *
+	 * @param mappingFile
+	 *            the ProGuard mapping, <code>null</code> or missing if the classes were not renamed
+	 */
+	public void process(File jar, File mappingFile) throws MojoExecutionException {
+		if (config.profile == null || !config.profile.exists()) {
+			throw new MojoExecutionException("Startup profile " + config.profile + " not found");
+		}
+		long start = System.currentTimeMillis();
+		Map<String, String> obfuscated = new HashMap<String, String>();
+		if (mappingFile != null && mappingFile.exists()) {
+			obfuscated = new ProGuardObfuscationMapping(mappingFile).getClasses();
+		}
+		File reordered = new File(jar.getParentFile(), jar.getName() + ".startup");
+		int startupClasses = 0;
+		long startupBytes = 0;
+		try {
+			List<String> order = new ArrayList<String>();
+			for (String className : readProfile(config.profile)) {
+				String name = obfuscated.get(className);
+				order.add((name == null ? className : name).replace('.', '/') + ".class");
+			}
+			RawZipWriter writer = new RawZipWriter(reordered);
+			try {
+				RawZipFile zip = new RawZipFile(jar);
+				try {
+					Map<String, RawZipFile.Entry> entries = new HashMap<String, RawZipFile.Entry>();
+					for (RawZipFile.Entry entry : zip.getEntries()) {
+						entries.put(entry.getName(), entry);
+					}
+					// JarInputStream expects the manifest first
+					for (String name : new String[] { "META-INF/", "META-INF/MANIFEST.MF" }) {
+						if (entries.containsKey(name)) {
+							writer.copy(zip, entries.get(name));
+						}
+					}
+					for (String name : order) {
+						RawZipFile.Entry entry = entries.get(name);
+						if (entry != null && !writer.contains(name)) {
+							if (config.store) {
+								writer.copyStored(zip, entry);
+							} else {
+								writer.copy(zip, entry);
+							}
+							startupClasses++;
+							startupBytes += entry.getSize();
+						}
+					}
+					for (RawZipFile.Entry entry : zip.getEntries()) {
+						writer.copy(zip, entry);
+					}
+				} finally {
+					zip.close();
+				}
+			} finally {
+				writer.close();
+			}
+		} catch (IOException e) {
+			reordered.delete();
+			throw new MojoExecutionException("Can't reorder " + jar + " by the startup profile", e);
+		}
+		if (!jar.delete() || !reordered.renameTo(jar)) {
+			throw new MojoExecutionException("Can't replace " + jar);
+		}
+		log.info("Moved " + startupClasses + " startup classes (" + startupBytes + " bytes) of " + config.profile
+				+ " to the front of " + jar.getName() + (config.store ? ", stored" : "") + " in "
+				+ (System.currentTimeMillis() - start) + " ms");
+	}
+}
@@ -0,0 +1,11 @@
+package com.github.wvengen.maven.proguard;
+
+import java.io.File;
+
+public class StartupOrder {
+	/** class load order, from <code>-Xlog:class+load</code>, <code>-verbose:class</code> or one class name per line */
+	protected File profile;
+
+	/** store the startup classes uncompressed */
+	protected boolean store;
+}
@@ -7,4 +7,17 @@ public class UniqueMapping {
 	protected boolean onlySubmodules;
 
 	protected String mappingFile;
+
+	/**
+	 * how the package of every module is named: <code>index</code> by the position of the module in the reactor, with
+	 * the mappings of all modules built before applied; <code>hash</code> by a hash of its groupId and artifactId, with
+	 * only the mappings of its dependencies applied, so modules can be obfuscated in parallel
+	 */
+	protected String naming = "index";
+
+	/** compact the mapping file when it is larger than this, e.g. 4m; compaction removes older duplicate mappings */
+	protected String compactSize = "4m";
+
+	/** compact the mapping file when more than this fraction of its class mappings are duplicates */
+	protected double compactDuplicateRatio = 0.25;
 }
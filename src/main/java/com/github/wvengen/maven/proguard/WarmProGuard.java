@@ -0,0 +1,146 @@
+package com.github.wvengen.maven.proguard;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Runs ProGuard in a process that is kept running between runs, see {@link WarmProGuardLauncher}. The process is
+ * started with the first run and again when the ProGuard jar changes or the process died.
+ */
+public class WarmProGuard {
+
+	private Log log;
+
+	private File pluginClasses;
+
+	private List<String> jvmArgs;
+
+	private File proguardJar;
+
+	private Process process;
+
+	private Writer commands;
+
+	private BufferedReader output;
+
+	private int runs;
+
+	/**
+	 * @param pluginClasses
+	 *            the jar or directory with the plugin classes
+	 * @param jvmArgs
+	 *            the arguments of the JVM, e.g. <code>-Xmx1g</code>
+	 */
+	public WarmProGuard(Log log, File pluginClasses, List<String> jvmArgs) {
+		this.log = log;
+		this.pluginClasses = pluginClasses;
+		this.jvmArgs = jvmArgs;
+	}
+
+	/**
+	 * Runs ProGuard and logs its output.
+	 *
+	 * @param argsFile
+	 *            the file the arguments are passed in
+	 * @return the exit code, 0 if ProGuard succeeded
+	 */
+	public synchronized int run(File proguardJar, List<String> args, File argsFile) throws MojoExecutionException {
+		if (process != null && !proguardJar.equals(this.proguardJar)) {
+			close();
+		}
+		if (process != null && !isAlive()) {
+			log.info("The ProGuard process ended, starting a new one");
+			close();
+		}
+		try {
+			if (process == null) {
+				start(proguardJar);
+			}
+			Writer writer = new OutputStreamWriter(new FileOutputStream(argsFile), "UTF-8");
+			try {
+				for (String arg : args) {
+					writer.write(arg);
+					writer.write('\n');
+				}
+			} finally {
+				writer.close();
+			}
+			commands.write(argsFile.getAbsolutePath());
+			commands.write('\n');
+			commands.flush();
+
+			String line;
+			while ((line = output.readLine()) != null) {
+				if (line.startsWith(WarmProGuardLauncher.DONE)) {
+					runs++;
+					return Integer.parseInt(line.substring(WarmProGuardLauncher.DONE.length()).trim());
+				}
+				log.info(line);
+			}
+		} catch (IOException e) {
+			close();
+			throw new MojoExecutionException("Can't run ProGuard in " + proguardJar, e);
+		}
+		close();
+		throw new MojoExecutionException("The ProGuard process ended while running ProGuard");
+	}
+
+	/**
+	 * @return the number of runs of the current process
+	 */
+	public synchronized int getRuns() {
+		return runs;
+	}
+
+	private void start(File proguardJar) throws IOException {
+		List<String> command = new ArrayList<String>();
+		command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+		command.addAll(jvmArgs);
+		command.add("-cp");
+		command.add(proguardJar.getPath() + File.pathSeparator + pluginClasses.getPath());
+		command.add(WarmProGuardLauncher.class.getName());
+		log.info("Starting a ProGuard process with " + proguardJar);
+		process = new ProcessBuilder(command).redirectErrorStream(true).start();
+		commands = new OutputStreamWriter(process.getOutputStream(), "UTF-8");
+		output = new BufferedReader(new InputStreamReader(process.getInputStream()));
+		this.proguardJar = proguardJar;
+		runs = 0;
+	}
+
+	private boolean isAlive() {
+		try {
+			process.exitValue();
+			return false;
+		} catch (IllegalThreadStateException e) {
+			return true;
+		}
+	}
+
+	/**
+	 * Ends the ProGuard process.
+	 */
+	public synchronized void close() {
+		if (process == null) {
+			return;
+		}
+		try {
+			commands.close();
+		} catch (IOException e) {
+			// the process ended already
+		}
+		process.destroy();
+		process = null;
+		commands = null;
+		output = null;
+	}
+}
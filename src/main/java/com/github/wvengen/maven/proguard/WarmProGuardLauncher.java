@@ -0,0 +1,82 @@
+package com.github.wvengen.maven.proguard;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Main class of a ProGuard process that is kept running between runs, so that later runs start with a warm JVM. Reads
+ * the name of an arguments file (one argument per line, UTF-8) per line from standard input, runs ProGuard with those
+ * arguments and then prints {@link #DONE} and the exit code on a line of its own. Ends at the end of standard input.
+ * <p>
+ * ProGuard is called through its <code>ConfigurationParser</code> and <code>ProGuard</code> classes, as its main
+ * method would, because the main method exits the JVM. Only depends on the JDK, since the process's classpath is the
+ * ProGuard jar plus the plugin classes.
+ */
+public class WarmProGuardLauncher {
+
+	/** starts the line that ends a run */
+	public static final String DONE = "@@proguard-run-done@@ ";
+
+	private WarmProGuardLauncher() {
+	}
+
+	public static void main(String[] args) throws IOException {
+		BufferedReader in = new BufferedReader(new InputStreamReader(System.in, "UTF-8"));
+		String argsFile;
+		while ((argsFile = in.readLine()) != null) {
+			int result;
+			try {
+				run(readArgs(argsFile));
+				result = 0;
+			} catch (InvocationTargetException e) {
+				System.out.println("Error: " + e.getCause().getMessage());
+				result = 1;
+			} catch (Throwable e) {
+				System.out.println("Error: " + e);
+				result = 1;
+			}
+			System.out.flush();
+			System.err.flush();
+			System.out.println(DONE + result);
+			System.out.flush();
+		}
+	}
+
+	private static String[] readArgs(String argsFile) throws IOException {
+		List<String> args = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(argsFile), "UTF-8"));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				args.add(line);
+			}
+		} finally {
+			reader.close();
+		}
+		return args.toArray(new String[args.size()]);
+	}
+
+	private static void run(String[] args) throws Exception {
+		ClassLoader loader = WarmProGuardLauncher.class.getClassLoader();
+		Class<?> configurationClass = loader.loadClass("proguard.Configuration");
+		Object configuration = configurationClass.newInstance();
+		Constructor<?> parserConstructor = loader.loadClass("proguard.ConfigurationParser").getConstructor(
+				String[].class, Properties.class);
+		Object parser = parserConstructor.newInstance(args, System.getProperties());
+		try {
+			parser.getClass().getMethod("parse", configurationClass).invoke(parser, configuration);
+		} finally {
+			parser.getClass().getMethod("close").invoke(parser);
+		}
+		Object proguard = loader.loadClass("proguard.ProGuard").getConstructor(configurationClass).newInstance(
+				configuration);
+		proguard.getClass().getMethod("execute").invoke(proguard);
+	}
+}
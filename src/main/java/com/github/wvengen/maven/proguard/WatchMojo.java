@@ -0,0 +1,179 @@
+package com.github.wvengen.maven.proguard;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * <p>
+ * Runs ProGuard again whenever the input or the configuration changes, for local development
+ * </p>
+ *
+ * @goal watch
+ * @description Run ProGuard whenever the input changes, in a ProGuard process that is kept running
+ * @requiresDependencyResolution compile
+ * @threadSafe
+ */
+public class WatchMojo extends ProGuardMojo
+{
+
+   /**
+    * Milliseconds between two checks of the watched files for changes.
+    *
+    * @parameter property="proguard.watchInterval" default-value="500"
+    */
+   private long watchInterval;
+
+   /**
+    * Milliseconds the watched files have to stay unchanged before ProGuard runs, so that a compile that writes many
+    * classes leads to a single run.
+    *
+    * @parameter property="proguard.watchDebounce" default-value="300"
+    */
+   private long watchDebounce;
+
+   /**
+    * Further files or directories to watch besides the input (<code>injar</code>, or the classes directory with
+    * <code>packageClasses</code>) and <code>proguardInclude</code>.
+    *
+    * @parameter
+    */
+   private File[] watchFiles;
+
+   /**
+    * Ends the goal after this number of runs; 0 watches until the build is interrupted.
+    *
+    * @parameter property="proguard.watchRuns" default-value="0"
+    */
+   private int watchRuns;
+
+   public void execute() throws MojoExecutionException, MojoFailureException
+   {
+      final Log log = getLog();
+      if ((outjar == null) || outjar.equals(injar))
+      {
+         throw new MojoExecutionException("The watch goal needs an outjar that differs from the injar");
+      }
+      final String target = outjar;
+      final File targetFile = new File(outputDirectory, outjar);
+      final File stagingFile = new File(targetFile.getParentFile(), ".proguard-watch-" + targetFile.getName());
+      // outjar is relative to the output directory
+      final String staging = new File(new File(outjar).getParentFile(), stagingFile.getName()).getPath();
+      // the output is replaced on every run, it is not the artifact of this build
+      registerOutput = false;
+
+      final List<File> watched = new ArrayList<File>();
+      watched.add(getInputFile());
+      if (proguardInclude != null)
+      {
+         watched.add(proguardInclude);
+      }
+      if (watchFiles != null)
+      {
+         watched.addAll(Arrays.asList(watchFiles));
+      }
+
+      if ("proguard.ProGuard".equals(proguardMainClass))
+      {
+         final List<String> jvmArgs = new ArrayList<String>();
+         if (maxMemory != null)
+         {
+            jvmArgs.add("-Xmx" + maxMemory);
+         }
+         warmProGuard = new WarmProGuard(log, getPluginClasses(), jvmArgs);
+      }
+      try
+      {
+         final FileWatcher watcher = new FileWatcher(watched);
+         long changed = System.currentTimeMillis();
+         for (int runs = 1;; runs++)
+         {
+            runOnce(staging, stagingFile, target, targetFile, changed);
+            if ((watchRuns > 0) && (runs >= watchRuns))
+            {
+               return;
+            }
+            log.info("Watching " + watched + " for changes");
+            changed = watcher.await(watchInterval, watchDebounce);
+            log.info("Change detected, running ProGuard");
+         }
+      }
+      catch (final InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+      }
+      finally
+      {
+         outjar = target;
+         if (warmProGuard != null)
+         {
+            warmProGuard.close();
+         }
+      }
+   }
+
+   /**
+    * Runs ProGuard into the staging output and then replaces the output with it, so that the output is never seen
+    * half written. A failed run is logged and leaves the previous output in place.
+    */
+   private void runOnce(final String staging, final File stagingFile, final String target, final File targetFile,
+         final long changed) throws MojoExecutionException
+   {
+      final Log log = getLog();
+      final long start = System.currentTimeMillis();
+      outjar = staging;
+      try
+      {
+         super.execute();
+      }
+      catch (final MojoExecutionException e)
+      {
+         log.error("ProGuard failed, keeping the previous output: " + e.getMessage());
+         return;
+      }
+      catch (final MojoFailureException e)
+      {
+         log.error("ProGuard failed, keeping the previous output: " + e.getMessage());
+         return;
+      }
+      finally
+      {
+         outjar = target;
+      }
+      replace(stagingFile, targetFile);
+      final long end = System.currentTimeMillis();
+      log.info("Refreshed " + target + " " + (end - changed) + " ms after the change (ProGuard "
+            + (end - start) + " ms" + (warmProGuard != null ? ", warm run " + warmProGuard.getRuns() : "") + ")");
+   }
+
+   private static void replace(final File staging, final File target) throws MojoExecutionException
+   {
+      try
+      {
+         if (target.isDirectory())
+         {
+            FileUtils.deleteDirectory(target);
+         }
+      }
+      catch (final IOException e)
+      {
+         throw new MojoExecutionException("Can't delete " + target, e);
+      }
+      if (!staging.renameTo(target))
+      {
+         // renaming over an existing file fails on some platforms
+         target.delete();
+         if (!staging.renameTo(target))
+         {
+            throw new MojoExecutionException("Can't rename " + staging + " to " + target);
+         }
+      }
+   }
+}
@@ -0,0 +1,15 @@
+package com.github.wvengen.maven.proguard;
+
+public class Watchdog {
+	/** write thread dumps when ProGuard printed nothing for this long, e.g. <code>10m</code> */
+	protected String stallTimeout = "10m";
+
+	/** time between two thread dumps of a stalled ProGuard */
+	protected String dumpInterval = "2m";
+
+	/** maximum number of thread dumps */
+	protected int maxDumps = 5;
+
+	/** kill ProGuard when it runs longer than this, e.g. <code>1h</code>; no limit by default */
+	protected String timeout;
+}
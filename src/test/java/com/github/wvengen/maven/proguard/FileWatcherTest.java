@@ -0,0 +1,42 @@
+package com.github.wvengen.maven.proguard;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FileWatcherTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void detectsNewFilesInDirectories() throws Exception {
+        final File classes = folder.newFolder("classes");
+        FileUtils.fileWrite(new File(classes, "A.class").getPath(), "a");
+        final FileWatcher watcher = new FileWatcher(Arrays.asList(classes));
+
+        final long before = System.currentTimeMillis();
+        Thread writer = new Thread() {
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                    new File(classes, "demo").mkdir();
+                    FileUtils.fileWrite(new File(classes, "demo/B.class").getPath(), "b");
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        writer.start();
+        long changed = watcher.await(10, 100);
+        writer.join();
+
+        Assert.assertTrue(changed >= before);
+        Assert.assertTrue(System.currentTimeMillis() - changed >= 100);
+    }
+}
@@ -0,0 +1,71 @@
+package com.github.wvengen.maven.proguard;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ForkSchedulerTest {
+
+    @Test
+    public void parsesXmxNotation() throws Exception {
+        Assert.assertEquals(512L * 1024 * 1024, ForkScheduler.parseMemory("512m"));
+        Assert.assertEquals(4L * 1024 * 1024 * 1024, ForkScheduler.parseMemory("4G"));
+        Assert.assertEquals(64L * 1024, ForkScheduler.parseMemory("64k"));
+        Assert.assertEquals(1000L, ForkScheduler.parseMemory("1000"));
+    }
+
+    @Test(expected = MojoExecutionException.class)
+    public void rejectsInvalidSize() throws Exception {
+        ForkScheduler.parseMemory("lots");
+    }
+
+    @Test
+    public void formatsWholeUnits() {
+        Assert.assertEquals("2g", ForkScheduler.formatMemory(2L * 1024 * 1024 * 1024));
+        Assert.assertEquals("768m", ForkScheduler.formatMemory(768L * 1024 * 1024));
+    }
+
+    @Test
+    public void parsesPercentageOfPhysicalMemory() throws Exception {
+        long physical = ForkScheduler.getPhysicalMemory();
+        long budget = ForkScheduler.parseBudget(new SystemStreamLog(), "50%");
+        Assert.assertEquals(physical > 0 ? physical / 2 : -1, budget, 1);
+        Assert.assertEquals(3L * 1024 * 1024 * 1024, ForkScheduler.parseBudget(new SystemStreamLog(), "3g"));
+    }
+
+    @Test
+    public void admitsLargestWaitingForkFirst() throws Exception {
+        final List<Long> started = Collections.synchronizedList(new ArrayList<Long>());
+        ForkScheduler.acquire(new SystemStreamLog(), 10, 8);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (final long heap : new long[] { 5, 7 }) {
+            Thread thread = new Thread() {
+                public void run() {
+                    try {
+                        ForkScheduler.acquire(new SystemStreamLog(), 10, heap);
+                        started.add(Long.valueOf(heap));
+                        ForkScheduler.release(heap);
+                    } catch (MojoExecutionException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            };
+            thread.start();
+            threads.add(thread);
+            while (ForkScheduler.getWaiting() < threads.size()) {
+                Thread.sleep(10);
+            }
+        }
+        ForkScheduler.release(8);
+        for (Thread thread : threads) {
+            thread.join(10000);
+        }
+        Assert.assertEquals(Arrays.asList(Long.valueOf(7), Long.valueOf(5)), started);
+    }
+}
@@ -0,0 +1,47 @@
+package com.github.wvengen.maven.proguard;
+
+import java.io.File;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.tools.ant.BuildEvent;
+import org.apache.tools.ant.Project;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ForkWatchdogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void parsesDurations() throws MojoExecutionException {
+        Assert.assertEquals(250, ForkWatchdog.parseDuration("250ms"));
+        Assert.assertEquals(250, ForkWatchdog.parseDuration("250"));
+        Assert.assertEquals(90000, ForkWatchdog.parseDuration("90s"));
+        Assert.assertEquals(600000, ForkWatchdog.parseDuration("10m"));
+        Assert.assertEquals(7200000, ForkWatchdog.parseDuration("2H"));
+    }
+
+    @Test
+    public void describesLastLineAndMainThreadOfLastDump() throws Exception {
+        Watchdog config = new Watchdog();
+        config.timeout = "1h";
+        ForkWatchdog watchdog = new ForkWatchdog(config, folder.getRoot());
+        String prefix = new File(folder.getRoot(), "proguard_threads").getPath();
+        ForkLauncher.writeThreadDump(prefix, 1);
+        ForkLauncher.writeThreadDump(prefix, 2);
+
+        BuildEvent event = new BuildEvent(new Project());
+        event.setMessage("Optimizing (pass 3/5)...", Project.MSG_INFO);
+        watchdog.messageLogged(event);
+
+        String description = watchdog.describe(ForkLauncher.TIMEOUT_EXIT_CODE);
+        Assert.assertTrue(description, description.contains("halted after the timeout of 1h"));
+        Assert.assertTrue(description, description.contains("Last output: Optimizing (pass 3/5)..."));
+        Assert.assertTrue(description, description.contains("proguard_threads_01.txt"));
+        Assert.assertTrue(description, description.contains("proguard_threads_02.txt\n\"main\""));
+        Assert.assertTrue(description, description.contains("at " + getClass().getName()));
+    }
+}
@@ -0,0 +1,129 @@
+package com.github.wvengen.maven.proguard;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class IncrementalObfuscationTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private void compile(File classes, String source) throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        Assume.assumeNotNull(compiler);
+        File sourceFile = new File(folder.getRoot(), "A.java");
+        FileUtils.fileWrite(sourceFile.getPath(), source);
+        Assert.assertEquals(0, compiler.run(null, null, null, "-d", classes.getPath(), sourceFile.getPath()));
+    }
+
+    @Test
+    public void readsMappingWithoutLineNumbers() throws Exception {
+        File mapping = folder.newFile("map.txt");
+        FileUtils.fileWrite(mapping.getPath(), "demo.Helper -> demo.a:\n"
+                + "    int count -> a\n"
+                + "    12:15:java.lang.String hello(int) -> b\n"
+                + "demo.Main -> demo.Main:\n");
+        Set<String> lines = new TreeSet<String>();
+        Map<String, Set<String>> members = new HashMap<String, Set<String>>();
+        Map<String, String> classNames = IncrementalObfuscation.readMapping(mapping, lines, members);
+
+        Assert.assertEquals("demo.a", classNames.get("demo.Helper"));
+        Assert.assertEquals("demo.Main", classNames.get("demo.Main"));
+        Assert.assertTrue(lines.contains("demo.Helper java.lang.String hello(int) -> b"));
+        Assert.assertEquals(new TreeSet<String>(Arrays.asList("int count", "java.lang.String hello(int)")),
+                members.get("demo.Helper"));
+    }
+
+    @Test
+    public void plansChangedMethodBodiesOnly() throws Exception {
+        File classes = folder.newFolder("classes");
+        compile(classes, "public class A { int f() { return new B().g(); } }\n"
+                + "class B { int g() { return 1; } }\n"
+                + "class C extends B { }\n"
+                + "class D { }\n");
+        File outJar = folder.newFile("out.jar");
+        File mapping = folder.newFile("map.txt");
+        FileUtils.fileWrite(mapping.getPath(), "A -> A:\n    int f() -> f\nB -> a:\n    int g() -> a\n");
+        File stateDirectory = new File(folder.getRoot(), "state");
+        IncrementalObfuscation incremental = new IncrementalObfuscation(new SystemStreamLog(), stateDirectory, classes,
+                null, "key");
+        Assert.assertNull(incremental.plan());
+        incremental.save(outJar, mapping);
+        Assert.assertTrue(incremental.plan().getChanged().isEmpty());
+
+        // a new method body: A is processed with B, which it references, and C, which can't be a library
+        compile(classes, "public class A { int f() { return new B().g() + 1; } }\n"
+                + "class B { int g() { return 1; } }\n"
+                + "class C extends B { }\n"
+                + "class D { }\n");
+        IncrementalObfuscation.Plan plan = incremental.plan();
+        Assert.assertEquals(new TreeSet<String>(Arrays.asList("A")), plan.getChanged());
+        Assert.assertEquals(new TreeSet<String>(Arrays.asList("A", "B", "C")), plan.getProgram());
+        String seeds = FileUtils.fileRead(plan.getSeeds());
+        Assert.assertTrue(seeds.contains("-keep,allowobfuscation class B {"));
+        Assert.assertTrue(seeds.contains("    int g();"));
+
+        // a new method needs a full run
+        compile(classes, "public class A { int f() { return new B().g(); } void h() { } }\n"
+                + "class B { int g() { return 1; } }\n"
+                + "class C extends B { }\n"
+                + "class D { }\n");
+        Assert.assertNull(incremental.plan());
+
+        // so does another configuration
+        Assert.assertNull(new IncrementalObfuscation(new SystemStreamLog(), stateDirectory, classes, null, "other")
+                .plan());
+    }
+
+    @Test
+    public void plansClassesOfAnnotationsAndSignatures() throws Exception {
+        File classes = folder.newFolder("classes");
+        String source = "@E public class A { java.util.List<D> list; int f() { return %d; } }\n"
+                + "class D { }\n"
+                + "@java.lang.annotation.Retention(java.lang.annotation.RetentionPolicy.CLASS) @interface E { }\n"
+                + "class F { }\n";
+        compile(classes, String.format(source, 1));
+        File mapping = folder.newFile("map.txt");
+        FileUtils.fileWrite(mapping.getPath(), "A -> A:\n    int f() -> f\nD -> a:\nE -> b:\nF -> c:\n");
+        IncrementalObfuscation incremental = new IncrementalObfuscation(new SystemStreamLog(), new File(
+                folder.getRoot(), "state"), classes, null, "key");
+        incremental.save(folder.newFile("out.jar"), mapping);
+
+        // D only appears in the generic signature and E only in the annotation, both are renamed in A
+        compile(classes, String.format(source, 2));
+        IncrementalObfuscation.Plan plan = incremental.plan();
+        Assert.assertEquals(new TreeSet<String>(Arrays.asList("A", "D", "E")), plan.getProgram());
+    }
+
+    @Test
+    public void mergesLineNumbersOfChangedClasses() throws Exception {
+        File previous = folder.newFile("previous.txt");
+        FileUtils.fileWrite(previous.getPath(), "A -> a:\n    int x -> a\n    3:5:int f() -> a\n"
+                + "B -> b:\n    7:9:void g() -> a\n");
+        File increment = folder.newFile("increment.txt");
+        FileUtils.fileWrite(increment.getPath(), "A -> a:\n    int x -> a\n    3:8:int f() -> a\n"
+                + "B -> b:\n    7:10:void g() -> a\n");
+        File merged = new File(folder.getRoot(), "merged.txt");
+        IncrementalObfuscation.mergeMapping(previous, increment, new TreeSet<String>(Arrays.asList("A")), merged);
+
+        // B wasn't patched in the output, so its lines stay those of the previous run
+        Assert.assertEquals("A -> a:\n    int x -> a\n    3:8:int f() -> a\nB -> b:\n    7:9:void g() -> a\n",
+                FileUtils.fileRead(merged));
+    }
+}
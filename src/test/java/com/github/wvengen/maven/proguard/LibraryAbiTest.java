@@ -0,0 +1,75 @@
+package com.github.wvengen.maven.proguard;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LibraryAbiTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File compile(String name, String source) throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        Assume.assumeNotNull(compiler);
+        File dir = folder.newFolder(name);
+        File sourceFile = new File(dir, "A.java");
+        FileUtils.fileWrite(sourceFile.getPath(), source);
+        Assert.assertEquals(0, compiler.run(null, null, null, "-d", dir.getPath(), sourceFile.getPath()));
+        sourceFile.delete();
+        return dir;
+    }
+
+    private File jar(File classes) throws IOException {
+        File jar = new File(classes.getPath() + ".jar");
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar));
+        try {
+            out.putNextEntry(new ZipEntry("A.class"));
+            InputStream in = new FileInputStream(new File(classes, "A.class"));
+            try {
+                IOUtil.copy(in, out);
+            } finally {
+                in.close();
+            }
+            out.closeEntry();
+        } finally {
+            out.close();
+        }
+        return jar;
+    }
+
+    private String fingerprint(File library) throws Exception {
+        return new LibraryAbi(new SystemStreamLog(), new File(folder.getRoot(), "cache")).fingerprint(
+                Collections.singletonList(library)).get(library);
+    }
+
+    @Test
+    public void ignoresMethodBodies() throws Exception {
+        File original = compile("original", "public class A { public int f() { return 1; } }");
+        File body = compile("body", "public class A { public int f() { return 2 * 21; } }");
+        File api = compile("api", "public class A { public int f() { return 1; } public void g() { } }");
+
+        String fingerprint = fingerprint(jar(original));
+        Assert.assertEquals(fingerprint, fingerprint(jar(body)));
+        Assert.assertFalse(fingerprint.equals(fingerprint(jar(api))));
+        // a class directory has the same ABI as the jar of its classes
+        Assert.assertEquals(fingerprint, fingerprint(body));
+    }
+}
@@ -0,0 +1,82 @@
+package com.github.wvengen.maven.proguard;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.codehaus.plexus.util.IOUtil;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LibraryBundleTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File jar(String fileName, String... names) throws IOException {
+        File file = folder.newFile(fileName);
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file));
+        for (String name : names) {
+            out.putNextEntry(new ZipEntry(name));
+            out.write((fileName + ":" + name).getBytes("UTF-8"));
+            out.closeEntry();
+        }
+        out.close();
+        return file;
+    }
+
+    @Test
+    public void mergesClassesFirstJarWinsAndReusesBundleInOrder() throws Exception {
+        File first = jar("first.jar", "META-INF/MANIFEST.MF", "a/A.class", "shared/S.class");
+        File second = jar("second.jar", "b/B.class", "shared/S.class", "b/readme.txt");
+        Map<File, String> hashes = new LinkedHashMap<File, String>();
+        hashes.put(first, "2222");
+        hashes.put(second, "1111");
+
+        LibraryBundle libraryBundle = new LibraryBundle(new SystemStreamLog(), new File(folder.getRoot(), "bundles"));
+        File bundle = libraryBundle.create(hashes);
+        ZipFile zip = new ZipFile(bundle);
+        try {
+            List<String> names = new ArrayList<String>();
+            for (ZipEntry entry : Collections.list(zip.entries())) {
+                names.add(entry.getName());
+            }
+            Assert.assertEquals(Arrays.asList("a/A.class", "shared/S.class", "b/B.class"), names);
+            Assert.assertEquals("first.jar:shared/S.class",
+                    IOUtil.toString(zip.getInputStream(zip.getEntry("shared/S.class"))));
+        } finally {
+            zip.close();
+        }
+
+        // reuse doesn't touch the bundle, the resource fast path compares its modification time
+        Assert.assertTrue(bundle.setLastModified(1000000000000L));
+        Assert.assertEquals(bundle, libraryBundle.create(hashes));
+        Assert.assertEquals(1000000000000L, bundle.lastModified());
+
+        // the same libraries in another order bundle another copy of the shared class
+        Map<File, String> reordered = new LinkedHashMap<File, String>();
+        reordered.put(second, "1111");
+        reordered.put(first, "2222");
+        File reorderedBundle = libraryBundle.create(reordered);
+        Assert.assertFalse(bundle.equals(reorderedBundle));
+        zip = new ZipFile(reorderedBundle);
+        try {
+            Assert.assertEquals("second.jar:shared/S.class",
+                    IOUtil.toString(zip.getInputStream(zip.getEntry("shared/S.class"))));
+        } finally {
+            zip.close();
+        }
+    }
+}
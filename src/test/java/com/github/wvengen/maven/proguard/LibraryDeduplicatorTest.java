@@ -0,0 +1,77 @@
+package com.github.wvengen.maven.proguard;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LibraryDeduplicatorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static void jar(File file, String name) throws IOException {
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file));
+        out.putNextEntry(new ZipEntry(name));
+        out.write(name.getBytes("UTF-8"));
+        out.closeEntry();
+        out.close();
+    }
+
+    @Test
+    public void dropsIdenticalJars() throws Exception {
+        File first = folder.newFile("lib-1.0-SNAPSHOT.jar");
+        jar(first, "lib/A.class");
+        File copy = new File(folder.newFolder("other"), "lib-1.0-20140101.jar");
+        FileUtils.copyFile(first, copy);
+        File different = folder.newFile("other.jar");
+        jar(different, "other/B.class");
+
+        File cache = new File(folder.getRoot(), "cache");
+        Map<File, File> replacements = new LibraryDeduplicator(new SystemStreamLog(), cache, true, 0)
+                .process(Arrays.asList(first, copy, different));
+        Assert.assertEquals(1, replacements.size());
+        Assert.assertTrue(replacements.containsKey(copy));
+        Assert.assertNull(replacements.get(copy));
+        Assert.assertTrue(FileUtils.fileRead(new File(cache, "hashes.properties")).contains("lib-1.0-20140101.jar"));
+    }
+
+    @Test
+    public void packsLargeDirectoriesOnce() throws Exception {
+        File classes = folder.newFolder("classes");
+        for (String name : new String[] { "a/A.class", "a/B.class", "b/C.class", "b/readme.txt" }) {
+            File file = new File(classes, name);
+            file.getParentFile().mkdirs();
+            FileUtils.fileWrite(file.getPath(), name);
+        }
+        File small = folder.newFolder("small");
+        FileUtils.fileWrite(new File(small, "D.class").getPath(), "D");
+
+        File cache = new File(folder.getRoot(), "cache");
+        LibraryDeduplicator deduplicator = new LibraryDeduplicator(new SystemStreamLog(), cache, false, 3);
+        Map<File, File> replacements = deduplicator.process(Arrays.asList(classes, small));
+        Assert.assertEquals(1, replacements.size());
+        File packed = replacements.get(classes);
+        RawZipFile zip = new RawZipFile(packed);
+        try {
+            Assert.assertEquals(3, zip.getEntries().size());
+            Assert.assertEquals("a/A.class", zip.getEntries().get(0).getName());
+            Assert.assertEquals(ZipEntry.STORED, zip.getEntries().get(0).getMethod());
+        } finally {
+            zip.close();
+        }
+        long modified = packed.lastModified();
+        Assert.assertEquals(packed, deduplicator.process(Arrays.asList(classes)).get(classes));
+        Assert.assertEquals(modified, packed.lastModified());
+    }
+}
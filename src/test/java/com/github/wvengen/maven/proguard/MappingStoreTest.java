@@ -0,0 +1,86 @@
+package com.github.wvengen.maven.proguard;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MappingStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static void write(File file, String content) throws IOException {
+        Writer writer = new FileWriter(file);
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+    }
+
+    @Test
+    public void compactKeepsLastMappingSorted() throws Exception {
+        File file = folder.newFile("obfuscationMap.map");
+        write(file, "b.Second -> x.b.a:\n"
+                + "    void run() -> a\n"
+                + "a.First -> x.a.a:\n"
+                + "    void old() -> a\n"
+                + "b.Second -> x.b.a:\n"
+                + "    void run() -> b\n");
+        MappingStore store = new MappingStore(new SystemStreamLog(), file);
+        Assert.assertEquals(1.0 / 3, store.getDuplicateRatio(), 0.001);
+
+        store.compact();
+        String newline = System.getProperty("line.separator");
+        Assert.assertEquals("a.First -> x.a.a:" + newline
+                + "    void old() -> a" + newline
+                + "b.Second -> x.b.a:" + newline
+                + "    void run() -> b" + newline, FileUtils.fileRead(file));
+        Assert.assertEquals(0.0, store.getDuplicateRatio(), 0.001);
+    }
+
+    @Test
+    public void compactDropsStaleMappingOnConflict() throws Exception {
+        File file = folder.newFile("obfuscationMap.map");
+        // a.First was renamed to c.Third, which now got its obfuscated name
+        write(file, "a.First -> x.a:\n"
+                + "    void run() -> a\n"
+                + "b.Second -> x.b:\n"
+                + "c.Third -> x.a:\n"
+                + "    void run() -> a\n");
+        new MappingStore(new SystemStreamLog(), file).compact();
+        String newline = System.getProperty("line.separator");
+        Assert.assertEquals("b.Second -> x.b:" + newline
+                + "c.Third -> x.a:" + newline
+                + "    void run() -> a" + newline, FileUtils.fileRead(file));
+    }
+
+    @Test(expected = MojoFailureException.class)
+    public void strictCompactRejectsConflictingNames() throws Exception {
+        File file = folder.newFile("obfuscationMap.map");
+        write(file, "a.First -> x.a:\n"
+                + "b.Second -> x.a:\n");
+        new MappingStore(new SystemStreamLog(), file).compact(false);
+    }
+
+    @Test
+    public void appendCompactsAboveDuplicateRatio() throws Exception {
+        File file = new File(folder.getRoot(), "target/obfuscationMap.map");
+        File mapping = folder.newFile("proguard_map.txt");
+        write(mapping, "a.First -> x.a:\n    void run() -> a\n");
+        MappingStore store = new MappingStore(new SystemStreamLog(), file);
+        store.append(mapping, -1, 0.25);
+        store.append(mapping, -1, 0.25);
+        store.append(mapping, -1, 0.25);
+        Assert.assertEquals(0.0, store.getDuplicateRatio(), 0.001);
+    }
+}
@@ -0,0 +1,58 @@
+package com.github.wvengen.maven.proguard;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.apache.tools.ant.BuildEvent;
+import org.apache.tools.ant.Project;
+import org.codehaus.plexus.util.IOUtil;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MessageAggregatorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static void log(MessageAggregator aggregator, String line, int priority) {
+        BuildEvent event = new BuildEvent(new Project());
+        event.setMessage(line, priority);
+        aggregator.messageLogged(event);
+    }
+
+    @Test
+    public void normalizesClassNames() {
+        Assert.assertEquals("can't find referenced class *",
+                MessageAggregator.normalize("can't find referenced class org.bar.Baz$Inner"));
+        Assert.assertEquals("* accesses a declared field '*' dynamically",
+                MessageAggregator.normalize("com.foo.Bar accesses a declared field 'name' dynamically"));
+        Assert.assertEquals("duplicate definition of library class [*]",
+                MessageAggregator.normalize("duplicate definition of library class [java.lang.Object]"));
+    }
+
+    @Test
+    public void writesAggregatedLinesWithContinuations() throws Exception {
+        File file = new File(folder.getRoot(), "proguard_messages.txt.gz");
+        MessageAggregator aggregator = new MessageAggregator(new SystemStreamLog(), file, 20, 3);
+        log(aggregator, "Reading program jar [in.jar]", Project.MSG_INFO);
+        log(aggregator, "Warning: com.foo.Bar: can't find referenced class org.bar.Baz", Project.MSG_WARN);
+        log(aggregator, "Note: com.foo.Bar accesses a declared field 'name' dynamically", Project.MSG_INFO);
+        log(aggregator, "      Maybe this is program field 'com.foo.Bar { java.lang.String name; }'",
+                Project.MSG_INFO);
+        log(aggregator, "Warning: there were 1 unresolved references to classes or interfaces.", Project.MSG_WARN);
+        log(aggregator, "         You may need to add missing library jars or update their versions.",
+                Project.MSG_WARN);
+        aggregator.finish();
+
+        String content = IOUtil.toString(new InputStreamReader(new GZIPInputStream(new FileInputStream(file)),
+                "UTF-8"));
+        Assert.assertEquals("Warning: com.foo.Bar: can't find referenced class org.bar.Baz\n"
+                + "Note: com.foo.Bar accesses a declared field 'name' dynamically\n"
+                + "      Maybe this is program field 'com.foo.Bar { java.lang.String name; }'\n", content);
+    }
+}
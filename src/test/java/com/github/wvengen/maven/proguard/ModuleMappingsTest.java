@@ -0,0 +1,64 @@
+package com.github.wvengen.maven.proguard;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ModuleMappingsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void namesPackagesByHashAndIndex() {
+        String name = ModuleMappings.packageName("com.example", "core");
+        Assert.assertTrue(name, name.matches("[a-z]{6,}"));
+        Assert.assertEquals(name, ModuleMappings.packageName("com.example", "core"));
+        Assert.assertFalse(name.equals(ModuleMappings.packageName("com.example", "web")));
+
+        Assert.assertEquals("a", ModuleMappings.indexName(0));
+        Assert.assertEquals("z", ModuleMappings.indexName(25));
+        Assert.assertEquals("aa", ModuleMappings.indexName(26));
+        Assert.assertEquals("ab", ModuleMappings.indexName(27));
+    }
+
+    @Test
+    public void mergesModuleMappingsIntoSharedFile() throws Exception {
+        File shared = new File(folder.getRoot(), "target/obfuscationMap.map");
+        ModuleMappings mappings = new ModuleMappings(new SystemStreamLog(), new File(folder.getRoot(),
+                "target/proguard-mappings"));
+        File core = folder.newFile("core.txt");
+        FileUtils.fileWrite(core.getPath(), "com.example.Core -> x.aaa.a:");
+        File web = folder.newFile("web.txt");
+        FileUtils.fileWrite(web.getPath(), "com.example.Web -> x.bbb.a:");
+
+        mappings.store(web, "com.example", "web", shared);
+        mappings.store(core, "com.example", "core", shared);
+        String newline = System.getProperty("line.separator");
+        Assert.assertEquals("com.example.Core -> x.aaa.a:" + newline + "com.example.Web -> x.bbb.a:" + newline,
+                FileUtils.fileRead(shared));
+
+        File applied = mappings.merge(Arrays.asList(mappings.getMappingFile("com.example", "core"),
+                mappings.getMappingFile("com.example", "missing")), folder.newFile("apply.txt"));
+        Assert.assertEquals("com.example.Core -> x.aaa.a:\n", FileUtils.fileRead(applied));
+    }
+
+    @Test(expected = MojoFailureException.class)
+    public void rejectsNamesUsedByTwoModules() throws Exception {
+        ModuleMappings mappings = new ModuleMappings(new SystemStreamLog(), folder.newFolder("mappings"));
+        File core = folder.newFile("core.txt");
+        FileUtils.fileWrite(core.getPath(), "com.example.Core -> x.aaa.a:");
+        File web = folder.newFile("web.txt");
+        FileUtils.fileWrite(web.getPath(), "com.example.Web -> x.aaa.a:");
+        File shared = new File(folder.getRoot(), "obfuscationMap.map");
+        mappings.store(core, "com.example", "core", shared);
+        mappings.store(web, "com.example", "web", shared);
+    }
+}
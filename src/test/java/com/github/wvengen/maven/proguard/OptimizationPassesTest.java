@@ -0,0 +1,69 @@
+package com.github.wvengen.maven.proguard;
+
+import java.io.File;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.apache.tools.ant.BuildEvent;
+import org.apache.tools.ant.Project;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class OptimizationPassesTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static void log(OptimizationPasses passes, String line) {
+        BuildEvent event = new BuildEvent(new Project());
+        event.setMessage(line, Project.MSG_INFO);
+        passes.messageLogged(event);
+    }
+
+    @Test
+    public void learnsPassesFromCalibrationAndRecalibrates() throws Exception {
+        AdaptiveOptimization config = new AdaptiveOptimization();
+        config.minGainPercent = 10;
+        config.recalibrateEvery = 2;
+        File stateFile = new File(folder.getRoot(), "optimization/demo.properties");
+
+        OptimizationPasses passes = new OptimizationPasses(new SystemStreamLog(), config, stateFile);
+        Assert.assertEquals(5, passes.choose("key"));
+        Assert.assertTrue(passes.isCalibrating());
+        log(passes, "Optimizing...");
+        log(passes, "  Number of finalized classes:                 13");
+        log(passes, "  Number of removed instructions:              187");
+        log(passes, "Shrinking...");
+        log(passes, "  Original number of program classes: 20");
+        log(passes, "Optimizing...");
+        log(passes, "  Number of removed instructions:              45");
+        log(passes, "Optimizing...");
+        log(passes, "  Number of removed instructions:              3");
+        log(passes, "Optimizing...");
+        log(passes, "  Number of removed instructions:              30");
+        passes.finish();
+
+        // the third pass gained less than 10% of the first one
+        for (int run = 0; run < 2; run++) {
+            passes = new OptimizationPasses(new SystemStreamLog(), config, stateFile);
+            Assert.assertEquals(2, passes.choose("key"));
+            Assert.assertFalse(passes.isCalibrating());
+            passes.finish();
+        }
+        passes = new OptimizationPasses(new SystemStreamLog(), config, stateFile);
+        Assert.assertEquals(5, passes.choose("key"));
+        Assert.assertTrue(passes.isCalibrating());
+
+        passes = new OptimizationPasses(new SystemStreamLog(), config, stateFile);
+        Assert.assertEquals(5, passes.choose("other key"));
+        log(passes, "Optimizing...");
+        log(passes, "  Number of removed instructions:              10");
+        passes.finish();
+
+        // only the latest fingerprint is kept
+        passes = new OptimizationPasses(new SystemStreamLog(), config, stateFile);
+        Assert.assertEquals(1, passes.choose("other key"));
+        Assert.assertEquals(5, passes.choose("key"));
+    }
+}
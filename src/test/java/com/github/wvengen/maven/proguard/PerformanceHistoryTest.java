@@ -0,0 +1,76 @@
+package com.github.wvengen.maven.proguard;
+
+import java.io.File;
+
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PerformanceHistoryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private PerformanceBaseline config;
+
+    private File historyFile;
+
+    private File trendFile;
+
+    private void run(long proguardMillis, long peakHeap) throws Exception {
+        PerformanceHistory history = new PerformanceHistory(new SystemStreamLog(), config, historyFile, trendFile);
+        history.set(PerformanceHistory.PROGUARD_MILLIS, proguardMillis);
+        history.set(PerformanceHistory.PEAK_HEAP_BYTES, peakHeap);
+        history.finish();
+    }
+
+    @Test
+    public void recordsRunsAndFailsOnRegression() throws Exception {
+        config = new PerformanceBaseline();
+        config.failPercent = 50;
+        config.minMillis = 0;
+        config.maxHistory = 3;
+        historyFile = new File(folder.getRoot(), "history/demo.csv");
+        trendFile = new File(folder.getRoot(), "proguard_trend.json");
+
+        run(100, 1000);
+        run(120, 1000);
+        run(90, 1100);
+        run(110, 1000);
+        Assert.assertEquals(4, FileUtils.fileRead(historyFile).split("\n").length);
+        String trend = FileUtils.fileRead(trendFile);
+        Assert.assertTrue(trend, trend.contains("\"baseline\": {\"proguardMillis\": 100, \"peakHeapBytes\": 1000}"));
+
+        try {
+            run(200, 1000);
+            Assert.fail();
+        } catch (MojoFailureException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("ProGuard time 200 ms is 82% above"));
+        }
+        // the regressing run is not part of the history
+        Assert.assertFalse(FileUtils.fileRead(historyFile).contains(",200,"));
+    }
+
+    @Test
+    public void keepsColumnsThatARunDidNotSet() throws Exception {
+        config = new PerformanceBaseline();
+        historyFile = new File(folder.getRoot(), "history/demo.csv");
+        trendFile = new File(folder.getRoot(), "proguard_trend.json");
+
+        run(100, 1000);
+        // e.g. a run on a worker process, which reports no peak heap
+        PerformanceHistory history = new PerformanceHistory(new SystemStreamLog(), config, historyFile, trendFile);
+        history.set(PerformanceHistory.PROGUARD_MILLIS, 110);
+        history.set("queueMillis", 5);
+        history.finish();
+
+        String[] lines = FileUtils.fileRead(historyFile).split("\n");
+        Assert.assertEquals("timestamp,proguardMillis,peakHeapBytes,queueMillis", lines[0]);
+        Assert.assertTrue(lines[1], lines[1].endsWith(",100,1000,"));
+        Assert.assertTrue(lines[2], lines[2].endsWith(",110,,5"));
+    }
+}
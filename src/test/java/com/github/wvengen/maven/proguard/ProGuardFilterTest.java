@@ -0,0 +1,45 @@
+package com.github.wvengen.maven.proguard;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ProGuardFilterTest {
+
+    @Test
+    public void singleWildcardStopsAtSeparator() {
+        ProGuardFilter filter = new ProGuardFilter("com.foo.*", '.');
+        Assert.assertTrue(filter.matches("com.foo.Bar"));
+        Assert.assertFalse(filter.matches("com.foo.bar.Baz"));
+    }
+
+    @Test
+    public void doubleWildcardCrossesSeparator() {
+        ProGuardFilter filter = new ProGuardFilter("com.foo.**", '.');
+        Assert.assertTrue(filter.matches("com.foo.bar.Baz"));
+        Assert.assertFalse(filter.matches("org.foo.Bar"));
+    }
+
+    @Test
+    public void firstMatchDecides() {
+        ProGuardFilter filter = new ProGuardFilter("!com.foo.internal.**,com.foo.**", '.');
+        Assert.assertFalse(filter.matches("com.foo.internal.Impl"));
+        Assert.assertTrue(filter.matches("com.foo.Api"));
+        Assert.assertFalse(filter.matches("org.bar.Api"));
+    }
+
+    @Test
+    public void unmatchedAcceptedAfterNegation() {
+        ProGuardFilter filter = new ProGuardFilter("!**.gif,!META-INF/maven/**", '/');
+        Assert.assertFalse(filter.matches("images/logo.gif"));
+        Assert.assertFalse(filter.matches("META-INF/maven/pom.xml"));
+        Assert.assertTrue(filter.matches("com/foo/Bar.class"));
+    }
+
+    @Test
+    public void questionMarkMatchesSingleCharacter() {
+        ProGuardFilter filter = new ProGuardFilter("a?c", '/');
+        Assert.assertTrue(filter.matches("abc"));
+        Assert.assertFalse(filter.matches("a/c"));
+        Assert.assertFalse(filter.matches("abbc"));
+    }
+}
@@ -0,0 +1,66 @@
+package com.github.wvengen.maven.proguard;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.jar.JarFile;
+
+import org.apache.maven.archiver.MavenArchiveConfiguration;
+import org.apache.maven.model.Model;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.archiver.jar.JarArchiver;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.logging.console.ConsoleLogger;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ProGuardMojoTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void packagesClassesWithTheFixedManifest() throws Exception {
+        File classes = folder.newFolder("classes");
+        new File(classes, "META-INF").mkdir();
+        new File(classes, "demo").mkdir();
+        FileUtils.fileWrite(new File(classes, "demo/a.class").getPath(), "a");
+        // as FixAfterObfuscation leaves it
+        FileUtils.fileWrite(new File(classes, "META-INF/MANIFEST.MF").getPath(),
+                "Manifest-Version: 1.0\nMain-Class: demo.a\n");
+        File unfixed = folder.newFile("MANIFEST.MF");
+        FileUtils.fileWrite(unfixed.getPath(), "Manifest-Version: 1.0\nMain-Class: demo.Main\n");
+
+        Model model = new Model();
+        model.setGroupId("demo");
+        model.setArtifactId("app");
+        model.setVersion("1.0");
+        // the archiver copies the project, which needs the artifacts and repositories of a built project
+        MavenProject project = new MavenProject(model);
+        project.setPluginArtifacts(new HashSet());
+        project.setReportArtifacts(new HashSet());
+        project.setExtensionArtifacts(new HashSet());
+        project.setRemoteArtifactRepositories(new ArrayList());
+        project.setPluginArtifactRepositories(new ArrayList());
+        MavenArchiveConfiguration archive = new MavenArchiveConfiguration();
+        archive.setAddMavenDescriptor(false);
+        archive.setManifestFile(unfixed);
+        JarArchiver jarArchiver = new JarArchiver();
+        jarArchiver.enableLogging(new ConsoleLogger(Logger.LEVEL_WARN, "archiver"));
+        File jar = new File(folder.getRoot(), "app.jar");
+        ProGuardMojo.packageClasses(new SystemStreamLog(), jarArchiver, project, archive, classes, jar);
+
+        JarFile jarFile = new JarFile(jar);
+        try {
+            Assert.assertNotNull(jarFile.getEntry("demo/a.class"));
+            Assert.assertEquals("demo.a", jarFile.getManifest().getMainAttributes().getValue("Main-Class"));
+        } finally {
+            jarFile.close();
+        }
+        Assert.assertEquals(unfixed, archive.getManifestFile());
+    }
+}
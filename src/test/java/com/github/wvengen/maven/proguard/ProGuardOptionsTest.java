@@ -0,0 +1,28 @@
+package com.github.wvengen.maven.proguard;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ProGuardOptionsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void joinsFilterListsWithSpaces() throws Exception {
+        File include = folder.newFile("proguard.conf");
+        FileUtils.fileWrite(include.getPath(), "-dontwarn c.** ,\n    'd.**' # continued list\n-dontnote\n");
+        ProGuardOptions options = new ProGuardOptions(new String[] { "-dontwarn a.**, b.**", "-keep public class *" },
+                include);
+
+        Assert.assertEquals(Arrays.asList("a.**,b.**", "c.**,d.**"), options.getFilters("-dontwarn"));
+        Assert.assertEquals(Arrays.asList(""), options.getFilters("-dontnote"));
+        Assert.assertTrue(options.hasOption("-keep"));
+    }
+}
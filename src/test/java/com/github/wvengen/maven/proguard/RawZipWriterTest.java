@@ -0,0 +1,72 @@
+package com.github.wvengen.maven.proguard;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Enumeration;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RawZipWriterTest {
+
+    @Test
+    public void copiesRawEntriesAndAddsNewOnes() throws IOException {
+        File source = File.createTempFile("source", ".jar");
+        File target = File.createTempFile("target", ".jar");
+        try {
+            ZipOutputStream out = new ZipOutputStream(new FileOutputStream(source));
+            putEntry(out, "com/foo/Bar.class", "class bytes");
+            putEntry(out, "images/logo.png", "png bytes");
+            out.close();
+
+            RawZipWriter writer = new RawZipWriter(target);
+            RawZipFile zip = new RawZipFile(source);
+            for (RawZipFile.Entry entry : zip.getEntries()) {
+                Assert.assertTrue(writer.copy(zip, entry));
+            }
+            Assert.assertFalse(writer.copy(zip, zip.getEntries().get(0)));
+            zip.close();
+            writer.add("stored.txt", new ByteArrayInputStream("stored".getBytes("UTF-8")), true);
+            writer.close();
+
+            ZipFile result = new ZipFile(target);
+            Assert.assertEquals(3, result.size());
+            Assert.assertEquals("class bytes", read(result, "com/foo/Bar.class"));
+            Assert.assertEquals("png bytes", read(result, "images/logo.png"));
+            Assert.assertEquals("stored", read(result, "stored.txt"));
+            Assert.assertEquals(ZipEntry.STORED, result.getEntry("stored.txt").getMethod());
+            for (Enumeration<? extends ZipEntry> entries = result.entries(); entries.hasMoreElements();) {
+                Assert.assertNotNull(entries.nextElement().getName());
+            }
+            result.close();
+        } finally {
+            source.delete();
+            target.delete();
+        }
+    }
+
+    private static void putEntry(ZipOutputStream out, String name, String content) throws IOException {
+        out.putNextEntry(new ZipEntry(name));
+        out.write(content.getBytes("UTF-8"));
+        out.closeEntry();
+    }
+
+    private static String read(ZipFile zip, String name) throws IOException {
+        InputStream in = zip.getInputStream(zip.getEntry(name));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        in.close();
+        return out.toString("UTF-8");
+    }
+}
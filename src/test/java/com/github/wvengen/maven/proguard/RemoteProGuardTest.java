@@ -0,0 +1,104 @@
+package com.github.wvengen.maven.proguard;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RemoteProGuardTest {
+
+    private static final String TARGET = new File("/p/target").getPath();
+
+    private static final String SEP = File.separator;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Stands in for ProGuard in a job, with only the JDK on its class path: copies the input file to the output file.
+     */
+    public static class Copy {
+        public static void main(String[] args) throws Exception {
+            InputStream in = new FileInputStream(args[0]);
+            FileOutputStream out = new FileOutputStream(args[1]);
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            in.close();
+            out.close();
+        }
+    }
+
+    @Test
+    public void replacesWholePathsOnly() {
+        String jar = TARGET + SEP + "app.jar";
+        Assert.assertEquals("'${input.0}'(!**.png)",
+                RemoteProGuard.replacePath("'" + jar + "'(!**.png)", jar, "${input.0}", false));
+        Assert.assertEquals("'" + jar + ".bak'",
+                RemoteProGuard.replacePath("'" + jar + ".bak'", jar, "${input.0}", false));
+        Assert.assertEquals("'" + TARGET + "2" + SEP + "a.jar'",
+                RemoteProGuard.replacePath("'" + TARGET + "2" + SEP + "a.jar'", TARGET, "${output}", true));
+        Assert.assertEquals("'${output}" + SEP + "a.jar'",
+                RemoteProGuard.replacePath("'" + TARGET + SEP + "a.jar'", TARGET, "${output}", true));
+    }
+
+    @Test
+    public void collectsOutputDirectories() {
+        Set<String> directories = new TreeSet<String>();
+        RemoteProGuard.addOutputDirectories("'${output}/proguard-default/proguard_map.txt'", directories);
+        RemoteProGuard.addOutputDirectories("'${output}/app-small.jar'", directories);
+        Assert.assertEquals(new TreeSet<String>(Collections.singleton("proguard-default")), directories);
+    }
+
+    @Test
+    public void runsJobOnLocalWorker() throws Exception {
+        File jar = folder.newFile("copy.jar");
+        String entry = Copy.class.getName().replace('.', '/') + ".class";
+        ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(jar));
+        zip.putNextEntry(new ZipEntry(entry));
+        InputStream in = Copy.class.getClassLoader().getResourceAsStream(entry);
+        IOUtil.copy(in, zip);
+        in.close();
+        zip.close();
+        File input = folder.newFile("in.txt");
+        FileUtils.fileWrite(input.getPath(), "job input");
+        File output = folder.newFolder("out");
+
+        RemoteWorkers config = new RemoteWorkers();
+        config.local = 1;
+        int exitCode = new RemoteProGuard(new SystemStreamLog(), config, folder.newFolder("cache")).run(
+                ProGuardMojo.getPluginClasses(), jar, Copy.class.getName(),
+                Collections.<String> emptyList(),
+                Arrays.asList(input.getPath(), new File(output, "copy.txt").getPath()),
+                new ArrayList<File>(Collections.singleton(input)), output);
+
+        Assert.assertEquals(0, exitCode);
+        Assert.assertEquals("job input", FileUtils.fileRead(new File(output, "copy.txt")));
+        // without a configured token the local worker requires the generated one
+        String url = RemoteProGuard.getLocalUrls().get(0);
+        HttpURLConnection connection = (HttpURLConnection) new URL(url + "blobs/").openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.getOutputStream().close();
+        Assert.assertEquals(403, connection.getResponseCode());
+    }
+}
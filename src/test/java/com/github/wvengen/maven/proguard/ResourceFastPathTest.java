@@ -0,0 +1,72 @@
+package com.github.wvengen.maven.proguard;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ResourceFastPathTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void patchedOutputIsTheBaseOfTheNextRun() throws Exception {
+        File classes = folder.newFolder("classes");
+        FileUtils.fileWrite(new File(classes, "A.class").getPath(), "class");
+        FileUtils.fileWrite(new File(classes, "a.txt").getPath(), "a1");
+        FileUtils.fileWrite(new File(classes, "b.txt").getPath(), "b1");
+        File outJar = new File(folder.getRoot(), "out.jar");
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(outJar));
+        putEntry(out, "A.class", "obfuscated");
+        putEntry(out, "a.txt", "a1");
+        putEntry(out, "b.txt", "b1");
+        out.close();
+        File mapping = folder.newFile("map.txt");
+        File stateDirectory = new File(folder.getRoot(), "state");
+        ResourceFastPath fastPath = new ResourceFastPath(new SystemStreamLog(), stateDirectory, classes, null,
+                new ProGuardOptions(null, null), "key");
+        fastPath.save(outJar, mapping);
+
+        FileUtils.fileWrite(new File(classes, "a.txt").getPath(), "a2");
+        new File(classes, "b.txt").delete();
+        Assert.assertTrue(fastPath.apply(outJar, mapping));
+        assertOutput(outJar);
+
+        // nothing changed since the patch: the patched output is reused, not the one of the full run
+        Assert.assertTrue(fastPath.apply(outJar, mapping));
+        assertOutput(outJar);
+
+        // without the stored output ProGuard runs
+        FileUtils.fileWrite(new File(classes, "a.txt").getPath(), "a3");
+        new File(stateDirectory, "output.jar").delete();
+        Assert.assertFalse(fastPath.apply(outJar, mapping));
+    }
+
+    private static void assertOutput(File outJar) throws IOException {
+        ZipFile zip = new ZipFile(outJar);
+        try {
+            Assert.assertEquals("obfuscated", IOUtil.toString(zip.getInputStream(zip.getEntry("A.class"))));
+            Assert.assertEquals("a2", IOUtil.toString(zip.getInputStream(zip.getEntry("a.txt"))));
+            Assert.assertNull(zip.getEntry("b.txt"));
+        } finally {
+            zip.close();
+        }
+    }
+
+    private static void putEntry(ZipOutputStream out, String name, String content) throws IOException {
+        out.putNextEntry(new ZipEntry(name));
+        out.write(content.getBytes("UTF-8"));
+        out.closeEntry();
+    }
+}
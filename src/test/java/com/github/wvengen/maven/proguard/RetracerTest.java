@@ -0,0 +1,72 @@
+package com.github.wvengen.maven.proguard;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RetracerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Retracer createRetracer() throws Exception {
+        File mapping = folder.newFile("proguard_map.txt");
+        write(mapping, "demo.Main -> demo.Main:\n"
+                + "    void main(java.lang.String[]) -> main\n"
+                + "demo.Helper -> demo.a:\n"
+                + "    java.lang.String name -> a\n"
+                + "    12:14:void first() -> b\n"
+                + "    20:22:void second(int) -> b\n"
+                + "    java.lang.String upper(java.lang.String) -> a\n");
+        return new Retracer(MappingIndex.open(mapping));
+    }
+
+    private static void write(File file, String content) throws IOException {
+        Writer writer = new FileWriter(file);
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+    }
+
+    @Test
+    public void restoresFramesUsingLineNumbers() throws Exception {
+        Retracer retracer = createRetracer();
+        Assert.assertEquals("\tat demo.Helper.second(SourceFile:21)", retracer.retraceLine("\tat demo.a.b(SourceFile:21)"));
+        Assert.assertEquals("\tat demo.Helper.first(SourceFile:13)", retracer.retraceLine("\tat demo.a.b(SourceFile:13)"));
+        Assert.assertEquals("\tat demo.Helper.first|second(Unknown Source)",
+                retracer.retraceLine("\tat demo.a.b(Unknown Source)"));
+        Assert.assertEquals("\tat demo.Helper.upper(SourceFile)", retracer.retraceLine("\tat demo.a.a(SourceFile)"));
+    }
+
+    @Test
+    public void restoresClassNamesInMessages() throws Exception {
+        Retracer retracer = createRetracer();
+        Assert.assertEquals("Caused by: demo.Helper: boom", retracer.retraceLine("Caused by: demo.a: boom"));
+        Assert.assertEquals("unrelated.text here", retracer.retraceLine("unrelated.text here"));
+    }
+
+    @Test
+    public void retracesFilesInOrder() throws Exception {
+        Retracer retracer = createRetracer();
+        File input = folder.newFile("app.log");
+        StringBuilder log = new StringBuilder();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 50000; i++) {
+            log.append(i).append(" at demo.a.b(SourceFile:21)\n");
+            expected.append(i).append(" at demo.Helper.second(SourceFile:21)\n");
+        }
+        write(input, log.toString());
+        File output = new File(folder.getRoot(), "app.log.retraced");
+        retracer.retrace(input, output, "UTF-8", 4);
+        Assert.assertEquals(expected.toString(), FileUtils.fileRead(output));
+    }
+}
@@ -0,0 +1,125 @@
+package com.github.wvengen.maven.proguard;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ShrinkPartitionsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static int componentOf(List<int[]> components, int node) {
+        for (int i = 0; i < components.size(); i++) {
+            for (int member : components.get(i)) {
+                if (member == node) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    @Test
+    public void componentsComeAfterTheirReferences() {
+        // 0 <-> 1 -> 2 -> 3, 4 alone
+        int[][] edges = { { 1 }, { 0, 2 }, { 3 }, {}, {} };
+        List<int[]> components = ShrinkPartitions.components(edges);
+
+        Assert.assertEquals(4, components.size());
+        Assert.assertEquals(componentOf(components, 0), componentOf(components, 1));
+        Assert.assertTrue(componentOf(components, 3) < componentOf(components, 2));
+        Assert.assertTrue(componentOf(components, 2) < componentOf(components, 0));
+    }
+
+    @Test
+    public void partitionsOnlyReferenceEarlierPartitions() throws Exception {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        Assume.assumeNotNull(compiler);
+        File classes = folder.newFolder("classes");
+        File source = new File(folder.getRoot(), "A.java");
+        FileUtils.fileWrite(source.getPath(), "public class A { B b; C c; }\n"
+                + "class B { D d; }\n"
+                + "class C { java.util.List<E> items; }\n"
+                + "class D { }\n"
+                + "class E { }\n"
+                + "class F { G g; }\n"
+                + "class G { F f; }\n");
+        Assert.assertEquals(0, compiler.run(null, null, null, "-d", classes.getPath(), source.getPath()));
+        FileUtils.fileWrite(new File(classes, "readme.txt").getPath(), "resource");
+
+        ShrinkPartitions partitioner = new ShrinkPartitions(new SystemStreamLog(), folder.newFolder("partitions"));
+        List<ShrinkPartitions.Partition> partitions = partitioner.partition(Collections.singletonList(classes), 3);
+
+        Assert.assertEquals(3, partitions.size());
+        Map<String, Integer> partitionOf = new HashMap<String, Integer>();
+        for (ShrinkPartitions.Partition partition : partitions) {
+            for (String className : partition.getClasses()) {
+                partitionOf.put(className, Integer.valueOf(partition.getIndex()));
+            }
+        }
+        Assert.assertEquals(7, partitionOf.size());
+        // referenced classes, also through generic signatures, and cycles stay in the same or an earlier partition
+        Assert.assertTrue(partitionOf.get("B").intValue() <= partitionOf.get("A").intValue());
+        Assert.assertTrue(partitionOf.get("D").intValue() <= partitionOf.get("B").intValue());
+        Assert.assertTrue(partitionOf.get("E").intValue() <= partitionOf.get("C").intValue());
+        Assert.assertEquals(partitionOf.get("F"), partitionOf.get("G"));
+        for (ShrinkPartitions.Partition partition : partitions) {
+            for (String seed : partition.getSeeds()) {
+                Assert.assertEquals(Integer.valueOf(partition.getIndex()), partitionOf.get(seed));
+            }
+        }
+
+        partitioner.write(Collections.singletonList(classes), partitions);
+        List<File> outputs = new ArrayList<File>();
+        Set<String> written = new TreeSet<String>();
+        for (ShrinkPartitions.Partition partition : partitions) {
+            File input = partitioner.getInput(partition, 0);
+            Assert.assertTrue(partitioner.getAnchor(partition).exists());
+            Assert.assertTrue(FileUtils.fileRead(partitioner.getSeeds(partition)).startsWith("-keep class "));
+            outputs.add(input);
+            outputs.add(partitioner.getAnchor(partition));
+            RawZipFile zip = new RawZipFile(input);
+            try {
+                for (RawZipFile.Entry entry : zip.getEntries()) {
+                    Assert.assertTrue(written.add(entry.getName()));
+                }
+            } finally {
+                zip.close();
+            }
+        }
+        Assert.assertTrue(written.contains("readme.txt"));
+
+        File merged = new File(folder.getRoot(), "merged.jar");
+        partitioner.merge(outputs, merged);
+        Set<String> mergedEntries = new TreeSet<String>();
+        RawZipFile zip = new RawZipFile(merged);
+        try {
+            for (RawZipFile.Entry entry : zip.getEntries()) {
+                mergedEntries.add(entry.getName());
+            }
+        } finally {
+            zip.close();
+        }
+        Assert.assertEquals(written, mergedEntries);
+        Assert.assertEquals(new TreeSet<String>(Arrays.asList("A.class", "B.class", "C.class", "D.class", "E.class",
+                "F.class", "G.class", "readme.txt")), mergedEntries);
+    }
+}
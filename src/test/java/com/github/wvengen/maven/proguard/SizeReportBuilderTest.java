@@ -0,0 +1,115 @@
+package com.github.wvengen.maven.proguard;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.StringUtils;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SizeReportBuilderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static void write(File file, String content) throws IOException {
+        Writer writer = new FileWriter(file);
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static void jar(File file, String... names) throws IOException {
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file));
+        for (String name : names) {
+            out.putNextEntry(new ZipEntry(name));
+            out.write(new byte[100]);
+            out.closeEntry();
+        }
+        out.close();
+    }
+
+    @Test
+    public void attributesClassesToPackagesAndDependencies() throws Exception {
+        File in = folder.newFile("app.jar");
+        jar(in, "com/app/Main.class", "com/app/Unused.class");
+        File lib = folder.newFile("lib.jar");
+        jar(lib, "org/lib/Util.class");
+        File out = folder.newFile("app-small.jar");
+        jar(out, "com/app/Main.class", "a/a.class");
+        File mapping = folder.newFile("proguard_map.txt");
+        write(mapping, "com.app.Main -> com.app.Main:\n"
+                + "    void main(java.lang.String[]) -> main\n"
+                + "    int count -> a\n"
+                + "org.lib.Util -> a.a:\n"
+                + "    12:14:void run() -> a\n");
+        File usage = folder.newFile("proguard_usage.txt");
+        write(usage, "com.app.Unused\n"
+                + "org.lib.Util:\n"
+                + "    public void unused()\n"
+                + "    private int field\n");
+
+        SizeReportBuilder builder = new SizeReportBuilder(new SystemStreamLog(), folder.getRoot());
+        builder.read(Arrays.asList(in, lib), mapping, usage);
+        builder.create(out, new SizeReport(), new File(folder.getRoot(), "baseline.properties"));
+
+        String json = FileUtils.fileRead(new File(folder.getRoot(), "proguard_size.json"));
+        Assert.assertTrue(json, json.contains("\"outputSize\": " + out.length()));
+        Assert.assertTrue(json, json.contains("{\"name\": \"com.app\", \"inputBytes\": 200, \"outputBytes\": 100,"
+                + " \"inputClasses\": 2, \"outputClasses\": 1, \"removedClasses\": 1, \"removedMethods\": 0,"
+                + " \"removedFields\": 0, \"renamedClasses\": 0, \"renamedMethods\": 0, \"renamedFields\": 1}"));
+        Assert.assertTrue(json, json.contains("{\"name\": \"lib.jar\", \"inputBytes\": 100, \"outputBytes\": 100,"
+                + " \"inputClasses\": 1, \"outputClasses\": 1, \"removedClasses\": 0, \"removedMethods\": 1,"
+                + " \"removedFields\": 1, \"renamedClasses\": 1, \"renamedMethods\": 1, \"renamedFields\": 0}"));
+        Assert.assertTrue(new File(folder.getRoot(), "proguard_size.html").exists());
+    }
+
+    private void report(File in, File out, SizeReport budget) throws Exception {
+        SizeReportBuilder builder = new SizeReportBuilder(new SystemStreamLog(), folder.getRoot());
+        builder.read(Arrays.asList(in), null, null);
+        builder.create(out, budget, new File(folder.getRoot(), "baseline.properties"));
+    }
+
+    @Test
+    public void failsWhenOutputGrewBeyondBaseline() throws Exception {
+        File in = folder.newFile("app.jar");
+        jar(in, "com/app/Main.class");
+        // the size of a directory output is the sum of its file sizes
+        File out = folder.newFolder("classes");
+        File main = new File(out, "Main.class");
+        FileUtils.fileWrite(main.getPath(), StringUtils.repeat("x", 1000));
+        SizeReport budget = new SizeReport();
+        budget.maxGrowthPercent = 10;
+        report(in, out, budget);
+
+        FileUtils.fileWrite(main.getPath(), StringUtils.repeat("x", 1080));
+        report(in, out, budget);
+
+        // 7% more than the previous report, but 16% more than the baseline
+        FileUtils.fileWrite(main.getPath(), StringUtils.repeat("x", 1160));
+        try {
+            report(in, out, budget);
+            Assert.fail();
+        } catch (MojoFailureException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("grew by 16% from the baseline of 1000"));
+        }
+
+        budget.updateBaseline = true;
+        report(in, out, budget);
+        budget.updateBaseline = false;
+        report(in, out, budget);
+    }
+}
@@ -0,0 +1,86 @@
+package com.github.wvengen.maven.proguard;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class StartupJarOrderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static void write(File file, String content) throws IOException {
+        Writer writer = new FileWriter(file);
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+    }
+
+    @Test
+    public void movesProfiledClassesBehindManifest() throws Exception {
+        File jar = folder.newFile("app.jar");
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar));
+        for (String name : new String[] { "META-INF/MANIFEST.MF", "a/a.class", "a/b.class", "com/app/Main.class",
+                "config.properties" }) {
+            out.putNextEntry(new ZipEntry(name));
+            out.write(name.getBytes("UTF-8"));
+            out.closeEntry();
+        }
+        out.close();
+        File mapping = folder.newFile("proguard_map.txt");
+        write(mapping, "com.app.Main -> com.app.Main:\n"
+                + "com.app.Service -> a.a:\n"
+                + "com.app.Helper -> a.b:\n");
+        StartupOrder config = new StartupOrder();
+        config.profile = folder.newFile("classload.log");
+        config.store = true;
+        write(config.profile, "[0.010s][info][class,load] java.lang.Object source: shared objects file\n"
+                + "[0.052s][info][class,load] com.app.Main source: file:/app.jar\n"
+                + "[0.053s][info][class,load] com.app.Helper source: file:/app.jar\n"
+                + "[0.054s][info][class,load] com.app.Main source: file:/app.jar\n");
+
+        new StartupJarOrder(new SystemStreamLog(), config).process(jar, mapping);
+
+        RawZipFile zip = new RawZipFile(jar);
+        List<String> names = new ArrayList<String>();
+        try {
+            for (RawZipFile.Entry entry : zip.getEntries()) {
+                names.add(entry.getName());
+                if (entry.getName().endsWith(".class")) {
+                    Assert.assertEquals(entry.getName(), entry.getName().equals("a/a.class") ? ZipEntry.DEFLATED
+                            : ZipEntry.STORED, entry.getMethod());
+                }
+            }
+        } finally {
+            zip.close();
+        }
+        Assert.assertEquals(Arrays.asList("META-INF/MANIFEST.MF", "com/app/Main.class", "a/b.class", "a/a.class",
+                "config.properties"), names);
+    }
+
+    @Test
+    public void readsVerboseClassOutput() throws Exception {
+        File profile = folder.newFile("classload.log");
+        write(profile, "[Opened /jdk/jre/lib/rt.jar]\n"
+                + "[Loaded java.lang.Object from /jdk/jre/lib/rt.jar]\n"
+                + "[Loaded com.app.Main from file:/app.jar]\n"
+                + "com.app.Extra\n");
+        Assert.assertEquals(Arrays.asList("java.lang.Object", "com.app.Main", "com.app.Extra"),
+                new ArrayList<String>(StartupJarOrder.readProfile(profile)));
+    }
+}